@@ -12,6 +12,30 @@ public final class ActiveMQBackendConstants {
 	 */
 	public static final String EVENT_TOPIC = "jepperscore.events";
 
+	/**
+	 * This is the message property holding the content type of the encoded
+	 * message.
+	 */
+	public static final String CONTENT_TYPE_PROPERTY = "contentType";
+
+	/**
+	 * This is the message property holding the
+	 * {@link jepperscore.dao.MessageType} of the message, for selectors.
+	 */
+	public static final String MESSAGE_TYPE_PROPERTY = "messageType";
+
+	/**
+	 * This is the message property holding the session id of the message,
+	 * for selectors.
+	 */
+	public static final String SESSION_ID_PROPERTY = "sessionId";
+
+	/**
+	 * This is the message property holding the name of the game the message
+	 * is from, for selectors.
+	 */
+	public static final String GAME_PROPERTY = "game";
+
 	/**
 	 * Hide constructor.
 	 */
@@ -0,0 +1,255 @@
+package jepperscore.backends.activemq;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * This class parses the ActiveMQ setup string. The setup string is the broker
+ * URL, optionally followed by semicolon separated options:
+ * <code>tcp://localhost:61616;codec=binary;delivery=nonpersistent;commitCount=100</code>.
+ *
+ * <p>
+ * A <code>vm://</code> broker URL starts an {@link EmbeddedBroker} in this JVM,
+ * optionally listening for remote clients on a connector:
+ * <code>vm://jepperscore;connector=tcp://0.0.0.0:61616</code>.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class ActiveMQConfiguration {
+
+	/**
+	 * The option selecting the codec used to send messages (xml, json or
+	 * binary).
+	 */
+	public static final String CODEC_OPTION = "codec";
+
+	/**
+	 * The option selecting the delivery mode of sent messages
+	 * ({@link #PERSISTENT} or {@link #NON_PERSISTENT}).
+	 */
+	public static final String DELIVERY_OPTION = "delivery";
+
+	/**
+	 * Messages are stored by the broker until delivered.
+	 */
+	public static final String PERSISTENT = "persistent";
+
+	/**
+	 * Messages are only kept in memory, for live data that is useless once
+	 * stale.
+	 */
+	public static final String NON_PERSISTENT = "nonpersistent";
+
+	/**
+	 * The option making sends return without waiting for the broker.
+	 */
+	public static final String ASYNC_SEND_OPTION = "asyncSend";
+
+	/**
+	 * The option making single sends transacted, committing after the given
+	 * number of messages.
+	 */
+	public static final String COMMIT_COUNT_OPTION = "commitCount";
+
+	/**
+	 * The option making single sends transacted, committing at least every
+	 * given number of milliseconds.
+	 */
+	public static final String COMMIT_INTERVAL_OPTION = "commitInterval";
+
+	/**
+	 * The option routing messages through a topic per game and session (see
+	 * {@link ActiveMQTopics}) instead of a single topic.
+	 */
+	public static final String HIERARCHICAL_TOPICS_OPTION = "hierarchicalTopics";
+
+	/**
+	 * The option naming the game. Destinations use it instead of the game of
+	 * the current round, and sources only receive messages from that game.
+	 */
+	public static final String GAME_OPTION = "game";
+
+	/**
+	 * The option giving a JMS selector sources add to their own.
+	 */
+	public static final String SELECTOR_OPTION = "selector";
+
+	/**
+	 * The option giving the JMS client id of the connection, needed for
+	 * durable subscriptions.
+	 */
+	public static final String CLIENT_ID_OPTION = "clientId";
+
+	/**
+	 * The option naming a durable subscription for sources, so messages sent
+	 * while the source is away are kept by the broker.
+	 */
+	public static final String DURABLE_OPTION = "durable";
+
+	/**
+	 * The option wrapping the broker URL in the failover transport, so the
+	 * connection is re-established after a broker outage.
+	 */
+	public static final String FAILOVER_OPTION = "failover";
+
+	/**
+	 * The option giving the number of threads sources decode messages on.
+	 * Messages of the same session are always decoded on the same thread, in
+	 * order.
+	 */
+	public static final String DECODE_THREADS_OPTION = "decodeThreads";
+
+	/**
+	 * The option giving the URL an embedded broker listens on for remote
+	 * clients.
+	 */
+	public static final String CONNECTOR_OPTION = "connector";
+
+	/**
+	 * The scheme of broker URLs naming an embedded broker.
+	 */
+	private static final String VM_SCHEME = "vm://";
+
+	/**
+	 * The broker URL.
+	 */
+	private final String brokerUrl;
+
+	/**
+	 * The options.
+	 */
+	private final Map<String, String> options = new HashMap<String, String>();
+
+	/**
+	 * Parses the setup string.
+	 *
+	 * @param setupString
+	 *            The setup string.
+	 */
+	public ActiveMQConfiguration(@Nonnull String setupString) {
+		String[] configArray = setupString.split(";");
+		brokerUrl = configArray[0].trim();
+
+		for (int i = 1; i < configArray.length; i++) {
+			String option = configArray[i].trim();
+			if (option.isEmpty()) {
+				continue;
+			}
+
+			int pos = option.indexOf('=');
+			if (pos < 0) {
+				options.put(option, "true");
+			} else {
+				options.put(option.substring(0, pos).trim(),
+						option.substring(pos + 1).trim());
+			}
+		}
+	}
+
+	/**
+	 * @return The broker URL.
+	 */
+	@Nonnull
+	public String getBrokerUrl() {
+		return brokerUrl;
+	}
+
+	/**
+	 * @return The URL to connect to, which is the broker URL wrapped in the
+	 *         failover transport if requested.
+	 */
+	@Nonnull
+	public String getConnectionUrl() {
+		if (getBooleanOption(FAILOVER_OPTION, false) && !isEmbedded()
+				&& !brokerUrl.startsWith("failover:")) {
+			return "failover:(" + brokerUrl + ")";
+		}
+		return brokerUrl;
+	}
+
+	/**
+	 * @return True if the broker URL names an embedded broker.
+	 */
+	public boolean isEmbedded() {
+		return brokerUrl.startsWith(VM_SCHEME);
+	}
+
+	/**
+	 * @return The name of the embedded broker, taken from the broker URL.
+	 */
+	@Nonnull
+	public String getEmbeddedBrokerName() {
+		String name = brokerUrl.substring(VM_SCHEME.length());
+		int pos = name.indexOf('?');
+		if (pos >= 0) {
+			name = name.substring(0, pos);
+		}
+		return name;
+	}
+
+	/**
+	 * @param name
+	 *            The name of the option.
+	 * @return The value of the option, or null if not set.
+	 */
+	@CheckForNull
+	public String getOption(@Nonnull String name) {
+		return options.get(name);
+	}
+
+	/**
+	 * @param name
+	 *            The name of the option.
+	 * @param defaultValue
+	 *            The value to use if the option is not set.
+	 * @return The value of the option.
+	 */
+	@Nonnull
+	public String getOption(@Nonnull String name, @Nonnull String defaultValue) {
+		String value = options.get(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		return value;
+	}
+
+	/**
+	 * @param name
+	 *            The name of the option.
+	 * @param defaultValue
+	 *            The value to use if the option is not set.
+	 * @return The value of the option.
+	 */
+	public int getIntOption(@Nonnull String name, int defaultValue) {
+		String value = options.get(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Option " + name
+					+ " is not a number: " + value, e);
+		}
+	}
+
+	/**
+	 * @param name
+	 *            The name of the option.
+	 * @param defaultValue
+	 *            The value to use if the option is not set.
+	 * @return The value of the option.
+	 */
+	public boolean getBooleanOption(@Nonnull String name, boolean defaultValue) {
+		String value = options.get(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		return Boolean.parseBoolean(value);
+	}
+}
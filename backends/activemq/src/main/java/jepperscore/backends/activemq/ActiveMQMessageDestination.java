@@ -1,17 +1,27 @@
 package jepperscore.backends.activemq;
 
-import java.io.StringWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
+import javax.jms.DeliveryMode;
 import javax.jms.JMSException;
+import javax.jms.Message;
 import javax.jms.MessageProducer;
 import javax.jms.Session;
 import javax.jms.Topic;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 
+import jepperscore.dao.AbstractMessageDestination;
 import jepperscore.dao.IMessageDestination;
+import jepperscore.dao.MessageType;
+import jepperscore.dao.codec.IMessageCodec;
+import jepperscore.dao.codec.MessageCodecs;
+import jepperscore.dao.codec.XmlMessageCodec;
+import jepperscore.dao.model.Round;
 import jepperscore.dao.transport.TransportMessage;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
@@ -20,10 +30,29 @@ import org.slf4j.LoggerFactory;
 
 /**
  * This class implements the {@link IMessageDestination} using ActiveMQ.
+ *
+ * <p>
+ * By default each message is a persistent, synchronous send. The setup string
+ * can make messages non-persistent, make sends asynchronous, or make single
+ * sends transacted, committing every {@link ActiveMQConfiguration#COMMIT_COUNT_OPTION}
+ * messages or {@link ActiveMQConfiguration#COMMIT_INTERVAL_OPTION} milliseconds,
+ * whichever comes first. Uncommitted messages are committed on
+ * {@link #close()} and at shutdown.
+ * </p>
+ *
+ * <p>
+ * Each message carries its content type, session id and game as properties
+ * for selectors. With {@link ActiveMQConfiguration#HIERARCHICAL_TOPICS_OPTION}
+ * it is also published to a topic per game and session (see
+ * {@link ActiveMQTopics}). The game is taken from the setup string, or else
+ * from the last round sent.
+ * </p>
+ *
  * @author Chuck
  *
  */
-public class ActiveMQMessageDestination implements IMessageDestination {
+public class ActiveMQMessageDestination extends AbstractMessageDestination
+		implements Runnable {
 
 	/**
 	 * Class logger.
@@ -32,9 +61,20 @@ public class ActiveMQMessageDestination implements IMessageDestination {
 			.getLogger(ActiveMQMessageDestination.class);
 
 	/**
-	 * The JAXB Context.
+	 * The commit interval used when only a commit count is given, in
+	 * milliseconds.
+	 */
+	public static final int DEFAULT_COMMIT_INTERVAL = 100;
+
+	/**
+	 * The codec used to encode messages.
+	 */
+	private final IMessageCodec codec;
+
+	/**
+	 * True if the messages are sent as text (XML) for older consumers.
 	 */
-	private final JAXBContext jaxbContext;
+	private final boolean sendAsText;
 
 	/**
 	 * The ActiveMQ connection.
@@ -51,48 +91,344 @@ public class ActiveMQMessageDestination implements IMessageDestination {
 	 */
 	private final Topic eventTopic;
 
+	/**
+	 * True if messages are published to a topic per game and session.
+	 */
+	private final boolean hierarchicalTopics;
+
+	/**
+	 * The topics per game and session, by name.
+	 */
+	private final Map<String, Topic> topics = new HashMap<String, Topic>();
+
+	/**
+	 * The game named in the setup string, or null.
+	 */
+	private final String configuredGame;
+
+	/**
+	 * The game of the last round sent, or null.
+	 */
+	private String currentGame = null;
+
 	/**
 	 * The ActiveMQ producer.
 	 */
 	private final MessageProducer producer;
 
+	/**
+	 * The transacted ActiveMQ session used for batches.
+	 */
+	private final Session batchSession;
+
+	/**
+	 * The ActiveMQ producer used for batches.
+	 */
+	private final MessageProducer batchProducer;
+
+	/**
+	 * True if single sends go through the transacted session.
+	 */
+	private final boolean transacted;
+
+	/**
+	 * The number of messages after which single sends are committed, or 0.
+	 */
+	private final int commitCount;
+
+	/**
+	 * The longest time single sends are left uncommitted, in milliseconds.
+	 */
+	private final int commitInterval;
+
+	/**
+	 * The number of uncommitted single sends.
+	 */
+	private int uncommitted = 0;
+
+	/**
+	 * True once the destination is closed.
+	 */
+	private boolean closed = false;
+
 	/**
 	 * Creates the message destination.
-	 * @param activeMqConnection The connection string to use for ActiveMQ.
+	 * @param activeMqSetup The setup string to use for ActiveMQ. See {@link ActiveMQConfiguration}.
 	 * @throws JMSException If there is a problem setting up ActiveMQ.
-	 * @throws JAXBException If there is a problem setting up the deserializer.
 	 */
-	public ActiveMQMessageDestination(String activeMqConnection)
-			throws JMSException, JAXBException {
+	public ActiveMQMessageDestination(String activeMqSetup)
+			throws JMSException {
+		ActiveMQConfiguration config = new ActiveMQConfiguration(activeMqSetup);
+
+		String codecName = config.getOption(ActiveMQConfiguration.CODEC_OPTION, XmlMessageCodec.NAME);
+		IMessageCodec selectedCodec = MessageCodecs.getCodec(codecName);
+		if (selectedCodec == null) {
+			throw new IllegalArgumentException("Unknown codec: " + codecName);
+		}
+		codec = selectedCodec;
+		sendAsText = XmlMessageCodec.CONTENT_TYPE.equals(codec.getContentType());
+
+		String delivery = config.getOption(ActiveMQConfiguration.DELIVERY_OPTION,
+				ActiveMQConfiguration.PERSISTENT);
+		int deliveryMode;
+		if (ActiveMQConfiguration.PERSISTENT.equals(delivery)) {
+			deliveryMode = DeliveryMode.PERSISTENT;
+		} else if (ActiveMQConfiguration.NON_PERSISTENT.equals(delivery)) {
+			deliveryMode = DeliveryMode.NON_PERSISTENT;
+		} else {
+			throw new IllegalArgumentException("Unknown delivery mode: " + delivery);
+		}
+
+		hierarchicalTopics = config.getBooleanOption(ActiveMQConfiguration.HIERARCHICAL_TOPICS_OPTION, false);
+		configuredGame = config.getOption(ActiveMQConfiguration.GAME_OPTION);
+
+		commitCount = config.getIntOption(ActiveMQConfiguration.COMMIT_COUNT_OPTION, 0);
+		int interval = config.getIntOption(ActiveMQConfiguration.COMMIT_INTERVAL_OPTION, 0);
+		if ((interval <= 0) && (commitCount > 0)) {
+			interval = DEFAULT_COMMIT_INTERVAL;
+		}
+		commitInterval = interval;
+		transacted = (commitInterval > 0);
+
+		if (config.isEmbedded()) {
+			EmbeddedBroker.start(config);
+		}
+
 		ActiveMQConnectionFactory cf = new ActiveMQConnectionFactory(
-				activeMqConnection);
+				config.getConnectionUrl());
+		cf.setUseAsyncSend(config.getBooleanOption(ActiveMQConfiguration.ASYNC_SEND_OPTION, false));
 		conn = cf.createConnection();
 		conn.start();
 
 		session = conn.createSession(false, Session.AUTO_ACKNOWLEDGE);
 		eventTopic = session.createTopic(ActiveMQBackendConstants.EVENT_TOPIC);
-		producer = session.createProducer(eventTopic);
+		producer = session.createProducer(null);
+		producer.setDeliveryMode(deliveryMode);
 
-		jaxbContext = JAXBContext.newInstance(TransportMessage.class);
+		batchSession = conn.createSession(true, Session.SESSION_TRANSACTED);
+		batchProducer = batchSession.createProducer(null);
+		batchProducer.setDeliveryMode(deliveryMode);
 
+		if (transacted) {
+			Thread commitThread = new Thread(this, "ActiveMQMessageDestination-commit");
+			commitThread.setDaemon(true);
+			commitThread.start();
+
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					close();
+				}
+			});
+		}
 	}
 
 	@Override
 	public synchronized void sendMessage(TransportMessage transportMessage) {
+		if (closed) {
+			LOG.warn("Message sent after the destination was closed.");
+			return;
+		}
 		if (transportMessage.getSessionId() == null) {
 			LOG.warn("Sending message without session ID.");
 		}
-		
+
+		try {
+			if (transacted) {
+				send(batchProducer, batchSession, transportMessage);
+				uncommitted++;
+				if ((commitCount > 0) && (uncommitted >= commitCount)) {
+					commit();
+				}
+			} else {
+				send(producer, session, transportMessage);
+			}
+		} catch (JMSException | IOException e) {
+			throw new IllegalStateException("Unable to send message: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Sends the messages in a single transaction, so the broker sees one
+	 * commit instead of one round trip per message. If any message fails,
+	 * the whole batch is rolled back, along with any uncommitted single
+	 * sends.
+	 */
+	@Override
+	public synchronized void sendMessages(
+			Collection<TransportMessage> transportMessages) {
+		if (closed) {
+			LOG.warn("Messages sent after the destination was closed.");
+			return;
+		}
+
 		try {
-			Marshaller marshaller = jaxbContext.createMarshaller();
+			for (TransportMessage transportMessage : transportMessages) {
+				if (transportMessage.getSessionId() == null) {
+					LOG.warn("Sending message without session ID.");
+				}
+				send(batchProducer, batchSession, transportMessage);
+			}
+			batchSession.commit();
+		} catch (JMSException | IOException e) {
+			rollback();
+			throw new IllegalStateException("Unable to send messages: " + e.getMessage(), e);
+		} finally {
+			uncommitted = 0;
+		}
+	}
+
+	/**
+	 * Commits the uncommitted single sends every commit interval.
+	 */
+	@Override
+	public synchronized void run() {
+		while (!closed) {
+			try {
+				wait(commitInterval);
+			} catch (InterruptedException e) {
+				return;
+			}
+			if ((uncommitted > 0) && !closed) {
+				try {
+					commit();
+				} catch (JMSException e) {
+					LOG.error(e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Commits the uncommitted single sends and closes the connection. Later
+	 * messages are not sent.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		if (uncommitted > 0) {
+			try {
+				commit();
+			} catch (JMSException e) {
+				LOG.error(e.getMessage(), e);
+			}
+		}
+		closed = true;
+		notifyAll();
+
+		try {
+			conn.close();
+		} catch (JMSException e) {
+			LOG.error(e.getMessage(), e);
+		}
+	}
 
-			StringWriter writer = new StringWriter();
-			marshaller.marshal(transportMessage, writer);
+	/**
+	 * Commits the transacted session, rolling back if the commit fails.
+	 *
+	 * @throws JMSException
+	 *             If the commit failed.
+	 */
+	private void commit() throws JMSException {
+		try {
+			batchSession.commit();
+		} catch (JMSException e) {
+			rollback();
+			throw e;
+		} finally {
+			uncommitted = 0;
+		}
+	}
 
-			producer.send(session.createTextMessage(writer.toString()));
-		} catch (JMSException | JAXBException e) {
+	/**
+	 * Rolls back the transacted session.
+	 */
+	private void rollback() {
+		try {
+			batchSession.rollback();
+		} catch (JMSException e) {
 			LOG.error(e.getMessage(), e);
 		}
 	}
 
+	/**
+	 * Encodes and sends a message to its topic.
+	 *
+	 * @param messageProducer
+	 *            The producer to send the message with.
+	 * @param messageSession
+	 *            The session of the producer.
+	 * @param transportMessage
+	 *            The message to send.
+	 * @throws JMSException
+	 *             If there is a problem sending the message.
+	 * @throws IOException
+	 *             If there is a problem encoding the message.
+	 */
+	private void send(MessageProducer messageProducer, Session messageSession,
+			TransportMessage transportMessage) throws JMSException, IOException {
+		Round round = transportMessage.getRound();
+		if ((round != null) && (round.getGame() != null)
+				&& (round.getGame().getName() != null)) {
+			currentGame = round.getGame().getName();
+		}
+		String game = (configuredGame != null) ? configuredGame : currentGame;
+
+		Topic topic = eventTopic;
+		if (hierarchicalTopics) {
+			String topicName = ActiveMQTopics.forMessage(game, transportMessage.getSessionId());
+			topic = topics.get(topicName);
+			if (topic == null) {
+				topic = session.createTopic(topicName);
+				topics.put(topicName, topic);
+			}
+		}
+
+		messageProducer.send(topic, createMessage(messageSession, transportMessage, game));
+	}
+
+	/**
+	 * Encodes a message.
+	 *
+	 * @param messageSession
+	 *            The session to create the message with.
+	 * @param transportMessage
+	 *            The message to encode.
+	 * @param game
+	 *            The game the message is from, or null.
+	 * @return The JMS message.
+	 * @throws JMSException
+	 *             If there is a problem creating the message.
+	 * @throws IOException
+	 *             If there is a problem encoding the message.
+	 */
+	private Message createMessage(Session messageSession,
+			TransportMessage transportMessage, String game) throws JMSException, IOException {
+		byte[] data = codec.encode(transportMessage);
+
+		Message message;
+		if (sendAsText) {
+			message = messageSession.createTextMessage(new String(data, StandardCharsets.UTF_8));
+		} else {
+			BytesMessage bytesMessage = messageSession.createBytesMessage();
+			bytesMessage.writeBytes(data);
+			message = bytesMessage;
+		}
+		message.setStringProperty(ActiveMQBackendConstants.CONTENT_TYPE_PROPERTY, codec.getContentType());
+
+		MessageType type = MessageType.of(transportMessage);
+		if (type != null) {
+			message.setStringProperty(ActiveMQBackendConstants.MESSAGE_TYPE_PROPERTY, type.name());
+		}
+		String sessionId = transportMessage.getSessionId();
+		if (sessionId != null) {
+			message.setStringProperty(ActiveMQBackendConstants.SESSION_ID_PROPERTY, sessionId);
+		}
+		if (game != null) {
+			message.setStringProperty(ActiveMQBackendConstants.GAME_PROPERTY, game);
+		}
+		return message;
+	}
+
 }
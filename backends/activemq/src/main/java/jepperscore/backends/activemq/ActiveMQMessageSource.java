@@ -1,8 +1,17 @@
 package jepperscore.backends.activemq;
 
-import java.io.StringReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
+import javax.jms.ExceptionListener;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
@@ -10,23 +19,50 @@ import javax.jms.MessageListener;
 import javax.jms.Session;
 import javax.jms.TextMessage;
 import javax.jms.Topic;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
 
 import jepperscore.dao.AbstractMessageSource;
 import jepperscore.dao.IMessageSource;
+import jepperscore.dao.MessageFilter;
+import jepperscore.dao.MessageType;
+import jepperscore.dao.codec.IMessageCodec;
+import jepperscore.dao.codec.MessageCodecs;
 import jepperscore.dao.transport.TransportMessage;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQMessageConsumer;
+import org.apache.activemq.ActiveMQSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * This class implements the {@link IMessageSource} using ActiveMQ.
- * 
+ * This class implements the {@link IMessageSource} using ActiveMQ. Messages
+ * are decoded using the codec named by their content type property, and fall
+ * back to XML for messages sent by older destinations.
+ *
+ * <p>
+ * The filters of the registered callbacks are turned into a JMS selector, so
+ * the broker drops the messages no callback wants. The setup string can add
+ * a game and a selector of its own, and
+ * {@link ActiveMQConfiguration#HIERARCHICAL_TOPICS_OPTION} subscribes to the
+ * per game and session topics with wildcards instead of the single topic.
+ * </p>
+ *
+ * <p>
+ * Nothing is consumed until the first callback is registered. With
+ * {@link ActiveMQConfiguration#DURABLE_OPTION} and a client id the
+ * subscription is durable, and with {@link ActiveMQConfiguration#FAILOVER_OPTION}
+ * the connection is re-established after a broker outage, so a source can
+ * resume without gaps. With more than one
+ * {@link ActiveMQConfiguration#DECODE_THREADS_OPTION decode thread}, messages
+ * are decoded in parallel, keeping the order within each session, and each
+ * message is only acknowledged once its callbacks have been called. A durable
+ * subscription keeps the topic and selector of the setup string, because the
+ * broker deletes the stored messages when they change, so its callbacks are
+ * only filtered here.
+ * </p>
+ *
  * @author Chuck
- * 
+ *
  */
 public class ActiveMQMessageSource extends AbstractMessageSource {
 
@@ -37,77 +73,664 @@ public class ActiveMQMessageSource extends AbstractMessageSource {
 			.getLogger(ActiveMQMessageSource.class);
 
 	/**
-	 * The JAXB Context.
+	 * The ActiveMQ connection.
 	 */
-	private final JAXBContext jaxbContext;
+	private final Connection conn;
 
 	/**
-	 * The ActiveMQ connection.
+	 * The listener of the current consumer, holding its session, null until
+	 * a callback is registered. Each consumer gets its own session, because
+	 * a session with a message listener may only be used by its delivery
+	 * thread.
 	 */
-	private final Connection conn;
+	private ConsumerListener consumerListener;
 
 	/**
-	 * The ActiveMQ session.
+	 * True if the source subscribes to the topics per game and session.
 	 */
-	private final Session session;
+	private final boolean hierarchicalTopics;
 
 	/**
-	 * The ActiveMQ topic.
+	 * The game to receive messages from, or null for every game.
 	 */
-	private final Topic eventTopic;
+	private final String game;
+
+	/**
+	 * The selector from the setup string, or null.
+	 */
+	private final String baseSelector;
+
+	/**
+	 * The name of the topic of the current consumer.
+	 */
+	private String topicName;
 
 	/**
 	 * The message consumer.
 	 */
+	@CheckForNull
 	private MessageConsumer consumer;
 
+	/**
+	 * The selector of the current consumer, null if it takes every message.
+	 */
+	private String selector;
+
+	/**
+	 * The number of messages waiting to be decoded on each decode thread.
+	 */
+	public static final int DECODE_QUEUE_CAPACITY = 1000;
+
+	/**
+	 * The number of message ids remembered to drop the messages delivered by
+	 * both consumers while one replaces the other.
+	 */
+	public static final int DUPLICATE_WINDOW = 10000;
+
+	/**
+	 * How long a replaced consumer must be idle before it is closed, in
+	 * milliseconds.
+	 */
+	public static final long DRAIN_QUIET_PERIOD = 1000;
+
+	/**
+	 * The longest time a replaced consumer is kept open, in milliseconds.
+	 */
+	public static final long MAX_DRAIN_TIME = 30000;
+
+	/**
+	 * The consumer that first delivered each of the latest messages, by
+	 * message id, once a consumer was replaced. Guarded by itself.
+	 */
+	private final Map<String, ConsumerListener> recentMessageIds = new LinkedHashMap<String, ConsumerListener>() {
+
+		/**
+		 * Serialisation id.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ConsumerListener> eldest) {
+			return size() > DUPLICATE_WINDOW;
+		}
+	};
+
+	/**
+	 * True once a consumer was replaced, so duplicates may arrive.
+	 */
+	private volatile boolean deduplicating = false;
+
+	/**
+	 * The number of consumers opened.
+	 */
+	private long consumerCount = 0;
+
+	/**
+	 * The listener of a consumer, passing messages to the decode threads,
+	 * or decoding them itself.
+	 */
+	private final class ConsumerListener implements MessageListener {
+
+		/**
+		 * The session of the consumer.
+		 */
+		private final Session session;
+
+		/**
+		 * The consumer.
+		 */
+		private final MessageConsumer messageConsumer;
+
+		/**
+		 * The number of consumers opened before this one.
+		 */
+		private final long generation;
+
+		/**
+		 * When the consumer last delivered a message.
+		 */
+		private volatile long lastDelivery = System.currentTimeMillis();
+
+		/**
+		 * True once the consumer delivered a message a newer consumer also
+		 * delivered, so it has passed the messages only it has.
+		 */
+		private volatile boolean caughtUp = false;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param session
+		 *            The session of the consumer.
+		 * @param messageConsumer
+		 *            The consumer.
+		 * @param generation
+		 *            The number of consumers opened before this one.
+		 */
+		private ConsumerListener(Session session, MessageConsumer messageConsumer, long generation) {
+			this.session = session;
+			this.messageConsumer = messageConsumer;
+			this.generation = generation;
+		}
+
+		/**
+		 * @return True if the consumer holds no prefetched message and was
+		 *         idle for {@link #DRAIN_QUIET_PERIOD}.
+		 */
+		private boolean isDrained() {
+			if ((messageConsumer instanceof ActiveMQMessageConsumer)
+					&& (((ActiveMQMessageConsumer) messageConsumer).getMessageSize() > 0)) {
+				return false;
+			}
+			return (System.currentTimeMillis() - lastDelivery) >= DRAIN_QUIET_PERIOD;
+		}
+
+		@Override
+		public void onMessage(Message message) {
+			lastDelivery = System.currentTimeMillis();
+			if (isDuplicate(message, this)) {
+				if (lanes != null) {
+					try {
+						message.acknowledge();
+					} catch (JMSException e) {
+						LOG.error(e.getMessage(), e);
+					}
+				}
+				return;
+			}
+
+			if (lanes == null) {
+				deliver(message);
+				return;
+			}
+
+			try {
+				lanes[getLane(message)].queue.put(message);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Closes a replaced consumer once it delivered the messages only it
+	 * received, which is when it delivers a message the newer consumer also
+	 * delivered, or when it holds no prefetched message and was idle for
+	 * {@link #DRAIN_QUIET_PERIOD}.
+	 */
+	private static final class ConsumerDrain implements Runnable {
+
+		/**
+		 * The listener of the replaced consumer.
+		 */
+		private final ConsumerListener consumerListener;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param consumerListener
+		 *            The listener of the replaced consumer.
+		 */
+		private ConsumerDrain(ConsumerListener consumerListener) {
+			this.consumerListener = consumerListener;
+		}
+
+		@Override
+		public void run() {
+			long deadline = System.currentTimeMillis() + MAX_DRAIN_TIME;
+			consumerListener.lastDelivery = System.currentTimeMillis();
+			try {
+				while (!consumerListener.caughtUp && !consumerListener.isDrained()
+						&& (System.currentTimeMillis() < deadline)) {
+					Thread.sleep(DRAIN_QUIET_PERIOD / 10);
+				}
+			} catch (InterruptedException e) {
+				// Close straight away.
+			}
+
+			try {
+				// Closing the session waits for its listener.
+				consumerListener.session.close();
+			} catch (JMSException e) {
+				LOG.error(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * A thread decoding the messages of some of the sessions, in order.
+	 */
+	private final class DecodeLane implements Runnable {
+
+		/**
+		 * The messages waiting to be decoded.
+		 */
+		private final BlockingQueue<Message> queue = new ArrayBlockingQueue<Message>(DECODE_QUEUE_CAPACITY);
+
+		/**
+		 * The thread.
+		 */
+		private final Thread thread;
+
+		/**
+		 * Constructor. Starts the thread.
+		 *
+		 * @param index
+		 *            The index of the lane, used for the thread name.
+		 */
+		private DecodeLane(int index) {
+			thread = new Thread(this, "ActiveMQMessageSource-decode-" + index);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Message message;
+				try {
+					message = queue.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				deliver(message);
+				try {
+					message.acknowledge();
+				} catch (JMSException e) {
+					LOG.error(e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The decode threads, or null if messages are decoded on the listener
+	 * thread.
+	 */
+	private final DecodeLane[] lanes;
+
+	/**
+	 * The name of the durable subscription, or null.
+	 */
+	private final String durableName;
+
 	/**
 	 * Creates the message destination.
-	 * 
-	 * @param activeMqConnection
-	 *            The connection string to use for ActiveMQ.
+	 *
+	 * @param activeMqSetup
+	 *            The setup string to use for ActiveMQ. See
+	 *            {@link ActiveMQConfiguration}.
 	 * @throws JMSException
 	 *             If there is a problem setting up ActiveMQ.
-	 * @throws JAXBException
-	 *             If there is a problem setting up the deserializer.
 	 */
-	public ActiveMQMessageSource(String activeMqConnection)
-			throws JMSException, JAXBException {
-		ActiveMQConnectionFactory cf = new ActiveMQConnectionFactory(
-				activeMqConnection);
-		conn = cf.createConnection();
-		conn.start();
+	public ActiveMQMessageSource(String activeMqSetup)
+			throws JMSException {
+		ActiveMQConfiguration config = new ActiveMQConfiguration(activeMqSetup);
 
-		session = conn.createSession(false, Session.AUTO_ACKNOWLEDGE);
-		eventTopic = session.createTopic(ActiveMQBackendConstants.EVENT_TOPIC);
-		consumer = session.createConsumer(eventTopic);
+		if (config.isEmbedded()) {
+			EmbeddedBroker.start(config);
+		}
 
-		jaxbContext = JAXBContext.newInstance(TransportMessage.class);
-		final Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+		hierarchicalTopics = config.getBooleanOption(ActiveMQConfiguration.HIERARCHICAL_TOPICS_OPTION, false);
+		game = config.getOption(ActiveMQConfiguration.GAME_OPTION);
+		baseSelector = config.getOption(ActiveMQConfiguration.SELECTOR_OPTION);
 
-		consumer.setMessageListener(new MessageListener() {
+		String clientId = config.getOption(ActiveMQConfiguration.CLIENT_ID_OPTION);
+		durableName = config.getOption(ActiveMQConfiguration.DURABLE_OPTION);
+		if ((durableName != null) && (clientId == null)) {
+			throw new IllegalArgumentException("A durable subscription needs a client id.");
+		}
+
+		int decodeThreads = config.getIntOption(ActiveMQConfiguration.DECODE_THREADS_OPTION, 1);
+		if (decodeThreads > 1) {
+			lanes = new DecodeLane[decodeThreads];
+			for (int i = 0; i < decodeThreads; i++) {
+				lanes[i] = new DecodeLane(i);
+			}
+		} else {
+			lanes = null;
+		}
+
+		ActiveMQConnectionFactory cf = new ActiveMQConnectionFactory(
+				config.getConnectionUrl());
+		conn = cf.createConnection();
+		if (clientId != null) {
+			conn.setClientID(clientId);
+		}
+		conn.setExceptionListener(new ExceptionListener() {
 
 			@Override
-			public void onMessage(Message message) {
+			public void onException(JMSException e) {
+				LOG.error(e.getMessage(), e);
+			}
+		});
+		conn.start();
+	}
+
+	/**
+	 * Opens the consumer once a callback is registered, so no message is
+	 * acknowledged before it can be delivered. A durable subscription is
+	 * never changed afterwards. Otherwise the consumer is replaced by one
+	 * using a topic and selector for the filter, so the broker drops the
+	 * messages no callback wants. The new consumer is opened before the old
+	 * one is closed, and the old one is only closed once it delivered the
+	 * messages it received before the new one was opened (see
+	 * {@link ConsumerDrain}), so none is lost. The messages both deliver are
+	 * dropped by their id; while both are open, messages from the two may
+	 * interleave.
+	 */
+	@Override
+	protected synchronized void filtersChanged(MessageFilter combinedFilter) {
+		if (durableName != null) {
+			if (consumer == null) {
 				try {
-					if (message instanceof TextMessage) {
-						TextMessage txtMessage = (TextMessage) message;
-
-						try (StringReader reader = new StringReader(txtMessage
-								.getText())) {
-							call((TransportMessage) unmarshaller
-									.unmarshal(reader));
-						} catch (JMSException e) {
-							LOG.error(e.getMessage(), e);
-						}
-					} else {
-						LOG.warn("Got message of unknown type: "
-								+ message.getClass().getSimpleName());
-					}
-				} catch (JAXBException e) {
+					openConsumer(createTopicName(null), combineSelectors(null));
+				} catch (JMSException e) {
 					LOG.error(e.getMessage(), e);
 				}
 			}
-		});
+			return;
+		}
+
+		String newTopicName = createTopicName(combinedFilter.getSessionId());
+		String newSelector = combineSelectors(createSelector(combinedFilter));
+		if ((consumer != null) && newTopicName.equals(topicName)
+				&& ((newSelector == null) ? (selector == null) : newSelector.equals(selector))) {
+			return;
+		}
+
+		ConsumerListener oldListener = consumerListener;
+		try {
+			if (oldListener != null) {
+				deduplicating = true;
+			}
+			openConsumer(newTopicName, newSelector);
+		} catch (JMSException e) {
+			LOG.error(e.getMessage(), e);
+			return;
+		}
+
+		if (oldListener != null) {
+			Thread drainThread = new Thread(new ConsumerDrain(oldListener), "ActiveMQMessageSource-drain");
+			drainThread.setDaemon(true);
+			drainThread.start();
+		}
+	}
+
+	/**
+	 * Remembers the id of a message once consumers were replaced.
+	 *
+	 * @param message
+	 *            The message.
+	 * @param receiver
+	 *            The listener of the consumer delivering the message.
+	 * @return True if another consumer already delivered the message.
+	 */
+	private boolean isDuplicate(Message message, ConsumerListener receiver) {
+		if (!deduplicating) {
+			return false;
+		}
+
+		String id;
+		try {
+			id = message.getJMSMessageID();
+		} catch (JMSException e) {
+			LOG.error(e.getMessage(), e);
+			return false;
+		}
+		if (id == null) {
+			return false;
+		}
+
+		synchronized (recentMessageIds) {
+			ConsumerListener first = recentMessageIds.get(id);
+			if (first == null) {
+				recentMessageIds.put(id, receiver);
+				return false;
+			}
+			if (first == receiver) {
+				return false;
+			}
+			if (first.generation < receiver.generation) {
+				first.caughtUp = true;
+			} else {
+				receiver.caughtUp = true;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Closes the connection and stops the decode threads. Messages not yet
+	 * acknowledged are redelivered to a durable subscription.
+	 */
+	public void close() {
+		try {
+			conn.close();
+		} catch (JMSException e) {
+			LOG.error(e.getMessage(), e);
+		}
+
+		if (lanes != null) {
+			for (DecodeLane lane : lanes) {
+				lane.thread.interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Creates a consumer on a session of its own, durable if requested, and
+	 * makes it the current consumer.
+	 *
+	 * @param name
+	 *            The name of the topic.
+	 * @param consumerSelector
+	 *            The selector, or null.
+	 * @throws JMSException
+	 *             If there is a problem creating the consumer.
+	 */
+	private void openConsumer(@Nonnull String name,
+			@CheckForNull String consumerSelector) throws JMSException {
+		Session newSession;
+		if (lanes == null) {
+			newSession = conn.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		} else {
+			newSession = conn.createSession(false, ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE);
+		}
+
+		try {
+			Topic topic = newSession.createTopic(name);
+			MessageConsumer newConsumer;
+			if (durableName != null) {
+				newConsumer = newSession.createDurableSubscriber(topic,
+						durableName, consumerSelector, false);
+			} else {
+				newConsumer = newSession.createConsumer(topic, consumerSelector);
+			}
+			ConsumerListener newListener = new ConsumerListener(newSession, newConsumer, consumerCount++);
+			newConsumer.setMessageListener(newListener);
+
+			consumerListener = newListener;
+			consumer = newConsumer;
+			topicName = name;
+			selector = consumerSelector;
+		} catch (JMSException e) {
+			newSession.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Decodes a message and gives it to the callbacks.
+	 *
+	 * @param message
+	 *            The message.
+	 */
+	private void deliver(Message message) {
+		try {
+			TransportMessage transportMessage = decode(message);
+			if (transportMessage != null) {
+				call(transportMessage);
+			}
+		} catch (JMSException | IOException | RuntimeException e) {
+			LOG.error(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @param message
+	 *            The message.
+	 * @return The decode thread for the session of the message.
+	 */
+	private int getLane(Message message) {
+		String sessionId = null;
+		try {
+			sessionId = message.getStringProperty(ActiveMQBackendConstants.SESSION_ID_PROPERTY);
+		} catch (JMSException e) {
+			LOG.error(e.getMessage(), e);
+		}
+		if (sessionId == null) {
+			return 0;
+		}
+		return (sessionId.hashCode() & Integer.MAX_VALUE) % lanes.length;
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session the callbacks want, or null for every session.
+	 * @return The name of the topic to subscribe to.
+	 */
+	@Nonnull
+	private String createTopicName(@CheckForNull String sessionId) {
+		if (hierarchicalTopics) {
+			return ActiveMQTopics.forSubscription(game, sessionId);
+		}
+		return ActiveMQBackendConstants.EVENT_TOPIC;
+	}
+
+	/**
+	 * Adds the game and the selector from the setup string to a selector.
+	 *
+	 * @param filterSelector
+	 *            The selector for the callback filters, or null.
+	 * @return The combined selector, or null if every message is selected.
+	 */
+	@CheckForNull
+	private String combineSelectors(@CheckForNull String filterSelector) {
+		StringBuilder sb = new StringBuilder();
+		if (filterSelector != null) {
+			sb.append(filterSelector);
+		}
+		if (game != null) {
+			if (sb.length() > 0) {
+				sb.append(" AND ");
+			}
+			sb.append("(").append(ActiveMQBackendConstants.GAME_PROPERTY)
+					.append(" IS NULL OR ")
+					.append(ActiveMQBackendConstants.GAME_PROPERTY)
+					.append(" = '").append(game.replace("'", "''"))
+					.append("')");
+		}
+		if (baseSelector != null) {
+			if (sb.length() > 0) {
+				sb.append(" AND ");
+			}
+			sb.append("(").append(baseSelector).append(")");
+		}
+
+		if (sb.length() == 0) {
+			return null;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Creates a JMS selector for a filter. Messages without the selector
+	 * properties, sent by older destinations, are always selected.
+	 *
+	 * @param filter
+	 *            The filter.
+	 * @return The selector, or null if the filter accepts every message.
+	 */
+	@CheckForNull
+	public static String createSelector(@Nonnull MessageFilter filter) {
+		StringBuilder sb = new StringBuilder();
+
+		if (!filter.isAllTypes()) {
+			sb.append("(").append(ActiveMQBackendConstants.MESSAGE_TYPE_PROPERTY)
+					.append(" IS NULL OR ")
+					.append(ActiveMQBackendConstants.MESSAGE_TYPE_PROPERTY)
+					.append(" IN (");
+			boolean first = true;
+			for (MessageType type : filter.getTypes()) {
+				if (!first) {
+					sb.append(", ");
+				}
+				sb.append("'").append(type.name()).append("'");
+				first = false;
+			}
+			sb.append("))");
+		}
+
+		String sessionId = filter.getSessionId();
+		if (sessionId != null) {
+			if (sb.length() > 0) {
+				sb.append(" AND ");
+			}
+			sb.append("(").append(ActiveMQBackendConstants.SESSION_ID_PROPERTY)
+					.append(" IS NULL OR ")
+					.append(ActiveMQBackendConstants.SESSION_ID_PROPERTY)
+					.append(" = '").append(sessionId.replace("'", "''"))
+					.append("')");
+		}
+
+		if (sb.length() == 0) {
+			return null;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Decodes a JMS message.
+	 *
+	 * @param message
+	 *            The message to decode.
+	 * @return The decoded message, or null if the message could not be
+	 *         understood.
+	 * @throws JMSException
+	 *             If there is a problem reading the message.
+	 * @throws IOException
+	 *             If there is a problem decoding the message.
+	 */
+	private TransportMessage decode(Message message) throws JMSException,
+			IOException {
+		String contentType = message
+				.getStringProperty(ActiveMQBackendConstants.CONTENT_TYPE_PROPERTY);
+		IMessageCodec codec = MessageCodecs.getDefaultCodec();
+		if (contentType != null) {
+			codec = MessageCodecs.getByContentType(contentType);
+			if (codec == null) {
+				LOG.warn("Got message with unknown content type: "
+						+ contentType);
+				return null;
+			}
+		}
+
+		byte[] data;
+		if (message instanceof TextMessage) {
+			data = ((TextMessage) message).getText().getBytes(
+					StandardCharsets.UTF_8);
+		} else if (message instanceof BytesMessage) {
+			BytesMessage bytesMessage = (BytesMessage) message;
+			data = new byte[(int) bytesMessage.getBodyLength()];
+			bytesMessage.readBytes(data);
+		} else {
+			LOG.warn("Got message of unknown type: "
+					+ message.getClass().getSimpleName());
+			return null;
+		}
+
+		return codec.decode(data);
 	}
 }
@@ -0,0 +1,82 @@
+package jepperscore.backends.activemq;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * This class names the topics used when messages are routed by game and
+ * session: <code>jepperscore.events.&lt;game&gt;.&lt;session&gt;</code>.
+ * Sources subscribe with ActiveMQ wildcards, so the broker only forwards the
+ * games and sessions they asked for.
+ *
+ * @author Chuck
+ *
+ */
+public final class ActiveMQTopics {
+
+	/**
+	 * The topic element used when the game or session is not known.
+	 */
+	public static final String UNKNOWN = "unknown";
+
+	/**
+	 * The wildcard matching one topic element.
+	 */
+	private static final String ANY_ELEMENT = "*";
+
+	/**
+	 * Utility class.
+	 */
+	private ActiveMQTopics() {
+
+	}
+
+	/**
+	 * @param game
+	 *            The game, or null if not known.
+	 * @param sessionId
+	 *            The session id, or null if not known.
+	 * @return The topic to publish a message to.
+	 */
+	@Nonnull
+	public static String forMessage(@CheckForNull String game,
+			@CheckForNull String sessionId) {
+		return ActiveMQBackendConstants.EVENT_TOPIC + "."
+				+ toElement(game, UNKNOWN) + "." + toElement(sessionId, UNKNOWN);
+	}
+
+	/**
+	 * @param game
+	 *            The game to subscribe to, or null for every game.
+	 * @param sessionId
+	 *            The session to subscribe to, or null for every session.
+	 * @return The topic, possibly with wildcards, to subscribe to.
+	 */
+	@Nonnull
+	public static String forSubscription(@CheckForNull String game,
+			@CheckForNull String sessionId) {
+		return ActiveMQBackendConstants.EVENT_TOPIC + "."
+				+ toElement(game, ANY_ELEMENT) + "."
+				+ toElement(sessionId, ANY_ELEMENT);
+	}
+
+	/**
+	 * Makes a value safe to use as a topic element. Characters with a meaning
+	 * in topic names are replaced, so two values can share an element; the
+	 * message properties still tell them apart.
+	 *
+	 * @param value
+	 *            The value.
+	 * @param defaultElement
+	 *            The element to use if the value is null or empty.
+	 * @return The topic element.
+	 */
+	@Nonnull
+	private static String toElement(@CheckForNull String value,
+			@Nonnull String defaultElement) {
+		if ((value == null) || value.isEmpty()) {
+			return defaultElement;
+		}
+		return value.replaceAll("[^A-Za-z0-9_\\-]", "_");
+	}
+}
@@ -0,0 +1,148 @@
+package jepperscore.backends.activemq;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.jms.JMSException;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.TransportConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class runs ActiveMQ brokers inside the JVM, so that destinations and
+ * sources in the same process exchange messages over the <code>vm://</code>
+ * transport without sockets or marshalling. A broker can also listen on a
+ * connector (such as TCP) for remote clients. The brokers only keep messages
+ * in memory.
+ *
+ * @author Chuck
+ *
+ */
+public final class EmbeddedBroker {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(EmbeddedBroker.class);
+
+	/**
+	 * The running brokers, by name.
+	 */
+	private static final Map<String, BrokerService> BROKERS = new HashMap<String, BrokerService>();
+
+	/**
+	 * Utility class.
+	 */
+	private EmbeddedBroker() {
+
+	}
+
+	/**
+	 * Starts the broker for a configuration naming an embedded broker, unless
+	 * it is already running.
+	 *
+	 * @param config
+	 *            The configuration.
+	 * @throws JMSException
+	 *             If the broker could not be started.
+	 */
+	public static void start(@Nonnull ActiveMQConfiguration config)
+			throws JMSException {
+		start(config.getEmbeddedBrokerName(),
+				config.getOption(ActiveMQConfiguration.CONNECTOR_OPTION));
+	}
+
+	/**
+	 * Starts a broker, unless it is already running.
+	 *
+	 * @param brokerName
+	 *            The name of the broker, as used in <code>vm://</code> URLs.
+	 * @param connectorUrl
+	 *            The URL to listen on for remote clients, or null.
+	 * @throws JMSException
+	 *             If the broker could not be started.
+	 */
+	public static synchronized void start(@Nonnull String brokerName,
+			@CheckForNull String connectorUrl) throws JMSException {
+		BrokerService broker = BROKERS.get(brokerName);
+		if (broker != null) {
+			if ((connectorUrl != null) && (getConnectorUri(brokerName) == null)) {
+				LOG.warn("Broker " + brokerName
+						+ " is already running without a connector, ignoring "
+						+ connectorUrl);
+			}
+			return;
+		}
+
+		broker = new BrokerService();
+		broker.setBrokerName(brokerName);
+		broker.setPersistent(false);
+		broker.setUseJmx(false);
+
+		try {
+			if (connectorUrl != null) {
+				broker.addConnector(connectorUrl);
+			}
+			broker.start();
+			broker.waitUntilStarted();
+		} catch (Exception e) {
+			JMSException jmsException = new JMSException(
+					"Could not start embedded broker " + brokerName);
+			jmsException.setLinkedException(e);
+			jmsException.initCause(e);
+			throw jmsException;
+		}
+
+		BROKERS.put(brokerName, broker);
+		LOG.info("Started embedded broker " + brokerName);
+	}
+
+	/**
+	 * @param brokerName
+	 *            The name of the broker.
+	 * @return The URI remote clients can connect to, with the bound port, or
+	 *         null if the broker is not running or has no connector.
+	 */
+	@CheckForNull
+	public static synchronized URI getConnectorUri(@Nonnull String brokerName) {
+		BrokerService broker = BROKERS.get(brokerName);
+		if (broker == null) {
+			return null;
+		}
+
+		for (TransportConnector connector : broker.getTransportConnectors()) {
+			try {
+				return connector.getConnectUri();
+			} catch (Exception e) {
+				LOG.error(e.getMessage(), e);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Stops a broker. Clients connected to it are disconnected.
+	 *
+	 * @param brokerName
+	 *            The name of the broker.
+	 */
+	public static synchronized void stop(@Nonnull String brokerName) {
+		BrokerService broker = BROKERS.remove(brokerName);
+		if (broker == null) {
+			return;
+		}
+
+		try {
+			broker.stop();
+			broker.waitUntilStopped();
+		} catch (Exception e) {
+			LOG.error(e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package jepperscore.backends.activemq.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import jepperscore.backends.activemq.ActiveMQMessageDestination;
+import jepperscore.backends.activemq.ActiveMQMessageSource;
+import jepperscore.backends.activemq.EmbeddedBroker;
+import jepperscore.dao.IMessageCallback;
+import jepperscore.dao.MessageFilter;
+import jepperscore.dao.MessageType;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * This class tests the {@link ActiveMQMessageSource} class.
+ *
+ * @author Chuck
+ *
+ */
+public class ActiveMQMessageSourceTest {
+
+	/**
+	 * The name of the broker.
+	 */
+	private static final String BROKER_NAME = "source-test";
+
+	/**
+	 * The broker URL.
+	 */
+	private static final String URL = "vm://" + BROKER_NAME;
+
+	/**
+	 * A callback recording the team names by session.
+	 */
+	private static class RecordingCallback implements IMessageCallback {
+
+		/**
+		 * Counted down for each message.
+		 */
+		private final CountDownLatch received;
+
+		/**
+		 * The received team names, by session.
+		 */
+		private final Map<String, List<String>> teams = new HashMap<String, List<String>>();
+
+		/**
+		 * Constructor.
+		 * @param count The number of messages expected.
+		 */
+		public RecordingCallback(int count) {
+			received = new CountDownLatch(count);
+		}
+
+		@Override
+		public synchronized void onMessage(TransportMessage message) {
+			List<String> sessionTeams = teams.get(message.getSessionId());
+			if (sessionTeams == null) {
+				sessionTeams = new ArrayList<String>();
+				teams.put(message.getSessionId(), sessionTeams);
+			}
+			sessionTeams.add(message.getTeam().getTeamName());
+			received.countDown();
+		}
+	}
+
+	/**
+	 * Stops the broker.
+	 */
+	@After
+	public void tearDown() {
+		EmbeddedBroker.stop(BROKER_NAME);
+	}
+
+	/**
+	 * Tests that a durable subscription receives the messages sent while its
+	 * source was closed.
+	 * @throws JMSException If there is a problem with ActiveMQ.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testDurableResume() throws JMSException, InterruptedException {
+		String sourceUrl = URL + ";clientId=recorder;durable=recording";
+
+		ActiveMQMessageSource source = new ActiveMQMessageSource(sourceUrl);
+		RecordingCallback callback = new RecordingCallback(1);
+		source.registerCallback(callback);
+
+		ActiveMQMessageDestination destination = new ActiveMQMessageDestination(URL);
+		destination.sendMessage(new TransportMessage(new Team("Team 0"), "round-1"));
+		assertTrue(callback.received.await(5, TimeUnit.SECONDS));
+		source.close();
+
+		destination.sendMessage(new TransportMessage(new Team("Team 1"), "round-1"));
+		destination.sendMessage(new TransportMessage(new Team("Team 2"), "round-1"));
+
+		source = new ActiveMQMessageSource(sourceUrl);
+		callback = new RecordingCallback(2);
+		source.registerCallback(callback);
+		assertTrue(callback.received.await(5, TimeUnit.SECONDS));
+		assertEquals("Team 1", callback.teams.get("round-1").get(0));
+		assertEquals("Team 2", callback.teams.get("round-1").get(1));
+
+		source.close();
+		destination.close();
+	}
+
+	/**
+	 * Tests that a durable subscription keeps the messages sent while its
+	 * source was closed until a filtered callback is registered late, and
+	 * that the callback only gets the messages it asked for.
+	 * @throws JMSException If there is a problem with ActiveMQ.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testDurableLateFilteredRegistration() throws JMSException, InterruptedException {
+		String sourceUrl = URL + ";clientId=filtered;durable=filtering";
+		MessageFilter filter = MessageFilter.of(MessageType.TEAM).forSession("round-1");
+
+		ActiveMQMessageSource source = new ActiveMQMessageSource(sourceUrl);
+		source.registerCallback(new RecordingCallback(0), filter);
+		source.close();
+
+		ActiveMQMessageDestination destination = new ActiveMQMessageDestination(URL);
+		destination.sendMessage(new TransportMessage(new Team("Team 0"), "round-2"));
+		destination.sendMessage(new TransportMessage(new Team("Team 1"), "round-1"));
+		destination.sendMessage(new TransportMessage(new Team("Team 2"), "round-1"));
+
+		source = new ActiveMQMessageSource(sourceUrl);
+		Thread.sleep(500);
+		RecordingCallback callback = new RecordingCallback(2);
+		source.registerCallback(callback, filter);
+		assertTrue(callback.received.await(5, TimeUnit.SECONDS));
+		source.registerCallback(new RecordingCallback(0), MessageFilter.all());
+		source.close();
+
+		destination.sendMessage(new TransportMessage(new Team("Team 3"), "round-1"));
+
+		source = new ActiveMQMessageSource(sourceUrl);
+		Thread.sleep(500);
+		RecordingCallback resumed = new RecordingCallback(1);
+		source.registerCallback(resumed, filter);
+		assertTrue(resumed.received.await(5, TimeUnit.SECONDS));
+
+		assertEquals(1, callback.teams.size());
+		assertEquals("Team 1", callback.teams.get("round-1").get(0));
+		assertEquals("Team 2", callback.teams.get("round-1").get(1));
+		assertEquals("Team 3", resumed.teams.get("round-1").get(0));
+
+		source.close();
+		destination.close();
+	}
+
+	/**
+	 * Tests that messages decoded on several threads keep their order within
+	 * each session.
+	 * @throws JMSException If there is a problem with ActiveMQ.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testDecodeThreads() throws JMSException, InterruptedException {
+		ActiveMQMessageSource source = new ActiveMQMessageSource(URL + ";decodeThreads=4");
+		RecordingCallback callback = new RecordingCallback(400);
+		source.registerCallback(callback);
+
+		ActiveMQMessageDestination destination = new ActiveMQMessageDestination(URL + ";codec=binary");
+		for (int i = 0; i < 100; i++) {
+			for (int session = 0; session < 4; session++) {
+				destination.sendMessage(new TransportMessage(new Team("Team " + i), "round-" + session));
+			}
+		}
+
+		assertTrue(callback.received.await(10, TimeUnit.SECONDS));
+		for (int session = 0; session < 4; session++) {
+			List<String> teams = callback.teams.get("round-" + session);
+			assertEquals(100, teams.size());
+			for (int i = 0; i < 100; i++) {
+				assertEquals("Team " + i, teams.get(i));
+			}
+		}
+
+		source.close();
+		destination.close();
+	}
+
+	/**
+	 * Tests that replacing the consumer when the filters change neither
+	 * loses nor duplicates the messages sent meanwhile.
+	 * @throws JMSException If there is a problem with ActiveMQ.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testFilterChange() throws JMSException, InterruptedException {
+		ActiveMQMessageSource source = new ActiveMQMessageSource(URL);
+		final RecordingCallback callback = new RecordingCallback(200);
+		source.registerCallback(callback, MessageFilter.all().forSession("round-1"));
+
+		final ActiveMQMessageDestination destination = new ActiveMQMessageDestination(URL);
+		Thread sender = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 200; i++) {
+					destination.sendMessage(new TransportMessage(new Team("Team " + i), "round-1"));
+				}
+			}
+		};
+		sender.start();
+
+		for (int i = 0; i < 10; i++) {
+			RecordingCallback other = new RecordingCallback(0);
+			source.registerCallback(other, MessageFilter.of(MessageType.ROUND));
+			source.unregisterCallback(other);
+		}
+		sender.join();
+
+		assertTrue(callback.received.await(10, TimeUnit.SECONDS));
+		Thread.sleep(200);
+		synchronized (callback) {
+			List<String> teams = callback.teams.get("round-1");
+			assertEquals(200, teams.size());
+			assertEquals(200, new HashSet<String>(teams).size());
+		}
+
+		source.close();
+		destination.close();
+	}
+}
@@ -0,0 +1,128 @@
+package jepperscore.backends.activemq.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import jepperscore.backends.activemq.ActiveMQMessageDestination;
+import jepperscore.backends.activemq.ActiveMQMessageSource;
+import jepperscore.backends.activemq.ActiveMQTopics;
+import jepperscore.backends.activemq.EmbeddedBroker;
+import jepperscore.dao.IMessageCallback;
+import jepperscore.dao.MessageFilter;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * This class tests routing messages by game and session.
+ *
+ * @author Chuck
+ *
+ */
+public class ActiveMQRoutingTest {
+
+	/**
+	 * The name of the broker.
+	 */
+	private static final String BROKER_NAME = "routing-test";
+
+	/**
+	 * A callback recording the messages.
+	 */
+	private static class RecordingCallback implements IMessageCallback {
+
+		/**
+		 * Counted down for each message.
+		 */
+		private final CountDownLatch received;
+
+		/**
+		 * The received messages.
+		 */
+		private final List<TransportMessage> messages = new CopyOnWriteArrayList<TransportMessage>();
+
+		/**
+		 * Constructor.
+		 * @param count The number of messages expected.
+		 */
+		public RecordingCallback(int count) {
+			received = new CountDownLatch(count);
+		}
+
+		@Override
+		public void onMessage(TransportMessage message) {
+			messages.add(message);
+			received.countDown();
+		}
+	}
+
+	/**
+	 * Stops the broker.
+	 */
+	@After
+	public void tearDown() {
+		EmbeddedBroker.stop(BROKER_NAME);
+	}
+
+	/**
+	 * Tests the topic names.
+	 */
+	@Test
+	public void testTopicNames() {
+		assertEquals("jepperscore.events.bf1942.round_1", ActiveMQTopics.forMessage("bf1942", "round.1"));
+		assertEquals("jepperscore.events.unknown.unknown", ActiveMQTopics.forMessage(null, null));
+		assertEquals("jepperscore.events.*.round-1", ActiveMQTopics.forSubscription(null, "round-1"));
+		assertEquals("jepperscore.events.bf1942.*", ActiveMQTopics.forSubscription("bf1942", null));
+	}
+
+	/**
+	 * Tests that sources only receive the game and session they asked for
+	 * when using hierarchical topics.
+	 * @throws JMSException If there is a problem with ActiveMQ.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testHierarchicalTopics() throws JMSException, InterruptedException {
+		String url = "vm://" + BROKER_NAME + ";hierarchicalTopics";
+
+		ActiveMQMessageSource sessionSource = new ActiveMQMessageSource(url);
+		RecordingCallback sessionCallback = new RecordingCallback(2);
+		sessionSource.registerCallback(sessionCallback, MessageFilter.all().forSession("round-2"));
+
+		ActiveMQMessageSource gameSource = new ActiveMQMessageSource(url + ";game=etqw");
+		RecordingCallback gameCallback = new RecordingCallback(2);
+		gameSource.registerCallback(gameCallback);
+
+		ActiveMQMessageDestination bf1942 = new ActiveMQMessageDestination(url + ";game=bf1942");
+		ActiveMQMessageDestination etqw = new ActiveMQMessageDestination(url + ";game=etqw");
+
+		bf1942.sendMessage(new TransportMessage(new Team("A"), "round-1"));
+		bf1942.sendMessage(new TransportMessage(new Team("B"), "round-2"));
+		etqw.sendMessage(new TransportMessage(new Team("C"), "round-3"));
+		etqw.sendMessage(new TransportMessage(new Team("D"), "round-2"));
+
+		assertTrue(sessionCallback.received.await(5, TimeUnit.SECONDS));
+		assertTrue(gameCallback.received.await(5, TimeUnit.SECONDS));
+		Thread.sleep(200);
+
+		assertEquals(2, sessionCallback.messages.size());
+		assertEquals("B", sessionCallback.messages.get(0).getTeam().getTeamName());
+		assertEquals("D", sessionCallback.messages.get(1).getTeam().getTeamName());
+
+		assertEquals(2, gameCallback.messages.size());
+		assertEquals("C", gameCallback.messages.get(0).getTeam().getTeamName());
+		assertEquals("D", gameCallback.messages.get(1).getTeam().getTeamName());
+
+		bf1942.close();
+		etqw.close();
+	}
+}
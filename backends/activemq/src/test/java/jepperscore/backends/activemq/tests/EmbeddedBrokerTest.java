@@ -0,0 +1,110 @@
+package jepperscore.backends.activemq.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import jepperscore.backends.activemq.ActiveMQMessageDestination;
+import jepperscore.backends.activemq.ActiveMQMessageSource;
+import jepperscore.backends.activemq.EmbeddedBroker;
+import jepperscore.dao.IMessageCallback;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * This class tests the {@link EmbeddedBroker} class.
+ *
+ * @author Chuck
+ *
+ */
+public class EmbeddedBrokerTest {
+
+	/**
+	 * The name of the broker.
+	 */
+	private static final String BROKER_NAME = "embedded-broker-test";
+
+	/**
+	 * A callback recording the team names.
+	 */
+	private static class RecordingCallback implements IMessageCallback {
+
+		/**
+		 * Counted down for each message.
+		 */
+		private final CountDownLatch received;
+
+		/**
+		 * The received team names.
+		 */
+		private final List<String> teams = new CopyOnWriteArrayList<String>();
+
+		/**
+		 * Constructor.
+		 * @param count The number of messages expected.
+		 */
+		public RecordingCallback(int count) {
+			received = new CountDownLatch(count);
+		}
+
+		@Override
+		public void onMessage(TransportMessage message) {
+			teams.add(message.getTeam().getTeamName());
+			received.countDown();
+		}
+	}
+
+	/**
+	 * Stops the broker.
+	 */
+	@After
+	public void tearDown() {
+		EmbeddedBroker.stop(BROKER_NAME);
+	}
+
+	/**
+	 * Tests that a destination and a source in the same JVM exchange messages
+	 * through the embedded broker, and that a remote client can connect
+	 * through the connector.
+	 * @throws JMSException If there is a problem with ActiveMQ.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testVmAndConnector() throws JMSException, InterruptedException {
+		ActiveMQMessageSource localSource = new ActiveMQMessageSource("vm://" + BROKER_NAME
+				+ ";connector=tcp://localhost:0");
+		RecordingCallback localCallback = new RecordingCallback(3);
+		localSource.registerCallback(localCallback);
+
+		URI connectorUri = EmbeddedBroker.getConnectorUri(BROKER_NAME);
+		assertNotNull(connectorUri);
+		ActiveMQMessageSource remoteSource = new ActiveMQMessageSource(connectorUri.toString());
+		RecordingCallback remoteCallback = new RecordingCallback(3);
+		remoteSource.registerCallback(remoteCallback);
+
+		ActiveMQMessageDestination destination = new ActiveMQMessageDestination("vm://" + BROKER_NAME
+				+ ";codec=binary;delivery=nonpersistent");
+		for (int i = 0; i < 3; i++) {
+			destination.sendMessage(new TransportMessage(new Team("Team " + i), "round-1"));
+		}
+
+		assertTrue(localCallback.received.await(5, TimeUnit.SECONDS));
+		assertTrue(remoteCallback.received.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 3; i++) {
+			assertEquals("Team " + i, localCallback.teams.get(i));
+			assertEquals("Team " + i, remoteCallback.teams.get(i));
+		}
+		destination.close();
+	}
+}
@@ -0,0 +1,169 @@
+package jepperscore.backends.couchdb;
+
+import java.net.MalformedURLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.ektorp.ComplexKey;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+import org.ektorp.ViewResult.Row;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * This class reads the leaderboard of a session from the reduce views of the
+ * design document. Each query is a single indexed request, instead of
+ * replaying every message of the session.
+ *
+ * @author Chuck
+ *
+ */
+public class CouchDbLeaderboard {
+
+	/**
+	 * The database to read from.
+	 */
+	private final CouchDbConnector db;
+
+	/**
+	 * Connects to the database.
+	 *
+	 * @param couchdbString
+	 *            The couchdb setup string: the server, optionally followed by
+	 *            the database name.
+	 * @throws MalformedURLException
+	 *             If the server string cannot be understood.
+	 */
+	public CouchDbLeaderboard(@Nonnull String couchdbString)
+			throws MalformedURLException {
+		String[] configArray = couchdbString.split(";");
+		String dbName = "pepperscore";
+
+		if ((configArray.length >= 2) && !configArray[1].contains("=")) {
+			dbName = configArray[1];
+		}
+
+		db = CouchDbUtils.setupCouchDb(configArray[0], dbName);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param db
+	 *            The database to read from, set up by
+	 *            {@link CouchDbUtils#setupCouchDb(String, String)}.
+	 */
+	public CouchDbLeaderboard(@Nonnull CouchDbConnector db) {
+		this.db = db;
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session.
+	 * @return The number of kills by attacker alias id.
+	 */
+	@Nonnull
+	public Map<String, Integer> getKillsByAttacker(@Nonnull String sessionId) {
+		return queryCounts(CouchDbUtils.KILLS_BY_ATTACKER_VIEW, sessionId);
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session.
+	 * @return The number of deaths, team kills included, by victim alias id.
+	 */
+	@Nonnull
+	public Map<String, Integer> getDeathsByVictim(@Nonnull String sessionId) {
+		return queryCounts(CouchDbUtils.DEATHS_BY_VICTIM_VIEW, sessionId);
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session.
+	 * @return The number of team kills by attacker alias id.
+	 */
+	@Nonnull
+	public Map<String, Integer> getTeamKillsByAttacker(@Nonnull String sessionId) {
+		return queryCounts(CouchDbUtils.TEAM_KILLS_BY_ATTACKER_VIEW, sessionId);
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session.
+	 * @return The latest score by alias id.
+	 */
+	@Nonnull
+	public Map<String, Float> getScoresByAlias(@Nonnull String sessionId) {
+		return queryLatest(CouchDbUtils.LATEST_SCORE_BY_ALIAS_VIEW, sessionId);
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session.
+	 * @return The latest score by team name.
+	 */
+	@Nonnull
+	public Map<String, Float> getScoresByTeam(@Nonnull String sessionId) {
+		return queryLatest(CouchDbUtils.LATEST_TEAM_SCORE_VIEW, sessionId);
+	}
+
+	/**
+	 * Queries a reduce view keyed by [session, name], grouped by name.
+	 *
+	 * @param viewName
+	 *            The view.
+	 * @param sessionId
+	 *            The session.
+	 * @return The result.
+	 */
+	private ViewResult query(String viewName, String sessionId) {
+		return db.queryView(new ViewQuery()
+				.designDocId("_design/" + CouchDbUtils.DESIGN_DOC)
+				.viewName(viewName)
+				.startKey(ComplexKey.of(sessionId))
+				.endKey(ComplexKey.of(sessionId, ComplexKey.emptyObject()))
+				.reduce(true).group(true));
+	}
+
+	/**
+	 * Queries a counting view.
+	 *
+	 * @param viewName
+	 *            The view.
+	 * @param sessionId
+	 *            The session.
+	 * @return The counts by name.
+	 */
+	private Map<String, Integer> queryCounts(String viewName, String sessionId) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (Row row : query(viewName, sessionId).getRows()) {
+			counts.put(row.getKeyAsNode().get(1).asText(), row.getValueAsInt());
+		}
+		return counts;
+	}
+
+	/**
+	 * Queries a view of the latest [document id, value] pairs.
+	 *
+	 * @param viewName
+	 *            The view.
+	 * @param sessionId
+	 *            The session.
+	 * @return The latest values by name.
+	 */
+	private Map<String, Float> queryLatest(String viewName, String sessionId) {
+		Map<String, Float> values = new HashMap<String, Float>();
+		for (Row row : query(viewName, sessionId).getRows()) {
+			JsonNode value = row.getValueAsNode();
+			if ((value != null) && (value.size() > 1) && value.get(1).isNumber()) {
+				values.put(row.getKeyAsNode().get(1).asText(),
+						(float) value.get(1).asDouble());
+			}
+		}
+		return values;
+	}
+}
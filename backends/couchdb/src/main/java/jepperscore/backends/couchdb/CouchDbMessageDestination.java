@@ -1,24 +1,75 @@
 package jepperscore.backends.couchdb;
 
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.AbstractMessageDestination;
+import jepperscore.dao.IMessageCallback;
 import jepperscore.dao.IMessageDestination;
+import jepperscore.dao.transport.DeltaApplier;
+import jepperscore.dao.transport.RoundSnapshot;
 import jepperscore.dao.transport.TransportMessage;
 
 import org.ektorp.CouchDbConnector;
 import org.ektorp.DocumentNotFoundException;
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.UpdateConflictException;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+import org.ektorp.ViewResult.Row;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * This class implements the {@link IMessageDestination} using ActiveMQ.
+ * This class implements the {@link IMessageDestination} using CouchDB.
+ *
+ * <p>
+ * The revisions of written documents are cached, so updating a document
+ * usually takes a single request. With a flush interval in the setup string
+ * (<code>http://localhost:5984;pepperscore;flushInterval=250;batchSize=500;queueSize=100000</code>)
+ * messages are queued and written by a background thread through
+ * <code>_bulk_docs</code>. Writes rejected because of a stale revision are
+ * retried with the current one.
+ * </p>
+ *
+ * <p>
+ * Deltas are rebuilt into full messages with a {@link DeltaApplier} before
+ * they are stored, as the views (such as <code>latestscorebyalias</code>)
+ * only read full documents. Deltas for entities this destination has not
+ * seen in full, or in a snapshot, are dropped.
+ * </p>
+ *
+ * <p>
+ * A queued batch that cannot be written is retried, with a growing delay,
+ * until CouchDB accepts it. Senders wait while
+ * {@link #QUEUE_SIZE_OPTION queueSize} messages are queued, and once a batch
+ * has failed {@link #MAX_QUIET_FAILURES} times in a row, sending throws an
+ * {@link IllegalStateException} until a write succeeds again, so a
+ * {@link jepperscore.dao.transport.SpoolingMessageDestination} in front can
+ * hold the messages instead.
+ * </p>
+ *
+ * <p>
+ * With {@link CouchDbRoundArchiver#ARCHIVE_DB_OPTION} the destination also
+ * runs a {@link CouchDbRoundArchiver} moving finished rounds to that
+ * database.
+ * </p>
  *
  * @author Chuck
  *
  */
-public class CouchDbMessageDestination implements IMessageDestination {
+public class CouchDbMessageDestination extends AbstractMessageDestination
+		implements Runnable {
 
 	/**
 	 * Class logger.
@@ -26,16 +77,144 @@ public class CouchDbMessageDestination implements IMessageDestination {
 	private static final Logger LOG = LoggerFactory
 			.getLogger(CouchDbMessageDestination.class);
 
+	/**
+	 * The option giving the time messages are queued before being written,
+	 * in milliseconds. Messages are written straight away if not set.
+	 */
+	public static final String FLUSH_INTERVAL_OPTION = "flushInterval";
+
+	/**
+	 * The option giving the number of queued messages that are written
+	 * without waiting for the flush interval.
+	 */
+	public static final String BATCH_SIZE_OPTION = "batchSize";
+
+	/**
+	 * The option giving the largest number of queued messages.
+	 */
+	public static final String QUEUE_SIZE_OPTION = "queueSize";
+
+	/**
+	 * The default batch size.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	/**
+	 * The default largest number of queued messages.
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = 100000;
+
+	/**
+	 * The number of times in a row a queued batch may fail before senders
+	 * are told.
+	 */
+	public static final int MAX_QUIET_FAILURES = 3;
+
+	/**
+	 * The first delay before retrying a failed batch, in milliseconds.
+	 */
+	private static final long MIN_RETRY_DELAY = 500;
+
+	/**
+	 * The longest delay before retrying a failed batch, in milliseconds.
+	 */
+	private static final long MAX_RETRY_DELAY = 30000;
+
+	/**
+	 * The number of revisions cached.
+	 */
+	public static final int REVISION_CACHE_SIZE = 10000;
+
+	/**
+	 * The number of times a write is retried after a revision conflict.
+	 */
+	private static final int MAX_CONFLICT_RETRIES = 3;
+
+	/**
+	 * The error CouchDB returns for a stale revision.
+	 */
+	private static final String CONFLICT_ERROR = "conflict";
+
 	/**
 	 * The database to connect to.
 	 */
 	private CouchDbConnector db;
 
+	/**
+	 * The latest known revision of each document, least recently used first.
+	 */
+	private final Map<String, String> revisions = new LinkedHashMap<String, String>(16, 0.75f, true) {
+
+		/**
+		 * Serialisation id.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > REVISION_CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * The time messages are queued, or 0 if they are written straight away.
+	 */
+	private final long flushInterval;
+
+	/**
+	 * The number of queued messages written without waiting.
+	 */
+	private final int batchSize;
+
+	/**
+	 * The largest number of queued messages.
+	 */
+	private final int queueSize;
+
+	/**
+	 * The queued messages. Guarded by itself.
+	 */
+	private final List<TransportMessage> queue = new ArrayList<TransportMessage>();
+
+	/**
+	 * The error of the batch being retried, once it has failed
+	 * {@link #MAX_QUIET_FAILURES} times, null otherwise.
+	 */
+	private volatile RuntimeException writeFailure;
+
+	/**
+	 * The messages rebuilt by {@link #deltaApplier}, waiting to be stored.
+	 * Guarded by {@link #deltaApplier}.
+	 */
+	private final List<TransportMessage> expanded = new ArrayList<TransportMessage>();
+
+	/**
+	 * Rebuilds full messages from deltas before they are stored, so the
+	 * views only ever see full documents.
+	 */
+	private final DeltaApplier deltaApplier = new DeltaApplier(new IMessageCallback() {
+		@Override
+		public void onMessage(TransportMessage message) {
+			expanded.add(message);
+		}
+	});
+
+	/**
+	 * The number of ids handed out with the current timestamp.
+	 */
+	private int idCount = 0;
+
+	/**
+	 * The timestamp used for the last id handed out.
+	 */
+	private String idTimestamp = "";
+
 	/**
 	 * Creates the message destination.
 	 *
 	 * @param couchdbString
-	 *            The couchdb setup string.
+	 *            The couchdb setup string: the server, optionally followed by
+	 *            the database name and options, separated by semicolons.
 	 * @throws MalformedURLException
 	 */
 	public CouchDbMessageDestination(String couchdbString)
@@ -44,35 +223,358 @@ public class CouchDbMessageDestination implements IMessageDestination {
 		String server = configArray[0];
 		String dbName = "pepperscore";
 
-		if (configArray.length >= 2) {
+		if ((configArray.length >= 2) && !configArray[1].contains("=")) {
 			dbName = configArray[1];
 		}
 
+		Map<String, String> options = CouchDbUtils.parseOptions(configArray);
+
+		try {
+			flushInterval = options.containsKey(FLUSH_INTERVAL_OPTION) ? Long
+					.parseLong(options.get(FLUSH_INTERVAL_OPTION)) : 0;
+			batchSize = options.containsKey(BATCH_SIZE_OPTION) ? Integer
+					.parseInt(options.get(BATCH_SIZE_OPTION))
+					: DEFAULT_BATCH_SIZE;
+			queueSize = options.containsKey(QUEUE_SIZE_OPTION) ? Integer
+					.parseInt(options.get(QUEUE_SIZE_OPTION))
+					: DEFAULT_QUEUE_SIZE;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid CouchDB option: "
+					+ e.getMessage(), e);
+		}
+
 		LOG.info("Connecting to " + server + " (DB: " + dbName
 				+ ") using the CouchDB backend.");
 
 		db = CouchDbUtils.setupCouchDb(server, dbName);
+
+		String archiveDbName = options.get(CouchDbRoundArchiver.ARCHIVE_DB_OPTION);
+		if (archiveDbName != null) {
+			long archiveInterval = CouchDbRoundArchiver.DEFAULT_ARCHIVE_INTERVAL;
+			long archiveDelay = CouchDbRoundArchiver.DEFAULT_ARCHIVE_DELAY;
+			try {
+				if (options.containsKey(CouchDbRoundArchiver.ARCHIVE_INTERVAL_OPTION)) {
+					archiveInterval = Long.parseLong(options.get(CouchDbRoundArchiver.ARCHIVE_INTERVAL_OPTION));
+				}
+				if (options.containsKey(CouchDbRoundArchiver.ARCHIVE_DELAY_OPTION)) {
+					archiveDelay = Long.parseLong(options.get(CouchDbRoundArchiver.ARCHIVE_DELAY_OPTION));
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid CouchDB option: "
+						+ e.getMessage(), e);
+			}
+
+			new CouchDbRoundArchiver(db, CouchDbUtils.connect(server, archiveDbName),
+					archiveDelay).start(archiveInterval);
+		}
+
+		if (flushInterval > 0) {
+			Thread flushThread = new Thread(this, "CouchDbMessageDestination-flush");
+			flushThread.setDaemon(true);
+			flushThread.start();
+		}
 	}
 
 	@Override
-	public synchronized void sendMessage(TransportMessage transportMessage) {
+	public void sendMessage(TransportMessage transportMessage) {
 		if (transportMessage.getSessionId() == null) {
 			LOG.warn("Sending message without session ID.");
 		}
 
+		sendMessages(Collections.singletonList(transportMessage));
+	}
+
+	/**
+	 * Sends the messages with a single bulk write (_bulk_docs), instead of a
+	 * request per message. Revisions not in the cache are looked up with a
+	 * single _all_docs request.
+	 */
+	@Override
+	public void sendMessages(Collection<TransportMessage> transportMessages) {
+		synchronized (deltaApplier) {
+			for (TransportMessage transportMessage : transportMessages) {
+				RoundSnapshot snapshot = transportMessage.getSnapshot();
+				if (snapshot != null) {
+					for (TransportMessage message : snapshot.toMessages(transportMessage.getSessionId())) {
+						deltaApplier.apply(message);
+					}
+				}
+				deltaApplier.onMessage(transportMessage);
+			}
+			if (expanded.isEmpty()) {
+				return;
+			}
+			List<TransportMessage> fullMessages = new ArrayList<TransportMessage>(expanded);
+			expanded.clear();
+
+			if (flushInterval > 0) {
+				enqueue(fullMessages);
+			} else if (fullMessages.size() == 1) {
+				write(fullMessages.get(0));
+			} else {
+				writeBulk(fullMessages);
+			}
+		}
+	}
+
+	/**
+	 * Queues messages, waiting while the queue is full.
+	 *
+	 * @param transportMessages
+	 *            The messages.
+	 * @throws IllegalStateException
+	 *             If the queued messages cannot be written.
+	 */
+	private void enqueue(@Nonnull Collection<TransportMessage> transportMessages) {
+		synchronized (queue) {
+			while (true) {
+				RuntimeException failure = writeFailure;
+				if (failure != null) {
+					throw new IllegalStateException("Unable to write to CouchDB: "
+							+ failure.getMessage(), failure);
+				}
+				if (queue.isEmpty()
+						|| (queue.size() + transportMessages.size() <= queueSize)) {
+					break;
+				}
+				try {
+					queue.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting to queue messages for CouchDB.", e);
+				}
+			}
+
+			queue.addAll(transportMessages);
+			if (queue.size() >= batchSize) {
+				queue.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Writes the queued messages every flush interval, or sooner if a full
+	 * batch is waiting.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			List<TransportMessage> batch;
+			synchronized (queue) {
+				try {
+					if (queue.size() < batchSize) {
+						queue.wait(flushInterval);
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (queue.isEmpty()) {
+					continue;
+				}
+				List<TransportMessage> head = queue.subList(0, Math.min(queue.size(), batchSize));
+				batch = new ArrayList<TransportMessage>(head);
+				head.clear();
+				queue.notifyAll();
+			}
+
+			if (!writeQueued(batch)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Writes a queued batch, retrying with a growing delay until CouchDB
+	 * accepts it. Retrying is safe, as every message has an id once it was
+	 * tried.
+	 *
+	 * @param batch
+	 *            The batch.
+	 * @return False if interrupted while waiting to retry.
+	 */
+	private boolean writeQueued(@Nonnull List<TransportMessage> batch) {
+		long delay = MIN_RETRY_DELAY;
+		for (int attempt = 1;; attempt++) {
+			try {
+				writeBulk(batch);
+				if (writeFailure != null) {
+					writeFailure = null;
+					LOG.info("Writing to CouchDB again.");
+				}
+				return true;
+			} catch (RuntimeException e) {
+				LOG.error("Unable to write " + batch.size()
+						+ " messages, retrying in " + delay + "ms: "
+						+ e.getMessage(), e);
+				if (attempt >= MAX_QUIET_FAILURES) {
+					writeFailure = e;
+					synchronized (queue) {
+						queue.notifyAll();
+					}
+				}
+			}
+
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				LOG.error("Interrupted, dropping " + batch.size()
+						+ " messages for CouchDB.");
+				return false;
+			}
+			delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+		}
+	}
+
+	/**
+	 * Writes a single message.
+	 *
+	 * @param transportMessage
+	 *            The message.
+	 */
+	private synchronized void write(TransportMessage transportMessage) {
 		if (transportMessage.getId() == null) {
-			transportMessage.setId(DateTime.now(DateTimeZone.UTC).toString());
+			transportMessage.setId(nextId());
 			db.create(transportMessage);
-		} else {
+			return;
+		}
+
+		String id = transportMessage.getId();
+		transportMessage.setRevision(revisions.get(id));
+		for (int attempt = 0;; attempt++) {
 			try {
-				TransportMessage oldMsg = db.get(TransportMessage.class,
-						transportMessage.getId());
-				transportMessage.setRevision(oldMsg.getRevision());
+				if (transportMessage.getRevision() == null) {
+					db.create(transportMessage);
+				} else {
+					db.update(transportMessage);
+				}
+				revisions.put(id, transportMessage.getRevision());
+				return;
+			} catch (UpdateConflictException e) {
+				if (attempt >= MAX_CONFLICT_RETRIES) {
+					throw e;
+				}
+				try {
+					transportMessage.setRevision(db.getCurrentRevision(id));
+				} catch (DocumentNotFoundException e1) {
+					transportMessage.setRevision(null);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes messages through _bulk_docs, retrying the documents with stale
+	 * revisions.
+	 *
+	 * @param transportMessages
+	 *            The messages.
+	 */
+	private synchronized void writeBulk(
+			@Nonnull Collection<TransportMessage> transportMessages) {
+		if (transportMessages.isEmpty()) {
+			return;
+		}
 
-				db.update(transportMessage);
-			} catch (DocumentNotFoundException e) {
-				db.create(transportMessage);
+		Map<String, TransportMessage> updates = new HashMap<String, TransportMessage>();
+		List<TransportMessage> docs = new ArrayList<TransportMessage>(transportMessages.size());
+		List<String> unknownRevisions = new ArrayList<String>();
+
+		for (TransportMessage transportMessage : transportMessages) {
+			if (transportMessage.getSessionId() == null) {
+				LOG.warn("Sending message without session ID.");
+			}
+
+			if (transportMessage.getId() == null) {
+				transportMessage.setId(nextId());
+			} else {
+				TransportMessage previous = updates.put(transportMessage.getId(), transportMessage);
+				if (previous != null) {
+					// Only the last update of a document in the batch is kept.
+					docs.remove(previous);
+				}
+			}
+			docs.add(transportMessage);
+		}
+
+		for (Map.Entry<String, TransportMessage> entry : updates.entrySet()) {
+			String revision = revisions.get(entry.getKey());
+			entry.getValue().setRevision(revision);
+			if (revision == null) {
+				unknownRevisions.add(entry.getKey());
 			}
 		}
+
+		for (int attempt = 0;; attempt++) {
+			if (!unknownRevisions.isEmpty()) {
+				lookupRevisions(unknownRevisions, updates);
+			}
+
+			List<TransportMessage> conflicts = new ArrayList<TransportMessage>();
+			for (DocumentOperationResult result : db.executeBulk(docs)) {
+				if (!result.isErroneous()) {
+					continue;
+				}
+
+				TransportMessage transportMessage = updates.get(result.getId());
+				if (CONFLICT_ERROR.equals(result.getError())
+						&& (transportMessage != null)
+						&& (attempt < MAX_CONFLICT_RETRIES)) {
+					conflicts.add(transportMessage);
+				} else {
+					LOG.warn("Unable to write " + result.getId() + ": "
+							+ result.getError() + " (" + result.getReason() + ")");
+				}
+			}
+
+			for (TransportMessage transportMessage : docs) {
+				if (!conflicts.contains(transportMessage)
+						&& updates.containsKey(transportMessage.getId())) {
+					revisions.put(transportMessage.getId(), transportMessage.getRevision());
+				}
+			}
+
+			if (conflicts.isEmpty()) {
+				return;
+			}
+
+			docs = conflicts;
+			unknownRevisions = new ArrayList<String>();
+			for (TransportMessage transportMessage : conflicts) {
+				unknownRevisions.add(transportMessage.getId());
+			}
+		}
+	}
+
+	/**
+	 * Looks up the current revisions of documents with a single _all_docs
+	 * request, and sets them on the messages.
+	 *
+	 * @param ids
+	 *            The ids of the documents.
+	 * @param updates
+	 *            The messages, by id.
+	 */
+	private void lookupRevisions(@Nonnull Collection<String> ids,
+			@Nonnull Map<String, TransportMessage> updates) {
+		ViewResult result = db.queryView(new ViewQuery().allDocs().keys(ids));
+		for (Row row : result.getRows()) {
+			TransportMessage transportMessage = updates.get(row.getKey());
+			if ((transportMessage != null) && (row.getValueAsNode() != null)) {
+				transportMessage.setRevision(row.getValueAsNode().get("rev").asText());
+			}
+		}
+	}
+
+	/**
+	 * @return A new id for a message without one, based on the current time.
+	 */
+	private synchronized String nextId() {
+		String timestamp = DateTime.now(DateTimeZone.UTC).toString();
+		if (timestamp.equals(idTimestamp)) {
+			return String.format("%s-%04d", timestamp, ++idCount);
+		}
+		idTimestamp = timestamp;
+		idCount = 0;
+		return timestamp;
 	}
 }
@@ -1,10 +1,27 @@
 package jepperscore.backends.couchdb;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import jepperscore.dao.AbstractMessageSource;
 import jepperscore.dao.IMessageSource;
+import jepperscore.dao.MessageFilter;
+import jepperscore.dao.MessageType;
 import jepperscore.dao.transport.TransportMessage;
 
 import org.ektorp.CouchDbConnector;
@@ -15,10 +32,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 /**
  * This class implements the {@link IMessageSource} using CouchDb.
  *
+ * <p>
+ * The changes feed is filtered on the server by the content types and
+ * session the callbacks want. With a checkpoint file in the setup string
+ * (<code>http://localhost:5984;pepperscore;checkpoint=/var/lib/scoreboard.seq</code>)
+ * the last processed sequence is saved about once a second and the feed
+ * resumes from it after a restart. Without a checkpoint, <code>since=now</code>
+ * skips the history and only follows new documents.
+ * </p>
+ *
+ * <p>
+ * With more than one {@link #DECODE_THREADS_OPTION decode thread}, the feed
+ * thread only reads changes. They are decoded on a worker pool, and a
+ * dispatch thread gives them to the callbacks in feed order, so the order
+ * of each document and session is kept while catching up on a backlog.
+ * </p>
+ *
  * @author Chuck
  *
  */
@@ -30,15 +64,174 @@ public class CouchDbMessageSource extends AbstractMessageSource implements Runna
 	private static final Logger LOG = LoggerFactory
 			.getLogger(CouchDbMessageSource.class);
 
+	/**
+	 * The option naming the file the last processed sequence is saved in.
+	 */
+	public static final String CHECKPOINT_OPTION = "checkpoint";
+
+	/**
+	 * The option giving the sequence to start from when there is no
+	 * checkpoint: a number, or {@link #SINCE_NOW}.
+	 */
+	public static final String SINCE_OPTION = "since";
+
+	/**
+	 * Starts from the current end of the database.
+	 */
+	public static final String SINCE_NOW = "now";
+
+	/**
+	 * The option giving the number of threads changes are decoded on.
+	 */
+	public static final String DECODE_THREADS_OPTION = "decodeThreads";
+
+	/**
+	 * The shortest time between two checkpoints, in milliseconds.
+	 */
+	public static final long CHECKPOINT_INTERVAL = 1000;
+
+	/**
+	 * The number of changes read ahead of the dispatch thread.
+	 */
+	public static final int DECODE_QUEUE_CAPACITY = 1000;
+
+	/**
+	 * The reader decoding documents, shared by all sources and threads.
+	 */
+	private static final ObjectReader READER = new ObjectMapper()
+			.reader(TransportMessage.class);
+
+	/**
+	 * A decoded change.
+	 */
+	private static final class Change {
+
+		/**
+		 * The sequence of the change.
+		 */
+		private final long sequence;
+
+		/**
+		 * The decoded message, or null if it could not be decoded.
+		 */
+		private final TransportMessage message;
+
+		/**
+		 * Constructor.
+		 * @param sequence The sequence of the change.
+		 * @param message The decoded message.
+		 */
+		private Change(long sequence, TransportMessage message) {
+			this.sequence = sequence;
+			this.message = message;
+		}
+	}
+
+	/**
+	 * Decodes a change on the worker pool.
+	 */
+	private static final class DecodeTask implements Callable<Change> {
+
+		/**
+		 * The change.
+		 */
+		private final DocumentChange item;
+
+		/**
+		 * Constructor.
+		 * @param item The change.
+		 */
+		private DecodeTask(DocumentChange item) {
+			this.item = item;
+		}
+
+		@Override
+		public Change call() {
+			return decode(item);
+		}
+	}
+
+	/**
+	 * Gives the decoded changes to the callbacks in feed order.
+	 */
+	private final class Dispatcher implements Runnable {
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					Future<Change> change = decoded.poll(1, TimeUnit.SECONDS);
+					if (change != null) {
+						dispatch(change.get());
+					}
+					saveCheckpoint(false);
+				} catch (InterruptedException e) {
+					break;
+				} catch (ExecutionException e) {
+					LOG.error(e.getMessage(), e);
+				}
+			}
+			saveCheckpoint(true);
+		}
+	}
+
+	/**
+	 * The pool decoding changes, or null if they are decoded on the feed
+	 * thread.
+	 */
+	private final ExecutorService decodePool;
+
+	/**
+	 * The changes being decoded, in feed order.
+	 */
+	private final BlockingQueue<Future<Change>> decoded = new ArrayBlockingQueue<Future<Change>>(DECODE_QUEUE_CAPACITY);
+
+	/**
+	 * The last sequence read from the changes feed, or -1 if none. The feed
+	 * restarts from here when the filter changes.
+	 */
+	private long readSequence = -1;
+
 	/**
 	 * The database to connect to.
 	 */
 	private CouchDbConnector db;
 
 	/**
-	 * The thread checking the feed.
+	 * The thread checking the feed, started when the first callback is
+	 * registered.
+	 */
+	private final Thread feedThread;
+
+	/**
+	 * True once the feed thread was started.
+	 */
+	private boolean started = false;
+
+	/**
+	 * The filter used for the changes feed.
+	 */
+	private volatile MessageFilter feedFilter = MessageFilter.all();
+
+	/**
+	 * The last sequence given to the callbacks, or -1 if none.
 	 */
-	private Thread feedThread;
+	private volatile long lastSequence = -1;
+
+	/**
+	 * The checkpoint file, or null.
+	 */
+	private final File checkpointFile;
+
+	/**
+	 * The sequence last saved to the checkpoint file.
+	 */
+	private long checkpointSequence = -1;
+
+	/**
+	 * When the checkpoint was last saved.
+	 */
+	private long checkpointTime = 0;
 
 	/**
 	 * Creates the message destination.
@@ -52,40 +245,207 @@ public class CouchDbMessageSource extends AbstractMessageSource implements Runna
 		String server = configArray[0];
 		String dbName = "pepperscore";
 
-		if (configArray.length >= 2) {
+		if ((configArray.length >= 2) && !configArray[1].contains("=")) {
 			dbName = configArray[1];
 		}
+		Map<String, String> options = CouchDbUtils.parseOptions(configArray);
 
 		LOG.info("Connecting to " + server + " (DB: " + dbName + ") using the CouchDB backend.");
 
 		db = CouchDbUtils.setupCouchDb(server, dbName);
-		
-		feedThread = new Thread(this);
+
+		String checkpoint = options.get(CHECKPOINT_OPTION);
+		checkpointFile = (checkpoint == null) ? null : new File(checkpoint);
+		if ((checkpointFile != null) && checkpointFile.exists()) {
+			try {
+				lastSequence = Long.parseLong(new String(Files.readAllBytes(
+						checkpointFile.toPath()), StandardCharsets.UTF_8).trim());
+				checkpointSequence = lastSequence;
+				LOG.info("Resuming the changes feed from sequence " + lastSequence);
+			} catch (IOException | NumberFormatException e) {
+				LOG.error("Unable to read checkpoint " + checkpointFile + ": " + e.getMessage(), e);
+			}
+		}
+
+		String since = options.get(SINCE_OPTION);
+		if ((lastSequence < 0) && (since != null)) {
+			if (SINCE_NOW.equals(since)) {
+				lastSequence = db.getDbInfo().getUpdateSeq();
+			} else {
+				lastSequence = Long.parseLong(since);
+			}
+		}
+
+
+		readSequence = lastSequence;
+
+		int decodeThreads = Integer.parseInt(options.containsKey(DECODE_THREADS_OPTION)
+				? options.get(DECODE_THREADS_OPTION) : "1");
+		if (decodeThreads > 1) {
+			decodePool = Executors.newFixedThreadPool(decodeThreads, new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "CouchDbMessageSource-decode");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+			Thread dispatchThread = new Thread(new Dispatcher(), "CouchDbMessageSource-dispatch");
+			dispatchThread.setDaemon(true);
+			dispatchThread.start();
+		} else {
+			decodePool = null;
+		}
+
+		feedThread = new Thread(this, "CouchDbMessageSource-feed");
 		feedThread.setDaemon(true);
-		feedThread.start();
+	}
+
+	/**
+	 * Restarts the changes feed with the filter, so CouchDb drops the
+	 * documents no callback wants. The feed is only started when the first
+	 * callback is registered, so the changes read from the checkpoint on
+	 * are not dropped (and checkpointed) before anyone receives them.
+	 */
+	@Override
+	protected void filtersChanged(MessageFilter combinedFilter) {
+		feedFilter = combinedFilter;
+		synchronized (feedThread) {
+			if (!started) {
+				started = true;
+				feedThread.start();
+			}
+		}
+	}
+
+	/**
+	 * Creates the changes command for a filter.
+	 * @param filter The filter.
+	 * @return The changes command.
+	 */
+	private ChangesCommand createChangesCommand(MessageFilter filter) {
+		ChangesCommand.Builder builder = new ChangesCommand.Builder().includeDocs(true).continuous(true).heartbeat(100);
+		if (readSequence >= 0) {
+			builder.since(readSequence);
+		}
+
+		if (!filter.isAllTypes() || (filter.getSessionId() != null)) {
+			builder.filter(CouchDbUtils.MESSAGE_FILTER);
+
+			if (!filter.isAllTypes()) {
+				StringBuilder types = new StringBuilder();
+				for (MessageType type : filter.getTypes()) {
+					if (types.length() > 0) {
+						types.append(",");
+					}
+					types.append(type.getFieldName());
+				}
+				builder.param(CouchDbUtils.FILTER_TYPES_PARAM, types.toString());
+			}
+
+			String sessionId = filter.getSessionId();
+			if (sessionId != null) {
+				builder.param(CouchDbUtils.FILTER_SESSION_PARAM, sessionId);
+			}
+		}
+
+		return builder.build();
 	}
 
 	@Override
 	public void run() {
-		ChangesCommand cmd = new ChangesCommand.Builder().includeDocs(true).continuous(true).heartbeat(100).build();
-		ChangesFeed feed = db.changesFeed(cmd);
-		
-		ObjectMapper mapper = new ObjectMapper();
+		MessageFilter filter = feedFilter;
+		ChangesFeed feed = db.changesFeed(createChangesCommand(filter));
 
 		while (feed.isAlive()) {
 			try {
-				DocumentChange item = feed.next();
-				String doc = item.getDoc();
-				TransportMessage msg = mapper.readValue(doc, TransportMessage.class);
+				if (filter != feedFilter) {
+					feed.cancel();
+					filter = feedFilter;
+					feed = db.changesFeed(createChangesCommand(filter));
+				}
 
-				call(msg);
+				DocumentChange item = feed.next(1, TimeUnit.SECONDS);
+				if (decodePool == null) {
+					if (item != null) {
+						readSequence = item.getSequence();
+						dispatch(decode(item));
+					}
+					saveCheckpoint(false);
+				} else if (item != null) {
+					readSequence = item.getSequence();
+					decoded.put(decodePool.submit(new DecodeTask(item)));
+				}
 			} catch (InterruptedException e) {
 				break;
-			} catch (IOException e) {
-				 LOG.error(e.getMessage(), e);
-				 break;
 			}
 		}
+
+		if (decodePool == null) {
+			saveCheckpoint(true);
+		}
+	}
+
+	/**
+	 * Decodes a change.
+	 *
+	 * @param item
+	 *            The change.
+	 * @return The decoded change.
+	 */
+	private static Change decode(DocumentChange item) {
+		TransportMessage message = null;
+		try {
+			message = READER.readValue(item.getDoc());
+		} catch (IOException e) {
+			LOG.error("Unable to decode " + item.getId() + ": " + e.getMessage(), e);
+		}
+		return new Change(item.getSequence(), message);
+	}
+
+	/**
+	 * Gives a decoded change to the callbacks.
+	 *
+	 * @param change
+	 *            The change.
+	 */
+	private void dispatch(Change change) {
+		if (change.message != null) {
+			call(change.message);
+		}
+		lastSequence = change.sequence;
+	}
+
+	/**
+	 * Saves the last processed sequence to the checkpoint file, if it
+	 * changed and the checkpoint interval passed. The file is replaced
+	 * atomically, so a crash leaves the previous checkpoint.
+	 *
+	 * @param force
+	 *            True to ignore the checkpoint interval.
+	 */
+	private synchronized void saveCheckpoint(boolean force) {
+		if ((checkpointFile == null) || (lastSequence == checkpointSequence)) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (!force && ((now - checkpointTime) < CHECKPOINT_INTERVAL)) {
+			return;
+		}
+
+		long sequence = lastSequence;
+		Path tempFile = new File(checkpointFile.getPath() + ".tmp").toPath();
+		try {
+			Files.write(tempFile, Long.toString(sequence).getBytes(StandardCharsets.UTF_8));
+			Files.move(tempFile, checkpointFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			checkpointSequence = sequence;
+		} catch (IOException e) {
+			LOG.error("Unable to save checkpoint " + checkpointFile + ": " + e.getMessage(), e);
+		}
+		checkpointTime = now;
 	}
 
 }
@@ -0,0 +1,408 @@
+package jepperscore.backends.couchdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.IMessageCallback;
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Score;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.DeltaApplier;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentNotFoundException;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult.Row;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * This class moves finished rounds out of the live database. The messages of
+ * each round are folded into a single summary document in an archive
+ * database: the round, the server metadata, the latest alias, score and team
+ * score of each player and team, and the events in order. The messages are
+ * then purged from the live database and the database and its views are
+ * compacted, so the live working set stays bounded however long the event
+ * runs.
+ *
+ * <p>
+ * Deltas are rebuilt into full messages with a {@link DeltaApplier}, seeded
+ * with the summary, before they are folded in. Messages arriving for a round
+ * after it was archived are merged into its summary on the next pass. Until
+ * the purge succeeds, the summary records the revision of each message folded
+ * in, so a message whose purge failed is purged again on the next pass
+ * without being counted twice.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class CouchDbRoundArchiver implements Runnable {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(CouchDbRoundArchiver.class);
+
+	/**
+	 * The option naming the archive database, which starts an archiver with
+	 * the destination.
+	 */
+	public static final String ARCHIVE_DB_OPTION = "archiveDb";
+
+	/**
+	 * The option giving the time between archive passes, in milliseconds.
+	 */
+	public static final String ARCHIVE_INTERVAL_OPTION = "archiveInterval";
+
+	/**
+	 * The option giving how long after it ends a round is archived, in
+	 * milliseconds.
+	 */
+	public static final String ARCHIVE_DELAY_OPTION = "archiveDelay";
+
+	/**
+	 * The default time between archive passes, in milliseconds.
+	 */
+	public static final long DEFAULT_ARCHIVE_INTERVAL = 60 * 1000;
+
+	/**
+	 * The default time after it ends a round is archived, so scoreboards can
+	 * still show it, in milliseconds.
+	 */
+	public static final long DEFAULT_ARCHIVE_DELAY = 5 * 60 * 1000;
+
+	/**
+	 * The type field of the summary documents.
+	 */
+	public static final String ROUND_SUMMARY_TYPE = "roundSummary";
+
+	/**
+	 * The field of the summary documents holding the revision of each
+	 * message folded in, by id, until the messages are purged.
+	 */
+	public static final String ARCHIVED_REVISIONS_FIELD = "archivedRevisions";
+
+	/**
+	 * The live database.
+	 */
+	private final CouchDbConnector db;
+
+	/**
+	 * The archive database.
+	 */
+	private final CouchDbConnector archiveDb;
+
+	/**
+	 * How long after it ends a round is archived, in milliseconds.
+	 */
+	private final long archiveDelay;
+
+	/**
+	 * The time between archive passes, in milliseconds.
+	 */
+	private long archiveInterval = DEFAULT_ARCHIVE_INTERVAL;
+
+	/**
+	 * Converts the documents read from the views.
+	 */
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param db
+	 *            The live database, set up by
+	 *            {@link CouchDbUtils#setupCouchDb(String, String)}.
+	 * @param archiveDb
+	 *            The archive database.
+	 * @param archiveDelay
+	 *            How long after it ends a round is archived, in milliseconds.
+	 */
+	public CouchDbRoundArchiver(@Nonnull CouchDbConnector db,
+			@Nonnull CouchDbConnector archiveDb, long archiveDelay) {
+		this.db = db;
+		this.archiveDb = archiveDb;
+		this.archiveDelay = archiveDelay;
+	}
+
+	/**
+	 * Starts archiving on a background thread.
+	 *
+	 * @param interval
+	 *            The time between archive passes, in milliseconds.
+	 */
+	public void start(long interval) {
+		archiveInterval = interval;
+
+		Thread thread = new Thread(this, "CouchDbRoundArchiver-" + db.getDatabaseName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				archiveFinishedRounds();
+			} catch (RuntimeException e) {
+				LOG.error(e.getMessage(), e);
+			}
+
+			try {
+				Thread.sleep(archiveInterval);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Archives the rounds that ended more than the archive delay ago, then
+	 * purges their messages and compacts the live database.
+	 *
+	 * @return The number of rounds archived.
+	 */
+	public synchronized int archiveFinishedRounds() {
+		DateTime cutoff = DateTime.now().minus(archiveDelay);
+
+		Set<String> sessions = new HashSet<String>();
+		for (Row row : db.queryView(createViewQuery(CouchDbUtils.FINISHED_ROUND_VIEW)).getRows()) {
+			if ((row.getKey() != null) && (row.getValue() != null)
+					&& DateTime.parse(row.getValue()).isBefore(cutoff)) {
+				sessions.add(row.getKey());
+			}
+		}
+
+		Map<String, List<String>> purge = new HashMap<String, List<String>>();
+		List<String> purgedSessions = new ArrayList<String>();
+		for (String sessionId : sessions) {
+			Map<String, List<String>> archived = archiveSession(sessionId);
+			if (!archived.isEmpty()) {
+				purge.putAll(archived);
+				purgedSessions.add(sessionId);
+			}
+		}
+
+		if (!purge.isEmpty()) {
+			db.purge(purge);
+			for (String sessionId : purgedSessions) {
+				clearArchivedRevisions(sessionId);
+			}
+			db.compact();
+			db.compactViews(CouchDbUtils.DESIGN_DOC);
+			db.cleanupViews();
+			LOG.info("Archived " + sessions.size() + " rounds (" + purge.size()
+					+ " messages) to " + archiveDb.getDatabaseName());
+		}
+
+		return sessions.size();
+	}
+
+	/**
+	 * Removes the revisions of the folded messages from a summary, once
+	 * the messages are purged.
+	 *
+	 * @param sessionId
+	 *            The session of the round.
+	 */
+	@SuppressWarnings("unchecked")
+	private void clearArchivedRevisions(String sessionId) {
+		Map<String, Object> summary = archiveDb.get(Map.class, sessionId);
+		if (summary.remove(ARCHIVED_REVISIONS_FIELD) != null) {
+			archiveDb.update(summary);
+		}
+	}
+
+	/**
+	 * Folds the messages of a round into its summary document. Messages
+	 * already folded in at the same revision are only purged.
+	 *
+	 * @param sessionId
+	 *            The session of the round.
+	 * @return The revisions of the archived messages, by id.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<String, List<String>> archiveSession(String sessionId) {
+		Map<String, Object> summary;
+		try {
+			summary = archiveDb.get(Map.class, sessionId);
+		} catch (DocumentNotFoundException e) {
+			summary = new LinkedHashMap<String, Object>();
+			summary.put("sessionId", sessionId);
+			summary.put("type", ROUND_SUMMARY_TYPE);
+		}
+
+		Map<String, Object> aliases = getMap(summary, "aliases");
+		Map<String, Object> scores = getMap(summary, "scores");
+		Map<String, Object> teams = getMap(summary, "teams");
+		Map<String, Object> archivedRevisions = getMap(summary, ARCHIVED_REVISIONS_FIELD);
+		List<Object> events = (List<Object>) summary.get("events");
+		if (events == null) {
+			events = new ArrayList<Object>();
+			summary.put("events", events);
+		}
+
+		List<TransportMessage> fullMessages = new ArrayList<TransportMessage>();
+		DeltaApplier deltaApplier = createDeltaApplier(sessionId, summary, fullMessages);
+
+		Map<String, List<String>> archived = new HashMap<String, List<String>>();
+		int folded = 0;
+		for (Row row : db.queryView(createViewQuery(CouchDbUtils.BY_SESSION_ID_VIEW).key(sessionId)).getRows()) {
+			JsonNode doc = row.getValueAsNode();
+			if ((doc == null) || !doc.has("_rev")) {
+				continue;
+			}
+
+			String revision = doc.get("_rev").asText();
+			archived.put(row.getId(), Collections.singletonList(revision));
+			if (revision.equals(archivedRevisions.get(row.getId()))) {
+				// Folded in by a pass whose purge failed.
+				continue;
+			}
+			archivedRevisions.put(row.getId(), revision);
+			folded++;
+
+			try {
+				deltaApplier.onMessage(mapper.treeToValue(doc, TransportMessage.class));
+			} catch (JsonProcessingException e) {
+				LOG.warn("Unable to read " + row.getId() + ", it is not archived: "
+						+ e.getMessage());
+			}
+		}
+
+		for (TransportMessage message : fullMessages) {
+			JsonNode doc = mapper.valueToTree(message);
+			if (doc.hasNonNull("round")) {
+				summary.put("round", toMap(doc.get("round")));
+			} else if (doc.hasNonNull("serverMetadata")) {
+				summary.put("serverMetadata", toMap(doc.get("serverMetadata")));
+			} else if (doc.hasNonNull("event")) {
+				events.add(toMap(doc.get("event")));
+			} else if (doc.hasNonNull("alias")) {
+				aliases.put(doc.get("alias").path("id").asText(), toMap(doc.get("alias")));
+			} else if (doc.hasNonNull("score")) {
+				scores.put(doc.get("score").path("alias").path("id").asText(),
+						doc.get("score").path("score").asDouble());
+			} else if (doc.hasNonNull("team")) {
+				JsonNode team = doc.get("team");
+				if (team.hasNonNull("score")) {
+					teams.put(team.path("teamName").asText(), team.get("score").asDouble());
+				}
+			}
+		}
+
+		if (folded == 0) {
+			return archived;
+		}
+
+		Object count = summary.get("messageCount");
+		summary.put("messageCount", ((count instanceof Number) ? ((Number) count).intValue() : 0)
+				+ folded);
+
+		if (summary.containsKey("_rev")) {
+			archiveDb.update(summary);
+		} else {
+			archiveDb.create(sessionId, summary);
+		}
+		return archived;
+	}
+
+	/**
+	 * Creates the delta applier of a round, knowing the aliases, scores and
+	 * teams already in its summary, so deltas arriving after a pass can
+	 * still be rebuilt.
+	 *
+	 * @param sessionId
+	 *            The session of the round.
+	 * @param summary
+	 *            The summary of the round.
+	 * @param fullMessages
+	 *            The list the rebuilt messages are added to.
+	 * @return The delta applier.
+	 */
+	private DeltaApplier createDeltaApplier(String sessionId, Map<String, Object> summary,
+			final List<TransportMessage> fullMessages) {
+		DeltaApplier deltaApplier = new DeltaApplier(new IMessageCallback() {
+			@Override
+			public void onMessage(TransportMessage message) {
+				fullMessages.add(message);
+			}
+		});
+
+		Map<String, Alias> knownAliases = new HashMap<String, Alias>();
+		for (Map.Entry<String, Object> entry : getMap(summary, "aliases").entrySet()) {
+			Alias alias = mapper.convertValue(entry.getValue(), Alias.class);
+			knownAliases.put(entry.getKey(), alias);
+			deltaApplier.apply(new TransportMessage(alias, sessionId));
+		}
+		for (Map.Entry<String, Object> entry : getMap(summary, "scores").entrySet()) {
+			Alias alias = knownAliases.get(entry.getKey());
+			if ((alias != null) && (entry.getValue() instanceof Number)) {
+				deltaApplier.apply(new TransportMessage(new Score(alias,
+						((Number) entry.getValue()).floatValue()), sessionId));
+			}
+		}
+		for (Map.Entry<String, Object> entry : getMap(summary, "teams").entrySet()) {
+			if (entry.getValue() instanceof Number) {
+				deltaApplier.apply(new TransportMessage(new Team(entry.getKey(),
+						((Number) entry.getValue()).floatValue()), sessionId));
+			}
+		}
+		return deltaApplier;
+	}
+
+	/**
+	 * @param viewName
+	 *            The view.
+	 * @return A query of the view in the design document.
+	 */
+	private static ViewQuery createViewQuery(String viewName) {
+		return new ViewQuery().designDocId("_design/" + CouchDbUtils.DESIGN_DOC).viewName(viewName);
+	}
+
+	/**
+	 * @param node
+	 *            A JSON object.
+	 * @return The object as a map.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> toMap(JsonNode node) {
+		return mapper.convertValue(node, Map.class);
+	}
+
+	/**
+	 * Gets a map field of the summary, adding it if missing.
+	 *
+	 * @param summary
+	 *            The summary.
+	 * @param name
+	 *            The name of the field.
+	 * @return The map.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> getMap(Map<String, Object> summary, String name) {
+		Object value = summary.get(name);
+		if (value instanceof Map) {
+			return (Map<String, Object>) value;
+		}
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		summary.put(name, map);
+		return map;
+	}
+}
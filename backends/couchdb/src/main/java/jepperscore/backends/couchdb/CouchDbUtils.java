@@ -4,6 +4,9 @@ import java.net.MalformedURLException;
 import java.util.HashMap;
 import java.util.Map;
 
+import jepperscore.dao.MessageType;
+import jepperscore.dao.model.EventCode;
+
 import org.ektorp.CouchDbConnector;
 import org.ektorp.CouchDbInstance;
 import org.ektorp.DocumentNotFoundException;
@@ -27,12 +30,133 @@ public class CouchDbUtils {
 	private static final Logger LOG = LoggerFactory
 			.getLogger(CouchDbUtils.class);
 
+	/**
+	 * The name of the design document.
+	 */
+	public static final String DESIGN_DOC = "pepperscore";
+
+	/**
+	 * The view of the messages of each session.
+	 */
+	public static final String BY_SESSION_ID_VIEW = "bysessionid";
+
+	/**
+	 * The view of the start time of the rounds in progress.
+	 */
+	public static final String IN_PROGRESS_ROUND_VIEW = "inprogressround";
+
+	/**
+	 * The view of the end time of the finished rounds.
+	 */
+	public static final String FINISHED_ROUND_VIEW = "finishedround";
+
+	/**
+	 * The reduce view counting kills by [session, attacker alias id].
+	 */
+	public static final String KILLS_BY_ATTACKER_VIEW = "killsbyattacker";
+
+	/**
+	 * The reduce view counting deaths, team kills included, by [session,
+	 * victim alias id].
+	 */
+	public static final String DEATHS_BY_VICTIM_VIEW = "deathsbyvictim";
+
+	/**
+	 * The reduce view counting team kills by [session, attacker alias id].
+	 */
+	public static final String TEAM_KILLS_BY_ATTACKER_VIEW = "teamkillsbyattacker";
+
+	/**
+	 * The reduce view of the latest score by [session, alias id], as
+	 * [document id, score].
+	 */
+	public static final String LATEST_SCORE_BY_ALIAS_VIEW = "latestscorebyalias";
+
+	/**
+	 * The reduce view of the latest score by [session, team name], as
+	 * [document id, score].
+	 */
+	public static final String LATEST_TEAM_SCORE_VIEW = "latestteamscore";
+
+	/**
+	 * Reduces [document id, value] pairs to the one with the greatest
+	 * document id. Ids of new documents are timestamps, so this is the
+	 * latest value.
+	 */
+	private static final String LATEST_REDUCE_FUNCTION = "function(keys, values, rereduce) {\n" +
+			"  var latest = values[0];\n" +
+			"  for (var i = 1; i < values.length; i++) {\n" +
+			"    if (values[i][0] > latest[0]) {\n" +
+			"      latest = values[i];\n" +
+			"    }\n" +
+			"  }\n" +
+			"  return latest;\n" +
+			"}";
+
+	/**
+	 * The name of the changes filter, see {@link #FILTER_TYPES_PARAM} and
+	 * {@link #FILTER_SESSION_PARAM}.
+	 */
+	public static final String MESSAGE_FILTER = DESIGN_DOC + "/bytypeandsession";
+
+	/**
+	 * The changes filter parameter holding the comma separated content field
+	 * names to accept.
+	 */
+	public static final String FILTER_TYPES_PARAM = "types";
+
+	/**
+	 * The changes filter parameter holding the session id to accept.
+	 */
+	public static final String FILTER_SESSION_PARAM = "sessionId";
+
+	/**
+	 * The changes filter function. Documents without the filtered fields are
+	 * always accepted.
+	 */
+	private static final String MESSAGE_FILTER_FUNCTION = "function(doc, req) {\n" +
+			"  var fields = [" + contentFieldNames() + "];\n" +
+			"  if (req.query." + FILTER_TYPES_PARAM + ") {\n" +
+			"    var types = ',' + req.query." + FILTER_TYPES_PARAM + " + ',';\n" +
+			"    for (var i = 0; i < fields.length; i++) {\n" +
+			"      if (doc[fields[i]]) {\n" +
+			"        if (types.indexOf(',' + fields[i] + ',') < 0) {\n" +
+			"          return false;\n" +
+			"        }\n" +
+			"        break;\n" +
+			"      }\n" +
+			"    }\n" +
+			"  }\n" +
+			"  if (req.query." + FILTER_SESSION_PARAM + " && doc.sessionId && (doc.sessionId != req.query." + FILTER_SESSION_PARAM + ")) {\n" +
+			"    return false;\n" +
+			"  }\n" +
+			"  return true;\n" +
+			"}";
+
 	/**
 	 * Hide default constructor.
 	 */
 	private CouchDbUtils() {
 	}
 
+	/**
+	 * Parses the options of a setup string: the
+	 * <code>name=value</code> entries after the server and database name.
+	 * @param configArray The setup string, split on semicolons.
+	 * @return The options.
+	 */
+	public static Map<String, String> parseOptions(String[] configArray) {
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 1; i < configArray.length; i++) {
+			int pos = configArray[i].indexOf('=');
+			if (pos > 0) {
+				options.put(configArray[i].substring(0, pos).trim(),
+						configArray[i].substring(pos + 1).trim());
+			}
+		}
+		return options;
+	}
+
 	/**
 	 * This function setups up the CouchDB connection, creates the database and associated views.
 	 * @param server The server to connect to.
@@ -49,35 +173,174 @@ public class CouchDbUtils {
 		LOG.info("Connected to CouchDB. Relax.");
 
 		try {
-			db.getDesignDocInfo("pepperscore");
+			db.getDesignDocInfo(DESIGN_DOC);
+			updateDesignDoc(db);
 		} catch (DocumentNotFoundException e) {
 			Map<String, Object> doc = new HashMap<String, Object>();
 			doc.put("language", "javascript");
+			doc.put("views", createViews());
 
-			Map<String, Object> views = new HashMap<String, Object>();
-			doc.put("views", views);
+			Map<String, String> filters = new HashMap<String, String>();
+			filters.put(MESSAGE_FILTER.substring(DESIGN_DOC.length() + 1), MESSAGE_FILTER_FUNCTION);
+			doc.put("filters", filters);
 
-			HashMap<String, String> bysessionidView = new HashMap<String, String>();
-			bysessionidView.put("map",
-					"function(doc) {\n" +
-							"  emit(doc.sessionId, doc);\n" +
-							"}");
-			views.put("bysessionid", bysessionidView);
-
-			HashMap<String, String> inprogressroundView = new HashMap<String, String>();
-			inprogressroundView.put("map",
-					"function(doc) {\n" +
-							"  if (doc.round) {\n" +
-							"    if ((doc.round.start) && (!doc.round.end)) {\n" +
-							"      emit(doc.sessionId, doc.round.start);\n" +
-							"    }\n" +
-							"  }" +
-							"\n}");
-			views.put("inprogressround", inprogressroundView);
-
-			db.create("_design/pepperscore", doc);
+			db.create("_design/" + DESIGN_DOC, doc);
 		}
 
 		return db;
 	}
+
+	/**
+	 * Connects to a database without setting up the design document, for
+	 * databases that are not read through the views, such as archives.
+	 * @param server The server to connect to.
+	 * @param dbName The name of the database.
+	 * @return The connection.
+	 * @throws MalformedURLException If the server string cannot be understood.
+	 */
+	public static CouchDbConnector connect(String server, String dbName) throws MalformedURLException {
+		HttpClient httpClient = new StdHttpClient.Builder().url(server).build();
+
+		CouchDbInstance dbInstance = new StdCouchDbInstance(httpClient);
+		StdCouchDbConnector db = new StdCouchDbConnector(dbName, dbInstance);
+		db.createDatabaseIfNotExists();
+		return db;
+	}
+
+	/**
+	 * @return The views of the design document, by name.
+	 */
+	private static Map<String, Map<String, String>> createViews() {
+		Map<String, Map<String, String>> views = new HashMap<String, Map<String, String>>();
+
+		views.put(BY_SESSION_ID_VIEW, createView(
+				"function(doc) {\n" +
+						"  emit(doc.sessionId, doc);\n" +
+						"}", null));
+
+		views.put(IN_PROGRESS_ROUND_VIEW, createView(
+				"function(doc) {\n" +
+						"  if (doc.round) {\n" +
+						"    if ((doc.round.start) && (!doc.round.end)) {\n" +
+						"      emit(doc.sessionId, doc.round.start);\n" +
+						"    }\n" +
+						"  }" +
+						"\n}", null));
+
+		views.put(FINISHED_ROUND_VIEW, createView(
+				"function(doc) {\n" +
+						"  if (doc.round && doc.round.end) {\n" +
+						"    emit(doc.sessionId, doc.round.end);\n" +
+						"  }\n" +
+						"}", null));
+
+		views.put(KILLS_BY_ATTACKER_VIEW, createView(
+				"function(doc) {\n" +
+						"  if (doc.event && doc.event.eventCode && (doc.event.eventCode.code == '" + EventCode.EVENT_CODE_KILL + "') && doc.event.attacker) {\n" +
+						"    emit([doc.sessionId, doc.event.attacker.id], 1);\n" +
+						"  }\n" +
+						"}", "_sum"));
+
+		views.put(DEATHS_BY_VICTIM_VIEW, createView(
+				"function(doc) {\n" +
+						"  if (doc.event && doc.event.eventCode && doc.event.victim\n" +
+						"      && ((doc.event.eventCode.code == '" + EventCode.EVENT_CODE_KILL + "') || (doc.event.eventCode.code == '" + EventCode.EVENT_CODE_TEAMKILL + "'))) {\n" +
+						"    emit([doc.sessionId, doc.event.victim.id], 1);\n" +
+						"  }\n" +
+						"}", "_sum"));
+
+		views.put(TEAM_KILLS_BY_ATTACKER_VIEW, createView(
+				"function(doc) {\n" +
+						"  if (doc.event && doc.event.eventCode && (doc.event.eventCode.code == '" + EventCode.EVENT_CODE_TEAMKILL + "') && doc.event.attacker) {\n" +
+						"    emit([doc.sessionId, doc.event.attacker.id], 1);\n" +
+						"  }\n" +
+						"}", "_sum"));
+
+		views.put(LATEST_SCORE_BY_ALIAS_VIEW, createView(
+				"function(doc) {\n" +
+						"  if (doc.score && doc.score.alias) {\n" +
+						"    emit([doc.sessionId, doc.score.alias.id], [doc._id, doc.score.score]);\n" +
+						"  }\n" +
+						"}", LATEST_REDUCE_FUNCTION));
+
+		views.put(LATEST_TEAM_SCORE_VIEW, createView(
+				"function(doc) {\n" +
+						"  if (doc.team && (doc.team.score != null)) {\n" +
+						"    emit([doc.sessionId, doc.team.teamName], [doc._id, doc.team.score]);\n" +
+						"  }\n" +
+						"}", LATEST_REDUCE_FUNCTION));
+
+		return views;
+	}
+
+	/**
+	 * @param map The map function.
+	 * @param reduce The reduce function, or null.
+	 * @return The view.
+	 */
+	private static Map<String, String> createView(String map, String reduce) {
+		Map<String, String> view = new HashMap<String, String>();
+		view.put("map", map);
+		if (reduce != null) {
+			view.put("reduce", reduce);
+		}
+		return view;
+	}
+
+	/**
+	 * @return The content field names of the {@link MessageType}s, in order
+	 *         of precedence, as a JavaScript array body.
+	 */
+	private static String contentFieldNames() {
+		StringBuilder sb = new StringBuilder();
+		for (MessageType type : MessageType.values()) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append("'").append(type.getFieldName()).append("'");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Adds the changes filter and views missing from a design document
+	 * created by an older version, and replaces the ones whose functions
+	 * changed since. Views not created here are left alone.
+	 * @param db The database.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void updateDesignDoc(CouchDbConnector db) {
+		Map<String, Object> doc = db.get(Map.class, "_design/" + DESIGN_DOC);
+		boolean changed = false;
+
+		Object filters = doc.get("filters");
+		if (!(filters instanceof Map)) {
+			filters = new HashMap<String, Object>();
+			doc.put("filters", filters);
+		}
+
+		String filterName = MESSAGE_FILTER.substring(DESIGN_DOC.length() + 1);
+		if (!MESSAGE_FILTER_FUNCTION.equals(((Map<String, Object>) filters).get(filterName))) {
+			((Map<String, Object>) filters).put(filterName, MESSAGE_FILTER_FUNCTION);
+			changed = true;
+		}
+
+		Object views = doc.get("views");
+		if (!(views instanceof Map)) {
+			views = new HashMap<String, Object>();
+			doc.put("views", views);
+		}
+
+		for (Map.Entry<String, Map<String, String>> view : createViews().entrySet()) {
+			if (!view.getValue().equals(((Map<String, Object>) views).get(view.getKey()))) {
+				((Map<String, Object>) views).put(view.getKey(), view.getValue());
+				changed = true;
+			}
+		}
+
+		if (changed) {
+			LOG.info("Updating the " + DESIGN_DOC + " design document.");
+			db.update(doc);
+		}
+	}
 }
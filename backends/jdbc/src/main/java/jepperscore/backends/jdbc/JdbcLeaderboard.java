@@ -0,0 +1,310 @@
+package jepperscore.backends.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import jepperscore.dao.model.EventCode;
+
+import org.joda.time.DateTime;
+
+/**
+ * This class reads leaderboards from the tables written by
+ * {@link JdbcMessageDestination}. Each query is a single aggregate over the
+ * indexed tables, for one session or across every round stored.
+ *
+ * @author Chuck
+ *
+ */
+public class JdbcLeaderboard implements AutoCloseable {
+
+	/**
+	 * Counts events of a code in a session, by attacker.
+	 */
+	private static final String COUNT_BY_ATTACKER_SQL = "SELECT attacker_id, COUNT(*) FROM events "
+			+ "WHERE code = ? AND session_id = ? AND attacker_id IS NOT NULL GROUP BY attacker_id";
+
+	/**
+	 * Counts deaths in a session, by victim.
+	 */
+	private static final String DEATHS_BY_VICTIM_SQL = "SELECT victim_id, COUNT(*) FROM events "
+			+ "WHERE code IN (?, ?) AND session_id = ? AND victim_id IS NOT NULL GROUP BY victim_id";
+
+	/**
+	 * Reads the alias scores of a session.
+	 */
+	private static final String SCORES_BY_ALIAS_SQL = "SELECT alias_id, score FROM scores "
+			+ "WHERE session_id = ? AND score IS NOT NULL";
+
+	/**
+	 * Reads the team scores of a session.
+	 */
+	private static final String SCORES_BY_TEAM_SQL = "SELECT team_name, score FROM teams "
+			+ "WHERE session_id = ? AND score IS NOT NULL";
+
+	/**
+	 * Counts kills across rounds, by alias name.
+	 */
+	private static final String TOP_KILLERS_SQL = "SELECT a.name, COUNT(*) AS kills FROM events e "
+			+ "JOIN aliases a ON a.session_id = e.session_id AND a.alias_id = e.attacker_id "
+			+ "WHERE e.code = ? AND e.event_time >= ? AND e.event_time < ? "
+			+ "GROUP BY a.name ORDER BY kills DESC, a.name";
+
+	/**
+	 * Counts kills across rounds, by map and weapon.
+	 */
+	private static final String WEAPON_USAGE_BY_MAP_SQL = "SELECT r.map_name, e.event_object, COUNT(*) FROM events e "
+			+ "JOIN rounds r ON r.session_id = e.session_id "
+			+ "WHERE e.code IN (?, ?) AND e.event_object IS NOT NULL AND r.map_name IS NOT NULL "
+			+ "AND e.event_time >= ? AND e.event_time < ? "
+			+ "GROUP BY r.map_name, e.event_object";
+
+	/**
+	 * The earliest time, for queries without a start.
+	 */
+	private static final DateTime MIN_TIME = new DateTime(0);
+
+	/**
+	 * The latest time, for queries without an end.
+	 */
+	private static final DateTime MAX_TIME = new DateTime(9999, 12, 31, 0, 0);
+
+	/**
+	 * The connection to read from.
+	 */
+	private final Connection connection;
+
+	/**
+	 * Connects to the database.
+	 *
+	 * @param setupString
+	 *            The setup string of the {@link JdbcMessageDestination}
+	 *            writing the tables.
+	 * @throws SQLException
+	 *             If the database cannot be opened.
+	 */
+	public JdbcLeaderboard(@Nonnull String setupString) throws SQLException {
+		Map<String, String> options = new HashMap<String, String>();
+		String url = JdbcUtils.parseSetup(setupString, new HashSet<String>(Arrays.asList(
+				JdbcMessageDestination.BATCH_SIZE_OPTION,
+				JdbcMessageDestination.QUEUE_SIZE_OPTION)), options);
+		connection = JdbcUtils.connect(url, options);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param connection
+	 *            The connection to read from, set up by
+	 *            {@link JdbcUtils#connect(String, Map)}.
+	 */
+	public JdbcLeaderboard(@Nonnull Connection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session.
+	 * @return The number of kills by attacker alias id.
+	 * @throws SQLException
+	 *             If the query fails.
+	 */
+	@Nonnull
+	public Map<String, Integer> getKillsByAttacker(@Nonnull String sessionId) throws SQLException {
+		return queryCounts(COUNT_BY_ATTACKER_SQL, EventCode.EVENT_CODE_KILL, sessionId);
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session.
+	 * @return The number of deaths, team kills included, by victim alias id.
+	 * @throws SQLException
+	 *             If the query fails.
+	 */
+	@Nonnull
+	public Map<String, Integer> getDeathsByVictim(@Nonnull String sessionId) throws SQLException {
+		return queryCounts(DEATHS_BY_VICTIM_SQL, EventCode.EVENT_CODE_KILL,
+				EventCode.EVENT_CODE_TEAMKILL, sessionId);
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session.
+	 * @return The number of team kills by attacker alias id.
+	 * @throws SQLException
+	 *             If the query fails.
+	 */
+	@Nonnull
+	public Map<String, Integer> getTeamKillsByAttacker(@Nonnull String sessionId) throws SQLException {
+		return queryCounts(COUNT_BY_ATTACKER_SQL, EventCode.EVENT_CODE_TEAMKILL, sessionId);
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session.
+	 * @return The latest score by alias id.
+	 * @throws SQLException
+	 *             If the query fails.
+	 */
+	@Nonnull
+	public Map<String, Float> getScoresByAlias(@Nonnull String sessionId) throws SQLException {
+		return queryScores(SCORES_BY_ALIAS_SQL, sessionId);
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session.
+	 * @return The latest score by team name.
+	 * @throws SQLException
+	 *             If the query fails.
+	 */
+	@Nonnull
+	public Map<String, Float> getScoresByTeam(@Nonnull String sessionId) throws SQLException {
+		return queryScores(SCORES_BY_TEAM_SQL, sessionId);
+	}
+
+	/**
+	 * @param from
+	 *            The earliest kill counted, or null for no limit.
+	 * @param to
+	 *            The time after the last kill counted, or null for no limit.
+	 * @param limit
+	 *            The largest number of names returned.
+	 * @return The number of kills by alias name across rounds, highest first.
+	 * @throws SQLException
+	 *             If the query fails.
+	 */
+	@Nonnull
+	public Map<String, Integer> getTopKillers(@Nullable DateTime from,
+			@Nullable DateTime to, int limit) throws SQLException {
+		Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		try (PreparedStatement statement = connection.prepareStatement(TOP_KILLERS_SQL)) {
+			statement.setString(1, EventCode.EVENT_CODE_KILL);
+			statement.setTimestamp(2, JdbcUtils.toTimestamp((from == null) ? MIN_TIME : from));
+			statement.setTimestamp(3, JdbcUtils.toTimestamp((to == null) ? MAX_TIME : to));
+			statement.setMaxRows(limit);
+			try (ResultSet results = statement.executeQuery()) {
+				while (results.next()) {
+					counts.put(results.getString(1), results.getInt(2));
+				}
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * @param from
+	 *            The earliest kill counted, or null for no limit.
+	 * @param to
+	 *            The time after the last kill counted, or null for no limit.
+	 * @return The number of kills, team kills included, by map name and then
+	 *         weapon across rounds.
+	 * @throws SQLException
+	 *             If the query fails.
+	 */
+	@Nonnull
+	public Map<String, Map<String, Integer>> getWeaponUsageByMap(
+			@Nullable DateTime from, @Nullable DateTime to) throws SQLException {
+		Map<String, Map<String, Integer>> usage = new HashMap<String, Map<String, Integer>>();
+		try (PreparedStatement statement = connection.prepareStatement(WEAPON_USAGE_BY_MAP_SQL)) {
+			statement.setString(1, EventCode.EVENT_CODE_KILL);
+			statement.setString(2, EventCode.EVENT_CODE_TEAMKILL);
+			statement.setTimestamp(3, JdbcUtils.toTimestamp((from == null) ? MIN_TIME : from));
+			statement.setTimestamp(4, JdbcUtils.toTimestamp((to == null) ? MAX_TIME : to));
+			try (ResultSet results = statement.executeQuery()) {
+				while (results.next()) {
+					String map = results.getString(1);
+					Map<String, Integer> weapons = usage.get(map);
+					if (weapons == null) {
+						weapons = new HashMap<String, Integer>();
+						usage.put(map, weapons);
+					}
+					weapons.put(results.getString(2), results.getInt(3));
+				}
+			}
+		}
+		return usage;
+	}
+
+	/**
+	 * Runs a counting query.
+	 *
+	 * @param sql
+	 *            The query, selecting a name and a count.
+	 * @param parameters
+	 *            The parameters of the query.
+	 * @return The counts by name.
+	 * @throws SQLException
+	 *             If the query fails.
+	 */
+	private Map<String, Integer> queryCounts(String sql, String... parameters) throws SQLException {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		try (PreparedStatement statement = prepare(sql, parameters);
+				ResultSet results = statement.executeQuery()) {
+			while (results.next()) {
+				counts.put(results.getString(1), results.getInt(2));
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Runs a score query.
+	 *
+	 * @param sql
+	 *            The query, selecting a name and a score.
+	 * @param sessionId
+	 *            The session.
+	 * @return The scores by name.
+	 * @throws SQLException
+	 *             If the query fails.
+	 */
+	private Map<String, Float> queryScores(String sql, String sessionId) throws SQLException {
+		Map<String, Float> scores = new HashMap<String, Float>();
+		try (PreparedStatement statement = prepare(sql, sessionId);
+				ResultSet results = statement.executeQuery()) {
+			while (results.next()) {
+				scores.put(results.getString(1), results.getFloat(2));
+			}
+		}
+		return scores;
+	}
+
+	/**
+	 * Prepares a query with string parameters.
+	 *
+	 * @param sql
+	 *            The query.
+	 * @param parameters
+	 *            The parameters.
+	 * @return The statement.
+	 * @throws SQLException
+	 *             If the query cannot be prepared.
+	 */
+	private PreparedStatement prepare(String sql, String... parameters) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql);
+		try {
+			for (int i = 0; i < parameters.length; i++) {
+				statement.setString(i + 1, parameters[i]);
+			}
+		} catch (SQLException e) {
+			statement.close();
+			throw e;
+		}
+		return statement;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		connection.close();
+	}
+}
@@ -0,0 +1,377 @@
+package jepperscore.backends.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.AbstractMessageDestination;
+import jepperscore.dao.IMessageCallback;
+import jepperscore.dao.IMessageDestination;
+import jepperscore.dao.transport.DeltaApplier;
+import jepperscore.dao.transport.EntityResolver;
+import jepperscore.dao.transport.RoundSnapshot;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class implements the {@link IMessageDestination} by storing messages
+ * in the indexed tables of {@link JdbcUtils}, for statistics across rounds
+ * with {@link JdbcLeaderboard}. The setup string is a JDBC URL followed by
+ * options, for example
+ * <code>jdbc:h2:file:/var/lib/jepperscore/stats;user=sa;batchSize=500</code>.
+ *
+ * <p>
+ * Messages are queued and written by a background thread, in batches of up to
+ * {@link #BATCH_SIZE_OPTION batchSize} messages with prepared statements, one
+ * transaction per batch. Senders only block when
+ * {@link #QUEUE_SIZE_OPTION queueSize} messages are waiting. If the
+ * connection is lost, the batch is retried until the database is back; a
+ * batch the database refuses is dropped and logged.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class JdbcMessageDestination extends AbstractMessageDestination implements Runnable {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(JdbcMessageDestination.class);
+
+	/**
+	 * The option giving the largest number of messages written in a
+	 * transaction.
+	 */
+	public static final String BATCH_SIZE_OPTION = "batchSize";
+
+	/**
+	 * The option giving the largest number of messages waiting to be
+	 * written.
+	 */
+	public static final String QUEUE_SIZE_OPTION = "queueSize";
+
+	/**
+	 * The default largest number of messages written in a transaction.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	/**
+	 * The default largest number of messages waiting to be written.
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = 100000;
+
+	/**
+	 * The time the writer waits for messages before checking if it was
+	 * closed, in milliseconds.
+	 */
+	private static final long POLL_INTERVAL = 100;
+
+	/**
+	 * The first delay before reconnecting, in milliseconds.
+	 */
+	private static final long MIN_RETRY_DELAY = 500;
+
+	/**
+	 * The longest delay before reconnecting, in milliseconds.
+	 */
+	private static final long MAX_RETRY_DELAY = 30000;
+
+	/**
+	 * The JDBC URL.
+	 */
+	private final String url;
+
+	/**
+	 * The options, for reconnecting.
+	 */
+	private final Map<String, String> options = new HashMap<String, String>();
+
+	/**
+	 * The largest number of messages written in a transaction.
+	 */
+	private final int batchSize;
+
+	/**
+	 * The messages waiting to be written.
+	 */
+	private final BlockingQueue<TransportMessage> queue;
+
+	/**
+	 * Rebuilds full messages from deltas and references before they are
+	 * queued. Guarded by itself.
+	 */
+	private final IMessageCallback resolver;
+
+	/**
+	 * The writer, used by the writer thread only. Null while reconnecting.
+	 */
+	private JdbcWriter writer;
+
+	/**
+	 * The number of messages queued or being written. Guarded by this.
+	 */
+	private long pendingCount = 0;
+
+	/**
+	 * The number of messages dropped because the database refused them.
+	 */
+	private volatile long failedCount = 0;
+
+	/**
+	 * True once the destination is closed.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * The thread writing the messages.
+	 */
+	private final Thread thread;
+
+	/**
+	 * Creates the message destination.
+	 *
+	 * @param setupString
+	 *            The JDBC URL, followed by options.
+	 * @throws SQLException
+	 *             If the database cannot be opened.
+	 */
+	public JdbcMessageDestination(@Nonnull String setupString) throws SQLException {
+		url = JdbcUtils.parseSetup(setupString, new HashSet<String>(Arrays.asList(
+				BATCH_SIZE_OPTION, QUEUE_SIZE_OPTION)), options);
+
+		int queueSize;
+		try {
+			batchSize = options.containsKey(BATCH_SIZE_OPTION)
+					? Integer.parseInt(options.get(BATCH_SIZE_OPTION)) : DEFAULT_BATCH_SIZE;
+			queueSize = options.containsKey(QUEUE_SIZE_OPTION)
+					? Integer.parseInt(options.get(QUEUE_SIZE_OPTION)) : DEFAULT_QUEUE_SIZE;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid JDBC option: "
+					+ e.getMessage(), e);
+		}
+		queue = new LinkedBlockingQueue<TransportMessage>(Math.max(1, queueSize));
+
+		resolver = new DeltaApplier(new EntityResolver(new IMessageCallback() {
+			@Override
+			public void onMessage(TransportMessage message) {
+				enqueue(message);
+			}
+		}));
+
+		writer = new JdbcWriter(JdbcUtils.connect(url, options));
+		LOG.info("Writing to database " + url);
+
+		thread = new Thread(this, "JdbcMessageDestination-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void sendMessage(TransportMessage transportMessage) {
+		sendMessages(Arrays.asList(transportMessage));
+	}
+
+	@Override
+	public void sendMessages(Collection<TransportMessage> transportMessages) {
+		if (closed) {
+			LOG.warn("Dropping " + transportMessages.size()
+					+ " messages sent to a closed JDBC destination.");
+			return;
+		}
+
+		synchronized (resolver) {
+			for (TransportMessage transportMessage : transportMessages) {
+				RoundSnapshot snapshot = transportMessage.getSnapshot();
+				if (snapshot == null) {
+					resolver.onMessage(transportMessage);
+				} else {
+					for (TransportMessage message : snapshot.toMessages(transportMessage.getSessionId())) {
+						resolver.onMessage(message);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues a full message, waiting while the queue is full.
+	 *
+	 * @param message
+	 *            The message.
+	 */
+	private void enqueue(TransportMessage message) {
+		synchronized (this) {
+			pendingCount++;
+		}
+		try {
+			queue.put(message);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("Interrupted, dropping a message for the database.");
+			written(1);
+		}
+	}
+
+	/**
+	 * Counts written or dropped messages.
+	 *
+	 * @param count
+	 *            The number of messages.
+	 */
+	private synchronized void written(int count) {
+		pendingCount -= count;
+		if (pendingCount <= 0) {
+			notifyAll();
+		}
+	}
+
+	@Override
+	public void run() {
+		List<TransportMessage> batch = new ArrayList<TransportMessage>(batchSize);
+		while (!closed || !queue.isEmpty()) {
+			TransportMessage first;
+			try {
+				first = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				break;
+			}
+			if (first == null) {
+				continue;
+			}
+
+			batch.add(first);
+			queue.drainTo(batch, batchSize - 1);
+			write(batch);
+			written(batch.size());
+			batch.clear();
+		}
+
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (SQLException e) {
+				LOG.error(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Writes a batch, reconnecting until the database is back if the
+	 * connection was lost.
+	 *
+	 * @param batch
+	 *            The batch.
+	 */
+	private void write(List<TransportMessage> batch) {
+		long delay = MIN_RETRY_DELAY;
+		while (true) {
+			if (writer != null) {
+				try {
+					writer.write(batch);
+					return;
+				} catch (SQLException e) {
+					if (writer.isValid()) {
+						LOG.error("Dropping " + batch.size()
+								+ " messages refused by the database: " + e.getMessage(), e);
+						failedCount += batch.size();
+						return;
+					}
+					LOG.error("Lost the database connection: " + e.getMessage());
+					closeWriter();
+				}
+			}
+
+			if (closed) {
+				LOG.error("Dropping " + batch.size()
+						+ " messages, the database is not available.");
+				failedCount += batch.size();
+				return;
+			}
+
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failedCount += batch.size();
+				return;
+			}
+			delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+
+			try {
+				Connection connection = JdbcUtils.connect(url, options);
+				writer = new JdbcWriter(connection);
+				LOG.info("Reconnected to database " + url);
+			} catch (SQLException e) {
+				LOG.error("Unable to reconnect, retrying in " + delay + "ms: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Closes the writer after its connection was lost.
+	 */
+	private void closeWriter() {
+		try {
+			writer.close();
+		} catch (SQLException e) {
+			// The connection is gone anyway.
+		}
+		writer = null;
+	}
+
+	/**
+	 * Waits until every message sent so far is written or dropped.
+	 *
+	 * @param timeout
+	 *            The longest time to wait, in milliseconds.
+	 * @return True if every message was written or dropped in time.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting.
+	 */
+	public synchronized boolean flush(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (pendingCount > 0) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * @return The number of messages dropped because the database refused
+	 *         them.
+	 */
+	public long getFailedCount() {
+		return failedCount;
+	}
+
+	/**
+	 * Writes the queued messages and closes the connection.
+	 *
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for the writer.
+	 */
+	public void close() throws InterruptedException {
+		closed = true;
+		thread.join();
+	}
+}
@@ -0,0 +1,249 @@
+package jepperscore.backends.jdbc;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class holds the schema of the JDBC backend and opens connections to
+ * it.
+ *
+ * <p>
+ * The setup string is a JDBC URL followed by options, for example
+ * <code>jdbc:h2:file:/var/lib/jepperscore/stats;user=sa;batchSize=500</code>.
+ * Some drivers also use <code>;</code> in their URLs, so parts of the setup
+ * string that are not options of this backend are kept in the URL.
+ * </p>
+ *
+ * <p>
+ * The tables are:
+ * </p>
+ * <ul>
+ * <li><code>rounds</code>: one row per session.</li>
+ * <li><code>aliases</code>: the latest state of each alias of a session.</li>
+ * <li><code>scores</code>: the latest score of each alias of a session.</li>
+ * <li><code>teams</code>: the latest score of each team of a session.</li>
+ * <li><code>events</code>: every event, the aliases as ids into
+ * <code>aliases</code>.</li>
+ * </ul>
+ *
+ * @author Chuck
+ *
+ */
+public final class JdbcUtils {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(JdbcUtils.class);
+
+	/**
+	 * The option giving the database user.
+	 */
+	public static final String USER_OPTION = "user";
+
+	/**
+	 * The option giving the database password.
+	 */
+	public static final String PASSWORD_OPTION = "password";
+
+	/**
+	 * The table of rounds.
+	 */
+	public static final String ROUNDS_TABLE = "rounds";
+
+	/**
+	 * The table of aliases.
+	 */
+	public static final String ALIASES_TABLE = "aliases";
+
+	/**
+	 * The table of alias scores.
+	 */
+	public static final String SCORES_TABLE = "scores";
+
+	/**
+	 * The table of team scores.
+	 */
+	public static final String TEAMS_TABLE = "teams";
+
+	/**
+	 * The table of events.
+	 */
+	public static final String EVENTS_TABLE = "events";
+
+	/**
+	 * The tables, each followed by the statements creating it and its
+	 * indexes.
+	 */
+	private static final String[][] SCHEMA = new String[][] {
+			{ ROUNDS_TABLE,
+					"CREATE TABLE rounds (session_id VARCHAR(255) NOT NULL, start_time TIMESTAMP, end_time TIMESTAMP, "
+							+ "game_name VARCHAR(255), gametype VARCHAR(255), game_mod VARCHAR(255), map_name VARCHAR(255), "
+							+ "PRIMARY KEY (session_id))",
+					"CREATE INDEX rounds_start ON rounds (start_time)" },
+			{ ALIASES_TABLE,
+					"CREATE TABLE aliases (session_id VARCHAR(255) NOT NULL, alias_id VARCHAR(255) NOT NULL, "
+							+ "name VARCHAR(255), team_name VARCHAR(255), person_name VARCHAR(255), bot BOOLEAN, present BOOLEAN, "
+							+ "PRIMARY KEY (session_id, alias_id))",
+					"CREATE INDEX aliases_name ON aliases (name)" },
+			{ SCORES_TABLE,
+					"CREATE TABLE scores (session_id VARCHAR(255) NOT NULL, alias_id VARCHAR(255) NOT NULL, score REAL, "
+							+ "PRIMARY KEY (session_id, alias_id))" },
+			{ TEAMS_TABLE,
+					"CREATE TABLE teams (session_id VARCHAR(255) NOT NULL, team_name VARCHAR(255) NOT NULL, score REAL, "
+							+ "PRIMARY KEY (session_id, team_name))" },
+			{ EVENTS_TABLE,
+					"CREATE TABLE events (session_id VARCHAR(255) NOT NULL, event_time TIMESTAMP, code VARCHAR(64), "
+							+ "event_object VARCHAR(255), extra VARCHAR(255), attacker_id VARCHAR(255), victim_id VARCHAR(255), "
+							+ "event_text VARCHAR(1024))",
+					"CREATE INDEX events_session ON events (session_id)",
+					"CREATE INDEX events_attacker ON events (code, session_id, attacker_id)",
+					"CREATE INDEX events_victim ON events (code, session_id, victim_id)",
+					"CREATE INDEX events_object ON events (code, event_object)" } };
+
+	/**
+	 * Utility class.
+	 */
+	private JdbcUtils() {
+
+	}
+
+	/**
+	 * Splits a setup string into the JDBC URL and the options of this
+	 * backend.
+	 *
+	 * @param setupString
+	 *            The setup string.
+	 * @param optionNames
+	 *            The names of the options of the caller, besides
+	 *            {@link #USER_OPTION} and {@link #PASSWORD_OPTION}.
+	 * @param options
+	 *            Filled with the options found.
+	 * @return The JDBC URL.
+	 */
+	@Nonnull
+	public static String parseSetup(@Nonnull String setupString,
+			@Nonnull Set<String> optionNames, @Nonnull Map<String, String> options) {
+		Set<String> names = new HashSet<String>(optionNames);
+		names.addAll(Arrays.asList(USER_OPTION, PASSWORD_OPTION));
+
+		String[] configArray = setupString.split(";");
+		StringBuilder url = new StringBuilder(configArray[0].trim());
+		for (int i = 1; i < configArray.length; i++) {
+			String option = configArray[i].trim();
+			int pos = option.indexOf('=');
+			String name = (pos > 0) ? option.substring(0, pos).trim() : option;
+			if (names.contains(name)) {
+				options.put(name, (pos > 0) ? option.substring(pos + 1).trim()
+						: Boolean.TRUE.toString());
+			} else if (!option.isEmpty()) {
+				url.append(';').append(option);
+			}
+		}
+		return url.toString();
+	}
+
+	/**
+	 * Opens a connection and creates the tables that do not exist yet.
+	 *
+	 * @param url
+	 *            The JDBC URL.
+	 * @param options
+	 *            The options, for the user and password.
+	 * @return The connection.
+	 * @throws SQLException
+	 *             If the connection cannot be opened.
+	 */
+	@Nonnull
+	public static Connection connect(@Nonnull String url,
+			@Nonnull Map<String, String> options) throws SQLException {
+		Properties properties = new Properties();
+		if (options.containsKey(USER_OPTION)) {
+			properties.setProperty(USER_OPTION, options.get(USER_OPTION));
+		}
+		if (options.containsKey(PASSWORD_OPTION)) {
+			properties.setProperty(PASSWORD_OPTION, options.get(PASSWORD_OPTION));
+		}
+
+		Connection connection = DriverManager.getConnection(url, properties);
+		try {
+			createSchema(connection);
+		} catch (SQLException e) {
+			connection.close();
+			throw e;
+		}
+		return connection;
+	}
+
+	/**
+	 * Creates the tables that do not exist yet, with their indexes.
+	 *
+	 * @param connection
+	 *            The connection.
+	 * @throws SQLException
+	 *             If the tables cannot be created.
+	 */
+	public static void createSchema(@Nonnull Connection connection) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		for (String[] table : SCHEMA) {
+			if (tableExists(metaData, table[0])) {
+				continue;
+			}
+
+			LOG.info("Creating table " + table[0]);
+			try (Statement statement = connection.createStatement()) {
+				for (int i = 1; i < table.length; i++) {
+					statement.executeUpdate(table[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param metaData
+	 *            The database metadata.
+	 * @param table
+	 *            The table name, in lower case.
+	 * @return True if the table exists, in any case.
+	 * @throws SQLException
+	 *             If the metadata cannot be read.
+	 */
+	private static boolean tableExists(DatabaseMetaData metaData, String table) throws SQLException {
+		for (String name : new String[] { table, table.toUpperCase() }) {
+			try (ResultSet tables = metaData.getTables(null, null, name, null)) {
+				if (tables.next()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param dateTime
+	 *            A date, or null.
+	 * @return The SQL timestamp, or null.
+	 */
+	@CheckForNull
+	static Timestamp toTimestamp(@Nullable DateTime dateTime) {
+		return (dateTime == null) ? null : new Timestamp(dateTime.getMillis());
+	}
+}
@@ -0,0 +1,470 @@
+package jepperscore.backends.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Event;
+import jepperscore.dao.model.EventCode;
+import jepperscore.dao.model.Game;
+import jepperscore.dao.model.Round;
+import jepperscore.dao.model.Score;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.TransportMessage;
+
+/**
+ * This class writes batches of messages to the tables of {@link JdbcUtils}
+ * with prepared statements, one transaction per batch. The state messages of
+ * a batch are folded first, so an entity updated several times in a batch is
+ * written once. Rows are updated, and inserted where the update found
+ * nothing, which works on any database.
+ *
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+class JdbcWriter implements AutoCloseable {
+
+	/**
+	 * A table written with an update, then an insert if no row was updated.
+	 */
+	private static final class Table {
+
+		/**
+		 * Updates the value columns of a row, by key.
+		 */
+		private final PreparedStatement update;
+
+		/**
+		 * Inserts a row, keys first.
+		 */
+		private final PreparedStatement insert;
+
+		/**
+		 * The number of key columns.
+		 */
+		private final int keyCount;
+
+		/**
+		 * The SQL types of the columns, keys first.
+		 */
+		private final int[] types;
+
+		/**
+		 * The rows to write, by key.
+		 */
+		private final Map<String, Object[]> rows = new LinkedHashMap<String, Object[]>();
+
+		/**
+		 * Constructor.
+		 *
+		 * @param connection
+		 *            The connection.
+		 * @param table
+		 *            The table name.
+		 * @param columns
+		 *            The columns, keys first.
+		 * @param keyCount
+		 *            The number of key columns.
+		 * @param types
+		 *            The SQL types of the columns.
+		 * @throws SQLException
+		 *             If the statements cannot be prepared.
+		 */
+		private Table(Connection connection, String table, String[] columns,
+				int keyCount, int[] types) throws SQLException {
+			this.keyCount = keyCount;
+			this.types = types;
+
+			StringBuilder updateSql = new StringBuilder("UPDATE " + table + " SET ");
+			for (int i = keyCount; i < columns.length; i++) {
+				updateSql.append((i > keyCount) ? ", " : "").append(columns[i]).append(" = ?");
+			}
+			for (int i = 0; i < keyCount; i++) {
+				updateSql.append((i > 0) ? " AND " : " WHERE ").append(columns[i]).append(" = ?");
+			}
+
+			update = connection.prepareStatement(updateSql.toString());
+			insert = connection.prepareStatement(insertSql(table, columns));
+		}
+
+		/**
+		 * Queues a row, replacing a queued row with the same key.
+		 *
+		 * @param row
+		 *            The row, keys first.
+		 */
+		private void put(Object... row) {
+			StringBuilder key = new StringBuilder();
+			for (int i = 0; i < keyCount; i++) {
+				key.append(row[i]).append('\0');
+			}
+			rows.put(key.toString(), row);
+		}
+
+		/**
+		 * Writes the queued rows. Drivers that do not report the update count
+		 * of a batched statement ({@link Statement#SUCCESS_NO_INFO}) get that
+		 * update again on its own, which sets the same values, to find out if
+		 * the row exists.
+		 *
+		 * @throws SQLException
+		 *             If the rows cannot be written.
+		 */
+		private void write() throws SQLException {
+			if (rows.isEmpty()) {
+				return;
+			}
+
+			List<Object[]> batch = new ArrayList<Object[]>(rows.values());
+			rows.clear();
+
+			for (Object[] row : batch) {
+				bindUpdate(row);
+				update.addBatch();
+			}
+			int[] counts = update.executeBatch();
+
+			boolean inserting = false;
+			for (int i = 0; i < batch.size(); i++) {
+				int count = (i < counts.length) ? counts[i] : Statement.SUCCESS_NO_INFO;
+				if (count < 0) {
+					bindUpdate(batch.get(i));
+					count = update.executeUpdate();
+				}
+				if (count == 0) {
+					bindAll(insert, batch.get(i), types);
+					insert.addBatch();
+					inserting = true;
+				}
+			}
+			if (inserting) {
+				insert.executeBatch();
+			}
+		}
+
+		/**
+		 * Binds a row to the update statement, values first.
+		 *
+		 * @param row
+		 *            The row, keys first.
+		 * @throws SQLException
+		 *             If a value cannot be bound.
+		 */
+		private void bindUpdate(Object[] row) throws SQLException {
+			int parameter = 1;
+			for (int i = keyCount; i < row.length; i++) {
+				bind(update, parameter++, row[i], types[i]);
+			}
+			for (int i = 0; i < keyCount; i++) {
+				bind(update, parameter++, row[i], types[i]);
+			}
+		}
+
+		/**
+		 * Drops the queued rows and statement batches after a failure.
+		 *
+		 * @throws SQLException
+		 *             If the batches cannot be cleared.
+		 */
+		private void clear() throws SQLException {
+			rows.clear();
+			update.clearBatch();
+			insert.clearBatch();
+		}
+	}
+
+	/**
+	 * The connection.
+	 */
+	private final Connection connection;
+
+	/**
+	 * The rounds.
+	 */
+	private final Table rounds;
+
+	/**
+	 * The aliases.
+	 */
+	private final Table aliases;
+
+	/**
+	 * The alias scores.
+	 */
+	private final Table scores;
+
+	/**
+	 * The team scores.
+	 */
+	private final Table teams;
+
+	/**
+	 * Inserts an event.
+	 */
+	private final PreparedStatement insertEvent;
+
+	/**
+	 * The SQL types of the event columns.
+	 */
+	private static final int[] EVENT_TYPES = new int[] { Types.VARCHAR,
+			Types.TIMESTAMP, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+			Types.VARCHAR, Types.VARCHAR, Types.VARCHAR };
+
+	/**
+	 * Constructor.
+	 *
+	 * @param connection
+	 *            The connection, with the schema created.
+	 * @throws SQLException
+	 *             If the statements cannot be prepared.
+	 */
+	JdbcWriter(@Nonnull Connection connection) throws SQLException {
+		this.connection = connection;
+		connection.setAutoCommit(false);
+
+		rounds = new Table(connection, JdbcUtils.ROUNDS_TABLE, new String[] {
+				"session_id", "start_time", "end_time", "game_name", "gametype",
+				"game_mod", "map_name" }, 1, new int[] { Types.VARCHAR,
+				Types.TIMESTAMP, Types.TIMESTAMP, Types.VARCHAR, Types.VARCHAR,
+				Types.VARCHAR, Types.VARCHAR });
+		aliases = new Table(connection, JdbcUtils.ALIASES_TABLE, new String[] {
+				"session_id", "alias_id", "name", "team_name", "person_name",
+				"bot", "present" }, 2, new int[] { Types.VARCHAR, Types.VARCHAR,
+				Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.BOOLEAN,
+				Types.BOOLEAN });
+		scores = new Table(connection, JdbcUtils.SCORES_TABLE, new String[] {
+				"session_id", "alias_id", "score" }, 2, new int[] {
+				Types.VARCHAR, Types.VARCHAR, Types.REAL });
+		teams = new Table(connection, JdbcUtils.TEAMS_TABLE, new String[] {
+				"session_id", "team_name", "score" }, 2, new int[] {
+				Types.VARCHAR, Types.VARCHAR, Types.REAL });
+		insertEvent = connection.prepareStatement(insertSql(
+				JdbcUtils.EVENTS_TABLE, new String[] { "session_id",
+						"event_time", "code", "event_object", "extra",
+						"attacker_id", "victim_id", "event_text" }));
+	}
+
+	/**
+	 * Writes a batch of messages in one transaction. Messages without a
+	 * session are skipped.
+	 *
+	 * @param messages
+	 *            The messages, with their deltas applied and references
+	 *            resolved.
+	 * @throws SQLException
+	 *             If the batch cannot be written. The transaction is rolled
+	 *             back.
+	 */
+	void write(@Nonnull Collection<TransportMessage> messages) throws SQLException {
+		boolean events = false;
+		try {
+			for (TransportMessage message : messages) {
+				String sessionId = message.getSessionId();
+				if (sessionId == null) {
+					continue;
+				}
+
+				if (message.getRound() != null) {
+					putRound(sessionId, message.getRound());
+				} else if (message.getAlias() != null) {
+					putAlias(sessionId, message.getAlias());
+				} else if (message.getScore() != null) {
+					Score score = message.getScore();
+					Alias alias = score.getAlias();
+					if (alias != null) {
+						putAlias(sessionId, alias);
+						scores.put(sessionId, alias.getId(), score.getScore());
+					}
+				} else if (message.getTeam() != null) {
+					Team team = message.getTeam();
+					if (team.getTeamName() != null) {
+						teams.put(sessionId, team.getTeamName(), team.getScore());
+					}
+				} else if (message.getEvent() != null) {
+					addEvent(sessionId, message.getEvent());
+					events = true;
+				}
+			}
+
+			rounds.write();
+			aliases.write();
+			scores.write();
+			teams.write();
+			if (events) {
+				insertEvent.executeBatch();
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			try {
+				rounds.clear();
+				aliases.clear();
+				scores.clear();
+				teams.clear();
+				insertEvent.clearBatch();
+				connection.rollback();
+			} catch (SQLException rollbackException) {
+				e.addSuppressed(rollbackException);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Queues a round.
+	 *
+	 * @param sessionId
+	 *            The session.
+	 * @param round
+	 *            The round.
+	 */
+	private void putRound(String sessionId, Round round) {
+		Game game = round.getGame();
+		rounds.put(sessionId, JdbcUtils.toTimestamp(round.getStart()),
+				JdbcUtils.toTimestamp(round.getEnd()),
+				(game == null) ? null : game.getName(),
+				(game == null) ? null : game.getGametype(),
+				(game == null) ? null : game.getMod(), round.getMap());
+	}
+
+	/**
+	 * Queues an alias. Aliases without a name, such as unresolved
+	 * references, are skipped.
+	 *
+	 * @param sessionId
+	 *            The session.
+	 * @param alias
+	 *            The alias.
+	 */
+	private void putAlias(String sessionId, Alias alias) {
+		if (alias.getId().isEmpty() || alias.getName().isEmpty()) {
+			return;
+		}
+		Team team = alias.getTeam();
+		aliases.put(sessionId, alias.getId(), alias.getName(),
+				(team == null) ? null : team.getTeamName(),
+				(alias.getPerson() == null) ? null : alias.getPerson().getName(),
+				alias.isBot(), alias.isPresent());
+	}
+
+	/**
+	 * Queues an event, and its aliases.
+	 *
+	 * @param sessionId
+	 *            The session.
+	 * @param event
+	 *            The event.
+	 * @throws SQLException
+	 *             If the event cannot be queued.
+	 */
+	private void addEvent(String sessionId, Event event) throws SQLException {
+		Alias attacker = event.getAttacker();
+		Alias victim = event.getVictim();
+		if (attacker != null) {
+			putAlias(sessionId, attacker);
+		}
+		if (victim != null) {
+			putAlias(sessionId, victim);
+		}
+
+		EventCode eventCode = event.getEventCode();
+		bindAll(insertEvent, new Object[] { sessionId,
+				JdbcUtils.toTimestamp(event.getTimestamp()),
+				(eventCode == null) ? null : eventCode.getCode(),
+				(eventCode == null) ? null : eventCode.getObject(),
+				(eventCode == null) ? null : eventCode.getExtra(),
+				(attacker == null) ? null : attacker.getId(),
+				(victim == null) ? null : victim.getId(),
+				event.getEventText() }, EVENT_TYPES);
+		insertEvent.addBatch();
+	}
+
+	/**
+	 * @return True if the connection is still usable, so a failed batch was
+	 *         refused by the database rather than lost with the connection.
+	 */
+	boolean isValid() {
+		try {
+			return connection.isValid(5);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void close() throws SQLException {
+		connection.close();
+	}
+
+	/**
+	 * @param table
+	 *            The table name.
+	 * @param columns
+	 *            The columns.
+	 * @return The insert statement.
+	 */
+	private static String insertSql(String table, String[] columns) {
+		StringBuilder sql = new StringBuilder("INSERT INTO " + table + " (");
+		StringBuilder values = new StringBuilder(") VALUES (");
+		for (int i = 0; i < columns.length; i++) {
+			sql.append((i > 0) ? ", " : "").append(columns[i]);
+			values.append((i > 0) ? ", ?" : "?");
+		}
+		return sql.append(values).append(')').toString();
+	}
+
+	/**
+	 * Binds a row to the parameters of a statement.
+	 *
+	 * @param statement
+	 *            The statement.
+	 * @param row
+	 *            The row.
+	 * @param types
+	 *            The SQL types of the row.
+	 * @throws SQLException
+	 *             If a value cannot be bound.
+	 */
+	private static void bindAll(PreparedStatement statement, Object[] row,
+			int[] types) throws SQLException {
+		for (int i = 0; i < row.length; i++) {
+			bind(statement, i + 1, row[i], types[i]);
+		}
+	}
+
+	/**
+	 * Binds a value to a parameter of a statement.
+	 *
+	 * @param statement
+	 *            The statement.
+	 * @param parameter
+	 *            The parameter, from 1.
+	 * @param value
+	 *            The value, or null.
+	 * @param type
+	 *            The SQL type of the value.
+	 * @throws SQLException
+	 *             If the value cannot be bound.
+	 */
+	private static void bind(PreparedStatement statement, int parameter,
+			Object value, int type) throws SQLException {
+		if (value == null) {
+			statement.setNull(parameter, type);
+		} else {
+			statement.setObject(parameter, value, type);
+		}
+	}
+}
@@ -0,0 +1,314 @@
+package jepperscore.backends.jdbc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import jepperscore.backends.jdbc.JdbcLeaderboard;
+import jepperscore.backends.jdbc.JdbcMessageDestination;
+import jepperscore.backends.jdbc.JdbcUtils;
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Event;
+import jepperscore.dao.model.EventCode;
+import jepperscore.dao.model.Game;
+import jepperscore.dao.model.Round;
+import jepperscore.dao.model.Score;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.joda.time.DateTime;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * This class tests the JDBC backend against an in-memory H2 database.
+ *
+ * @author Chuck
+ *
+ */
+public class JdbcTest {
+
+	/**
+	 * The time the first round starts.
+	 */
+	private static final DateTime START = new DateTime(2014, 6, 1, 20, 0);
+
+	/**
+	 * The URL prefix of {@link NoCountDriver}.
+	 */
+	private static final String NO_COUNT_PREFIX = "jdbc:nocount:";
+
+	/**
+	 * A driver opening H2 connections whose batches do not report their
+	 * update counts, like some other drivers.
+	 */
+	private static final class NoCountDriver implements Driver {
+
+		@Override
+		public Connection connect(String url, Properties info) throws SQLException {
+			if (!acceptsURL(url)) {
+				return null;
+			}
+			Connection connection = DriverManager.getConnection(
+					"jdbc:h2:" + url.substring(NO_COUNT_PREFIX.length()), info);
+			return wrap(Connection.class, connection);
+		}
+
+		@Override
+		public boolean acceptsURL(String url) {
+			return url.startsWith(NO_COUNT_PREFIX);
+		}
+
+		@Override
+		public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+			return new DriverPropertyInfo[0];
+		}
+
+		@Override
+		public int getMajorVersion() {
+			return 1;
+		}
+
+		@Override
+		public int getMinorVersion() {
+			return 0;
+		}
+
+		@Override
+		public boolean jdbcCompliant() {
+			return false;
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+
+		/**
+		 * Wraps a connection or statement, so the prepared statements it
+		 * creates report {@link Statement#SUCCESS_NO_INFO} for their batches.
+		 * @param <T> The interface.
+		 * @param type The interface to wrap.
+		 * @param target The object to wrap.
+		 * @return The wrapped object.
+		 */
+		private static <T> T wrap(Class<T> type, final Object target) {
+			return type.cast(Proxy.newProxyInstance(JdbcTest.class.getClassLoader(),
+					new Class<?>[] { type }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							Object result;
+							try {
+								result = method.invoke(target, args);
+							} catch (InvocationTargetException e) {
+								throw e.getCause();
+							}
+							if ("executeBatch".equals(method.getName())) {
+								int[] counts = new int[((int[]) result).length];
+								Arrays.fill(counts, Statement.SUCCESS_NO_INFO);
+								return counts;
+							} else if (result instanceof PreparedStatement) {
+								return wrap(PreparedStatement.class, result);
+							}
+							return result;
+						}
+					}));
+		}
+	}
+
+	/**
+	 * The registered {@link NoCountDriver}.
+	 */
+	private static Driver noCountDriver;
+
+	/**
+	 * Registers the {@link NoCountDriver}.
+	 * @throws SQLException If the driver cannot be registered.
+	 */
+	@BeforeClass
+	public static void registerDriver() throws SQLException {
+		noCountDriver = new NoCountDriver();
+		DriverManager.registerDriver(noCountDriver);
+	}
+
+	/**
+	 * Deregisters the {@link NoCountDriver}.
+	 * @throws SQLException If the driver cannot be deregistered.
+	 */
+	@AfterClass
+	public static void deregisterDriver() throws SQLException {
+		DriverManager.deregisterDriver(noCountDriver);
+	}
+
+	/**
+	 * Tests that the options are taken out of the setup string and the rest
+	 * is kept in the URL.
+	 */
+	@Test
+	public void testParseSetup() {
+		Map<String, String> options = new HashMap<String, String>();
+		String url = JdbcUtils.parseSetup(
+				"jdbc:h2:mem:stats;user=sa;DB_CLOSE_DELAY=-1;batchSize=10",
+				new HashSet<String>(Arrays.asList(JdbcMessageDestination.BATCH_SIZE_OPTION)),
+				options);
+
+		assertEquals("jdbc:h2:mem:stats;DB_CLOSE_DELAY=-1", url);
+		assertEquals("sa", options.get(JdbcUtils.USER_OPTION));
+		assertEquals("10", options.get(JdbcMessageDestination.BATCH_SIZE_OPTION));
+	}
+
+	/**
+	 * Tests that two rounds are stored and that the leaderboards are read
+	 * back, for a session and across rounds. Scores are sent twice, so the
+	 * latest score replaces the first.
+	 * @throws SQLException If the database fails.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testLeaderboard() throws SQLException, InterruptedException {
+		String setup = "jdbc:h2:mem:leaderboard;DB_CLOSE_DELAY=-1;batchSize=4";
+		JdbcMessageDestination destination = new JdbcMessageDestination(setup);
+
+		Game game = new Game("bf1942", "conquest", null);
+		Team axis = new Team("Axis");
+		Team allies = new Team("Allies");
+		Alias alice = new Alias("1", "Alice", null, false, axis, null, game, true);
+		Alias bob = new Alias("2", "Bob", null, false, allies, null, game, true);
+
+		Round round1 = new Round("round-1", START, null, game, "wake");
+		List<TransportMessage> messages = new ArrayList<TransportMessage>();
+		messages.add(new TransportMessage(round1, "round-1"));
+		messages.add(new TransportMessage(alice, "round-1"));
+		messages.add(new TransportMessage(bob, "round-1"));
+		messages.add(new TransportMessage(new Score(alice, 1), "round-1"));
+		messages.add(kill(round1, 1, alice, bob, EventCode.EVENT_CODE_KILL, "thompson"));
+		messages.add(kill(round1, 2, alice, bob, EventCode.EVENT_CODE_KILL, "thompson"));
+		messages.add(kill(round1, 3, bob, alice, EventCode.EVENT_CODE_KILL, "kar98k"));
+		messages.add(kill(round1, 4, bob, bob, EventCode.EVENT_CODE_TEAMKILL, "grenade"));
+		messages.add(new TransportMessage(new Score(alice, 2), "round-1"));
+		messages.add(new TransportMessage(new Team("Axis", 120f), "round-1"));
+		destination.sendMessages(messages);
+
+		Round round2 = new Round("round-2", START.plusHours(1), null, game, "midway");
+		destination.sendMessage(new TransportMessage(round2, "round-2"));
+		destination.sendMessage(new TransportMessage(bob, "round-2"));
+		destination.sendMessage(kill(round2, 1, bob, alice, EventCode.EVENT_CODE_KILL, "kar98k"));
+		destination.sendMessage(kill(round2, 2, bob, alice, EventCode.EVENT_CODE_KILL, "kar98k"));
+
+		assertTrue(destination.flush(10000));
+		assertEquals(0, destination.getFailedCount());
+
+		try (JdbcLeaderboard leaderboard = new JdbcLeaderboard(setup)) {
+			Map<String, Integer> kills = leaderboard.getKillsByAttacker("round-1");
+			assertEquals(2, kills.size());
+			assertEquals(Integer.valueOf(2), kills.get("1"));
+			assertEquals(Integer.valueOf(1), kills.get("2"));
+
+			Map<String, Integer> deaths = leaderboard.getDeathsByVictim("round-1");
+			assertEquals(Integer.valueOf(1), deaths.get("1"));
+			assertEquals(Integer.valueOf(3), deaths.get("2"));
+
+			assertEquals(Integer.valueOf(1), leaderboard.getTeamKillsByAttacker("round-1").get("2"));
+
+			Map<String, Float> scores = leaderboard.getScoresByAlias("round-1");
+			assertEquals(1, scores.size());
+			assertEquals(2f, scores.get("1"), 0f);
+
+			assertEquals(120f, leaderboard.getScoresByTeam("round-1").get("Axis"), 0f);
+
+			Map<String, Integer> topKillers = leaderboard.getTopKillers(null, null, 10);
+			assertEquals(Arrays.asList("Bob", "Alice"), new ArrayList<String>(topKillers.keySet()));
+			assertEquals(Integer.valueOf(3), topKillers.get("Bob"));
+
+			topKillers = leaderboard.getTopKillers(START, START.plusHours(1), 1);
+			assertEquals(1, topKillers.size());
+			assertEquals(Integer.valueOf(2), topKillers.get("Alice"));
+
+			Map<String, Map<String, Integer>> weapons = leaderboard.getWeaponUsageByMap(null, null);
+			assertEquals(Integer.valueOf(2), weapons.get("wake").get("thompson"));
+			assertEquals(Integer.valueOf(1), weapons.get("wake").get("grenade"));
+			assertEquals(Integer.valueOf(2), weapons.get("midway").get("kar98k"));
+		} finally {
+			destination.close();
+		}
+	}
+
+	/**
+	 * Tests that rows are inserted and then updated when the driver does not
+	 * report the update counts of a batch.
+	 * @throws SQLException If the database fails.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testUpdateCountsNotReported() throws SQLException, InterruptedException {
+		String setup = NO_COUNT_PREFIX + "mem:nocount;DB_CLOSE_DELAY=-1";
+		JdbcMessageDestination destination = new JdbcMessageDestination(setup);
+
+		Game game = new Game("bf1942", "conquest", null);
+		Alias alice = new Alias("1", "Alice", null, false, new Team("Axis"), null, game, true);
+		Round round = new Round("round-1", START, null, game, "wake");
+		destination.sendMessage(new TransportMessage(round, "round-1"));
+		destination.sendMessage(new TransportMessage(alice, "round-1"));
+		destination.sendMessage(new TransportMessage(new Score(alice, 1), "round-1"));
+		destination.sendMessage(kill(round, 1, alice, alice, EventCode.EVENT_CODE_KILL, "thompson"));
+		assertTrue(destination.flush(10000));
+		destination.sendMessage(new TransportMessage(new Score(alice, 2), "round-1"));
+		assertTrue(destination.flush(10000));
+		assertEquals(0, destination.getFailedCount());
+
+		try (JdbcLeaderboard leaderboard = new JdbcLeaderboard(setup)) {
+			Map<String, Float> scores = leaderboard.getScoresByAlias("round-1");
+			assertEquals(1, scores.size());
+			assertEquals(2f, scores.get("1"), 0f);
+			assertEquals(Integer.valueOf(1), leaderboard.getTopKillers(null, null, 10).get("Alice"));
+		} finally {
+			destination.close();
+		}
+	}
+
+	/**
+	 * @param round The round.
+	 * @param second The second of the round the kill happened.
+	 * @param attacker The attacker.
+	 * @param victim The victim.
+	 * @param code The event code.
+	 * @param weapon The weapon.
+	 * @return The kill message.
+	 */
+	private static TransportMessage kill(Round round, int second, Alias attacker,
+			Alias victim, String code, String weapon) {
+		EventCode eventCode = new EventCode();
+		eventCode.setCode(code);
+		eventCode.setObject(weapon);
+
+		Event event = new Event();
+		event.setTimestamp(round.getStart().plusSeconds(second));
+		event.setAttacker(attacker);
+		event.setVictim(victim);
+		event.setEventCode(eventCode);
+		event.setEventText("{attacker} killed {victim}");
+		event.setRound(round);
+		return new TransportMessage(event, round.getId());
+	}
+}
@@ -0,0 +1,362 @@
+package jepperscore.backends.multicast;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.AbstractMessageDestination;
+import jepperscore.dao.IMessageDestination;
+import jepperscore.dao.codec.BinaryMessageCodec;
+import jepperscore.dao.codec.IMessageCodec;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class implements the {@link IMessageDestination} by sending messages
+ * to a UDP multicast group, so a single publisher serves any number of
+ * {@link MulticastMessageSource}s on the network at the same cost. The setup
+ * string is the group followed by options, for example
+ * <code>239.255.42.99:4242;ttl=1;interface=eth0</code>.
+ *
+ * <p>
+ * Messages are numbered and packed into datagrams of at most
+ * {@link #DATAGRAM_SIZE_OPTION datagramSize} bytes. The last
+ * {@link #HISTORY_OPTION history} messages are kept, and a background thread
+ * sends them again to the group when a source reports a gap. A heartbeat is
+ * sent every second while idle, so sources notice lost messages at the end of
+ * a burst.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class MulticastMessageDestination extends AbstractMessageDestination implements Runnable {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(MulticastMessageDestination.class);
+
+	/**
+	 * The option giving the time to live of the datagrams, the number of
+	 * routers they cross.
+	 */
+	public static final String TTL_OPTION = "ttl";
+
+	/**
+	 * The option naming the network interface to send on.
+	 */
+	public static final String INTERFACE_OPTION = "interface";
+
+	/**
+	 * The option giving the largest datagram packing several messages, in
+	 * bytes.
+	 */
+	public static final String DATAGRAM_SIZE_OPTION = "datagramSize";
+
+	/**
+	 * The option giving the number of messages kept for retransmission.
+	 */
+	public static final String HISTORY_OPTION = "history";
+
+	/**
+	 * The default time to live, which keeps the datagrams on the local
+	 * network.
+	 */
+	public static final int DEFAULT_TTL = 1;
+
+	/**
+	 * The default largest datagram, which fits an Ethernet frame.
+	 */
+	public static final int DEFAULT_DATAGRAM_SIZE = 1400;
+
+	/**
+	 * The default number of messages kept for retransmission.
+	 */
+	public static final int DEFAULT_HISTORY = 8192;
+
+	/**
+	 * The time between heartbeats while idle, in milliseconds.
+	 */
+	public static final int HEARTBEAT_INTERVAL = 1000;
+
+	/**
+	 * The codec used on the wire.
+	 */
+	private final IMessageCodec codec = new BinaryMessageCodec();
+
+	/**
+	 * The socket, sending to the group and receiving retransmission requests.
+	 */
+	private final MulticastSocket socket;
+
+	/**
+	 * The group.
+	 */
+	private final InetSocketAddress group;
+
+	/**
+	 * The id of this publisher, so sources notice a restart.
+	 */
+	private final long publisherId = new SecureRandom().nextLong();
+
+	/**
+	 * The largest datagram packing several messages.
+	 */
+	private final int datagramSize;
+
+	/**
+	 * The encoded messages kept for retransmission, by sequence modulo the
+	 * history size. Guarded by this.
+	 */
+	private final byte[][] history;
+
+	/**
+	 * The sequence of the next message. Guarded by this.
+	 */
+	private long nextSequence = 0;
+
+	/**
+	 * When a datagram was last sent.
+	 */
+	private volatile long lastSendTime = 0;
+
+	/**
+	 * True once the destination is closed.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * The thread answering retransmission requests.
+	 */
+	private final Thread thread;
+
+	/**
+	 * Creates the message destination.
+	 *
+	 * @param setupString
+	 *            The group, followed by options.
+	 * @throws IOException
+	 *             If the socket cannot be opened.
+	 */
+	public MulticastMessageDestination(@Nonnull String setupString) throws IOException {
+		String[] configArray = setupString.split(";");
+		Map<String, String> options = MulticastProtocol.parseOptions(configArray);
+		group = MulticastProtocol.parseGroup(configArray);
+
+		int ttl;
+		int historySize;
+		try {
+			ttl = options.containsKey(TTL_OPTION)
+					? Integer.parseInt(options.get(TTL_OPTION)) : DEFAULT_TTL;
+			datagramSize = options.containsKey(DATAGRAM_SIZE_OPTION)
+					? Integer.parseInt(options.get(DATAGRAM_SIZE_OPTION)) : DEFAULT_DATAGRAM_SIZE;
+			historySize = options.containsKey(HISTORY_OPTION)
+					? Integer.parseInt(options.get(HISTORY_OPTION)) : DEFAULT_HISTORY;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid multicast option: "
+					+ e.getMessage(), e);
+		}
+		history = new byte[Math.max(1, historySize)][];
+
+		socket = new MulticastSocket();
+		socket.setTimeToLive(ttl);
+		MulticastProtocol.setInterface(socket, options.get(INTERFACE_OPTION));
+		socket.setSoTimeout(HEARTBEAT_INTERVAL);
+
+		LOG.info("Sending to multicast group " + group + " (TTL " + ttl + ")");
+
+		thread = new Thread(this, "MulticastMessageDestination-" + group.getPort());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void sendMessage(TransportMessage transportMessage) {
+		sendMessages(Arrays.asList(transportMessage));
+	}
+
+	/**
+	 * Numbers the messages and sends them, packed into as few datagrams as
+	 * possible.
+	 */
+	@Override
+	public void sendMessages(Collection<TransportMessage> transportMessages) {
+		if (closed) {
+			LOG.warn("Dropping " + transportMessages.size()
+					+ " messages sent to a closed multicast destination.");
+			return;
+		}
+
+		List<byte[]> encoded = new ArrayList<byte[]>(transportMessages.size());
+		for (TransportMessage transportMessage : transportMessages) {
+			try {
+				byte[] data = codec.encode(transportMessage);
+				if ((MulticastProtocol.DATA_HEADER_SIZE + 4 + data.length) > MulticastProtocol.MAX_DATAGRAM_SIZE) {
+					LOG.error("Dropping a message of " + data.length
+							+ " bytes, too large for a datagram.");
+					continue;
+				}
+				encoded.add(data);
+			} catch (IOException e) {
+				LOG.error(e.getMessage(), e);
+			}
+		}
+
+		synchronized (this) {
+			long first = nextSequence;
+			for (byte[] data : encoded) {
+				history[(int) (nextSequence % history.length)] = data;
+				nextSequence++;
+			}
+			send(first, nextSequence - 1);
+		}
+	}
+
+	/**
+	 * Sends messages from the history, packed into datagrams.
+	 *
+	 * @param from
+	 *            The sequence of the first message.
+	 * @param to
+	 *            The sequence of the last message.
+	 */
+	private void send(long from, long to) {
+		long sequence = from;
+		while (sequence <= to) {
+			int size = MulticastProtocol.DATA_HEADER_SIZE;
+			long end = sequence;
+			while (end <= to) {
+				int messageSize = 4 + history[(int) (end % history.length)].length;
+				if ((end > sequence) && ((size + messageSize) > datagramSize)) {
+					break;
+				}
+				size += messageSize;
+				end++;
+			}
+
+			ByteBuffer datagram = MulticastProtocol.newDatagram(size,
+					MulticastProtocol.DATA, publisherId, sequence);
+			datagram.putShort((short) (end - sequence));
+			for (long i = sequence; i < end; i++) {
+				byte[] data = history[(int) (i % history.length)];
+				datagram.putInt(data.length).put(data);
+			}
+			send(datagram);
+			sequence = end;
+		}
+	}
+
+	/**
+	 * Sends a datagram to the group.
+	 *
+	 * @param datagram
+	 *            The datagram.
+	 */
+	private void send(ByteBuffer datagram) {
+		try {
+			socket.send(new DatagramPacket(datagram.array(), datagram.position(), group));
+			lastSendTime = System.currentTimeMillis();
+		} catch (IOException e) {
+			if (!closed) {
+				LOG.error(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Sends messages again after a source reported a gap. Messages no longer
+	 * in the history are reported as lost.
+	 *
+	 * @param from
+	 *            The sequence of the first missing message.
+	 * @param to
+	 *            The sequence of the last missing message.
+	 */
+	private synchronized void retransmit(long from, long to) {
+		long oldest = Math.max(0, nextSequence - history.length);
+		long last = Math.min(to, nextSequence - 1);
+		if (from < oldest) {
+			long lostTo = Math.min(last, oldest - 1);
+			send(MulticastProtocol.newDatagram(MulticastProtocol.HEADER_SIZE + 8,
+					MulticastProtocol.LOST, publisherId, from).putLong(lostTo));
+			from = oldest;
+		}
+		if (from <= last) {
+			send(from, last);
+		}
+	}
+
+	/**
+	 * Sends a heartbeat if nothing was sent for a while.
+	 */
+	private synchronized void heartbeat() {
+		if ((System.currentTimeMillis() - lastSendTime) >= HEARTBEAT_INTERVAL) {
+			send(MulticastProtocol.newDatagram(MulticastProtocol.DATA_HEADER_SIZE,
+					MulticastProtocol.DATA, publisherId, nextSequence).putShort((short) 0));
+		}
+	}
+
+	@Override
+	public void run() {
+		byte[] buffer = new byte[MulticastProtocol.HEADER_SIZE + 8];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+
+		while (!closed) {
+			try {
+				packet.setLength(buffer.length);
+				socket.receive(packet);
+
+				ByteBuffer request = ByteBuffer.wrap(buffer, 0, packet.getLength());
+				if ((packet.getLength() == buffer.length)
+						&& (request.getInt() == MulticastProtocol.MAGIC)
+						&& (request.get() == MulticastProtocol.NAK)
+						&& (request.getLong() == publisherId)) {
+					long from = request.getLong();
+					long to = request.getLong();
+					retransmit(from, to);
+				}
+			} catch (SocketTimeoutException e) {
+				// Time for a heartbeat.
+			} catch (SocketException e) {
+				if (!closed) {
+					LOG.error(e.getMessage(), e);
+				}
+				break;
+			} catch (IOException e) {
+				LOG.error(e.getMessage(), e);
+			}
+			heartbeat();
+		}
+	}
+
+	/**
+	 * @return The sequence of the next message.
+	 */
+	public synchronized long getNextSequence() {
+		return nextSequence;
+	}
+
+	/**
+	 * Stops sending and closes the socket.
+	 */
+	public void close() {
+		closed = true;
+		socket.close();
+	}
+}
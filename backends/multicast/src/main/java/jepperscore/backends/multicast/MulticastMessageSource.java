@@ -0,0 +1,416 @@
+package jepperscore.backends.multicast;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.AbstractMessageSource;
+import jepperscore.dao.IMessageSource;
+import jepperscore.dao.codec.BinaryMessageCodec;
+import jepperscore.dao.codec.IMessageCodec;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class implements the {@link IMessageSource} by joining the UDP
+ * multicast group of a {@link MulticastMessageDestination}. The setup string
+ * is the same, for example <code>239.255.42.99:4242;interface=eth0</code>.
+ *
+ * <p>
+ * The source follows the sequence numbers of the publisher from the first
+ * datagram it receives, and gives the messages to the callbacks in order.
+ * Messages after a gap are held back while the missing ones are requested
+ * from the publisher. If they cannot be recovered the gap is skipped and the
+ * {@link GapListener} is told, so the consumer can reload its state, for
+ * example from a snapshot.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class MulticastMessageSource extends AbstractMessageSource implements Runnable {
+
+	/**
+	 * Told about messages that were lost for good.
+	 *
+	 * @author Chuck
+	 *
+	 */
+	public static interface GapListener {
+
+		/**
+		 * Called when messages were skipped.
+		 *
+		 * @param fromSequence
+		 *            The sequence of the first lost message.
+		 * @param toSequence
+		 *            The sequence of the last lost message.
+		 */
+		void onGap(long fromSequence, long toSequence);
+	}
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(MulticastMessageSource.class);
+
+	/**
+	 * The time between two requests for the same gap, in milliseconds.
+	 */
+	public static final int NAK_INTERVAL = 50;
+
+	/**
+	 * The number of requests for a gap before it is skipped.
+	 */
+	public static final int NAK_RETRIES = 5;
+
+	/**
+	 * The largest number of messages held back behind a gap before it is
+	 * skipped.
+	 */
+	public static final int MAX_PENDING = 10000;
+
+	/**
+	 * The codec used on the wire.
+	 */
+	private final IMessageCodec codec = new BinaryMessageCodec();
+
+	/**
+	 * The socket.
+	 */
+	private final MulticastSocket socket;
+
+	/**
+	 * The group.
+	 */
+	private final InetSocketAddress group;
+
+	/**
+	 * The interface the group was joined on, or null.
+	 */
+	private final NetworkInterface networkInterface;
+
+	/**
+	 * The publisher being followed.
+	 */
+	private long publisherId;
+
+	/**
+	 * The address of the publisher, where gaps are reported, or null before
+	 * the first datagram.
+	 */
+	private SocketAddress publisher = null;
+
+	/**
+	 * The sequence of the next message to give to the callbacks.
+	 */
+	private long expected;
+
+	/**
+	 * The sequence after the last message the publisher is known to have
+	 * sent.
+	 */
+	private long known;
+
+	/**
+	 * The messages received after a gap, by the sequence of the first.
+	 */
+	private final TreeMap<Long, List<TransportMessage>> pending = new TreeMap<Long, List<TransportMessage>>();
+
+	/**
+	 * The number of messages in {@link #pending}.
+	 */
+	private int pendingCount = 0;
+
+	/**
+	 * The gap last requested, as its first sequence.
+	 */
+	private long nakSequence = -1;
+
+	/**
+	 * The number of requests sent for the gap.
+	 */
+	private int nakCount = 0;
+
+	/**
+	 * When the gap was last requested.
+	 */
+	private long nakTime = 0;
+
+	/**
+	 * The number of messages lost for good.
+	 */
+	private volatile long lostCount = 0;
+
+	/**
+	 * Told about lost messages, or null.
+	 */
+	private volatile GapListener gapListener;
+
+	/**
+	 * True once the source is closed.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * The thread receiving datagrams.
+	 */
+	private final Thread thread;
+
+	/**
+	 * Creates the message source.
+	 *
+	 * @param setupString
+	 *            The group, followed by options.
+	 * @throws IOException
+	 *             If the group cannot be joined.
+	 */
+	public MulticastMessageSource(@Nonnull String setupString) throws IOException {
+		String[] configArray = setupString.split(";");
+		Map<String, String> options = MulticastProtocol.parseOptions(configArray);
+		group = MulticastProtocol.parseGroup(configArray);
+
+		socket = new MulticastSocket(group.getPort());
+		networkInterface = MulticastProtocol.setInterface(socket,
+				options.get(MulticastMessageDestination.INTERFACE_OPTION));
+		if (networkInterface == null) {
+			socket.joinGroup(group.getAddress());
+		} else {
+			socket.joinGroup(group, networkInterface);
+		}
+		socket.setSoTimeout(NAK_INTERVAL);
+
+		LOG.info("Joined multicast group " + group);
+
+		thread = new Thread(this, "MulticastMessageSource-" + group.getPort());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @param listener
+	 *            Told about messages that were lost for good, or null.
+	 */
+	public void setGapListener(@CheckForNull GapListener listener) {
+		gapListener = listener;
+	}
+
+	/**
+	 * @return The number of messages lost for good.
+	 */
+	public long getLostCount() {
+		return lostCount;
+	}
+
+	@Override
+	public void run() {
+		byte[] buffer = new byte[MulticastProtocol.MAX_DATAGRAM_SIZE];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+
+		while (!closed) {
+			try {
+				packet.setLength(buffer.length);
+				socket.receive(packet);
+				receive(ByteBuffer.wrap(buffer, 0, packet.getLength()), packet.getSocketAddress());
+			} catch (SocketTimeoutException e) {
+				// Check the gaps.
+			} catch (SocketException e) {
+				if (!closed) {
+					LOG.error(e.getMessage(), e);
+				}
+				break;
+			} catch (IOException | RuntimeException e) {
+				LOG.error(e.getMessage(), e);
+			}
+			checkGap();
+		}
+	}
+
+	/**
+	 * Handles a datagram.
+	 *
+	 * @param datagram
+	 *            The datagram.
+	 * @param sender
+	 *            The address of the sender.
+	 * @throws IOException
+	 *             If a message cannot be decoded.
+	 */
+	private void receive(ByteBuffer datagram, SocketAddress sender) throws IOException {
+		if ((datagram.remaining() < MulticastProtocol.HEADER_SIZE)
+				|| (datagram.getInt() != MulticastProtocol.MAGIC)) {
+			return;
+		}
+		byte type = datagram.get();
+		long id = datagram.getLong();
+		long sequence = datagram.getLong();
+
+		if (type == MulticastProtocol.DATA) {
+			if ((publisher == null) || (id != publisherId)) {
+				if (publisher != null) {
+					LOG.info("Multicast publisher restarted, following the new one.");
+				}
+				publisherId = id;
+				publisher = sender;
+				expected = sequence;
+				known = sequence;
+				pending.clear();
+				pendingCount = 0;
+			}
+
+			int count = datagram.getShort() & 0xFFFF;
+			known = Math.max(known, sequence + count);
+			if ((sequence + count) <= expected) {
+				return;
+			}
+
+			List<TransportMessage> messages = new ArrayList<TransportMessage>(count);
+			for (int i = 0; i < count; i++) {
+				byte[] data = new byte[datagram.getInt()];
+				datagram.get(data);
+				messages.add(codec.decode(data));
+			}
+
+			if (sequence <= expected) {
+				deliver(sequence, messages);
+				drainPending();
+			} else if (count > 0) {
+				if (pending.put(sequence, messages) == null) {
+					pendingCount += count;
+				}
+			}
+		} else if ((type == MulticastProtocol.LOST) && (id == publisherId)
+				&& (publisher != null)) {
+			long to = datagram.getLong();
+			if ((sequence <= expected) && (to >= expected)) {
+				skip(to + 1);
+			}
+		}
+	}
+
+	/**
+	 * Gives the messages not delivered yet to the callbacks.
+	 *
+	 * @param sequence
+	 *            The sequence of the first message.
+	 * @param messages
+	 *            The messages.
+	 */
+	private void deliver(long sequence, List<TransportMessage> messages) {
+		for (int i = (int) (expected - sequence); i < messages.size(); i++) {
+			call(messages.get(i));
+		}
+		expected = Math.max(expected, sequence + messages.size());
+	}
+
+	/**
+	 * Delivers the held back messages that are no longer behind a gap.
+	 */
+	private void drainPending() {
+		while (!pending.isEmpty() && (pending.firstKey() <= expected)) {
+			Map.Entry<Long, List<TransportMessage>> entry = pending.pollFirstEntry();
+			pendingCount -= entry.getValue().size();
+			if ((entry.getKey() + entry.getValue().size()) > expected) {
+				deliver(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Skips lost messages and tells the gap listener.
+	 *
+	 * @param next
+	 *            The sequence of the first message after the gap.
+	 */
+	private void skip(long next) {
+		long from = expected;
+		LOG.warn("Lost multicast messages " + from + " to " + (next - 1));
+		lostCount += next - from;
+		expected = next;
+		nakSequence = -1;
+
+		GapListener listener = gapListener;
+		if (listener != null) {
+			try {
+				listener.onGap(from, next - 1);
+			} catch (RuntimeException e) {
+				LOG.error(e.getMessage(), e);
+			}
+		}
+		drainPending();
+	}
+
+	/**
+	 * Requests the messages of the current gap from the publisher, or skips
+	 * it once it was requested too often or holds back too many messages.
+	 */
+	private void checkGap() {
+		long gapEnd = pending.isEmpty() ? known : pending.firstKey();
+		if ((publisher == null) || (gapEnd <= expected)) {
+			nakSequence = -1;
+			return;
+		}
+
+		if (nakSequence != expected) {
+			nakSequence = expected;
+			nakCount = 0;
+			nakTime = 0;
+		}
+		if (pendingCount > MAX_PENDING) {
+			skip(gapEnd);
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		if ((now - nakTime) < NAK_INTERVAL) {
+			return;
+		}
+		if (nakCount >= NAK_RETRIES) {
+			skip(gapEnd);
+			return;
+		}
+
+		ByteBuffer nak = MulticastProtocol.newDatagram(MulticastProtocol.HEADER_SIZE + 8,
+				MulticastProtocol.NAK, publisherId, expected).putLong(gapEnd - 1);
+		try {
+			socket.send(new DatagramPacket(nak.array(), nak.position(), publisher));
+		} catch (IOException e) {
+			LOG.error(e.getMessage(), e);
+		}
+		nakCount++;
+		nakTime = now;
+	}
+
+	/**
+	 * Leaves the group and closes the socket.
+	 */
+	public void close() {
+		closed = true;
+		try {
+			if (networkInterface == null) {
+				socket.leaveGroup(group.getAddress());
+			} else {
+				socket.leaveGroup(group, networkInterface);
+			}
+		} catch (IOException e) {
+			LOG.error(e.getMessage(), e);
+		}
+		socket.close();
+	}
+}
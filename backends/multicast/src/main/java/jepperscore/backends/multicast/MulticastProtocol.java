@@ -0,0 +1,158 @@
+package jepperscore.backends.multicast;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * This class holds the datagram format shared by
+ * {@link MulticastMessageDestination} and {@link MulticastMessageSource}.
+ *
+ * <p>
+ * Every datagram starts with {@link #MAGIC}, a type, the id of the publisher
+ * and a sequence number:
+ * </p>
+ * <ul>
+ * <li>{@link #DATA}: the sequence of the first message, a count, and the
+ * messages in the binary codec, each prefixed by its length. A datagram
+ * without messages is a heartbeat, giving the sequence of the next message.</li>
+ * <li>{@link #NAK}: sent by a source to the publisher, asking for the
+ * messages from the sequence to a last sequence.</li>
+ * <li>{@link #LOST}: sent by the publisher when the messages from the
+ * sequence to a last sequence are no longer in its history.</li>
+ * </ul>
+ *
+ * @author Chuck
+ *
+ */
+final class MulticastProtocol {
+
+	/**
+	 * The first bytes of every datagram ("JPSC").
+	 */
+	static final int MAGIC = 0x4A505343;
+
+	/**
+	 * A datagram of messages, or a heartbeat.
+	 */
+	static final byte DATA = 1;
+
+	/**
+	 * A request to retransmit messages.
+	 */
+	static final byte NAK = 2;
+
+	/**
+	 * A notice that messages cannot be retransmitted.
+	 */
+	static final byte LOST = 3;
+
+	/**
+	 * The size of the header of every datagram.
+	 */
+	static final int HEADER_SIZE = 4 + 1 + 8 + 8;
+
+	/**
+	 * The size of the header of a data datagram.
+	 */
+	static final int DATA_HEADER_SIZE = HEADER_SIZE + 2;
+
+	/**
+	 * The largest datagram that can be sent.
+	 */
+	static final int MAX_DATAGRAM_SIZE = 65507;
+
+	/**
+	 * Hide constructor.
+	 */
+	private MulticastProtocol() {
+	}
+
+	/**
+	 * Starts a datagram.
+	 *
+	 * @param size
+	 *            The size of the datagram.
+	 * @param type
+	 *            The type of the datagram.
+	 * @param publisherId
+	 *            The id of the publisher.
+	 * @param sequence
+	 *            The sequence.
+	 * @return The buffer, positioned after the header.
+	 */
+	static ByteBuffer newDatagram(int size, byte type, long publisherId, long sequence) {
+		return ByteBuffer.allocate(size).putInt(MAGIC).put(type)
+				.putLong(publisherId).putLong(sequence);
+	}
+
+	/**
+	 * Parses the group address of a setup string,
+	 * <code>group:port;option=value</code>.
+	 *
+	 * @param configArray
+	 *            The setup string, split on semicolons.
+	 * @return The group address.
+	 * @throws IOException
+	 *             If the group cannot be resolved.
+	 */
+	static InetSocketAddress parseGroup(@Nonnull String[] configArray) throws IOException {
+		String group = configArray[0].trim();
+		int pos = group.lastIndexOf(':');
+		if (pos < 0) {
+			throw new IllegalArgumentException("Expected group:port, got " + group);
+		}
+		return new InetSocketAddress(InetAddress.getByName(group.substring(0, pos)),
+				Integer.parseInt(group.substring(pos + 1)));
+	}
+
+	/**
+	 * Parses the options of a setup string.
+	 *
+	 * @param configArray
+	 *            The setup string, split on semicolons.
+	 * @return The options by key.
+	 */
+	static Map<String, String> parseOptions(@Nonnull String[] configArray) {
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 1; i < configArray.length; i++) {
+			int pos = configArray[i].indexOf('=');
+			if (pos > 0) {
+				options.put(configArray[i].substring(0, pos).trim(),
+						configArray[i].substring(pos + 1).trim());
+			}
+		}
+		return options;
+	}
+
+	/**
+	 * Selects the network interface of a socket, if one is given.
+	 *
+	 * @param socket
+	 *            The socket.
+	 * @param interfaceName
+	 *            The name of the interface, or null.
+	 * @return The interface, or null.
+	 * @throws IOException
+	 *             If the interface does not exist.
+	 */
+	static NetworkInterface setInterface(@Nonnull MulticastSocket socket,
+			String interfaceName) throws IOException {
+		if (interfaceName == null) {
+			return null;
+		}
+		NetworkInterface networkInterface = NetworkInterface.getByName(interfaceName);
+		if (networkInterface == null) {
+			throw new IOException("Unknown network interface: " + interfaceName);
+		}
+		socket.setNetworkInterface(networkInterface);
+		return networkInterface;
+	}
+}
@@ -0,0 +1,246 @@
+package jepperscore.backends.multicast.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNoException;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jepperscore.backends.multicast.MulticastMessageDestination;
+import jepperscore.backends.multicast.MulticastMessageSource;
+import jepperscore.dao.IMessageCallback;
+import jepperscore.dao.codec.BinaryMessageCodec;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.junit.Test;
+
+/**
+ * This class tests the multicast backend. The tests are skipped where the
+ * machine cannot join a multicast group.
+ *
+ * @author Chuck
+ *
+ */
+public class MulticastTest {
+
+	/**
+	 * The group address.
+	 */
+	private static final String GROUP = "239.255.42.99";
+
+	/**
+	 * The first bytes of every datagram.
+	 */
+	private static final int MAGIC = 0x4A505343;
+
+	/**
+	 * The type of data datagrams.
+	 */
+	private static final byte DATA = 1;
+
+	/**
+	 * The type of retransmission requests.
+	 */
+	private static final byte NAK = 2;
+
+	/**
+	 * The type of lost notices.
+	 */
+	private static final byte LOST = 3;
+
+	/**
+	 * The id of the fake publisher.
+	 */
+	private static final long PUBLISHER_ID = 42;
+
+	/**
+	 * A callback recording the messages.
+	 */
+	private static class RecordingCallback implements IMessageCallback {
+
+		/**
+		 * Counted down for each message.
+		 */
+		private final CountDownLatch received;
+
+		/**
+		 * The received messages.
+		 */
+		private final List<TransportMessage> messages = new CopyOnWriteArrayList<TransportMessage>();
+
+		/**
+		 * Constructor.
+		 * @param count The number of messages expected.
+		 */
+		public RecordingCallback(int count) {
+			received = new CountDownLatch(count);
+		}
+
+		@Override
+		public void onMessage(TransportMessage message) {
+			messages.add(message);
+			received.countDown();
+		}
+	}
+
+	/**
+	 * @param port The port of the group.
+	 * @return A source joined to the group, or the test is skipped.
+	 */
+	private MulticastMessageSource createSource(int port) {
+		try {
+			return new MulticastMessageSource(GROUP + ":" + port);
+		} catch (IOException e) {
+			assumeNoException(e);
+			return null;
+		}
+	}
+
+	/**
+	 * Sends a data datagram as a publisher would.
+	 * @param socket The socket of the publisher.
+	 * @param port The port of the group.
+	 * @param sequence The sequence of the message.
+	 * @param teamName The team name of the message.
+	 * @throws IOException If the datagram cannot be sent.
+	 */
+	private void sendData(DatagramSocket socket, int port, long sequence, String teamName) throws IOException {
+		byte[] data = new BinaryMessageCodec().encode(new TransportMessage(new Team(teamName), "round-1"));
+		ByteBuffer datagram = ByteBuffer.allocate(23 + 4 + data.length).putInt(MAGIC).put(DATA)
+				.putLong(PUBLISHER_ID).putLong(sequence).putShort((short) 1)
+				.putInt(data.length).put(data);
+		socket.send(new DatagramPacket(datagram.array(), datagram.position(),
+				new InetSocketAddress(InetAddress.getByName(GROUP), port)));
+	}
+
+	/**
+	 * Receives a retransmission request.
+	 * @param socket The socket of the publisher.
+	 * @return The first and last sequence requested.
+	 * @throws IOException If nothing is received.
+	 */
+	private long[] receiveNak(DatagramSocket socket) throws IOException {
+		byte[] buffer = new byte[29];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		socket.receive(packet);
+		ByteBuffer nak = ByteBuffer.wrap(buffer);
+		assertEquals(MAGIC, nak.getInt());
+		assertEquals(NAK, nak.get());
+		assertEquals(PUBLISHER_ID, nak.getLong());
+		return new long[] { nak.getLong(), nak.getLong() };
+	}
+
+	/**
+	 * Tests that a source receives what a destination sends, in order.
+	 * @throws IOException If the sockets cannot be used.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testSendReceive() throws IOException, InterruptedException {
+		MulticastMessageSource source = createSource(42421);
+		RecordingCallback callback = new RecordingCallback(100);
+		source.registerCallback(callback);
+
+		MulticastMessageDestination destination = new MulticastMessageDestination(
+				GROUP + ":42421;history=1000");
+		for (int i = 0; i < 100; i += 5) {
+			List<TransportMessage> batch = new ArrayList<TransportMessage>();
+			for (int j = i; j < (i + 5); j++) {
+				batch.add(new TransportMessage(new Team("Team " + j), "round-1"));
+			}
+			destination.sendMessages(batch);
+		}
+
+		assertTrue(callback.received.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 100; i++) {
+			assertEquals("Team " + i, callback.messages.get(i).getTeam().getTeamName());
+		}
+		assertEquals(0, source.getLostCount());
+
+		source.close();
+		destination.close();
+	}
+
+	/**
+	 * Tests that a gap is requested from the publisher and filled in order.
+	 * @throws IOException If the sockets cannot be used.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testRetransmission() throws IOException, InterruptedException {
+		MulticastMessageSource source = createSource(42422);
+		RecordingCallback callback = new RecordingCallback(3);
+		source.registerCallback(callback);
+
+		try (DatagramSocket publisher = new DatagramSocket()) {
+			publisher.setSoTimeout(5000);
+			sendData(publisher, 42422, 10, "A");
+			sendData(publisher, 42422, 12, "C");
+
+			long[] nak = receiveNak(publisher);
+			assertEquals(11, nak[0]);
+			assertEquals(11, nak[1]);
+			sendData(publisher, 42422, 11, "B");
+
+			assertTrue(callback.received.await(5, TimeUnit.SECONDS));
+			assertEquals("A", callback.messages.get(0).getTeam().getTeamName());
+			assertEquals("B", callback.messages.get(1).getTeam().getTeamName());
+			assertEquals("C", callback.messages.get(2).getTeam().getTeamName());
+		}
+		source.close();
+	}
+
+	/**
+	 * Tests that a gap the publisher no longer has is skipped and reported.
+	 * @throws IOException If the sockets cannot be used.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testLost() throws IOException, InterruptedException {
+		MulticastMessageSource source = createSource(42423);
+		RecordingCallback callback = new RecordingCallback(2);
+		source.registerCallback(callback);
+
+		final long[] gap = new long[2];
+		final CountDownLatch gapReported = new CountDownLatch(1);
+		source.setGapListener(new MulticastMessageSource.GapListener() {
+			@Override
+			public void onGap(long fromSequence, long toSequence) {
+				gap[0] = fromSequence;
+				gap[1] = toSequence;
+				gapReported.countDown();
+			}
+		});
+
+		try (DatagramSocket publisher = new DatagramSocket()) {
+			publisher.setSoTimeout(5000);
+			sendData(publisher, 42423, 0, "A");
+			sendData(publisher, 42423, 5, "F");
+
+			long[] nak = receiveNak(publisher);
+			ByteBuffer lost = ByteBuffer.allocate(29).putInt(MAGIC).put(LOST)
+					.putLong(PUBLISHER_ID).putLong(nak[0]).putLong(nak[1]);
+			publisher.send(new DatagramPacket(lost.array(), lost.position(),
+					new InetSocketAddress(InetAddress.getByName(GROUP), 42423)));
+
+			assertTrue(gapReported.await(5, TimeUnit.SECONDS));
+			assertTrue(callback.received.await(5, TimeUnit.SECONDS));
+			assertEquals(1, gap[0]);
+			assertEquals(4, gap[1]);
+			assertEquals(4, source.getLostCount());
+			assertEquals("F", callback.messages.get(1).getTeam().getTeamName());
+		}
+		source.close();
+	}
+}
@@ -0,0 +1,531 @@
+package jepperscore.backends.ringbuffer;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.transport.TransportMessage;
+
+/**
+ * This class is a preallocated ring of messages shared by the producers and
+ * consumers of one process. Producers claim slots with an atomic counter and
+ * publish them by writing their sequence next to the slot, so neither side
+ * takes a lock. Each consumer reads through its own {@link Cursor}, and a
+ * producer waits rather than overwrite a slot a cursor has not read yet.
+ *
+ * <p>
+ * The messages are passed by reference, so consumers must not modify them.
+ * Rings are shared by name through {@link #get(String)}, which lets a
+ * destination and sources set up by class name and setup string find each
+ * other.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class RingBuffer {
+
+	/**
+	 * The default number of slots.
+	 */
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+	/**
+	 * The option giving the number of slots, rounded up to a power of two.
+	 */
+	public static final String CAPACITY_OPTION = "capacity";
+
+	/**
+	 * The option giving the {@link WaitStrategy}, by name.
+	 */
+	public static final String WAIT_OPTION = "wait";
+
+	/**
+	 * The number of times a waiting thread spins before yielding.
+	 */
+	private static final int SPIN_TRIES = 100;
+
+	/**
+	 * The number of times a waiting thread yields before sleeping.
+	 */
+	private static final int YIELD_TRIES = 200;
+
+	/**
+	 * The time a sleeping thread sleeps, in nanoseconds.
+	 */
+	private static final long SLEEP_NANOS = 100 * 1000;
+
+	/**
+	 * The longest time a blocked thread waits before checking again, in
+	 * nanoseconds.
+	 */
+	private static final long BLOCK_NANOS = 10 * 1000 * 1000;
+
+	/**
+	 * The rings by name.
+	 */
+	private static final Map<String, RingBuffer> RINGS = new ConcurrentHashMap<String, RingBuffer>();
+
+	/**
+	 * A consumer of the ring, reading every message published after it was
+	 * created, in order. A cursor is used by a single thread.
+	 */
+	public final class Cursor {
+
+		/**
+		 * The sequence of the next message to read.
+		 */
+		private final AtomicLong sequence;
+
+		/**
+		 * Constructor.
+		 * @param start The sequence of the first message to read.
+		 */
+		private Cursor(long start) {
+			sequence = new AtomicLong(start);
+		}
+
+		/**
+		 * Reads the available messages, waiting for at least one.
+		 *
+		 * @param batch
+		 *            The list to add the messages to.
+		 * @param maxCount
+		 *            The largest number of messages to read.
+		 * @param timeout
+		 *            The longest time to wait, in milliseconds.
+		 * @return The number of messages read, 0 on timeout.
+		 * @throws InterruptedException
+		 *             If interrupted while waiting.
+		 */
+		public int read(@Nonnull List<TransportMessage> batch, int maxCount,
+				long timeout) throws InterruptedException {
+			long next = sequence.get();
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			int tries = 0;
+			while (!isPublished(next)) {
+				if (System.nanoTime() >= deadline) {
+					return 0;
+				}
+				tries = await(tries, deadline, next, false);
+			}
+
+			int count = 0;
+			while ((count < maxCount) && isPublished(next)) {
+				batch.add(slots[(int) (next & mask)]);
+				next++;
+				count++;
+			}
+			if (blocking) {
+				sequence.set(next);
+				if (waiting) {
+					signal();
+				}
+			} else {
+				sequence.lazySet(next);
+			}
+			return count;
+		}
+
+		/**
+		 * @return The number of published messages not read yet.
+		 */
+		public long getLag() {
+			return Math.max(0, claimed.get() - sequence.get());
+		}
+
+		/**
+		 * Stops this cursor, so producers no longer wait for it.
+		 */
+		public void close() {
+			cursors.remove(this);
+			signal();
+		}
+	}
+
+	/**
+	 * The name of the ring.
+	 */
+	private final String name;
+
+	/**
+	 * The slots.
+	 */
+	private final TransportMessage[] slots;
+
+	/**
+	 * The sequence published to each slot.
+	 */
+	private final AtomicLongArray published;
+
+	/**
+	 * Masks a sequence into a slot index.
+	 */
+	private final int mask;
+
+	/**
+	 * How threads wait.
+	 */
+	private final WaitStrategy waitStrategy;
+
+	/**
+	 * True if the wait strategy is {@link WaitStrategy#BLOCKING}.
+	 */
+	private final boolean blocking;
+
+	/**
+	 * The number of slots claimed by producers.
+	 */
+	private final AtomicLong claimed = new AtomicLong();
+
+	/**
+	 * The consumers.
+	 */
+	private final List<Cursor> cursors = new CopyOnWriteArrayList<Cursor>();
+
+	/**
+	 * The slowest cursor as last seen by a producer, so producers only look
+	 * at every cursor when they catch up with it.
+	 */
+	private volatile long gatingSequence = 0;
+
+	/**
+	 * True while a thread blocks, for messages or for room.
+	 */
+	private volatile boolean waiting = false;
+
+	/**
+	 * The lock blocking threads wait with.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Signalled when a message is published or read.
+	 */
+	private final Condition changed = lock.newCondition();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name
+	 *            The name of the ring.
+	 * @param capacity
+	 *            The number of slots, rounded up to a power of two.
+	 * @param waitStrategy
+	 *            How threads wait.
+	 */
+	public RingBuffer(@Nonnull String name, int capacity, @Nonnull WaitStrategy waitStrategy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+
+		this.name = name;
+		this.waitStrategy = waitStrategy;
+		blocking = waitStrategy == WaitStrategy.BLOCKING;
+		slots = new TransportMessage[size];
+		published = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			published.set(i, -1);
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Gets the ring described by a setup string,
+	 * <code>name;capacity=65536;wait=blocking</code>, creating it if it
+	 * does not exist. The options only apply to the one creating the ring.
+	 *
+	 * @param setupString
+	 *            The setup string.
+	 * @return The ring.
+	 */
+	@Nonnull
+	public static RingBuffer get(@Nonnull String setupString) {
+		String[] configArray = setupString.split(";");
+		String name = configArray[0].trim();
+
+		synchronized (RINGS) {
+			RingBuffer ring = RINGS.get(name);
+			if (ring == null) {
+				Map<String, String> options = parseOptions(configArray);
+				int capacity = DEFAULT_CAPACITY;
+				WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+				try {
+					if (options.containsKey(CAPACITY_OPTION)) {
+						capacity = Integer.parseInt(options.get(CAPACITY_OPTION));
+					}
+					if (options.containsKey(WAIT_OPTION)) {
+						waitStrategy = WaitStrategy.valueOf(options.get(WAIT_OPTION).toUpperCase());
+					}
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Invalid ring buffer option: "
+							+ e.getMessage(), e);
+				}
+
+				ring = new RingBuffer(name, capacity, waitStrategy);
+				RINGS.put(name, ring);
+			}
+			return ring;
+		}
+	}
+
+	/**
+	 * Removes a ring from the shared rings.
+	 *
+	 * @param name
+	 *            The name of the ring.
+	 * @return The removed ring, or null.
+	 */
+	@CheckForNull
+	public static RingBuffer remove(@Nonnull String name) {
+		return RINGS.remove(name);
+	}
+
+	/**
+	 * Parses the options of a setup string.
+	 *
+	 * @param configArray
+	 *            The setup string, split on semicolons.
+	 * @return The options by key.
+	 */
+	private static Map<String, String> parseOptions(String[] configArray) {
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 1; i < configArray.length; i++) {
+			int pos = configArray[i].indexOf('=');
+			if (pos > 0) {
+				options.put(configArray[i].substring(0, pos).trim(),
+						configArray[i].substring(pos + 1).trim());
+			}
+		}
+		return options;
+	}
+
+	/**
+	 * @return The name of the ring.
+	 */
+	@Nonnull
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The number of slots.
+	 */
+	public int getCapacity() {
+		return slots.length;
+	}
+
+	/**
+	 * Adds a consumer reading the messages published from now on.
+	 *
+	 * @return The cursor of the consumer.
+	 */
+	@Nonnull
+	public Cursor newCursor() {
+		Cursor cursor = new Cursor(claimed.get());
+		cursors.add(cursor);
+		// Producers claiming from now on wait for the cursor.
+		cursor.sequence.set(claimed.get());
+		return cursor;
+	}
+
+	/**
+	 * Publishes a message, waiting for room if a cursor is a full ring behind.
+	 *
+	 * @param transportMessage
+	 *            The message.
+	 */
+	public void publish(@Nonnull TransportMessage transportMessage) {
+		long sequence = claimed.getAndIncrement();
+		waitForRoom(sequence);
+		slots[(int) (sequence & mask)] = transportMessage;
+		publish(sequence, true);
+	}
+
+	/**
+	 * Publishes messages in order, claiming their slots at once.
+	 *
+	 * @param transportMessages
+	 *            The messages.
+	 */
+	public void publish(@Nonnull Collection<TransportMessage> transportMessages) {
+		int count = transportMessages.size();
+		if (count == 0) {
+			return;
+		}
+		if (count > slots.length) {
+			for (TransportMessage transportMessage : transportMessages) {
+				publish(transportMessage);
+			}
+			return;
+		}
+
+		long sequence = claimed.getAndAdd(count);
+		long last = sequence + count - 1;
+		waitForRoom(last);
+		for (TransportMessage transportMessage : transportMessages) {
+			slots[(int) (sequence & mask)] = transportMessage;
+			publish(sequence, sequence == last);
+			sequence++;
+		}
+	}
+
+	/**
+	 * Marks a slot as published.
+	 *
+	 * @param sequence
+	 *            The sequence of the slot.
+	 * @param wake
+	 *            True to wake blocked consumers.
+	 */
+	private void publish(long sequence, boolean wake) {
+		if (blocking) {
+			published.set((int) (sequence & mask), sequence);
+			if (wake && waiting) {
+				signal();
+			}
+		} else {
+			published.lazySet((int) (sequence & mask), sequence);
+		}
+	}
+
+	/**
+	 * Waits until every cursor read the message a ring before a sequence.
+	 *
+	 * @param sequence
+	 *            The claimed sequence.
+	 */
+	private void waitForRoom(long sequence) {
+		long wrapPoint = sequence - slots.length;
+		if (wrapPoint < gatingSequence) {
+			return;
+		}
+
+		int tries = 0;
+		boolean interrupted = false;
+		while (wrapPoint >= getMinimumCursor(sequence)) {
+			try {
+				tries = await(tries, Long.MAX_VALUE, sequence, true);
+			} catch (InterruptedException e) {
+				// The slot is claimed and must be published.
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Finds the slowest cursor.
+	 *
+	 * @param sequence
+	 *            The claimed sequence, returned if there is no cursor.
+	 * @return The sequence of the next message the slowest cursor reads.
+	 */
+	private long getMinimumCursor(long sequence) {
+		long minimum = sequence;
+		for (Cursor cursor : cursors) {
+			minimum = Math.min(minimum, cursor.sequence.get());
+		}
+		gatingSequence = minimum;
+		return minimum;
+	}
+
+	/**
+	 * @param sequence
+	 *            A sequence.
+	 * @return True if the message with the sequence is published.
+	 */
+	private boolean isPublished(long sequence) {
+		return published.get((int) (sequence & mask)) == sequence;
+	}
+
+	/**
+	 * Waits once using the wait strategy.
+	 *
+	 * @param tries
+	 *            The number of times the thread waited so far.
+	 * @param deadline
+	 *            The {@link System#nanoTime()} to stop waiting at.
+	 * @param sequence
+	 *            The sequence waited for.
+	 * @param forRoom
+	 *            True if a producer waits for room for the sequence, false
+	 *            if a consumer waits for it to be published.
+	 * @return The number of times the thread waited.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting.
+	 */
+	private int await(int tries, long deadline, long sequence, boolean forRoom)
+			throws InterruptedException {
+		switch (waitStrategy) {
+		case BUSY_SPIN:
+			break;
+		case YIELDING:
+			if (tries >= SPIN_TRIES) {
+				Thread.yield();
+			}
+			break;
+		case SLEEPING:
+			if (tries >= (SPIN_TRIES + YIELD_TRIES)) {
+				LockSupport.parkNanos(SLEEP_NANOS);
+			} else if (tries >= SPIN_TRIES) {
+				Thread.yield();
+			}
+			break;
+		default:
+			lock.lockInterruptibly();
+			try {
+				// Checked again after setting the flag, so a publish or read
+				// in between either is seen here or signals.
+				waiting = true;
+				boolean ready = forRoom
+						? ((sequence - slots.length) < getMinimumCursor(sequence))
+						: isPublished(sequence);
+				if (!ready) {
+					changed.awaitNanos(Math.max(1, Math.min(BLOCK_NANOS, deadline - System.nanoTime())));
+				}
+			} finally {
+				lock.unlock();
+			}
+			break;
+		}
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		return tries + 1;
+	}
+
+	/**
+	 * Wakes the blocked threads.
+	 */
+	private void signal() {
+		if (!blocking) {
+			return;
+		}
+		lock.lock();
+		try {
+			waiting = false;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
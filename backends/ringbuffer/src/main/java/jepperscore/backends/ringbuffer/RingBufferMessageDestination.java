@@ -0,0 +1,54 @@
+package jepperscore.backends.ringbuffer;
+
+import java.util.Collection;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.AbstractMessageDestination;
+import jepperscore.dao.IMessageDestination;
+import jepperscore.dao.transport.TransportMessage;
+
+/**
+ * This class implements the {@link IMessageDestination} by publishing to a
+ * {@link RingBuffer} in the same process. The setup string names the ring,
+ * followed by the options used if this creates it, for example
+ * <code>scores;capacity=65536;wait=sleeping</code>.
+ *
+ * @author Chuck
+ *
+ */
+public class RingBufferMessageDestination extends AbstractMessageDestination {
+
+	/**
+	 * The ring.
+	 */
+	private final RingBuffer ring;
+
+	/**
+	 * Creates the message destination.
+	 *
+	 * @param setupString
+	 *            The name of the ring, followed by options.
+	 */
+	public RingBufferMessageDestination(@Nonnull String setupString) {
+		ring = RingBuffer.get(setupString);
+	}
+
+	/**
+	 * @return The ring.
+	 */
+	@Nonnull
+	public RingBuffer getRing() {
+		return ring;
+	}
+
+	@Override
+	public void sendMessage(TransportMessage transportMessage) {
+		ring.publish(transportMessage);
+	}
+
+	@Override
+	public void sendMessages(Collection<TransportMessage> transportMessages) {
+		ring.publish(transportMessages);
+	}
+}
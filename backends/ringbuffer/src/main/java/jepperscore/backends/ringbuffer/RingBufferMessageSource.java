@@ -0,0 +1,136 @@
+package jepperscore.backends.ringbuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.AbstractMessageSource;
+import jepperscore.dao.IMessageSource;
+import jepperscore.dao.MessageFilter;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class implements the {@link IMessageSource} by reading a
+ * {@link RingBuffer} in the same process, through its own cursor. The setup
+ * string is the same as for {@link RingBufferMessageDestination}.
+ *
+ * <p>
+ * Reading starts when the first callback is registered, from the messages
+ * published after that. Messages are read in batches and given to the
+ * callbacks on the thread of the source, so a slow callback holds back the
+ * producers once the ring is full.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class RingBufferMessageSource extends AbstractMessageSource implements Runnable {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(RingBufferMessageSource.class);
+
+	/**
+	 * The largest number of messages read at once.
+	 */
+	public static final int BATCH_SIZE = 256;
+
+	/**
+	 * The longest time a read waits, so closing is noticed, in milliseconds.
+	 */
+	private static final long READ_TIMEOUT = 100;
+
+	/**
+	 * The ring.
+	 */
+	private final RingBuffer ring;
+
+	/**
+	 * The cursor of this source, set when reading starts.
+	 */
+	private volatile RingBuffer.Cursor cursor;
+
+	/**
+	 * True once the source is closed.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * The thread reading the ring.
+	 */
+	private final Thread thread;
+
+	/**
+	 * Creates the message source.
+	 *
+	 * @param setupString
+	 *            The name of the ring, followed by options.
+	 */
+	public RingBufferMessageSource(@Nonnull String setupString) {
+		ring = RingBuffer.get(setupString);
+
+		thread = new Thread(this, "RingBufferMessageSource-" + ring.getName());
+		thread.setDaemon(true);
+	}
+
+	@Override
+	protected void filtersChanged(MessageFilter combinedFilter) {
+		synchronized (thread) {
+			if ((cursor == null) && !closed) {
+				cursor = ring.newCursor();
+				thread.start();
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		List<TransportMessage> batch = new ArrayList<TransportMessage>(BATCH_SIZE);
+		try {
+			while (!closed) {
+				cursor.read(batch, BATCH_SIZE, READ_TIMEOUT);
+				for (TransportMessage transportMessage : batch) {
+					try {
+						call(transportMessage);
+					} catch (RuntimeException e) {
+						LOG.error(e.getMessage(), e);
+					}
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			// Closed.
+		}
+		cursor.close();
+	}
+
+	/**
+	 * @return The number of published messages this source has not read yet.
+	 */
+	public long getLag() {
+		RingBuffer.Cursor current = cursor;
+		return (current == null) ? 0 : current.getLag();
+	}
+
+	/**
+	 * Stops reading the ring.
+	 *
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for the thread to stop.
+	 */
+	public void close() throws InterruptedException {
+		synchronized (thread) {
+			closed = true;
+			if (cursor == null) {
+				return;
+			}
+		}
+		thread.join();
+	}
+}
@@ -0,0 +1,36 @@
+package jepperscore.backends.ringbuffer;
+
+/**
+ * This enum lists how the threads of a {@link RingBuffer} wait, consumers for
+ * new messages and producers for room in the buffer. The strategies trade CPU
+ * use for latency.
+ *
+ * @author Chuck
+ *
+ */
+public enum WaitStrategy {
+
+	/**
+	 * Waits on a condition signalled by the other side. Uses no CPU while
+	 * idle, but every publish takes a lock when a thread is waiting.
+	 */
+	BLOCKING,
+
+	/**
+	 * Spins, then yields, then sleeps for short periods. Uses little CPU
+	 * while idle, and publishing never takes a lock.
+	 */
+	SLEEPING,
+
+	/**
+	 * Spins, then yields to other threads. Low latency, but uses a core while
+	 * idle.
+	 */
+	YIELDING,
+
+	/**
+	 * Spins. The lowest latency, but uses a core while idle, and should only
+	 * be used with a core per waiting thread.
+	 */
+	BUSY_SPIN
+}
@@ -0,0 +1,178 @@
+package jepperscore.backends.ringbuffer.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jepperscore.backends.ringbuffer.RingBuffer;
+import jepperscore.backends.ringbuffer.RingBufferMessageDestination;
+import jepperscore.backends.ringbuffer.RingBufferMessageSource;
+import jepperscore.backends.ringbuffer.WaitStrategy;
+import jepperscore.dao.IMessageCallback;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * This class tests the ring buffer backend.
+ *
+ * @author Chuck
+ *
+ */
+public class RingBufferTest {
+
+	/**
+	 * The name of the ring.
+	 */
+	private static final String RING_NAME = "ring-test";
+
+	/**
+	 * The number of messages sent by each producer.
+	 */
+	private static final int MESSAGE_COUNT = 5000;
+
+	/**
+	 * A callback recording the team names by session.
+	 */
+	private static class RecordingCallback implements IMessageCallback {
+
+		/**
+		 * Counted down for each message.
+		 */
+		private final CountDownLatch received;
+
+		/**
+		 * The received team names, by session.
+		 */
+		private final Map<String, List<String>> teams = new HashMap<String, List<String>>();
+
+		/**
+		 * Constructor.
+		 * @param count The number of messages expected.
+		 */
+		public RecordingCallback(int count) {
+			received = new CountDownLatch(count);
+		}
+
+		@Override
+		public synchronized void onMessage(TransportMessage message) {
+			List<String> sessionTeams = teams.get(message.getSessionId());
+			if (sessionTeams == null) {
+				sessionTeams = new ArrayList<String>();
+				teams.put(message.getSessionId(), sessionTeams);
+			}
+			sessionTeams.add(message.getTeam().getTeamName());
+			received.countDown();
+		}
+	}
+
+	/**
+	 * Removes the ring.
+	 */
+	@After
+	public void tearDown() {
+		RingBuffer.remove(RING_NAME);
+	}
+
+	/**
+	 * Tests that independent consumers each receive the messages of several
+	 * producers, in the order of each producer, with every wait strategy.
+	 * The ring is small, so the producers wait for the consumers. Busy
+	 * spinning is only tested with a core for each of the four threads.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testProducersAndConsumers() throws InterruptedException {
+		for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+			if ((waitStrategy == WaitStrategy.BUSY_SPIN)
+					&& (Runtime.getRuntime().availableProcessors() < 4)) {
+				continue;
+			}
+			String setup = RING_NAME + ";capacity=16;wait=" + waitStrategy.name().toLowerCase();
+
+			RingBufferMessageSource source1 = new RingBufferMessageSource(setup);
+			RecordingCallback callback1 = new RecordingCallback(2 * MESSAGE_COUNT);
+			source1.registerCallback(callback1);
+
+			RingBufferMessageSource source2 = new RingBufferMessageSource(setup);
+			RecordingCallback callback2 = new RecordingCallback(2 * MESSAGE_COUNT);
+			source2.registerCallback(callback2);
+
+			Thread[] producers = new Thread[2];
+			for (int p = 0; p < producers.length; p++) {
+				final String sessionId = "round-" + p;
+				final boolean batched = (p % 2) == 0;
+				producers[p] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						RingBufferMessageDestination destination = new RingBufferMessageDestination(RING_NAME);
+						for (int i = 0; i < MESSAGE_COUNT; i += 2) {
+							TransportMessage first = new TransportMessage(new Team("Team " + i), sessionId);
+							TransportMessage second = new TransportMessage(new Team("Team " + (i + 1)), sessionId);
+							if (batched) {
+								destination.sendMessages(Arrays.asList(first, second));
+							} else {
+								destination.sendMessage(first);
+								destination.sendMessage(second);
+							}
+						}
+					}
+				});
+				producers[p].start();
+			}
+
+			assertTrue(waitStrategy.name(), callback1.received.await(10, TimeUnit.SECONDS));
+			assertTrue(waitStrategy.name(), callback2.received.await(10, TimeUnit.SECONDS));
+			for (Thread producer : producers) {
+				producer.join();
+			}
+
+			for (RecordingCallback callback : Arrays.asList(callback1, callback2)) {
+				for (int p = 0; p < producers.length; p++) {
+					List<String> teams = callback.teams.get("round-" + p);
+					assertEquals(MESSAGE_COUNT, teams.size());
+					for (int i = 0; i < MESSAGE_COUNT; i++) {
+						assertEquals("Team " + i, teams.get(i));
+					}
+				}
+			}
+
+			source1.close();
+			source2.close();
+			RingBuffer.remove(RING_NAME);
+		}
+	}
+
+	/**
+	 * Tests batch reads through a cursor.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testCursorBatches() throws InterruptedException {
+		RingBuffer ring = new RingBuffer(RING_NAME, 10, WaitStrategy.BLOCKING);
+		assertEquals(16, ring.getCapacity());
+
+		RingBuffer.Cursor cursor = ring.newCursor();
+		for (int i = 0; i < 5; i++) {
+			ring.publish(new TransportMessage(new Team("Team " + i), "round-1"));
+		}
+		assertEquals(5, cursor.getLag());
+
+		List<TransportMessage> batch = new ArrayList<TransportMessage>();
+		assertEquals(3, cursor.read(batch, 3, 100));
+		assertEquals(2, cursor.read(batch, 3, 100));
+		assertEquals(0, cursor.read(batch, 3, 10));
+		assertEquals(5, batch.size());
+		assertEquals("Team 4", batch.get(4).getTeam().getTeamName());
+		cursor.close();
+	}
+}
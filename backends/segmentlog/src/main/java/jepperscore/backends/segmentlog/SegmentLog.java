@@ -0,0 +1,308 @@
+package jepperscore.backends.segmentlog;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class describes a segment log directory, shared by
+ * {@link SegmentLogMessageDestination} and {@link SegmentLogMessageSource}.
+ *
+ * <p>
+ * The log is a series of segment files of a fixed size, mapped into memory.
+ * Each segment is named after its base offset, the offset of its first byte
+ * in the log, so an offset names a message across segments. A segment holds
+ * messages in the binary codec, each prefixed by its length. The length is
+ * written after the message, so a length of 0 marks the end of the written
+ * messages, and {@link #ROLL_MARKER} marks the end of a segment followed by
+ * another.
+ * </p>
+ *
+ * <p>
+ * Next to each segment an index file holds the offset of the first message
+ * of each session in the segment, so a reader can jump straight to a round.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class SegmentLog {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(SegmentLog.class);
+
+	/**
+	 * The default size of a segment file, in bytes.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The length marking the end of a segment followed by another.
+	 */
+	public static final int ROLL_MARKER = -1;
+
+	/**
+	 * The file extension of segment files.
+	 */
+	private static final String SEGMENT_EXTENSION = ".seg";
+
+	/**
+	 * The file extension of index files.
+	 */
+	private static final String INDEX_EXTENSION = ".idx";
+
+	/**
+	 * The log directory.
+	 */
+	private final File directory;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param directory
+	 *            The log directory. It is created if it does not exist.
+	 * @throws IOException
+	 *             If the directory cannot be created.
+	 */
+	public SegmentLog(@Nonnull File directory) throws IOException {
+		this.directory = directory;
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create segment log directory: "
+					+ directory);
+		}
+	}
+
+	/**
+	 * @return The log directory.
+	 */
+	@Nonnull
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return The base offsets of the segments, in order.
+	 */
+	@Nonnull
+	public List<Long> getSegments() {
+		List<Long> segments = new ArrayList<Long>();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.endsWith(SEGMENT_EXTENSION)) {
+					try {
+						segments.add(Long.parseLong(name.substring(0, name.length()
+								- SEGMENT_EXTENSION.length())));
+					} catch (NumberFormatException e) {
+						LOG.warn("Ignoring unknown file in segment log: " + name);
+					}
+				}
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Finds the segment holding an offset.
+	 *
+	 * @param offset
+	 *            The offset.
+	 * @return The base offset of the segment, or -1 if the log is empty.
+	 */
+	public long getSegmentFor(long offset) {
+		long found = -1;
+		for (Long segment : getSegments()) {
+			if ((found < 0) || (segment <= offset)) {
+				found = segment;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @param segment
+	 *            The base offset of the segment.
+	 * @return The segment file.
+	 */
+	@Nonnull
+	File getSegmentFile(long segment) {
+		return new File(directory, String.format("%020d", segment) + SEGMENT_EXTENSION);
+	}
+
+	/**
+	 * @param segment
+	 *            The base offset of the segment.
+	 * @return The index file of the segment.
+	 */
+	@Nonnull
+	File getIndexFile(long segment) {
+		return new File(directory, String.format("%020d", segment) + INDEX_EXTENSION);
+	}
+
+	/**
+	 * Maps a segment file into memory.
+	 *
+	 * @param segment
+	 *            The base offset of the segment.
+	 * @param size
+	 *            The size to create the segment with, or 0 to map an existing
+	 *            segment read only.
+	 * @return The mapped segment, or null if it does not exist yet.
+	 * @throws IOException
+	 *             If the segment cannot be mapped.
+	 */
+	MappedByteBuffer map(long segment, int size) throws IOException {
+		File file = getSegmentFile(segment);
+		if (size == 0) {
+			if (file.length() == 0) {
+				return null;
+			}
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+				return raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+			}
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			if (raf.length() < size) {
+				raf.setLength(size);
+			}
+			FileChannel channel = raf.getChannel();
+			return channel.map(MapMode.READ_WRITE, 0, raf.length());
+		}
+	}
+
+	/**
+	 * Reads the index of a segment.
+	 *
+	 * @param segment
+	 *            The base offset of the segment.
+	 * @return The offset of the first message of each session in the
+	 *         segment.
+	 * @throws IOException
+	 *             If the index cannot be read.
+	 */
+	@Nonnull
+	Map<String, Long> readIndex(long segment) throws IOException {
+		Map<String, Long> index = new HashMap<String, Long>();
+		File file = getIndexFile(segment);
+		if (!file.exists()) {
+			return index;
+		}
+
+		try (InputStream stream = new BufferedInputStream(new FileInputStream(file));
+				DataInputStream in = new DataInputStream(stream)) {
+			while (true) {
+				String sessionId = in.readUTF();
+				long offset = in.readLong();
+				if (!index.containsKey(sessionId)) {
+					index.put(sessionId, offset);
+				}
+			}
+		} catch (EOFException e) {
+			// The end of the index, or an entry cut short by a crash.
+		}
+		return index;
+	}
+
+	/**
+	 * Finds the first message of a session.
+	 *
+	 * @param sessionId
+	 *            The session.
+	 * @return The offset of the first message of the session, or -1 if the
+	 *         session is not in the log.
+	 * @throws IOException
+	 *             If an index cannot be read.
+	 */
+	public long findSession(@Nonnull String sessionId) throws IOException {
+		for (Long segment : getSegments()) {
+			Long offset = readIndex(segment).get(sessionId);
+			if (offset != null) {
+				return offset;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the end of the written messages of a segment.
+	 *
+	 * @param buffer
+	 *            The mapped segment.
+	 * @return The position after the last message, or the position of the
+	 *         roll marker.
+	 */
+	static int findEnd(@Nonnull MappedByteBuffer buffer) {
+		int position = 0;
+		while ((position + 4) <= buffer.capacity()) {
+			int length = buffer.getInt(position);
+			if ((length <= 0) || ((position + 4 + length) > buffer.capacity())) {
+				break;
+			}
+			position += 4 + length;
+		}
+		return position;
+	}
+
+	/**
+	 * @return The offset after the last written message.
+	 * @throws IOException
+	 *             If the last segment cannot be read.
+	 */
+	public long getEndOffset() throws IOException {
+		List<Long> segments = getSegments();
+		if (segments.isEmpty()) {
+			return 0;
+		}
+		long segment = segments.get(segments.size() - 1);
+		MappedByteBuffer buffer = map(segment, 0);
+		return segment + ((buffer == null) ? 0 : findEnd(buffer));
+	}
+
+	/**
+	 * Parses the options of a setup string:
+	 * <code>directory;key=value;flag</code>. A flag without a value is true.
+	 *
+	 * @param configArray
+	 *            The setup string, split on semicolons.
+	 * @return The options by key.
+	 */
+	@Nonnull
+	static Map<String, String> parseOptions(@Nonnull String[] configArray) {
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 1; i < configArray.length; i++) {
+			String option = configArray[i].trim();
+			int pos = option.indexOf('=');
+			if (pos > 0) {
+				options.put(option.substring(0, pos).trim(),
+						option.substring(pos + 1).trim());
+			} else if (!option.isEmpty()) {
+				options.put(option, Boolean.TRUE.toString());
+			}
+		}
+		return options;
+	}
+}
@@ -0,0 +1,261 @@
+package jepperscore.backends.segmentlog;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.AbstractMessageDestination;
+import jepperscore.dao.IMessageDestination;
+import jepperscore.dao.codec.BinaryMessageCodec;
+import jepperscore.dao.codec.IMessageCodec;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class implements the {@link IMessageDestination} by appending messages
+ * to a {@link SegmentLog}. The setup string is the log directory followed by
+ * options, for example <code>/var/lib/jepperscore;segmentSize=16777216</code>.
+ *
+ * <p>
+ * Messages are written into the mapped segment, so a crash of the process
+ * does not lose them. With the {@link #SYNC_OPTION sync} flag every batch is
+ * also forced to disk, so they survive a crash of the machine. A single
+ * destination should write to a log at a time.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class SegmentLogMessageDestination extends AbstractMessageDestination {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(SegmentLogMessageDestination.class);
+
+	/**
+	 * The option giving the size of new segments, in bytes.
+	 */
+	public static final String SEGMENT_SIZE_OPTION = "segmentSize";
+
+	/**
+	 * The flag forcing every batch to disk.
+	 */
+	public static final String SYNC_OPTION = "sync";
+
+	/**
+	 * The log.
+	 */
+	private final SegmentLog log;
+
+	/**
+	 * The size of new segments.
+	 */
+	private final int segmentSize;
+
+	/**
+	 * True to force every batch to disk.
+	 */
+	private final boolean sync;
+
+	/**
+	 * The codec used for the log.
+	 */
+	private final IMessageCodec codec = new BinaryMessageCodec();
+
+	/**
+	 * The base offset of the segment being written to. Guarded by this.
+	 */
+	private long segment;
+
+	/**
+	 * The segment being written to. Guarded by this.
+	 */
+	private MappedByteBuffer buffer;
+
+	/**
+	 * The position of the next message in the segment. Guarded by this.
+	 */
+	private int position;
+
+	/**
+	 * The index of the segment being written to. Guarded by this.
+	 */
+	private DataOutputStream index;
+
+	/**
+	 * The sessions in the index of the segment. Guarded by this.
+	 */
+	private final Set<String> indexedSessions = new HashSet<String>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param setupString
+	 *            The log directory, followed by options.
+	 * @throws IOException
+	 *             If the log cannot be opened.
+	 */
+	public SegmentLogMessageDestination(@Nonnull String setupString) throws IOException {
+		String[] configArray = setupString.split(";");
+		Map<String, String> options = SegmentLog.parseOptions(configArray);
+
+		log = new SegmentLog(new File(configArray[0]));
+		try {
+			segmentSize = options.containsKey(SEGMENT_SIZE_OPTION)
+					? Integer.parseInt(options.get(SEGMENT_SIZE_OPTION))
+					: SegmentLog.DEFAULT_SEGMENT_SIZE;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid segment log option: "
+					+ e.getMessage(), e);
+		}
+		sync = Boolean.parseBoolean(options.get(SYNC_OPTION));
+
+		LOG.info("Writing to segment log " + log.getDirectory());
+		recover();
+	}
+
+	/**
+	 * Opens the last segment left by a previous run, or starts the log.
+	 *
+	 * @throws IOException
+	 *             If the log cannot be opened.
+	 */
+	private synchronized void recover() throws IOException {
+		List<Long> segments = log.getSegments();
+		if (segments.isEmpty()) {
+			openSegment(0);
+			return;
+		}
+
+		long last = segments.get(segments.size() - 1);
+		openSegment(last);
+		position = SegmentLog.findEnd(buffer);
+		indexedSessions.addAll(log.readIndex(last).keySet());
+
+		if (((position + 4) <= buffer.capacity())
+				&& (buffer.getInt(position) == SegmentLog.ROLL_MARKER)) {
+			// Stopped between two segments.
+			openSegment(last + position);
+		}
+	}
+
+	/**
+	 * Starts writing to a segment.
+	 *
+	 * @param base
+	 *            The base offset of the segment.
+	 * @throws IOException
+	 *             If the segment cannot be created.
+	 */
+	private void openSegment(long base) throws IOException {
+		if (index != null) {
+			index.close();
+		}
+		segment = base;
+		buffer = log.map(base, segmentSize);
+		position = 0;
+		index = new DataOutputStream(new FileOutputStream(log.getIndexFile(base), true));
+		indexedSessions.clear();
+	}
+
+	@Override
+	public void sendMessage(TransportMessage transportMessage) {
+		sendMessages(Arrays.asList(transportMessage));
+	}
+
+	/**
+	 * Appends the messages to the log.
+	 */
+	@Override
+	public synchronized void sendMessages(Collection<TransportMessage> transportMessages) {
+		if (buffer == null) {
+			LOG.warn("Dropping " + transportMessages.size()
+					+ " messages sent to a closed segment log.");
+			return;
+		}
+
+		try {
+			for (TransportMessage transportMessage : transportMessages) {
+				append(transportMessage.getSessionId(), codec.encode(transportMessage));
+			}
+			if (sync) {
+				buffer.force();
+			}
+		} catch (IOException e) {
+			LOG.error(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Appends a message to the log, starting a new segment if it does not
+	 * fit.
+	 *
+	 * @param sessionId
+	 *            The session of the message.
+	 * @param data
+	 *            The encoded message.
+	 * @throws IOException
+	 *             If a new segment or the index cannot be written.
+	 */
+	private void append(String sessionId, byte[] data) throws IOException {
+		int needed = 4 + data.length;
+		if ((needed + 4) > buffer.capacity()) {
+			LOG.error("Dropping a message of " + data.length
+					+ " bytes, larger than the segment size.");
+			return;
+		}
+		if ((position + needed + 4) > buffer.capacity()) {
+			buffer.putInt(position, SegmentLog.ROLL_MARKER);
+			buffer.force();
+			openSegment(segment + position);
+		}
+
+		if ((sessionId != null) && indexedSessions.add(sessionId)) {
+			index.writeUTF(sessionId);
+			index.writeLong(segment + position);
+			index.flush();
+		}
+
+		buffer.position(position + 4);
+		buffer.put(data);
+		buffer.putInt(position, data.length);
+		position += needed;
+	}
+
+	/**
+	 * @return The offset after the last message written.
+	 */
+	public synchronized long getOffset() {
+		return segment + position;
+	}
+
+	/**
+	 * Forces the log to disk and closes it.
+	 */
+	public synchronized void close() {
+		if (buffer == null) {
+			return;
+		}
+		buffer.force();
+		buffer = null;
+		try {
+			index.close();
+		} catch (IOException e) {
+			LOG.error(e.getMessage(), e);
+		}
+	}
+}
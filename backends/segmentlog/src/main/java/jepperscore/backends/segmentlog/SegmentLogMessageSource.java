@@ -0,0 +1,317 @@
+package jepperscore.backends.segmentlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.AbstractMessageSource;
+import jepperscore.dao.IMessageSource;
+import jepperscore.dao.MessageFilter;
+import jepperscore.dao.codec.BinaryMessageCodec;
+import jepperscore.dao.codec.IMessageCodec;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class implements the {@link IMessageSource} by tailing a
+ * {@link SegmentLog}. The setup string is the log directory followed by
+ * options, for example
+ * <code>/var/lib/jepperscore;offsetFile=/var/lib/scoreboard.offset</code>.
+ *
+ * <p>
+ * The source starts at the offset saved in its offset file, if any, then at
+ * the first message of the session given by {@link #SESSION_OPTION}, then
+ * at the offset given by {@link #FROM_OPTION}, and otherwise at the start of
+ * the log. Reading starts when the first callback is registered, so no
+ * message is missed. The offset of the last message given to the callbacks
+ * is saved about once a second.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class SegmentLogMessageSource extends AbstractMessageSource implements Runnable {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(SegmentLogMessageSource.class);
+
+	/**
+	 * The option naming the file the offset is saved in.
+	 */
+	public static final String OFFSET_FILE_OPTION = "offsetFile";
+
+	/**
+	 * The option giving the offset to start from: a number,
+	 * {@link #FROM_START} or {@link #FROM_END}.
+	 */
+	public static final String FROM_OPTION = "from";
+
+	/**
+	 * Starts from the first message of the log.
+	 */
+	public static final String FROM_START = "start";
+
+	/**
+	 * Starts from the current end of the log.
+	 */
+	public static final String FROM_END = "end";
+
+	/**
+	 * The option naming a session to start from.
+	 */
+	public static final String SESSION_OPTION = "session";
+
+	/**
+	 * The shortest time between two saves of the offset, in milliseconds.
+	 */
+	public static final long OFFSET_SAVE_INTERVAL = 1000;
+
+	/**
+	 * The time to wait for new messages at the end of the log, in
+	 * milliseconds.
+	 */
+	public static final long POLL_INTERVAL = 10;
+
+	/**
+	 * The log.
+	 */
+	private final SegmentLog log;
+
+	/**
+	 * The codec used for the log.
+	 */
+	private final IMessageCodec codec = new BinaryMessageCodec();
+
+	/**
+	 * The offset file, or null.
+	 */
+	private final File offsetFile;
+
+	/**
+	 * The offset of the next message.
+	 */
+	private volatile long offset;
+
+	/**
+	 * The offset last saved to the offset file.
+	 */
+	private long savedOffset = -1;
+
+	/**
+	 * When the offset was last saved.
+	 */
+	private long savedTime = 0;
+
+	/**
+	 * True once the source is closed.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * The thread tailing the log.
+	 */
+	private final Thread thread;
+
+	/**
+	 * True once the thread is started. Guarded by thread.
+	 */
+	private boolean started = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param setupString
+	 *            The log directory, followed by options.
+	 * @throws IOException
+	 *             If the log cannot be opened.
+	 */
+	public SegmentLogMessageSource(@Nonnull String setupString) throws IOException {
+		String[] configArray = setupString.split(";");
+		Map<String, String> options = SegmentLog.parseOptions(configArray);
+
+		log = new SegmentLog(new File(configArray[0]));
+
+		String offsetFileName = options.get(OFFSET_FILE_OPTION);
+		offsetFile = (offsetFileName == null) ? null : new File(offsetFileName);
+
+		offset = -1;
+		if ((offsetFile != null) && offsetFile.exists()) {
+			try {
+				offset = Long.parseLong(new String(Files.readAllBytes(
+						offsetFile.toPath()), StandardCharsets.UTF_8).trim());
+				savedOffset = offset;
+				LOG.info("Resuming segment log " + log.getDirectory() + " from offset " + offset);
+			} catch (IOException | NumberFormatException e) {
+				LOG.error("Unable to read offset file " + offsetFile + ": " + e.getMessage(), e);
+			}
+		}
+
+		String sessionId = options.get(SESSION_OPTION);
+		if ((offset < 0) && (sessionId != null)) {
+			offset = log.findSession(sessionId);
+			if (offset < 0) {
+				LOG.warn("Session " + sessionId + " is not in segment log " + log.getDirectory());
+			}
+		}
+
+		String from = options.get(FROM_OPTION);
+		if ((offset < 0) && (from != null)) {
+			if (FROM_END.equals(from)) {
+				offset = log.getEndOffset();
+			} else if (!FROM_START.equals(from)) {
+				try {
+					offset = Long.parseLong(from);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid segment log option: "
+							+ e.getMessage(), e);
+				}
+			}
+		}
+		if (offset < 0) {
+			offset = 0;
+		}
+
+		LOG.info("Reading segment log " + log.getDirectory() + " from offset " + offset);
+
+		thread = new Thread(this, "SegmentLogMessageSource-" + log.getDirectory().getName());
+		thread.setDaemon(true);
+	}
+
+	@Override
+	protected void filtersChanged(MessageFilter combinedFilter) {
+		synchronized (thread) {
+			if (!started && !closed) {
+				started = true;
+				thread.start();
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		long segment = -1;
+		MappedByteBuffer buffer = null;
+		int position = 0;
+
+		try {
+			while (!closed) {
+				if (buffer == null) {
+					segment = log.getSegmentFor(offset);
+					buffer = (segment < 0) ? null : log.map(segment, 0);
+					if (buffer == null) {
+						Thread.sleep(POLL_INTERVAL);
+						continue;
+					}
+					if (offset < segment) {
+						offset = segment;
+					}
+					position = (int) (offset - segment);
+				}
+
+				int length = ((position + 4) <= buffer.capacity())
+						? buffer.getInt(position) : SegmentLog.ROLL_MARKER;
+				if (length == 0) {
+					saveOffset(false);
+					Thread.sleep(POLL_INTERVAL);
+					continue;
+				}
+				if ((length == SegmentLog.ROLL_MARKER)
+						|| ((position + 4 + length) > buffer.capacity())) {
+					if (log.getSegmentFor(segment + position) == segment) {
+						// The next segment is not created yet.
+						Thread.sleep(POLL_INTERVAL);
+						continue;
+					}
+					offset = segment + position;
+					buffer = null;
+					continue;
+				}
+
+				byte[] data = new byte[length];
+				buffer.position(position + 4);
+				buffer.get(data);
+				position += 4 + length;
+
+				try {
+					TransportMessage transportMessage = codec.decode(data);
+					call(transportMessage);
+				} catch (IOException e) {
+					LOG.error("Skipping unreadable message at offset " + offset
+							+ ": " + e.getMessage(), e);
+				}
+				offset = segment + position;
+				saveOffset(false);
+			}
+		} catch (InterruptedException e) {
+			// Closed.
+		} catch (IOException e) {
+			LOG.error(e.getMessage(), e);
+		}
+		saveOffset(true);
+	}
+
+	/**
+	 * Saves the offset to the offset file, if it changed and the save
+	 * interval passed. The file is replaced atomically, so a crash leaves the
+	 * previous offset.
+	 *
+	 * @param force
+	 *            True to ignore the save interval.
+	 */
+	private synchronized void saveOffset(boolean force) {
+		if ((offsetFile == null) || (offset == savedOffset)) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (!force && ((now - savedTime) < OFFSET_SAVE_INTERVAL)) {
+			return;
+		}
+
+		long current = offset;
+		Path tempFile = new File(offsetFile.getPath() + ".tmp").toPath();
+		try {
+			Files.write(tempFile, Long.toString(current).getBytes(StandardCharsets.UTF_8));
+			Files.move(tempFile, offsetFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			savedOffset = current;
+		} catch (IOException e) {
+			LOG.error("Unable to save offset file " + offsetFile + ": " + e.getMessage(), e);
+		}
+		savedTime = now;
+	}
+
+	/**
+	 * @return The offset of the next message.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Stops tailing the log and saves the offset.
+	 *
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for the thread to stop.
+	 */
+	public void close() throws InterruptedException {
+		synchronized (thread) {
+			closed = true;
+			if (!started) {
+				return;
+			}
+		}
+		thread.join();
+	}
+}
@@ -0,0 +1,186 @@
+package jepperscore.backends.segmentlog.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jepperscore.backends.segmentlog.SegmentLog;
+import jepperscore.backends.segmentlog.SegmentLogMessageDestination;
+import jepperscore.backends.segmentlog.SegmentLogMessageSource;
+import jepperscore.dao.IMessageCallback;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This class tests the segment log backend.
+ *
+ * @author Chuck
+ *
+ */
+public class SegmentLogTest {
+
+	/**
+	 * A callback recording the messages.
+	 */
+	private static class RecordingCallback implements IMessageCallback {
+
+		/**
+		 * Counted down for each message.
+		 */
+		private final CountDownLatch received;
+
+		/**
+		 * The received messages.
+		 */
+		private final List<TransportMessage> messages = new CopyOnWriteArrayList<TransportMessage>();
+
+		/**
+		 * Constructor.
+		 * @param count The number of messages expected.
+		 */
+		public RecordingCallback(int count) {
+			received = new CountDownLatch(count);
+		}
+
+		@Override
+		public void onMessage(TransportMessage message) {
+			messages.add(message);
+			received.countDown();
+		}
+	}
+
+	/**
+	 * The log directory.
+	 */
+	private File directory;
+
+	/**
+	 * Creates the log directory.
+	 * @throws IOException If the directory cannot be created.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("segmentlog").toFile();
+	}
+
+	/**
+	 * Deletes the log directory.
+	 */
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Tests that a source tails the messages across segments, in order.
+	 * @throws IOException If the log cannot be used.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testTailAcrossSegments() throws IOException, InterruptedException {
+		SegmentLogMessageDestination destination = new SegmentLogMessageDestination(
+				directory.getPath() + ";segmentSize=1024");
+
+		SegmentLogMessageSource source = new SegmentLogMessageSource(directory.getPath());
+		RecordingCallback callback = new RecordingCallback(200);
+		source.registerCallback(callback);
+
+		for (int i = 0; i < 200; i++) {
+			destination.sendMessage(new TransportMessage(new Team("Team " + i), "round-1"));
+		}
+
+		assertTrue(callback.received.await(5, TimeUnit.SECONDS));
+		assertTrue(new SegmentLog(directory).getSegments().size() > 1);
+		for (int i = 0; i < 200; i++) {
+			assertEquals("Team " + i, callback.messages.get(i).getTeam().getTeamName());
+		}
+
+		source.close();
+		assertEquals(destination.getOffset(), source.getOffset());
+		destination.close();
+	}
+
+	/**
+	 * Tests that a source resumes from its offset file, and that a
+	 * destination appends after the messages of a previous run.
+	 * @throws IOException If the log cannot be used.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testResume() throws IOException, InterruptedException {
+		String sourceSetup = directory.getPath() + ";offsetFile="
+				+ new File(directory, "reader.offset").getPath();
+
+		SegmentLogMessageDestination destination = new SegmentLogMessageDestination(directory.getPath());
+		destination.sendMessage(new TransportMessage(new Team("Team 0"), "round-1"));
+
+		SegmentLogMessageSource source = new SegmentLogMessageSource(sourceSetup);
+		RecordingCallback callback = new RecordingCallback(1);
+		source.registerCallback(callback);
+		assertTrue(callback.received.await(5, TimeUnit.SECONDS));
+		source.close();
+		destination.close();
+
+		destination = new SegmentLogMessageDestination(directory.getPath());
+		destination.sendMessage(new TransportMessage(new Team("Team 1"), "round-1"));
+
+		source = new SegmentLogMessageSource(sourceSetup);
+		callback = new RecordingCallback(1);
+		source.registerCallback(callback);
+		assertTrue(callback.received.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertEquals(1, callback.messages.size());
+		assertEquals("Team 1", callback.messages.get(0).getTeam().getTeamName());
+
+		source.close();
+		destination.close();
+	}
+
+	/**
+	 * Tests that a source can start at the first message of a session.
+	 * @throws IOException If the log cannot be used.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testSessionIndex() throws IOException, InterruptedException {
+		SegmentLogMessageDestination destination = new SegmentLogMessageDestination(
+				directory.getPath() + ";segmentSize=1024");
+		for (int i = 0; i < 50; i++) {
+			destination.sendMessage(new TransportMessage(new Team("Team " + i), "round-1"));
+		}
+		long start = destination.getOffset();
+		for (int i = 0; i < 50; i++) {
+			destination.sendMessage(new TransportMessage(new Team("Team " + i), "round-2"));
+		}
+
+		assertEquals(start, new SegmentLog(directory).findSession("round-2"));
+
+		SegmentLogMessageSource source = new SegmentLogMessageSource(directory.getPath() + ";session=round-2");
+		RecordingCallback callback = new RecordingCallback(50);
+		source.registerCallback(callback);
+		assertTrue(callback.received.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertEquals(50, callback.messages.size());
+		assertEquals("round-2", callback.messages.get(0).getSessionId());
+
+		source.close();
+		destination.close();
+	}
+}
@@ -3,6 +3,7 @@ package jepperscore.backends.testing;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jepperscore.dao.AbstractMessageDestination;
 import jepperscore.dao.IMessageDestination;
 import jepperscore.dao.transport.TransportMessage;
 
@@ -12,7 +13,7 @@ import jepperscore.dao.transport.TransportMessage;
  * @author Chuck
  *
  */
-public class NullMessageDestination implements IMessageDestination {
+public class NullMessageDestination extends AbstractMessageDestination {
 
 	/**
 	 * Class logger.
@@ -5,6 +5,7 @@ import java.util.LinkedList;
 
 import javax.annotation.Nonnull;
 
+import jepperscore.dao.AbstractMessageDestination;
 import jepperscore.dao.IMessageDestination;
 import jepperscore.dao.transport.TransportMessage;
 
@@ -17,7 +18,7 @@ import org.slf4j.LoggerFactory;
  * @author Chuck
  *
  */
-public class TestingMessageDestination implements IMessageDestination {
+public class TestingMessageDestination extends AbstractMessageDestination {
 
 	/**
 	 * Used as a simple callback for testing.
@@ -0,0 +1,20 @@
+package jepperscore.dao;
+
+import java.util.Collection;
+
+import jepperscore.dao.transport.TransportMessage;
+
+/**
+ * This works as a base class for implementing message destinations.
+ * @author Chuck
+ *
+ */
+public abstract class AbstractMessageDestination implements IMessageDestination {
+
+	@Override
+	public void sendMessages(Collection<TransportMessage> transportMessages) {
+		for (TransportMessage transportMessage : transportMessages) {
+			sendMessage(transportMessage);
+		}
+	}
+}
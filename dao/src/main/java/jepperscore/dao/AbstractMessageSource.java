@@ -1,36 +1,176 @@
 package jepperscore.dao;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
 
 import jepperscore.dao.IMessageCallback;
 import jepperscore.dao.IMessageSource;
 import jepperscore.dao.transport.TransportMessage;
 
 /**
- * This works as a base class for implementing message sources.
+ * This works as a base class for implementing message sources. Messages are
+ * routed through a dispatch table keyed by content type, which is replaced
+ * whenever a callback is registered or unregistered, so registration never
+ * blocks delivery.
  * @author Chuck
  *
  */
 public abstract class AbstractMessageSource implements IMessageSource {
 
 	/**
-	 * The list of callbacks.
+	 * A registered callback and its filter.
+	 */
+	private static final class Subscription {
+
+		/**
+		 * The callback.
+		 */
+		private final IMessageCallback callback;
+
+		/**
+		 * The callback messages are given to, the callback itself or its
+		 * asynchronous wrapper.
+		 */
+		private final IMessageCallback target;
+
+		/**
+		 * The filter.
+		 */
+		private final MessageFilter filter;
+
+		/**
+		 * Constructor.
+		 * @param callback The callback.
+		 * @param target The callback messages are given to.
+		 * @param filter The filter.
+		 */
+		private Subscription(IMessageCallback callback, IMessageCallback target, MessageFilter filter) {
+			this.callback = callback;
+			this.target = target;
+			this.filter = filter;
+		}
+	}
+
+	/**
+	 * An empty list of subscriptions.
 	 */
-	private List<IMessageCallback> callbacks = new LinkedList<IMessageCallback>();
-	
+	private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+	/**
+	 * The list of subscriptions, in registration order. Also serializes the
+	 * calls to {@link #filtersChanged(MessageFilter)}.
+	 */
+	private final List<Subscription> subscriptions = new ArrayList<Subscription>();
+
+	/**
+	 * The subscriptions for each content type.
+	 */
+	private volatile Map<MessageType, Subscription[]> dispatchTable = new EnumMap<MessageType, Subscription[]>(MessageType.class);
+
+	/**
+	 * The subscriptions for messages without content.
+	 */
+	private volatile Subscription[] untypedSubscriptions = NO_SUBSCRIPTIONS;
+
 	@Override
 	public void registerCallback(IMessageCallback callback) {
-		synchronized (callbacks) {
-			callbacks.add(callback);
+		registerCallback(callback, MessageFilter.all());
+	}
+
+	@Override
+	public void registerCallback(IMessageCallback callback, MessageFilter filter) {
+		subscribe(new Subscription(callback, callback, filter));
+	}
+
+	@Override
+	public AsyncMessageCallback registerAsyncCallback(IMessageCallback callback, MessageFilter filter,
+			int capacity, OverflowPolicy policy) {
+		AsyncMessageCallback asyncCallback = new AsyncMessageCallback(callback, capacity, policy);
+		subscribe(new Subscription(callback, asyncCallback, filter));
+		return asyncCallback;
+	}
+
+	/**
+	 * Adds a subscription.
+	 * @param subscription The subscription.
+	 */
+	private void subscribe(Subscription subscription) {
+		synchronized (subscriptions) {
+			subscriptions.add(subscription);
+			filtersChanged(rebuildDispatchTable());
 		}
 	}
 
 	@Override
 	public void unregisterCallback(IMessageCallback callback) {
-		synchronized (callbacks) {
-			callbacks.remove(callback);
+		List<Subscription> removed = new ArrayList<Subscription>();
+		synchronized (subscriptions) {
+			Iterator<Subscription> it = subscriptions.iterator();
+			while (it.hasNext()) {
+				Subscription subscription = it.next();
+				if (subscription.callback == callback) {
+					removed.add(subscription);
+					it.remove();
+				}
+			}
+			filtersChanged(rebuildDispatchTable());
+		}
+
+		for (Subscription subscription : removed) {
+			if (subscription.target instanceof AsyncMessageCallback) {
+				((AsyncMessageCallback) subscription.target).close();
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the dispatch table from the subscriptions.
+	 * @return The union of the subscription filters.
+	 */
+	private MessageFilter rebuildDispatchTable() {
+		Map<MessageType, Subscription[]> newTable = new EnumMap<MessageType, Subscription[]>(MessageType.class);
+		List<MessageFilter> filters = new ArrayList<MessageFilter>(subscriptions.size());
+
+		for (MessageType type : MessageType.values()) {
+			List<Subscription> typeSubscriptions = new ArrayList<Subscription>();
+			for (Subscription subscription : subscriptions) {
+				if (subscription.filter.acceptsType(type)) {
+					typeSubscriptions.add(subscription);
+				}
+			}
+			newTable.put(type, typeSubscriptions.toArray(NO_SUBSCRIPTIONS));
+		}
+
+		List<Subscription> newUntyped = new ArrayList<Subscription>();
+		for (Subscription subscription : subscriptions) {
+			filters.add(subscription.filter);
+			if (subscription.filter.acceptsType(null)) {
+				newUntyped.add(subscription);
+			}
 		}
+
+		dispatchTable = newTable;
+		untypedSubscriptions = newUntyped.toArray(NO_SUBSCRIPTIONS);
+
+		return MessageFilter.union(filters);
+	}
+
+	/**
+	 * Called after the registered callbacks change. Sources that can filter
+	 * on the server side should override this to push the filter down. The
+	 * messages passed to {@link #call(TransportMessage)} are still filtered
+	 * per callback, so a source may deliver more than the filter accepts.
+	 * Calls are made one at a time, in the order of the changes, so the last
+	 * filter pushed is always the current one.
+	 * @param combinedFilter The union of the filters of all callbacks.
+	 */
+	protected void filtersChanged(@Nonnull MessageFilter combinedFilter) {
+		// Filtering is done in call() by default.
 	}
 
 	/**
@@ -38,9 +178,21 @@ public abstract class AbstractMessageSource implements IMessageSource {
 	 * @param transportMessage
 	 */
 	protected void call(TransportMessage transportMessage) {
-		synchronized (callbacks) {
-			for (IMessageCallback callback : callbacks) {
-				callback.onMessage(transportMessage);
+		MessageType type = MessageType.of(transportMessage);
+		Subscription[] targets;
+		if (type == null) {
+			targets = untypedSubscriptions;
+		} else {
+			targets = dispatchTable.get(type);
+		}
+		if (targets == null) {
+			return;
+		}
+
+		String sessionId = transportMessage.getSessionId();
+		for (Subscription subscription : targets) {
+			if (subscription.filter.acceptsSession(sessionId)) {
+				subscription.target.onMessage(transportMessage);
 			}
 		}
 	}
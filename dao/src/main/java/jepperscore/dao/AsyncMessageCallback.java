@@ -0,0 +1,385 @@
+package jepperscore.dao;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.transport.TransportMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class wraps an {@link IMessageCallback} and calls it from its own
+ * thread, through a bounded queue. A slow callback only delays its own
+ * messages, and the {@link OverflowPolicy} decides what happens when it falls
+ * too far behind. An {@link IMessageBatchCallback} is given all the queued
+ * messages at once, up to {@link #MAX_BATCH_SIZE}.
+ *
+ * @author Chuck
+ *
+ */
+public class AsyncMessageCallback implements IMessageCallback, Runnable {
+
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(AsyncMessageCallback.class);
+
+	/**
+	 * The most messages given to an {@link IMessageBatchCallback} at once.
+	 */
+	public static final int MAX_BATCH_SIZE = 1000;
+
+	/**
+	 * A queued message.
+	 */
+	private static final class Pending {
+
+		/**
+		 * The message, replaced when a newer one is coalesced into it.
+		 */
+		private TransportMessage message;
+
+		/**
+		 * When the message was first queued, in nanoseconds.
+		 */
+		private final long queuedNanos;
+
+		/**
+		 * The coalescing key, or null if the message cannot be coalesced.
+		 */
+		private final String key;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param message
+		 *            The message.
+		 * @param key
+		 *            The coalescing key.
+		 */
+		private Pending(TransportMessage message, String key) {
+			this.message = message;
+			this.queuedNanos = System.nanoTime();
+			this.key = key;
+		}
+	}
+
+	/**
+	 * The wrapped callback.
+	 */
+	private final IMessageCallback callback;
+
+	/**
+	 * The maximum number of queued messages.
+	 */
+	private final int capacity;
+
+	/**
+	 * The overflow policy.
+	 */
+	private final OverflowPolicy policy;
+
+	/**
+	 * The queued messages.
+	 */
+	private final ArrayDeque<Pending> queue;
+
+	/**
+	 * The queued messages that can be coalesced, by key.
+	 */
+	private final Map<String, Pending> coalescable = new HashMap<String, Pending>();
+
+	/**
+	 * Guards the queue.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Signalled when a message is queued.
+	 */
+	private final Condition notEmpty = lock.newCondition();
+
+	/**
+	 * Signalled when a message is taken from the queue.
+	 */
+	private final Condition notFull = lock.newCondition();
+
+	/**
+	 * The thread calling the callback.
+	 */
+	private final Thread thread;
+
+	/**
+	 * True once the callback is closed.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * The number of messages given to the callback.
+	 */
+	private final AtomicLong deliveredCount = new AtomicLong();
+
+	/**
+	 * The number of messages dropped.
+	 */
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	/**
+	 * The number of messages coalesced into a queued one.
+	 */
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	/**
+	 * The longest time a message waited in the queue, in nanoseconds.
+	 */
+	private volatile long maxLagNanos = 0;
+
+	/**
+	 * Constructor. Starts the thread calling the callback.
+	 *
+	 * @param callback
+	 *            The wrapped callback.
+	 * @param capacity
+	 *            The maximum number of queued messages.
+	 * @param policy
+	 *            What to do when the queue is full.
+	 */
+	public AsyncMessageCallback(@Nonnull IMessageCallback callback,
+			int capacity, @Nonnull OverflowPolicy policy) {
+		this(callback, capacity, policy, callback.getClass().getSimpleName());
+	}
+
+	/**
+	 * Constructor. Starts the thread calling the callback.
+	 *
+	 * @param callback
+	 *            The wrapped callback.
+	 * @param capacity
+	 *            The maximum number of queued messages.
+	 * @param policy
+	 *            What to do when the queue is full.
+	 * @param name
+	 *            The name used for the thread.
+	 */
+	public AsyncMessageCallback(@Nonnull IMessageCallback callback,
+			int capacity, @Nonnull OverflowPolicy policy, @Nonnull String name) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive.");
+		}
+
+		this.callback = callback;
+		this.capacity = capacity;
+		this.policy = policy;
+		this.queue = new ArrayDeque<Pending>(capacity);
+
+		thread = new Thread(this, "AsyncMessageCallback-" + name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues the message for the wrapped callback.
+	 */
+	@Override
+	public void onMessage(TransportMessage message) {
+		if (closed) {
+			return;
+		}
+
+		String key = null;
+		if (policy == OverflowPolicy.COALESCE) {
+			key = MessageType.getEntityKey(message);
+		}
+
+		lock.lock();
+		try {
+			if (key != null) {
+				Pending pending = coalescable.get(key);
+				if (pending != null) {
+					pending.message = message;
+					coalescedCount.incrementAndGet();
+					return;
+				}
+			}
+
+			while (queue.size() >= capacity) {
+				if (policy == OverflowPolicy.DROP_OLDEST) {
+					Pending oldest = queue.poll();
+					if (oldest.key != null) {
+						coalescable.remove(oldest.key);
+					}
+					droppedCount.incrementAndGet();
+				} else {
+					notFull.await();
+					if (closed) {
+						droppedCount.incrementAndGet();
+						return;
+					}
+				}
+			}
+
+			Pending pending = new Pending(message, key);
+			queue.add(pending);
+			if (key != null) {
+				coalescable.put(key, pending);
+			}
+			notEmpty.signal();
+		} catch (InterruptedException e) {
+			droppedCount.incrementAndGet();
+			Thread.currentThread().interrupt();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void run() {
+		boolean batching = callback instanceof IMessageBatchCallback;
+		while (true) {
+			List<TransportMessage> messages = new ArrayList<TransportMessage>();
+			long lagNanos;
+
+			lock.lock();
+			try {
+				while (queue.isEmpty() && !closed) {
+					notEmpty.await();
+				}
+				Pending pending = queue.peek();
+				if (pending == null) {
+					return;
+				}
+				lagNanos = System.nanoTime() - pending.queuedNanos;
+				do {
+					queue.poll();
+					if (pending.key != null) {
+						coalescable.remove(pending.key);
+					}
+					messages.add(pending.message);
+					pending = queue.peek();
+				} while (batching && (pending != null) && (messages.size() < MAX_BATCH_SIZE));
+				notFull.signalAll();
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				lock.unlock();
+			}
+
+			if (lagNanos > maxLagNanos) {
+				maxLagNanos = lagNanos;
+			}
+
+			try {
+				if (batching) {
+					((IMessageBatchCallback) callback).onMessages(messages);
+				} else {
+					callback.onMessage(messages.get(0));
+				}
+			} catch (RuntimeException e) {
+				LOG.error(e.getMessage(), e);
+			}
+			deliveredCount.addAndGet(messages.size());
+		}
+	}
+
+	/**
+	 * Stops accepting messages. The messages already queued are still given
+	 * to the callback, then the thread ends.
+	 */
+	public void close() {
+		closed = true;
+		lock.lock();
+		try {
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The wrapped callback.
+	 */
+	@Nonnull
+	public IMessageCallback getCallback() {
+		return callback;
+	}
+
+	/**
+	 * @return The overflow policy.
+	 */
+	@Nonnull
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return The number of queued messages.
+	 */
+	public int getQueueSize() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return How long the oldest queued message has been waiting, in
+	 *         milliseconds, or 0 if the queue is empty.
+	 */
+	public long getLagMillis() {
+		lock.lock();
+		try {
+			Pending oldest = queue.peek();
+			if (oldest == null) {
+				return 0;
+			}
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+					- oldest.queuedNanos);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The longest time a message waited in the queue, in
+	 *         milliseconds.
+	 */
+	public long getMaxLagMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxLagNanos);
+	}
+
+	/**
+	 * @return The number of messages given to the callback.
+	 */
+	public long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	/**
+	 * @return The number of messages dropped because the queue was full or
+	 *         the callback was closed.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return The number of messages coalesced into a queued one.
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+}
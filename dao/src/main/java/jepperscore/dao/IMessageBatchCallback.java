@@ -0,0 +1,24 @@
+package jepperscore.dao;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.transport.TransportMessage;
+
+/**
+ * This interface provides a callback method for dealing with several
+ * transport messages at once. {@link AsyncMessageCallback} hands such a
+ * callback all the messages it has queued, instead of one at a time.
+ *
+ * @author Chuck
+ */
+public interface IMessageBatchCallback extends IMessageCallback {
+
+	/**
+	 * Called when there are {@link TransportMessage} events.
+	 * @param messages The messages, in order.
+	 */
+	void onMessages(@Nonnull final List<TransportMessage> messages);
+
+}
@@ -1,5 +1,7 @@
 package jepperscore.dao;
 
+import java.util.Collection;
+
 import javax.annotation.Nonnull;
 
 import jepperscore.dao.transport.TransportMessage;
@@ -15,4 +17,13 @@ public interface IMessageDestination {
 	 * @param transportMessage
 	 */
 	void sendMessage(@Nonnull final TransportMessage transportMessage);
+
+	/**
+	 * Sends a batch of messages to the backend, in order. Backends that can
+	 * send several messages in one round trip should do so.
+	 * {@link AbstractMessageDestination} provides a loop over
+	 * {@link #sendMessage(TransportMessage)}.
+	 * @param transportMessages The messages.
+	 */
+	void sendMessages(@Nonnull final Collection<TransportMessage> transportMessages);
 }
@@ -14,6 +14,28 @@ public interface IMessageSource {
 	 */
 	void registerCallback(@Nonnull IMessageCallback callback);
 
+	/**
+	 * Registers a callback with the message source, which will only be
+	 * called for messages accepted by the filter. Sources that can filter on
+	 * the server side will do so.
+	 * @param callback The callback.
+	 * @param filter The filter.
+	 */
+	void registerCallback(@Nonnull IMessageCallback callback, @Nonnull MessageFilter filter);
+
+	/**
+	 * Registers a callback that is called from its own thread, through a
+	 * bounded queue, so it cannot stall the source or other callbacks.
+	 * @param callback The callback.
+	 * @param filter The filter.
+	 * @param capacity The maximum number of queued messages.
+	 * @param policy What to do when the queue is full.
+	 * @return The wrapper calling the callback, for its lag metrics.
+	 */
+	@Nonnull
+	AsyncMessageCallback registerAsyncCallback(@Nonnull IMessageCallback callback, @Nonnull MessageFilter filter,
+			int capacity, @Nonnull OverflowPolicy policy);
+
 	/**
 	 * Unregisters a callback with the message source.
 	 * @param callback The callback.
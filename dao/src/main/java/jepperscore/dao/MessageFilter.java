@@ -0,0 +1,196 @@
+package jepperscore.dao;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import jepperscore.dao.transport.TransportMessage;
+
+/**
+ * This class describes which messages a callback is interested in, by
+ * content type and session. Filters are immutable.
+ *
+ * @author Chuck
+ *
+ */
+public final class MessageFilter {
+
+	/**
+	 * The filter accepting every message.
+	 */
+	private static final MessageFilter ALL = new MessageFilter(
+			EnumSet.allOf(MessageType.class), null);
+
+	/**
+	 * The accepted content types.
+	 */
+	private final Set<MessageType> types;
+
+	/**
+	 * The accepted session, or null for any session.
+	 */
+	private final String sessionId;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param types
+	 *            The accepted content types.
+	 * @param sessionId
+	 *            The accepted session, or null for any session.
+	 */
+	private MessageFilter(@Nonnull EnumSet<MessageType> types,
+			@Nullable String sessionId) {
+		this.types = Collections.unmodifiableSet(types);
+		this.sessionId = sessionId;
+	}
+
+	/**
+	 * @return A filter accepting every message.
+	 */
+	@Nonnull
+	public static MessageFilter all() {
+		return ALL;
+	}
+
+	/**
+	 * @param type
+	 *            The accepted content type.
+	 * @param moreTypes
+	 *            Further accepted content types.
+	 * @return A filter accepting messages of the given content types.
+	 */
+	@Nonnull
+	public static MessageFilter of(@Nonnull MessageType type,
+			MessageType... moreTypes) {
+		return new MessageFilter(EnumSet.of(type, moreTypes), null);
+	}
+
+	/**
+	 * @param newSessionId
+	 *            The accepted session.
+	 * @return A filter accepting the same content types, but only for the
+	 *         session.
+	 */
+	@Nonnull
+	public MessageFilter forSession(@Nonnull String newSessionId) {
+		EnumSet<MessageType> newTypes = EnumSet.noneOf(MessageType.class);
+		newTypes.addAll(types);
+		return new MessageFilter(newTypes, newSessionId);
+	}
+
+	/**
+	 * Combines filters into one accepting every message any of them accepts.
+	 *
+	 * @param filters
+	 *            The filters.
+	 * @return The combined filter.
+	 */
+	@Nonnull
+	public static MessageFilter union(@Nonnull Collection<MessageFilter> filters) {
+		EnumSet<MessageType> types = EnumSet.noneOf(MessageType.class);
+		String sessionId = null;
+		boolean first = true;
+
+		for (MessageFilter filter : filters) {
+			types.addAll(filter.types);
+			if (first) {
+				sessionId = filter.sessionId;
+				first = false;
+			} else if ((sessionId != null)
+					&& !sessionId.equals(filter.sessionId)) {
+				sessionId = null;
+			}
+		}
+
+		if (first) {
+			return ALL;
+		}
+		return new MessageFilter(types, sessionId);
+	}
+
+	/**
+	 * @return The accepted content types.
+	 */
+	@Nonnull
+	public Set<MessageType> getTypes() {
+		return types;
+	}
+
+	/**
+	 * @return True if every content type is accepted.
+	 */
+	public boolean isAllTypes() {
+		return types.size() == MessageType.values().length;
+	}
+
+	/**
+	 * @return The accepted session, or null for any session.
+	 */
+	@CheckForNull
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * @param type
+	 *            The content type, or null for a message without content.
+	 * @return True if the content type is accepted. Messages without content
+	 *         are only accepted when every content type is.
+	 */
+	public boolean acceptsType(@Nullable MessageType type) {
+		if (type == null) {
+			return isAllTypes();
+		}
+		return types.contains(type);
+	}
+
+	/**
+	 * @param messageSessionId
+	 *            The session of a message.
+	 * @return True if the session is accepted.
+	 */
+	public boolean acceptsSession(@Nullable String messageSessionId) {
+		return (sessionId == null) || sessionId.equals(messageSessionId);
+	}
+
+	/**
+	 * @param transportMessage
+	 *            The message.
+	 * @return True if the message is accepted.
+	 */
+	public boolean accepts(@Nonnull TransportMessage transportMessage) {
+		return acceptsType(MessageType.of(transportMessage))
+				&& acceptsSession(transportMessage.getSessionId());
+	}
+
+	@Override
+	public int hashCode() {
+		return (31 * types.hashCode())
+				+ ((sessionId == null) ? 0 : sessionId.hashCode());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof MessageFilter)) {
+			return false;
+		}
+		MessageFilter other = (MessageFilter) obj;
+		return types.equals(other.types)
+				&& ((sessionId == null) ? (other.sessionId == null) : sessionId
+						.equals(other.sessionId));
+	}
+
+	@Override
+	public String toString() {
+		return "MessageFilter[types=" + types + ", sessionId=" + sessionId + "]";
+	}
+}
@@ -1,5 +1,9 @@
 package jepperscore.dao;
 
+import java.io.File;
+import java.io.IOException;
+
+import jepperscore.dao.transport.SpoolingMessageDestination;
 import jepperscore.dao.transport.TransportMessage;
 
 /**
@@ -30,6 +34,18 @@ public class MessageRelay implements IMessageCallback {
 		this.source.registerCallback(this);
 	}
 
+	/**
+	 * Constructor for a relay that spools the messages on disk, so a slow or
+	 * unavailable destination does not hold up the source.
+	 * @param source The message source.
+	 * @param dest The message destination.
+	 * @param spoolDirectory The directory of the spool.
+	 * @throws IOException If the spool cannot be opened.
+	 */
+	public MessageRelay(AbstractMessageSource source, IMessageDestination dest, File spoolDirectory) throws IOException {
+		this(source, new SpoolingMessageDestination(dest, spoolDirectory));
+	}
+
 	@Override
 	public void onMessage(TransportMessage message) {
 		dest.sendMessage(message);
@@ -0,0 +1,153 @@
+package jepperscore.dao;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.transport.TransportMessage;
+
+/**
+ * This enum lists the kinds of content a {@link TransportMessage} can carry.
+ *
+ * @author Chuck
+ *
+ */
+public enum MessageType {
+
+	/**
+	 * A {@link jepperscore.dao.model.ServerMetadata} message.
+	 */
+	SERVER_METADATA("serverMetadata"),
+
+	/**
+	 * A {@link jepperscore.dao.model.Round} message.
+	 */
+	ROUND("round"),
+
+	/**
+	 * An {@link jepperscore.dao.model.Event} message.
+	 */
+	EVENT("event"),
+
+	/**
+	 * An {@link jepperscore.dao.model.Alias} message.
+	 */
+	ALIAS("alias"),
+
+	/**
+	 * A {@link jepperscore.dao.model.Score} message.
+	 */
+	SCORE("score"),
+
+	/**
+	 * A {@link jepperscore.dao.model.Team} message.
+	 */
+	TEAM("team"),
+
+	/**
+	 * A {@link jepperscore.dao.transport.EntityDelta} message.
+	 */
+	DELTA("delta"),
+
+	/**
+	 * A {@link jepperscore.dao.transport.RoundSnapshot} message.
+	 */
+	SNAPSHOT("snapshot");
+
+	/**
+	 * The name of the content field in the JSON and XML forms.
+	 */
+	private final String fieldName;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param fieldName
+	 *            The name of the content field.
+	 */
+	private MessageType(String fieldName) {
+		this.fieldName = fieldName;
+	}
+
+	/**
+	 * @return The name of the content field in the JSON and XML forms.
+	 */
+	@Nonnull
+	public String getFieldName() {
+		return fieldName;
+	}
+
+	/**
+	 * @param transportMessage
+	 *            The message.
+	 * @return The type of the message content, or null if it has none.
+	 */
+	@CheckForNull
+	public static MessageType of(@Nonnull TransportMessage transportMessage) {
+		if (transportMessage.getServerMetadata() != null) {
+			return SERVER_METADATA;
+		} else if (transportMessage.getRound() != null) {
+			return ROUND;
+		} else if (transportMessage.getEvent() != null) {
+			return EVENT;
+		} else if (transportMessage.getAlias() != null) {
+			return ALIAS;
+		} else if (transportMessage.getScore() != null) {
+			return SCORE;
+		} else if (transportMessage.getTeam() != null) {
+			return TEAM;
+		} else if (transportMessage.getDelta() != null) {
+			return DELTA;
+		} else if (transportMessage.getSnapshot() != null) {
+			return SNAPSHOT;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the key of the entity a message describes the state of. Two
+	 * messages with the same key describe the same alias, team, round or
+	 * server, so only the newer one matters. Events, deltas and snapshots have
+	 * no key.
+	 *
+	 * @param transportMessage
+	 *            The message.
+	 * @return The key, or null if the message cannot be replaced by a newer
+	 *         one.
+	 */
+	@CheckForNull
+	public static String getEntityKey(@Nonnull TransportMessage transportMessage) {
+		MessageType type = of(transportMessage);
+		if (type == null) {
+			return null;
+		}
+
+		String id;
+		switch (type) {
+		case SERVER_METADATA:
+			id = "";
+			break;
+		case ROUND:
+			id = transportMessage.getRound().getId();
+			break;
+		case ALIAS:
+			id = transportMessage.getAlias().getId();
+			break;
+		case SCORE:
+			Alias alias = transportMessage.getScore().getAlias();
+			id = (alias == null) ? "" : alias.getId();
+			break;
+		case TEAM:
+			id = transportMessage.getTeam().getTeamName();
+			break;
+		default:
+			return null;
+		}
+
+		if ((id == null) || (id.isEmpty() && (type != SERVER_METADATA))) {
+			return null;
+		}
+		return type.name() + "/" + transportMessage.getSessionId() + "/" + id;
+	}
+}
@@ -0,0 +1,30 @@
+package jepperscore.dao;
+
+/**
+ * This enum lists what an {@link AsyncMessageCallback} does when its queue is
+ * full.
+ *
+ * @author Chuck
+ *
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * Blocks the source until there is room in the queue. No message is
+	 * lost, but a slow callback slows down the source.
+	 */
+	BLOCK,
+
+	/**
+	 * Drops the oldest queued message to make room.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Replaces a queued message about the same entity (round, alias, score,
+	 * team or server metadata) with the newer one, even before the queue is
+	 * full. Events and deltas are never replaced; if the queue is full and
+	 * nothing can be replaced, the source blocks.
+	 */
+	COALESCE
+}
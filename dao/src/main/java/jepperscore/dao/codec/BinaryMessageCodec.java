@@ -0,0 +1,826 @@
+package jepperscore.dao.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Event;
+import jepperscore.dao.model.EventCode;
+import jepperscore.dao.model.Game;
+import jepperscore.dao.model.Person;
+import jepperscore.dao.model.Round;
+import jepperscore.dao.model.Score;
+import jepperscore.dao.model.ServerMetadata;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.EntityDelta;
+import jepperscore.dao.transport.RoundSnapshot;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.joda.time.DateTime;
+
+/**
+ * This codec encodes messages in a compact binary form. Strings are written
+ * once per message, and repeated strings (game names, team names, alias ids)
+ * are written as back references.
+ *
+ * @author Chuck
+ *
+ */
+public class BinaryMessageCodec implements IMessageCodec {
+
+	/**
+	 * The name of the codec.
+	 */
+	public static final String NAME = "binary";
+
+	/**
+	 * The content type of the codec.
+	 */
+	public static final String CONTENT_TYPE = "application/x-jepperscore";
+
+	/**
+	 * The first byte of every encoded message.
+	 */
+	private static final int MAGIC = 0x4A;
+
+	/**
+	 * The version of the encoding.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Content tag for no content.
+	 */
+	private static final int TAG_NONE = 0;
+
+	/**
+	 * Content tag for {@link ServerMetadata}.
+	 */
+	private static final int TAG_SERVER_METADATA = 1;
+
+	/**
+	 * Content tag for {@link Round}.
+	 */
+	private static final int TAG_ROUND = 2;
+
+	/**
+	 * Content tag for {@link Event}.
+	 */
+	private static final int TAG_EVENT = 3;
+
+	/**
+	 * Content tag for {@link Alias}.
+	 */
+	private static final int TAG_ALIAS = 4;
+
+	/**
+	 * Content tag for {@link Score}.
+	 */
+	private static final int TAG_SCORE = 5;
+
+	/**
+	 * Content tag for {@link Team}.
+	 */
+	private static final int TAG_TEAM = 6;
+
+	/**
+	 * Content tag for {@link EntityDelta}.
+	 */
+	private static final int TAG_DELTA = 7;
+
+	/**
+	 * Content tag for {@link RoundSnapshot}.
+	 */
+	private static final int TAG_SNAPSHOT = 8;
+
+	/**
+	 * Flag set on the content tag when the message holds references.
+	 */
+	private static final int FLAG_REFERENCES = 0x80;
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String getContentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	public byte[] encode(TransportMessage transportMessage) throws IOException {
+		Encoder encoder = new Encoder();
+		encoder.writeByte(MAGIC);
+		encoder.writeByte(VERSION);
+		encoder.writeMessage(transportMessage);
+		return encoder.toByteArray();
+	}
+
+	@Override
+	public TransportMessage decode(byte[] data) throws IOException {
+		Decoder decoder = new Decoder(data);
+		if (decoder.readByte() != MAGIC) {
+			throw new IOException("Not a binary encoded message.");
+		}
+		int version = decoder.readByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported binary message version: " + version);
+		}
+		return decoder.readMessage();
+	}
+
+	/**
+	 * This class writes a single message.
+	 *
+	 * @author Chuck
+	 *
+	 */
+	private static class Encoder {
+
+		/**
+		 * The output buffer.
+		 */
+		private final ByteArrayOutputStream os = new ByteArrayOutputStream(128);
+
+		/**
+		 * The strings already written, mapped to their back reference.
+		 */
+		private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+		/**
+		 * @return The encoded bytes.
+		 */
+		public byte[] toByteArray() {
+			return os.toByteArray();
+		}
+
+		/**
+		 * Writes a single byte.
+		 * @param b The byte.
+		 */
+		public void writeByte(int b) {
+			os.write(b);
+		}
+
+		/**
+		 * Writes an unsigned variable length integer.
+		 * @param value The value.
+		 */
+		public void writeVarInt(int value) {
+			int v = value;
+			while ((v & ~0x7F) != 0) {
+				os.write((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			os.write(v);
+		}
+
+		/**
+		 * Writes a float.
+		 * @param value The value.
+		 */
+		public void writeFloat(float value) {
+			int bits = Float.floatToIntBits(value);
+			os.write(bits >>> 24);
+			os.write(bits >>> 16);
+			os.write(bits >>> 8);
+			os.write(bits);
+		}
+
+		/**
+		 * Writes a long.
+		 * @param value The value.
+		 */
+		public void writeLong(long value) {
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				os.write((int) (value >>> shift));
+			}
+		}
+
+		/**
+		 * Writes a nullable boolean.
+		 * @param value The value.
+		 */
+		public void writeBoolean(@Nullable Boolean value) {
+			if (value == null) {
+				os.write(0);
+			} else {
+				os.write(value ? 1 : 2);
+			}
+		}
+
+		/**
+		 * Writes a nullable string. 0 is null, 1 is a new string, anything
+		 * else is a back reference.
+		 *
+		 * @param value The value.
+		 */
+		public void writeString(@Nullable String value) {
+			if (value == null) {
+				writeVarInt(0);
+				return;
+			}
+
+			Integer ref = strings.get(value);
+			if (ref != null) {
+				writeVarInt(ref + 2);
+				return;
+			}
+
+			strings.put(value, strings.size());
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(1);
+			writeVarInt(bytes.length);
+			os.write(bytes, 0, bytes.length);
+		}
+
+		/**
+		 * Writes a nullable date.
+		 * @param value The value.
+		 */
+		public void writeDateTime(@Nullable DateTime value) {
+			if (value == null) {
+				os.write(0);
+			} else {
+				os.write(1);
+				writeLong(value.getMillis());
+			}
+		}
+
+		/**
+		 * Writes a transport message.
+		 * @param msg The message.
+		 */
+		public void writeMessage(TransportMessage msg) {
+			writeString(msg.getId());
+			writeString(msg.getRevision());
+			writeString(msg.getSessionId());
+
+			int flags = msg.isReferences() ? FLAG_REFERENCES : 0;
+			Object content = msg.getMessageContent();
+			if (content instanceof ServerMetadata) {
+				writeByte(TAG_SERVER_METADATA | flags);
+				writeServerMetadata((ServerMetadata) content);
+			} else if (content instanceof Round) {
+				writeByte(TAG_ROUND | flags);
+				writeRound((Round) content);
+			} else if (content instanceof Event) {
+				writeByte(TAG_EVENT | flags);
+				writeEvent((Event) content);
+			} else if (content instanceof Alias) {
+				writeByte(TAG_ALIAS | flags);
+				writeAlias((Alias) content);
+			} else if (content instanceof Score) {
+				writeByte(TAG_SCORE | flags);
+				writeScore((Score) content);
+			} else if (content instanceof Team) {
+				writeByte(TAG_TEAM | flags);
+				writeTeam((Team) content);
+			} else if (content instanceof EntityDelta) {
+				writeByte(TAG_DELTA | flags);
+				writeDelta((EntityDelta) content);
+			} else if (content instanceof RoundSnapshot) {
+				writeByte(TAG_SNAPSHOT | flags);
+				writeSnapshot((RoundSnapshot) content);
+			} else {
+				writeByte(TAG_NONE | flags);
+			}
+		}
+
+		/**
+		 * Writes the server metadata.
+		 * @param serverMetadata The value.
+		 */
+		public void writeServerMetadata(ServerMetadata serverMetadata) {
+			writeString(serverMetadata.getServerName());
+			Map<String, String> metadata = serverMetadata.getMetadata();
+			if (metadata == null) {
+				writeVarInt(0);
+			} else {
+				writeVarInt(metadata.size());
+				for (Entry<String, String> entry : metadata.entrySet()) {
+					writeString(entry.getKey());
+					writeString(entry.getValue());
+				}
+			}
+		}
+
+		/**
+		 * Writes an entity delta.
+		 * @param delta The value.
+		 */
+		public void writeDelta(EntityDelta delta) {
+			writeString(delta.getEntityType());
+			writeString(delta.getEntityId());
+			Map<String, String> fields = delta.getFields();
+			writeVarInt(fields.size());
+			for (Entry<String, String> entry : fields.entrySet()) {
+				writeString(entry.getKey());
+				writeString(entry.getValue());
+			}
+		}
+
+		/**
+		 * Writes a round snapshot.
+		 * @param snapshot The value.
+		 */
+		public void writeSnapshot(RoundSnapshot snapshot) {
+			writeDateTime(snapshot.getTimestamp());
+			writeRound(snapshot.getRound());
+			writeVarInt(snapshot.getTeams().size());
+			for (Team team : snapshot.getTeams()) {
+				writeTeam(team);
+			}
+			writeVarInt(snapshot.getAliases().size());
+			for (Alias alias : snapshot.getAliases()) {
+				writeAlias(alias);
+			}
+			writeVarInt(snapshot.getScores().size());
+			for (Score score : snapshot.getScores()) {
+				writeScore(score);
+			}
+		}
+
+		/**
+		 * Writes a nullable game.
+		 * @param game The value.
+		 */
+		public void writeGame(@Nullable Game game) {
+			if (game == null) {
+				writeByte(0);
+				return;
+			}
+			writeByte(1);
+			writeString(game.getName());
+			writeString(game.getGametype());
+			writeString(game.getMod());
+		}
+
+		/**
+		 * Writes a nullable team.
+		 * @param team The value.
+		 */
+		public void writeTeam(@Nullable Team team) {
+			if (team == null) {
+				writeByte(0);
+				return;
+			}
+			Float score = team.getScore();
+			if (score == null) {
+				writeByte(1);
+				writeString(team.getTeamName());
+			} else {
+				writeByte(2);
+				writeString(team.getTeamName());
+				writeFloat(score);
+			}
+		}
+
+		/**
+		 * Writes a nullable person.
+		 * @param person The value.
+		 */
+		public void writePerson(@Nullable Person person) {
+			if (person == null) {
+				writeByte(0);
+				return;
+			}
+			writeByte(1);
+			writeString(person.getName());
+		}
+
+		/**
+		 * Writes a nullable round.
+		 * @param round The value.
+		 */
+		public void writeRound(@Nullable Round round) {
+			if (round == null) {
+				writeByte(0);
+				return;
+			}
+			writeByte(1);
+			writeString(round.getId());
+			writeDateTime(round.getStart());
+			writeDateTime(round.getEnd());
+			writeGame(round.getGame());
+			writeString(round.getMap());
+		}
+
+		/**
+		 * Writes a nullable alias.
+		 * @param alias The value.
+		 */
+		public void writeAlias(@Nullable Alias alias) {
+			if (alias == null) {
+				writeByte(0);
+				return;
+			}
+			writeByte(alias.isPresent() ? 1 : 2);
+			writeString(alias.getId());
+			writeString(alias.getName());
+			writeString(alias.getDecorationStyle());
+			writeBoolean(alias.isBot());
+			writeTeam(alias.getTeam());
+			writePerson(alias.getPerson());
+			writeGame(alias.getGame());
+		}
+
+		/**
+		 * Writes a score.
+		 * @param score The value.
+		 */
+		public void writeScore(Score score) {
+			writeAlias(score.getAlias());
+			writeFloat(score.getScore());
+		}
+
+		/**
+		 * Writes an event.
+		 * @param event The value.
+		 */
+		public void writeEvent(Event event) {
+			writeDateTime(event.getTimestamp());
+			writeAlias(event.getVictim());
+			writeAlias(event.getAttacker());
+			writeString(event.getEventText());
+
+			EventCode eventCode = event.getEventCode();
+			if (eventCode == null) {
+				writeByte(0);
+			} else {
+				writeByte(1);
+				writeString(eventCode.getCode());
+				writeString(eventCode.getObject());
+				writeString(eventCode.getExtra());
+			}
+
+			writeRound(event.getRound());
+		}
+	}
+
+	/**
+	 * This class reads a single message.
+	 *
+	 * @author Chuck
+	 *
+	 */
+	private static class Decoder {
+
+		/**
+		 * The encoded data.
+		 */
+		private final byte[] data;
+
+		/**
+		 * The current read position.
+		 */
+		private int pos = 0;
+
+		/**
+		 * The strings read so far, by back reference.
+		 */
+		private final List<String> strings = new ArrayList<String>();
+
+		/**
+		 * Constructor.
+		 * @param data The data to read.
+		 */
+		public Decoder(byte[] data) {
+			this.data = data;
+		}
+
+		/**
+		 * @return A single unsigned byte.
+		 * @throws EOFException If the data ended early.
+		 */
+		public int readByte() throws EOFException {
+			if (pos >= data.length) {
+				throw new EOFException("Unexpected end of binary message.");
+			}
+			return data[pos++] & 0xFF;
+		}
+
+		/**
+		 * @return An unsigned variable length integer.
+		 * @throws IOException If the data is corrupt.
+		 */
+		public int readVarInt() throws IOException {
+			int value = 0;
+			int shift = 0;
+			int b;
+			do {
+				if (shift > 28) {
+					throw new IOException("Malformed variable length integer.");
+				}
+				b = readByte();
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+
+		/**
+		 * @return A float.
+		 * @throws EOFException If the data ended early.
+		 */
+		public float readFloat() throws EOFException {
+			int bits = (readByte() << 24) | (readByte() << 16)
+					| (readByte() << 8) | readByte();
+			return Float.intBitsToFloat(bits);
+		}
+
+		/**
+		 * @return A long.
+		 * @throws EOFException If the data ended early.
+		 */
+		public long readLong() throws EOFException {
+			long value = 0;
+			for (int i = 0; i < 8; i++) {
+				value = (value << 8) | readByte();
+			}
+			return value;
+		}
+
+		/**
+		 * @return A nullable boolean.
+		 * @throws EOFException If the data ended early.
+		 */
+		@CheckForNull
+		public Boolean readBoolean() throws EOFException {
+			switch (readByte()) {
+			case 0:
+				return null;
+			case 1:
+				return Boolean.TRUE;
+			default:
+				return Boolean.FALSE;
+			}
+		}
+
+		/**
+		 * @return A nullable string.
+		 * @throws IOException If the data is corrupt.
+		 */
+		@CheckForNull
+		public String readString() throws IOException {
+			int marker = readVarInt();
+			if (marker == 0) {
+				return null;
+			} else if (marker == 1) {
+				int length = readVarInt();
+				if ((length < 0) || (length > (data.length - pos))) {
+					throw new EOFException("Unexpected end of binary message.");
+				}
+				String value = new String(data, pos, length, StandardCharsets.UTF_8);
+				pos += length;
+				strings.add(value);
+				return value;
+			} else {
+				int ref = marker - 2;
+				if (ref >= strings.size()) {
+					throw new IOException("Invalid string reference: " + ref);
+				}
+				return strings.get(ref);
+			}
+		}
+
+		/**
+		 * @return A nullable date.
+		 * @throws EOFException If the data ended early.
+		 */
+		@CheckForNull
+		public DateTime readDateTime() throws EOFException {
+			if (readByte() == 0) {
+				return null;
+			}
+			return new DateTime(readLong());
+		}
+
+		/**
+		 * @return The transport message.
+		 * @throws IOException If the data is corrupt.
+		 */
+		public TransportMessage readMessage() throws IOException {
+			TransportMessage msg = new TransportMessage();
+			msg.setId(readString());
+			msg.setRevision(readString());
+			msg.setSessionId(readString());
+
+			int tag = readByte();
+			if ((tag & FLAG_REFERENCES) != 0) {
+				msg.setReferences(true);
+				tag &= ~FLAG_REFERENCES;
+			}
+			switch (tag) {
+			case TAG_NONE:
+				break;
+			case TAG_SERVER_METADATA:
+				msg.setServerMetadata(readServerMetadata());
+				break;
+			case TAG_ROUND:
+				msg.setRound(readRound());
+				break;
+			case TAG_EVENT:
+				msg.setEvent(readEvent());
+				break;
+			case TAG_ALIAS:
+				msg.setAlias(readAlias());
+				break;
+			case TAG_SCORE:
+				msg.setScore(readScore());
+				break;
+			case TAG_TEAM:
+				msg.setTeam(readTeam());
+				break;
+			case TAG_DELTA:
+				msg.setDelta(readDelta());
+				break;
+			case TAG_SNAPSHOT:
+				msg.setSnapshot(readSnapshot());
+				break;
+			default:
+				throw new IOException("Unknown content tag: " + tag);
+			}
+			return msg;
+		}
+
+		/**
+		 * @return The server metadata.
+		 * @throws IOException If the data is corrupt.
+		 */
+		public ServerMetadata readServerMetadata() throws IOException {
+			ServerMetadata serverMetadata = new ServerMetadata();
+			serverMetadata.setServerName(readString());
+			int count = readVarInt();
+			for (int i = 0; i < count; i++) {
+				String key = readString();
+				String value = readString();
+				serverMetadata.getMetadata().put(key, value);
+			}
+			return serverMetadata;
+		}
+
+		/**
+		 * @return The entity delta.
+		 * @throws IOException If the data is corrupt.
+		 */
+		public EntityDelta readDelta() throws IOException {
+			EntityDelta delta = new EntityDelta(readString(), readString());
+			int count = readVarInt();
+			for (int i = 0; i < count; i++) {
+				String key = readString();
+				String value = readString();
+				delta.getFields().put(key, value);
+			}
+			return delta;
+		}
+
+		/**
+		 * @return The round snapshot.
+		 * @throws IOException If the data is corrupt.
+		 */
+		public RoundSnapshot readSnapshot() throws IOException {
+			RoundSnapshot snapshot = new RoundSnapshot(readDateTime(), readRound());
+			int count = readVarInt();
+			for (int i = 0; i < count; i++) {
+				snapshot.getTeams().add(readTeam());
+			}
+			count = readVarInt();
+			for (int i = 0; i < count; i++) {
+				snapshot.getAliases().add(readAlias());
+			}
+			count = readVarInt();
+			for (int i = 0; i < count; i++) {
+				snapshot.getScores().add(readScore());
+			}
+			return snapshot;
+		}
+
+		/**
+		 * @return A nullable game.
+		 * @throws IOException If the data is corrupt.
+		 */
+		@CheckForNull
+		public Game readGame() throws IOException {
+			if (readByte() == 0) {
+				return null;
+			}
+			String name = readString();
+			String gametype = readString();
+			String mod = readString();
+			return new Game(name, gametype, mod);
+		}
+
+		/**
+		 * @return A nullable team.
+		 * @throws IOException If the data is corrupt.
+		 */
+		@CheckForNull
+		public Team readTeam() throws IOException {
+			switch (readByte()) {
+			case 0:
+				return null;
+			case 1:
+				return new Team(readString());
+			default:
+				String teamName = readString();
+				return new Team(teamName, readFloat());
+			}
+		}
+
+		/**
+		 * @return A nullable person.
+		 * @throws IOException If the data is corrupt.
+		 */
+		@CheckForNull
+		public Person readPerson() throws IOException {
+			if (readByte() == 0) {
+				return null;
+			}
+			Person person = new Person();
+			person.setName(readString());
+			return person;
+		}
+
+		/**
+		 * @return A nullable round.
+		 * @throws IOException If the data is corrupt.
+		 */
+		@CheckForNull
+		public Round readRound() throws IOException {
+			if (readByte() == 0) {
+				return null;
+			}
+			String id = readString();
+			DateTime start = readDateTime();
+			DateTime end = readDateTime();
+			Game game = readGame();
+			String map = readString();
+			return new Round(id, start, end, game, map);
+		}
+
+		/**
+		 * @return A nullable alias.
+		 * @throws IOException If the data is corrupt.
+		 */
+		@CheckForNull
+		public Alias readAlias() throws IOException {
+			int marker = readByte();
+			if (marker == 0) {
+				return null;
+			}
+			String id = readString();
+			String name = readString();
+			String decorationStyle = readString();
+			Boolean bot = readBoolean();
+			Team team = readTeam();
+			Person person = readPerson();
+			Game game = readGame();
+			return new Alias(id, name, decorationStyle, bot, team, person,
+					game, marker == 1);
+		}
+
+		/**
+		 * @return A score.
+		 * @throws IOException If the data is corrupt.
+		 */
+		public Score readScore() throws IOException {
+			Alias alias = readAlias();
+			return new Score(alias, readFloat());
+		}
+
+		/**
+		 * @return An event.
+		 * @throws IOException If the data is corrupt.
+		 */
+		public Event readEvent() throws IOException {
+			Event event = new Event();
+			event.setTimestamp(readDateTime());
+			event.setVictim(readAlias());
+			event.setAttacker(readAlias());
+			event.setEventText(readString());
+
+			if (readByte() != 0) {
+				EventCode eventCode = new EventCode();
+				eventCode.setCode(readString());
+				eventCode.setObject(readString());
+				eventCode.setExtra(readString());
+				event.setEventCode(eventCode);
+			}
+
+			event.setRound(readRound());
+			return event;
+		}
+	}
+}
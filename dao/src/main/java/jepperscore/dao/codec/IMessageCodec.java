@@ -0,0 +1,48 @@
+package jepperscore.dao.codec;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.transport.TransportMessage;
+
+/**
+ * This interface represents a wire encoding for {@link TransportMessage}.
+ * Implementations must be thread safe, and can be registered with
+ * {@link MessageCodecs} through the {@link java.util.ServiceLoader} mechanism.
+ *
+ * @author Chuck
+ *
+ */
+public interface IMessageCodec {
+
+	/**
+	 * @return The short name of the codec (used in setup strings).
+	 */
+	@Nonnull
+	String getName();
+
+	/**
+	 * @return The content type placed on the wire along with encoded messages.
+	 */
+	@Nonnull
+	String getContentType();
+
+	/**
+	 * Encodes a message.
+	 * @param transportMessage The message to encode.
+	 * @return The encoded message.
+	 * @throws IOException If the message could not be encoded.
+	 */
+	@Nonnull
+	byte[] encode(@Nonnull TransportMessage transportMessage) throws IOException;
+
+	/**
+	 * Decodes a message.
+	 * @param data The encoded message.
+	 * @return The decoded message.
+	 * @throws IOException If the message could not be decoded.
+	 */
+	@Nonnull
+	TransportMessage decode(@Nonnull byte[] data) throws IOException;
+}
@@ -0,0 +1,69 @@
+package jepperscore.dao.codec;
+
+import java.io.IOException;
+
+import jepperscore.dao.transport.TransportMessage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * This codec encodes messages as JSON using Jackson. This is the same format
+ * used to store documents in CouchDB.
+ *
+ * @author Chuck
+ *
+ */
+public class JsonMessageCodec implements IMessageCodec {
+
+	/**
+	 * The name of the codec.
+	 */
+	public static final String NAME = "json";
+
+	/**
+	 * The content type of the codec.
+	 */
+	public static final String CONTENT_TYPE = "application/json";
+
+	/**
+	 * The pre-configured reader.
+	 */
+	private final ObjectReader reader;
+
+	/**
+	 * The pre-configured writer.
+	 */
+	private final ObjectWriter writer;
+
+	/**
+	 * Default constructor.
+	 */
+	public JsonMessageCodec() {
+		ObjectMapper mapper = new ObjectMapper();
+		reader = mapper.reader(TransportMessage.class);
+		writer = mapper.writerWithType(TransportMessage.class);
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String getContentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	public byte[] encode(TransportMessage transportMessage) throws IOException {
+		return writer.writeValueAsBytes(transportMessage);
+	}
+
+	@Override
+	public TransportMessage decode(byte[] data) throws IOException {
+		return reader.readValue(data);
+	}
+
+}
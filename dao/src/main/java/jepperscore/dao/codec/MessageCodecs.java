@@ -0,0 +1,103 @@
+package jepperscore.dao.codec;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * This class is the registry of the available {@link IMessageCodec}s. The
+ * built in XML, JSON and binary codecs are always available, and additional
+ * codecs are discovered through {@link ServiceLoader}.
+ *
+ * @author Chuck
+ *
+ */
+public final class MessageCodecs {
+
+	/**
+	 * The codecs by content type.
+	 */
+	private static final Map<String, IMessageCodec> BY_CONTENT_TYPE = new ConcurrentHashMap<String, IMessageCodec>();
+
+	/**
+	 * The codecs by name.
+	 */
+	private static final Map<String, IMessageCodec> BY_NAME = new ConcurrentHashMap<String, IMessageCodec>();
+
+	/**
+	 * The default codec (XML, which every consumer understands).
+	 */
+	private static final IMessageCodec DEFAULT_CODEC;
+
+	static {
+		DEFAULT_CODEC = new XmlMessageCodec();
+		register(DEFAULT_CODEC);
+		register(new JsonMessageCodec());
+		register(new BinaryMessageCodec());
+
+		for (IMessageCodec codec : ServiceLoader.load(IMessageCodec.class)) {
+			register(codec);
+		}
+	}
+
+	/**
+	 * Hide constructor.
+	 */
+	private MessageCodecs() {
+	}
+
+	/**
+	 * Registers a codec, replacing any codec with the same name or content
+	 * type.
+	 *
+	 * @param codec The codec to register.
+	 */
+	public static void register(@Nonnull IMessageCodec codec) {
+		BY_CONTENT_TYPE.put(codec.getContentType(), codec);
+		BY_NAME.put(codec.getName(), codec);
+	}
+
+	/**
+	 * Looks up a codec by its content type.
+	 *
+	 * @param contentType The content type.
+	 * @return The codec, or null if none is registered.
+	 */
+	@CheckForNull
+	public static IMessageCodec getByContentType(@Nullable String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		return BY_CONTENT_TYPE.get(contentType);
+	}
+
+	/**
+	 * Looks up a codec by name or by content type.
+	 *
+	 * @param name The name (xml, json, binary) or content type of the codec.
+	 * @return The codec, or null if none is registered.
+	 */
+	@CheckForNull
+	public static IMessageCodec getCodec(@Nullable String name) {
+		if (name == null) {
+			return null;
+		}
+		IMessageCodec codec = BY_NAME.get(name.toLowerCase());
+		if (codec == null) {
+			codec = BY_CONTENT_TYPE.get(name);
+		}
+		return codec;
+	}
+
+	/**
+	 * @return The default codec.
+	 */
+	@Nonnull
+	public static IMessageCodec getDefaultCodec() {
+		return DEFAULT_CODEC;
+	}
+}
@@ -0,0 +1,102 @@
+package jepperscore.dao.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import jepperscore.dao.transport.TransportMessage;
+
+/**
+ * This codec encodes messages as XML using JAXB. This is the original wire
+ * format, and is understood by every consumer.
+ *
+ * @author Chuck
+ *
+ */
+public class XmlMessageCodec implements IMessageCodec {
+
+	/**
+	 * The name of the codec.
+	 */
+	public static final String NAME = "xml";
+
+	/**
+	 * The content type of the codec.
+	 */
+	public static final String CONTENT_TYPE = "application/xml";
+
+	/**
+	 * The JAXB Context.
+	 */
+	private final JAXBContext jaxbContext;
+
+	/**
+	 * Marshallers are not thread safe, so each thread gets its own.
+	 */
+	private final ThreadLocal<Marshaller> marshaller = new ThreadLocal<Marshaller>();
+
+	/**
+	 * Unmarshallers are not thread safe, so each thread gets its own.
+	 */
+	private final ThreadLocal<Unmarshaller> unmarshaller = new ThreadLocal<Unmarshaller>();
+
+	/**
+	 * Default constructor.
+	 */
+	public XmlMessageCodec() {
+		try {
+			jaxbContext = JAXBContext.newInstance(TransportMessage.class);
+		} catch (JAXBException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String getContentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	public byte[] encode(TransportMessage transportMessage) throws IOException {
+		try {
+			Marshaller m = marshaller.get();
+			if (m == null) {
+				m = jaxbContext.createMarshaller();
+				m.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+				marshaller.set(m);
+			}
+
+			ByteArrayOutputStream os = new ByteArrayOutputStream(512);
+			m.marshal(transportMessage, os);
+			return os.toByteArray();
+		} catch (JAXBException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Override
+	public TransportMessage decode(byte[] data) throws IOException {
+		try {
+			Unmarshaller u = unmarshaller.get();
+			if (u == null) {
+				u = jaxbContext.createUnmarshaller();
+				unmarshaller.set(u);
+			}
+
+			return (TransportMessage) u.unmarshal(new ByteArrayInputStream(data));
+		} catch (JAXBException | ClassCastException e) {
+			throw new IOException(e);
+		}
+	}
+
+}
@@ -210,4 +210,19 @@ public class Event {
 
 		return text;
 	}
+
+	/**
+	 * @return A copy of the event. The aliases, event code and round are
+	 *         shared with this event.
+	 */
+	public Event copy() {
+		Event event = new Event();
+		event.timestamp = timestamp;
+		event.victim = victim;
+		event.attacker = attacker;
+		event.eventText = eventText;
+		event.eventCode = eventCode;
+		event.round = round;
+		return event;
+	}
 }
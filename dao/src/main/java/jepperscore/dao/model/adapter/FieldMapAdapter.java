@@ -0,0 +1,92 @@
+package jepperscore.dao.model.adapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.adapters.XmlAdapter;
+
+/**
+ * This class is used to translate a {@link Map} of field names to values into
+ * compact <code>&lt;field name="" value=""/&gt;</code> elements for XML
+ * marshalling.
+ *
+ * @author Chuck
+ *
+ */
+public class FieldMapAdapter extends
+		XmlAdapter<FieldMapAdapter.FieldList, Map<String, String>> {
+
+	/**
+	 * The XML form of the map.
+	 */
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static class FieldList {
+
+		/**
+		 * The fields.
+		 */
+		@XmlElement(name = "field")
+		private List<Field> fields = new ArrayList<Field>();
+	}
+
+	/**
+	 * The XML form of a single map entry.
+	 */
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static class Field {
+
+		/**
+		 * The field name.
+		 */
+		@XmlAttribute(required = true)
+		private String name;
+
+		/**
+		 * The field value.
+		 */
+		@XmlAttribute(required = false)
+		private String value;
+	}
+
+	@Override
+	@CheckForNull
+	public Map<String, String> unmarshal(@Nullable FieldList v)
+			throws Exception {
+		if (v == null) {
+			return null;
+		}
+
+		Map<String, String> map = new HashMap<String, String>();
+		for (Field field : v.fields) {
+			map.put(field.name, field.value);
+		}
+		return map;
+	}
+
+	@Override
+	@CheckForNull
+	public FieldList marshal(@Nullable Map<String, String> v) throws Exception {
+		if (v == null) {
+			return null;
+		}
+
+		FieldList list = new FieldList();
+		for (Entry<String, String> entry : v.entrySet()) {
+			Field field = new Field();
+			field.name = entry.getKey();
+			field.value = entry.getValue();
+			list.fields.add(field);
+		}
+		return list;
+	}
+
+}
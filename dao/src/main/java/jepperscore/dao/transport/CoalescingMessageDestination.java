@@ -0,0 +1,322 @@
+package jepperscore.dao.transport;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.AbstractMessageDestination;
+import jepperscore.dao.IMessageDestination;
+import jepperscore.dao.MessageType;
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class wraps an {@link IMessageDestination} and holds state messages
+ * (scores, teams, aliases and server metadata) for a short window, keeping
+ * only the newest message for each entity. Events, deltas and rounds are sent
+ * straight away, so the kill feed is not delayed.
+ *
+ * <p>
+ * A message sent straight away never overtakes the held state it depends on:
+ * the held message of the entity a delta applies to, and the held aliases of
+ * the attacker and victim of an event, are sent first. Rounds are not held,
+ * so the events of a new round always follow it.
+ * </p>
+ *
+ * <p>
+ * If the held messages cannot be sent, they are kept and retried after the
+ * next window, and sending throws an {@link IllegalStateException} until
+ * they are sent, so a {@link SpoolingMessageDestination} in front can hold
+ * the messages instead.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class CoalescingMessageDestination extends AbstractMessageDestination
+		implements Runnable {
+
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(CoalescingMessageDestination.class);
+
+	/**
+	 * The default time state messages are held, in milliseconds.
+	 */
+	public static final long DEFAULT_WINDOW = 1000;
+
+	/**
+	 * The wrapped destination.
+	 */
+	private final IMessageDestination destination;
+
+	/**
+	 * The time state messages are held, in milliseconds.
+	 */
+	private final long window;
+
+	/**
+	 * The held messages by entity key, in the order the entities were first
+	 * seen.
+	 */
+	private Map<String, TransportMessage> pending = new LinkedHashMap<String, TransportMessage>();
+
+	/**
+	 * Held while calling the wrapped destination, which may not be thread
+	 * safe.
+	 */
+	private final Object sendLock = new Object();
+
+	/**
+	 * The thread flushing the held messages.
+	 */
+	private final Thread flushThread;
+
+	/**
+	 * True once the destination is closed.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * The error of the last flush, null if it succeeded. Guarded by this.
+	 */
+	private RuntimeException flushFailure;
+
+	/**
+	 * The number of messages replaced by a newer one.
+	 */
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	/**
+	 * Constructor. Holds state messages for {@link #DEFAULT_WINDOW}.
+	 *
+	 * @param destination
+	 *            The wrapped destination.
+	 */
+	public CoalescingMessageDestination(@Nonnull IMessageDestination destination) {
+		this(destination, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param destination
+	 *            The wrapped destination.
+	 * @param window
+	 *            The time state messages are held, in milliseconds.
+	 */
+	public CoalescingMessageDestination(@Nonnull IMessageDestination destination,
+			long window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("The window must be positive.");
+		}
+
+		this.destination = destination;
+		this.window = window;
+
+		flushThread = new Thread(this, "CoalescingMessageDestination-"
+				+ destination.getClass().getSimpleName());
+		flushThread.setDaemon(true);
+		flushThread.start();
+	}
+
+	@Override
+	public void sendMessage(TransportMessage transportMessage) {
+		String key = getHoldKey(transportMessage);
+		synchronized (this) {
+			if (flushFailure != null) {
+				throw new IllegalStateException("Unable to send the held messages: "
+						+ flushFailure.getMessage(), flushFailure);
+			}
+			if ((key != null) && !closed) {
+				if (pending.isEmpty()) {
+					notifyAll();
+				}
+				if (pending.put(key, transportMessage) != null) {
+					coalescedCount.incrementAndGet();
+				}
+				return;
+			}
+		}
+
+		synchronized (sendLock) {
+			List<TransportMessage> held = new ArrayList<TransportMessage>();
+			synchronized (this) {
+				for (String dependency : getDependencyKeys(transportMessage)) {
+					TransportMessage message = pending.remove(dependency);
+					if (message != null) {
+						held.add(message);
+					}
+				}
+			}
+
+			if (!held.isEmpty()) {
+				try {
+					destination.sendMessages(held);
+				} catch (RuntimeException e) {
+					requeue(held);
+					throw e;
+				}
+			}
+			destination.sendMessage(transportMessage);
+		}
+	}
+
+	/**
+	 * @param transportMessage
+	 *            The message.
+	 * @return The key the message is held under, or null if it is sent
+	 *         straight away.
+	 */
+	private static String getHoldKey(TransportMessage transportMessage) {
+		if (transportMessage.getRound() != null) {
+			return null;
+		}
+		return MessageType.getEntityKey(transportMessage);
+	}
+
+	/**
+	 * @param transportMessage
+	 *            A message sent straight away.
+	 * @return The keys of the held messages that have to be sent before it.
+	 */
+	private static List<String> getDependencyKeys(TransportMessage transportMessage) {
+		List<String> keys = new ArrayList<String>(2);
+		String sessionId = transportMessage.getSessionId();
+
+		EntityDelta delta = transportMessage.getDelta();
+		if (delta != null) {
+			for (MessageType type : MessageType.values()) {
+				if (type.getFieldName().equals(delta.getEntityType())) {
+					keys.add(type.name() + "/" + sessionId + "/" + delta.getEntityId());
+				}
+			}
+		}
+
+		Event event = transportMessage.getEvent();
+		if (event != null) {
+			for (Alias alias : new Alias[] { event.getAttacker(), event.getVictim() }) {
+				if ((alias != null) && !alias.getId().isEmpty()) {
+					keys.add(MessageType.ALIAS.name() + "/" + sessionId + "/" + alias.getId());
+				}
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Holds messages that could not be sent again, unless a newer message of
+	 * the same entity is held already.
+	 *
+	 * @param messages
+	 *            The messages.
+	 */
+	private synchronized void requeue(List<TransportMessage> messages) {
+		Map<String, TransportMessage> requeued = new LinkedHashMap<String, TransportMessage>();
+		for (TransportMessage message : messages) {
+			requeued.put(getHoldKey(message), message);
+		}
+		requeued.putAll(pending);
+		pending = requeued;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			synchronized (this) {
+				try {
+					while (pending.isEmpty() && !closed) {
+						wait();
+					}
+					long deadline = System.currentTimeMillis() + window;
+					long remaining = window;
+					while (!closed && (remaining > 0)) {
+						wait(remaining);
+						remaining = deadline - System.currentTimeMillis();
+					}
+				} catch (InterruptedException e) {
+					closed = true;
+				}
+			}
+
+			boolean done;
+			synchronized (sendLock) {
+				List<TransportMessage> messages;
+				synchronized (this) {
+					messages = new ArrayList<TransportMessage>(pending.values());
+					pending = new LinkedHashMap<String, TransportMessage>();
+					done = closed;
+				}
+
+				if (!messages.isEmpty()) {
+					try {
+						destination.sendMessages(messages);
+						synchronized (this) {
+							flushFailure = null;
+						}
+					} catch (RuntimeException e) {
+						synchronized (this) {
+							requeue(messages);
+							flushFailure = e;
+						}
+						LOG.error("Unable to send " + messages.size()
+								+ " held messages: " + e.getMessage(), e);
+					}
+				}
+			}
+
+			if (done) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Sends the held messages, and sends any later messages straight away.
+	 *
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for the held messages to be
+	 *             sent.
+	 * @throws IllegalStateException
+	 *             If the held messages could not be sent.
+	 */
+	public void close() throws InterruptedException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		flushThread.join();
+
+		synchronized (this) {
+			if (flushFailure != null) {
+				throw new IllegalStateException("Unable to send "
+						+ pending.size() + " held messages: "
+						+ flushFailure.getMessage(), flushFailure);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of held messages.
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * @return The number of messages replaced by a newer one before being
+	 *         sent.
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+}
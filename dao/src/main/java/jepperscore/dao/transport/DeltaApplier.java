@@ -0,0 +1,366 @@
+package jepperscore.dao.transport;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.IMessageCallback;
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Game;
+import jepperscore.dao.model.Person;
+import jepperscore.dao.model.Score;
+import jepperscore.dao.model.Team;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class rebuilds full entities from {@link EntityDelta} messages. It
+ * remembers the last full alias, score and team seen for each session and
+ * passes a full message to the wrapped callback in place of every delta.
+ * Messages without a delta are passed through unchanged. Like the
+ * {@link EntityResolver}, only the entities of the latest sessions are kept.
+ *
+ * <p>
+ * Aliases nested in messages sent with references (see
+ * {@link ReferencingMessageDestination}) are only ids, so they are not
+ * remembered, and messages rebuilt on top of them keep the references flag
+ * for the {@link EntityResolver} wrapped by this class.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class DeltaApplier implements IMessageCallback {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(DeltaApplier.class);
+
+	/**
+	 * The number of sessions (and rounds) to keep the entities of.
+	 */
+	private static final int MAX_SESSIONS = 16;
+
+	/**
+	 * The known entities of a session.
+	 */
+	private static final class SessionEntities {
+
+		/**
+		 * The known aliases, by alias id.
+		 */
+		private final Map<String, Alias> aliases = new HashMap<String, Alias>();
+
+		/**
+		 * The known scores, by alias id.
+		 */
+		private final Map<String, Score> scores = new HashMap<String, Score>();
+
+		/**
+		 * The known teams, by team name.
+		 */
+		private final Map<String, Team> teams = new HashMap<String, Team>();
+	}
+
+	/**
+	 * The callback that receives the full messages.
+	 */
+	private final IMessageCallback callback;
+
+	/**
+	 * The known entities, by session.
+	 */
+	private final Map<String, SessionEntities> sessions = new LinkedHashMap<String, SessionEntities>() {
+
+		/**
+		 * Serial version.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Entry<String, SessionEntities> eldest) {
+			return size() > MAX_SESSIONS;
+		}
+	};
+
+	/**
+	 * Constructor.
+	 *
+	 * @param callback
+	 *            The callback that receives the full messages.
+	 */
+	public DeltaApplier(@Nonnull IMessageCallback callback) {
+		this.callback = callback;
+	}
+
+	@Override
+	public void onMessage(TransportMessage message) {
+		TransportMessage fullMessage = apply(message);
+		if (fullMessage != null) {
+			callback.onMessage(fullMessage);
+		}
+	}
+
+	/**
+	 * Applies a message to the known entities.
+	 *
+	 * @param message
+	 *            The message to apply.
+	 * @return The message itself if it is not a delta, the rebuilt full
+	 *         message if it is, or null if the delta refers to an unknown
+	 *         entity.
+	 */
+	@CheckForNull
+	public synchronized TransportMessage apply(@Nonnull TransportMessage message) {
+		EntityDelta delta = message.getDelta();
+		if (delta == null) {
+			remember(message);
+			return message;
+		}
+
+		SessionEntities entities = getEntities(message.getSessionId());
+		String key = delta.getEntityId();
+		switch (delta.getEntityType()) {
+		case EntityDelta.TYPE_ALIAS:
+			return applyAlias(message, entities, key, delta);
+		case EntityDelta.TYPE_SCORE:
+			return applyScore(message, entities, key, delta);
+		case EntityDelta.TYPE_TEAM:
+			return applyTeam(message, entities, key, delta);
+		default:
+			LOG.warn("Got delta for unknown entity type: "
+					+ delta.getEntityType());
+			return null;
+		}
+	}
+
+	/**
+	 * Forgets all known entities.
+	 */
+	public synchronized void clear() {
+		sessions.clear();
+	}
+
+	/**
+	 * Remembers the entities of a full message.
+	 *
+	 * @param message
+	 *            The message.
+	 */
+	private void remember(TransportMessage message) {
+		Alias alias = message.getAlias();
+		Score score = message.getScore();
+		Team team = message.getTeam();
+		if ((alias == null) && (score == null) && (team == null)) {
+			return;
+		}
+		SessionEntities entities = getEntities(message.getSessionId());
+
+		if (alias != null) {
+			entities.aliases.put(alias.getId(), alias);
+		}
+
+		if ((score != null) && (score.getAlias() != null)) {
+			String key = score.getAlias().getId();
+			entities.scores.put(key, score);
+			if (!message.isReferences()) {
+				entities.aliases.put(key, score.getAlias());
+			}
+		}
+
+		if ((team != null) && (team.getTeamName() != null)) {
+			entities.teams.put(team.getTeamName(), team);
+		}
+	}
+
+	/**
+	 * Applies an alias delta.
+	 *
+	 * @param message
+	 *            The delta message.
+	 * @param entities
+	 *            The known entities of the session.
+	 * @param key
+	 *            The id of the alias.
+	 * @param delta
+	 *            The delta.
+	 * @return The full message, or null if the alias is unknown.
+	 */
+	private TransportMessage applyAlias(TransportMessage message, SessionEntities entities,
+			String key, EntityDelta delta) {
+		Alias oldAlias = entities.aliases.get(key);
+		if (oldAlias == null) {
+			LOG.warn("Got delta for unknown alias: " + delta.getEntityId());
+			return null;
+		}
+
+		Alias alias = oldAlias.copy();
+		Map<String, String> fields = delta.getFields();
+
+		if (fields.containsKey(EntityDelta.FIELD_NAME)) {
+			alias.setName(fields.get(EntityDelta.FIELD_NAME));
+		}
+		if (fields.containsKey(EntityDelta.FIELD_DECORATION_STYLE)) {
+			alias.setDecorationStyle(fields.get(EntityDelta.FIELD_DECORATION_STYLE));
+		}
+		if (fields.containsKey(EntityDelta.FIELD_BOT)) {
+			alias.setBot(Boolean.valueOf(fields.get(EntityDelta.FIELD_BOT)));
+		}
+		if (fields.containsKey(EntityDelta.FIELD_PRESENT)) {
+			alias.setPresent(Boolean.parseBoolean(fields.get(EntityDelta.FIELD_PRESENT)));
+		}
+		if (fields.containsKey(EntityDelta.FIELD_TEAM)) {
+			String teamName = fields.get(EntityDelta.FIELD_TEAM);
+			Team team = null;
+			if (teamName != null) {
+				team = entities.teams.get(teamName);
+				if (team == null) {
+					team = new Team(teamName);
+				}
+			}
+			alias.setTeam(team);
+		}
+		if (fields.containsKey(EntityDelta.FIELD_PERSON)) {
+			String personName = fields.get(EntityDelta.FIELD_PERSON);
+			Person person = null;
+			if (personName != null) {
+				person = new Person();
+				person.setName(personName);
+			}
+			alias.setPerson(person);
+		}
+		if (fields.containsKey(EntityDelta.FIELD_GAME_NAME)
+				|| fields.containsKey(EntityDelta.FIELD_GAME_GAMETYPE)
+				|| fields.containsKey(EntityDelta.FIELD_GAME_MOD)) {
+			Game game = alias.getGame();
+			game = (game == null) ? new Game() : game.copy();
+			if (fields.containsKey(EntityDelta.FIELD_GAME_NAME)) {
+				game.setName(fields.get(EntityDelta.FIELD_GAME_NAME));
+			}
+			if (fields.containsKey(EntityDelta.FIELD_GAME_GAMETYPE)) {
+				game.setGametype(fields.get(EntityDelta.FIELD_GAME_GAMETYPE));
+			}
+			if (fields.containsKey(EntityDelta.FIELD_GAME_MOD)) {
+				game.setMod(fields.get(EntityDelta.FIELD_GAME_MOD));
+			}
+			alias.setGame(game);
+		}
+
+		entities.aliases.put(key, alias);
+
+		Score score = entities.scores.get(key);
+		if (score != null) {
+			entities.scores.put(key, new Score(alias, score.getScore()));
+		}
+
+		return rebuild(message, alias.getId(), alias, message.isReferences());
+	}
+
+	/**
+	 * Applies a score delta.
+	 *
+	 * @param message
+	 *            The delta message.
+	 * @param entities
+	 *            The known entities of the session.
+	 * @param key
+	 *            The alias id of the score.
+	 * @param delta
+	 *            The delta.
+	 * @return The full message, or null if the score is unknown.
+	 */
+	private TransportMessage applyScore(TransportMessage message, SessionEntities entities,
+			String key, EntityDelta delta) {
+		Alias alias = entities.aliases.get(key);
+		boolean references = message.isReferences();
+		if ((alias == null) && (entities.scores.get(key) != null)) {
+			// Only seen as a reference, the resolver knows the full alias.
+			alias = entities.scores.get(key).getAlias();
+			references = true;
+		}
+
+		String value = delta.getField(EntityDelta.FIELD_SCORE);
+		if ((alias == null) || (value == null)) {
+			LOG.warn("Got delta for unknown score: " + delta.getEntityId());
+			return null;
+		}
+
+		Score score = new Score(alias, Float.parseFloat(value));
+		entities.scores.put(key, score);
+
+		return rebuild(message, null, score, references);
+	}
+
+	/**
+	 * Applies a team delta.
+	 *
+	 * @param message
+	 *            The delta message.
+	 * @param entities
+	 *            The known entities of the session.
+	 * @param key
+	 *            The name of the team.
+	 * @param delta
+	 *            The delta.
+	 * @return The full message, or null if the team is unknown.
+	 */
+	private TransportMessage applyTeam(TransportMessage message, SessionEntities entities,
+			String key, EntityDelta delta) {
+		Team oldTeam = entities.teams.get(key);
+		if (oldTeam == null) {
+			LOG.warn("Got delta for unknown team: " + delta.getEntityId());
+			return null;
+		}
+
+		Team team = oldTeam.copy();
+		if (delta.getFields().containsKey(EntityDelta.FIELD_SCORE)) {
+			String value = delta.getField(EntityDelta.FIELD_SCORE);
+			team.setScore((value == null) ? null : Float.valueOf(value));
+		}
+		entities.teams.put(key, team);
+
+		return rebuild(message, null, team, message.isReferences());
+	}
+
+	/**
+	 * @param message
+	 *            The delta message.
+	 * @param id
+	 *            The id of the rebuilt message, or null.
+	 * @param content
+	 *            The rebuilt entity.
+	 * @param references
+	 *            True if the rebuilt entity holds references.
+	 * @return The full message replacing the delta.
+	 */
+	private static TransportMessage rebuild(TransportMessage message,
+			String id, Object content, boolean references) {
+		TransportMessage fullMessage = new TransportMessage(id, content,
+				message.getSessionId());
+		fullMessage.setReferences(references);
+		return fullMessage;
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session id.
+	 * @return The known entities of the session.
+	 */
+	private SessionEntities getEntities(String sessionId) {
+		String key = (sessionId == null) ? "" : sessionId;
+		SessionEntities entities = sessions.get(key);
+		if (entities == null) {
+			entities = new SessionEntities();
+			sessions.put(key, entities);
+		}
+		return entities;
+	}
+}
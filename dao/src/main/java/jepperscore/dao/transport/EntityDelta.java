@@ -0,0 +1,228 @@
+package jepperscore.dao.transport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+
+import jepperscore.dao.model.adapter.FieldMapAdapter;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This class carries only the changed fields of an entity that has already
+ * been sent in full. {@link DeltaApplier} rebuilds the full entity on the
+ * receiving side.
+ *
+ * @author Chuck
+ *
+ */
+@XmlRootElement(name = "delta")
+@XmlAccessorType(XmlAccessType.NONE)
+public class EntityDelta {
+
+	/**
+	 * The entity type for an alias. The entity id is the alias id.
+	 */
+	public static final String TYPE_ALIAS = "alias";
+
+	/**
+	 * The entity type for a score. The entity id is the alias id.
+	 */
+	public static final String TYPE_SCORE = "score";
+
+	/**
+	 * The entity type for a team. The entity id is the team name.
+	 */
+	public static final String TYPE_TEAM = "team";
+
+	/**
+	 * The alias name.
+	 */
+	public static final String FIELD_NAME = "name";
+
+	/**
+	 * The alias decoration style.
+	 */
+	public static final String FIELD_DECORATION_STYLE = "decorationStyle";
+
+	/**
+	 * If the alias is a bot.
+	 */
+	public static final String FIELD_BOT = "bot";
+
+	/**
+	 * If the alias is present.
+	 */
+	public static final String FIELD_PRESENT = "present";
+
+	/**
+	 * The team name of the alias.
+	 */
+	public static final String FIELD_TEAM = "team";
+
+	/**
+	 * The person name of the alias.
+	 */
+	public static final String FIELD_PERSON = "person";
+
+	/**
+	 * The game name of the alias.
+	 */
+	public static final String FIELD_GAME_NAME = "game.name";
+
+	/**
+	 * The gametype of the alias.
+	 */
+	public static final String FIELD_GAME_GAMETYPE = "game.gametype";
+
+	/**
+	 * The game mod of the alias.
+	 */
+	public static final String FIELD_GAME_MOD = "game.mod";
+
+	/**
+	 * The score of an alias or team.
+	 */
+	public static final String FIELD_SCORE = "score";
+
+	/**
+	 * The type of the entity.
+	 */
+	@XmlAttribute(required = true)
+	@JsonProperty
+	private String entityType;
+
+	/**
+	 * The id of the entity.
+	 */
+	@XmlAttribute(required = true)
+	@JsonProperty
+	private String entityId;
+
+	/**
+	 * The changed fields.
+	 */
+	@XmlElement(required = false)
+	@XmlJavaTypeAdapter(FieldMapAdapter.class)
+	@JsonProperty
+	private Map<String, String> fields = new HashMap<String, String>();
+
+	/**
+	 * Default constructor.
+	 */
+	public EntityDelta() {
+
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param entityType
+	 *            The type of the entity.
+	 * @param entityId
+	 *            The id of the entity.
+	 */
+	public EntityDelta(String entityType, String entityId) {
+		this.entityType = entityType;
+		this.entityId = entityId;
+	}
+
+	/**
+	 * @return The type of the entity.
+	 */
+	@Nonnull
+	public String getEntityType() {
+		if (entityType == null) {
+			return "";
+		}
+		return entityType;
+	}
+
+	/**
+	 * @param entityType
+	 *            The type of the entity.
+	 */
+	public void setEntityType(@Nonnull String entityType) {
+		this.entityType = entityType;
+	}
+
+	/**
+	 * @return The id of the entity.
+	 */
+	@Nonnull
+	public String getEntityId() {
+		if (entityId == null) {
+			return "";
+		}
+		return entityId;
+	}
+
+	/**
+	 * @param entityId
+	 *            The id of the entity.
+	 */
+	public void setEntityId(@Nonnull String entityId) {
+		this.entityId = entityId;
+	}
+
+	/**
+	 * @return The changed fields.
+	 */
+	@Nonnull
+	public Map<String, String> getFields() {
+		return fields;
+	}
+
+	/**
+	 * @param fields
+	 *            The changed fields.
+	 */
+	public void setFields(@Nonnull Map<String, String> fields) {
+		this.fields = fields;
+	}
+
+	/**
+	 * Records a changed field.
+	 *
+	 * @param field
+	 *            The name of the field.
+	 * @param value
+	 *            The new value.
+	 */
+	public void putField(@Nonnull String field, @Nullable Object value) {
+		fields.put(field, (value == null) ? null : value.toString());
+	}
+
+	/**
+	 * @param field
+	 *            The name of the field.
+	 * @return The new value of the field, or null if it was not changed.
+	 */
+	@CheckForNull
+	public String getField(@Nonnull String field) {
+		return fields.get(field);
+	}
+
+	/**
+	 * @return True if no fields were changed.
+	 */
+	@JsonIgnore
+	public boolean isEmpty() {
+		return fields.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return getEntityType() + " " + getEntityId() + " " + fields;
+	}
+}
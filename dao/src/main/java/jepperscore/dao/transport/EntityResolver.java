@@ -0,0 +1,201 @@
+package jepperscore.dao.transport;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import jepperscore.dao.IMessageCallback;
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Event;
+import jepperscore.dao.model.Round;
+import jepperscore.dao.model.Score;
+
+/**
+ * This class rebuilds the object graphs of messages sent by a
+ * {@link ReferencingMessageDestination}. It caches the aliases and rounds
+ * announced on the message source, and passes messages with the references
+ * replaced by the cached entities to the wrapped callback. When combined with
+ * a {@link DeltaApplier}, the applier should wrap the resolver so that the
+ * resolver sees the rebuilt aliases.
+ *
+ * @author Chuck
+ *
+ */
+public class EntityResolver implements IMessageCallback {
+
+	/**
+	 * The number of sessions (and rounds) to keep in the cache.
+	 */
+	private static final int MAX_SESSIONS = 16;
+
+	/**
+	 * The callback that receives the resolved messages.
+	 */
+	private final IMessageCallback callback;
+
+	/**
+	 * The known aliases, by session and alias id.
+	 */
+	private final Map<String, Map<String, Alias>> aliases = new LinkedHashMap<String, Map<String, Alias>>() {
+
+		/**
+		 * Serial version.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Entry<String, Map<String, Alias>> eldest) {
+			return size() > MAX_SESSIONS;
+		}
+	};
+
+	/**
+	 * The known rounds, by round id.
+	 */
+	private final Map<String, Round> rounds = new LinkedHashMap<String, Round>() {
+
+		/**
+		 * Serial version.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<String, Round> eldest) {
+			return size() > MAX_SESSIONS;
+		}
+	};
+
+	/**
+	 * Constructor.
+	 *
+	 * @param callback
+	 *            The callback that receives the resolved messages.
+	 */
+	public EntityResolver(@Nonnull IMessageCallback callback) {
+		this.callback = callback;
+	}
+
+	@Override
+	public void onMessage(TransportMessage message) {
+		callback.onMessage(resolve(message));
+	}
+
+	/**
+	 * Remembers the entities announced by a message, and resolves its
+	 * references.
+	 *
+	 * @param message
+	 *            The message. It is not modified.
+	 * @return The message itself if it holds no references, otherwise a copy
+	 *         with the references replaced by the known entities. Unknown
+	 *         references are left as they are.
+	 */
+	@Nonnull
+	public synchronized TransportMessage resolve(@Nonnull TransportMessage message) {
+		String sessionId = message.getSessionId();
+
+		Alias alias = message.getAlias();
+		if (alias != null) {
+			getAliases(sessionId).put(alias.getId(), alias);
+		}
+
+		Round round = message.getRound();
+		if ((round != null) && (round.getId() != null)) {
+			rounds.put(round.getId(), round);
+		}
+
+		Score score = message.getScore();
+		if (!message.isReferences()) {
+			if ((score != null) && (score.getAlias() != null)) {
+				getAliases(sessionId).put(score.getAlias().getId(), score.getAlias());
+			}
+			return message;
+		}
+
+		Object content = message.getMessageContent();
+
+		Event event = message.getEvent();
+		if (event != null) {
+			Event resolvedEvent = event.copy();
+			resolvedEvent.setAttacker(resolveAlias(sessionId, event.getAttacker()));
+			resolvedEvent.setVictim(resolveAlias(sessionId, event.getVictim()));
+			Round resolvedRound = resolveRound(event.getRound());
+			if (resolvedRound != null) {
+				resolvedEvent.setRound(resolvedRound);
+			}
+			content = resolvedEvent;
+		} else if (score != null) {
+			content = new Score(resolveAlias(sessionId, score.getAlias()), score.getScore());
+		}
+
+		TransportMessage resolvedMessage = new TransportMessage(message.getId(), content, sessionId);
+		resolvedMessage.setRevision(message.getRevision());
+		return resolvedMessage;
+	}
+
+	/**
+	 * Forgets all known entities.
+	 */
+	public synchronized void clear() {
+		aliases.clear();
+		rounds.clear();
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session id.
+	 * @return The known aliases of the session.
+	 */
+	private Map<String, Alias> getAliases(@Nullable String sessionId) {
+		String key = (sessionId == null) ? "" : sessionId;
+		Map<String, Alias> sessionAliases = aliases.get(key);
+		if (sessionAliases == null) {
+			sessionAliases = new LinkedHashMap<String, Alias>();
+			aliases.put(key, sessionAliases);
+		}
+		return sessionAliases;
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session id.
+	 * @param alias
+	 *            The alias reference.
+	 * @return The known alias, or the reference if it is not known.
+	 */
+	@CheckForNull
+	private Alias resolveAlias(@Nullable String sessionId, @Nullable Alias alias) {
+		if (alias == null) {
+			return null;
+		}
+
+		Alias known = getAliases(sessionId).get(alias.getId());
+		if (known == null) {
+			return alias;
+		}
+		return known;
+	}
+
+	/**
+	 * @param round
+	 *            The round reference.
+	 * @return The known round, or the reference if it is not known.
+	 */
+	@CheckForNull
+	private Round resolveRound(@Nullable Round round) {
+		if ((round == null) || (round.getId() == null)) {
+			return round;
+		}
+
+		Round known = rounds.get(round.getId());
+		if (known == null) {
+			return round;
+		}
+		return known;
+	}
+}
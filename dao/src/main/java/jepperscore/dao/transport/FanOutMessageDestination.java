@@ -0,0 +1,135 @@
+package jepperscore.dao.transport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.AbstractMessageDestination;
+import jepperscore.dao.AsyncMessageCallback;
+import jepperscore.dao.IMessageBatchCallback;
+import jepperscore.dao.IMessageDestination;
+import jepperscore.dao.OverflowPolicy;
+
+/**
+ * This class sends every message to several destinations. Each destination
+ * has its own queue and thread, so a slow destination (such as CouchDb) does
+ * not delay the others (such as the live ActiveMQ feed). Each destination
+ * gets its own copy of a message, because some (such as CouchDb) set its id
+ * and revision.
+ *
+ * <p>
+ * A destination failing is only logged by its queue thread, so a destination
+ * that must not lose messages should be wrapped in a
+ * {@link SpoolingMessageDestination} of its own.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class FanOutMessageDestination extends AbstractMessageDestination {
+
+	/**
+	 * The default number of messages queued for each destination.
+	 */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * Sends the queued messages to a destination, as a batch when several
+	 * are queued, so batching destinations (such as ActiveMQ and CouchDb)
+	 * keep batching behind a fan-out.
+	 */
+	private static final class DestinationCallback implements IMessageBatchCallback {
+
+		/**
+		 * The destination.
+		 */
+		private final IMessageDestination destination;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param destination
+		 *            The destination.
+		 */
+		private DestinationCallback(IMessageDestination destination) {
+			this.destination = destination;
+		}
+
+		@Override
+		public void onMessage(TransportMessage message) {
+			destination.sendMessage(message);
+		}
+
+		@Override
+		public void onMessages(List<TransportMessage> messages) {
+			if (messages.size() == 1) {
+				destination.sendMessage(messages.get(0));
+			} else {
+				destination.sendMessages(messages);
+			}
+		}
+	}
+
+	/**
+	 * The queues of the destinations.
+	 */
+	private final List<AsyncMessageCallback> targets;
+
+	/**
+	 * Constructor. Each destination queues up to {@link #DEFAULT_CAPACITY}
+	 * messages, after which the sender blocks.
+	 *
+	 * @param destinations
+	 *            The destinations.
+	 */
+	public FanOutMessageDestination(@Nonnull List<IMessageDestination> destinations) {
+		this(destinations, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param destinations
+	 *            The destinations.
+	 * @param capacity
+	 *            The number of messages queued for each destination.
+	 * @param policy
+	 *            What to do when the queue of a destination is full.
+	 */
+	public FanOutMessageDestination(@Nonnull List<IMessageDestination> destinations,
+			int capacity, @Nonnull OverflowPolicy policy) {
+		List<AsyncMessageCallback> newTargets = new ArrayList<AsyncMessageCallback>(destinations.size());
+		for (IMessageDestination destination : destinations) {
+			newTargets.add(new AsyncMessageCallback(new DestinationCallback(destination),
+					capacity, policy, destination.getClass().getSimpleName()));
+		}
+		targets = Collections.unmodifiableList(newTargets);
+	}
+
+	@Override
+	public void sendMessage(TransportMessage transportMessage) {
+		for (AsyncMessageCallback target : targets) {
+			target.onMessage(new TransportMessage(transportMessage));
+		}
+	}
+
+	/**
+	 * @return The queues of the destinations, in order, for their lag
+	 *         metrics.
+	 */
+	@Nonnull
+	public List<AsyncMessageCallback> getTargets() {
+		return targets;
+	}
+
+	/**
+	 * Stops accepting messages. The queued messages are still sent.
+	 */
+	public void close() {
+		for (AsyncMessageCallback target : targets) {
+			target.close();
+		}
+	}
+}
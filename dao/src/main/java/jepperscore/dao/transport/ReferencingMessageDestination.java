@@ -0,0 +1,176 @@
+package jepperscore.dao.transport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import jepperscore.dao.AbstractMessageDestination;
+import jepperscore.dao.IMessageDestination;
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Event;
+import jepperscore.dao.model.Round;
+import jepperscore.dao.model.Score;
+
+/**
+ * This class wraps an {@link IMessageDestination} and replaces the aliases
+ * and rounds nested in events and scores with references (id only) when they
+ * were already announced by an alias, score or round message of the same
+ * session. Receivers should wrap their callback in an {@link EntityResolver}.
+ *
+ * @author Chuck
+ *
+ */
+public class ReferencingMessageDestination extends AbstractMessageDestination {
+
+	/**
+	 * The wrapped destination.
+	 */
+	private final IMessageDestination destination;
+
+	/**
+	 * The announced alias ids of the current session.
+	 */
+	private final Set<String> announcedAliases = new HashSet<String>();
+
+	/**
+	 * The announced round ids of the current session.
+	 */
+	private final Set<String> announcedRounds = new HashSet<String>();
+
+	/**
+	 * The current session.
+	 */
+	private String currentSession;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param destination
+	 *            The wrapped destination.
+	 */
+	public ReferencingMessageDestination(@Nonnull IMessageDestination destination) {
+		this.destination = destination;
+	}
+
+	@Override
+	public void sendMessage(TransportMessage transportMessage) {
+		destination.sendMessage(reference(transportMessage));
+	}
+
+	@Override
+	public void sendMessages(Collection<TransportMessage> transportMessages) {
+		List<TransportMessage> referencedMessages = new ArrayList<TransportMessage>(transportMessages.size());
+		for (TransportMessage transportMessage : transportMessages) {
+			referencedMessages.add(reference(transportMessage));
+		}
+		destination.sendMessages(referencedMessages);
+	}
+
+	/**
+	 * Replaces the announced entities of a message with references, and
+	 * announces the entities it carries in full.
+	 *
+	 * @param transportMessage
+	 *            The message. It is not modified.
+	 * @return The message to send.
+	 */
+	@Nonnull
+	public synchronized TransportMessage reference(@Nonnull TransportMessage transportMessage) {
+		String sessionId = transportMessage.getSessionId();
+		if ((sessionId != null) && !sessionId.equals(currentSession)) {
+			announcedAliases.clear();
+			announcedRounds.clear();
+			currentSession = sessionId;
+		}
+
+		Object content = null;
+
+		Event event = transportMessage.getEvent();
+		if (event != null) {
+			Alias attacker = referenceAlias(event.getAttacker());
+			Alias victim = referenceAlias(event.getVictim());
+			Round round = referenceRound(event.getRound());
+
+			if ((attacker != event.getAttacker()) || (victim != event.getVictim())
+					|| (round != event.getRound())) {
+				Event referencedEvent = event.copy();
+				referencedEvent.setAttacker(attacker);
+				referencedEvent.setVictim(victim);
+				if (round != null) {
+					referencedEvent.setRound(round);
+				}
+				content = referencedEvent;
+			}
+		}
+
+		Score score = transportMessage.getScore();
+		if (score != null) {
+			Alias alias = referenceAlias(score.getAlias());
+			if (alias != score.getAlias()) {
+				content = new Score(alias, score.getScore());
+			} else if (alias != null) {
+				announcedAliases.add(alias.getId());
+			}
+		}
+
+		Alias alias = transportMessage.getAlias();
+		if (alias != null) {
+			announcedAliases.add(alias.getId());
+		}
+
+		Round round = transportMessage.getRound();
+		if ((round != null) && (round.getId() != null)) {
+			announcedRounds.add(round.getId());
+		}
+
+		if (content == null) {
+			return transportMessage;
+		}
+
+		TransportMessage referencedMessage = new TransportMessage(
+				transportMessage.getId(), content, sessionId);
+		referencedMessage.setReferences(true);
+		return referencedMessage;
+	}
+
+	/**
+	 * @param alias
+	 *            The alias.
+	 * @return A reference to the alias if it was announced, otherwise the
+	 *         alias itself.
+	 */
+	@CheckForNull
+	private Alias referenceAlias(@Nullable Alias alias) {
+		if ((alias == null) || !announcedAliases.contains(alias.getId())) {
+			return alias;
+		}
+
+		Alias reference = new Alias();
+		reference.setId(alias.getId());
+		return reference;
+	}
+
+	/**
+	 * @param round
+	 *            The round.
+	 * @return A reference to the round if it was announced, otherwise the
+	 *         round itself.
+	 */
+	@CheckForNull
+	private Round referenceRound(@Nullable Round round) {
+		if ((round == null) || (round.getId() == null)
+				|| !announcedRounds.contains(round.getId())) {
+			return round;
+		}
+
+		Round reference = new Round();
+		reference.setId(round.getId());
+		return reference;
+	}
+}
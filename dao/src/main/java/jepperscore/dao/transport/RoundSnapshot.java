@@ -0,0 +1,213 @@
+package jepperscore.dao.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Round;
+import jepperscore.dao.model.Score;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.model.adapter.DateTimeAdapter;
+import jepperscore.dao.model.converter.JodaTimeToString;
+import jepperscore.dao.model.converter.StringToJodaTime;
+
+import org.joda.time.DateTime;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * This class carries the full current state of a round: the round, its
+ * teams, players and scores. A consumer joining mid-round starts from the
+ * latest snapshot and applies only the messages after it, see
+ * {@link SnapshotBootstrap}, so its cost depends on the size of the state
+ * rather than the length of the round.
+ *
+ * @author Chuck
+ *
+ */
+@XmlRootElement(name = "snapshot")
+@XmlAccessorType(XmlAccessType.NONE)
+public class RoundSnapshot {
+
+	/**
+	 * When the snapshot was taken.
+	 */
+	@XmlAttribute(required = false)
+	@XmlJavaTypeAdapter(DateTimeAdapter.class)
+	@JsonProperty
+	@JsonSerialize(converter = JodaTimeToString.class)
+	@JsonDeserialize(converter = StringToJodaTime.class)
+	private DateTime timestamp;
+
+	/**
+	 * The round.
+	 */
+	@XmlElement(required = false)
+	@JsonProperty
+	private Round round;
+
+	/**
+	 * The teams.
+	 */
+	@XmlElement(name = "team", required = false)
+	@JsonProperty
+	private List<Team> teams = new ArrayList<Team>();
+
+	/**
+	 * The players.
+	 */
+	@XmlElement(name = "alias", required = false)
+	@JsonProperty
+	private List<Alias> aliases = new ArrayList<Alias>();
+
+	/**
+	 * The scores.
+	 */
+	@XmlElement(name = "score", required = false)
+	@JsonProperty
+	private List<Score> scores = new ArrayList<Score>();
+
+	/**
+	 * Default constructor.
+	 */
+	public RoundSnapshot() {
+
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param timestamp
+	 *            When the snapshot was taken.
+	 * @param round
+	 *            The round.
+	 */
+	public RoundSnapshot(@Nullable DateTime timestamp, @Nullable Round round) {
+		this.timestamp = timestamp;
+		this.round = round;
+	}
+
+	/**
+	 * @return When the snapshot was taken.
+	 */
+	@CheckForNull
+	public DateTime getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @param timestamp
+	 *            When the snapshot was taken.
+	 */
+	public void setTimestamp(@Nullable DateTime timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @return The round.
+	 */
+	@CheckForNull
+	public Round getRound() {
+		return round;
+	}
+
+	/**
+	 * @param round
+	 *            The round.
+	 */
+	public void setRound(@Nullable Round round) {
+		this.round = round;
+	}
+
+	/**
+	 * @return The teams.
+	 */
+	@Nonnull
+	public List<Team> getTeams() {
+		return teams;
+	}
+
+	/**
+	 * @param teams
+	 *            The teams.
+	 */
+	public void setTeams(@Nonnull List<Team> teams) {
+		this.teams = teams;
+	}
+
+	/**
+	 * @return The players.
+	 */
+	@Nonnull
+	public List<Alias> getAliases() {
+		return aliases;
+	}
+
+	/**
+	 * @param aliases
+	 *            The players.
+	 */
+	public void setAliases(@Nonnull List<Alias> aliases) {
+		this.aliases = aliases;
+	}
+
+	/**
+	 * @return The scores.
+	 */
+	@Nonnull
+	public List<Score> getScores() {
+		return scores;
+	}
+
+	/**
+	 * @param scores
+	 *            The scores.
+	 */
+	public void setScores(@Nonnull List<Score> scores) {
+		this.scores = scores;
+	}
+
+	/**
+	 * Expands the snapshot into the full messages it stands for: the round,
+	 * then the teams, players and scores.
+	 *
+	 * @param sessionId
+	 *            The session of the messages.
+	 * @return The messages.
+	 */
+	@Nonnull
+	public List<TransportMessage> toMessages(@Nullable String sessionId) {
+		List<TransportMessage> messages = new ArrayList<TransportMessage>();
+		if (round != null) {
+			messages.add(new TransportMessage(round.getId(), round, sessionId));
+		}
+		for (Team team : teams) {
+			messages.add(new TransportMessage(team, sessionId));
+		}
+		for (Alias alias : aliases) {
+			messages.add(new TransportMessage(alias.getId(), alias, sessionId));
+		}
+		for (Score score : scores) {
+			messages.add(new TransportMessage(score, sessionId));
+		}
+		return messages;
+	}
+
+	@Override
+	public String toString() {
+		return "snapshot " + ((round == null) ? "" : round.getId()) + " ("
+				+ aliases.size() + " players)";
+	}
+}
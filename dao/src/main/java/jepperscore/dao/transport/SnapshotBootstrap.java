@@ -0,0 +1,172 @@
+package jepperscore.dao.transport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.IMessageCallback;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class lets a consumer join a session mid-round without replaying it.
+ * Messages of a session are held back until its first {@link RoundSnapshot}
+ * arrives. The held messages are then dropped, as the snapshot already holds
+ * their effect, and the wrapped callback gets the full round, team, alias
+ * and score messages of the snapshot followed by every newer message. Later
+ * snapshots of the session are dropped.
+ *
+ * <p>
+ * A session without snapshots, for example from an older recording, is
+ * replayed in full once {@link #getMaxHeld()} messages were held back.
+ * </p>
+ *
+ * <p>
+ * This class should wrap the {@link DeltaApplier}, so deltas are applied to
+ * the entities of the snapshot:
+ * <code>new SnapshotBootstrap(new DeltaApplier(new EntityResolver(callback)))</code>.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class SnapshotBootstrap implements IMessageCallback {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(SnapshotBootstrap.class);
+
+	/**
+	 * The default number of messages held back per session while waiting
+	 * for a snapshot.
+	 */
+	public static final int DEFAULT_MAX_HELD = 10000;
+
+	/**
+	 * The callback that receives the messages.
+	 */
+	private final IMessageCallback callback;
+
+	/**
+	 * The number of messages held back per session while waiting for a
+	 * snapshot.
+	 */
+	private final int maxHeld;
+
+	/**
+	 * The messages held back, by session, for the sessions waiting for a
+	 * snapshot.
+	 */
+	private final Map<String, List<TransportMessage>> held = new HashMap<String, List<TransportMessage>>();
+
+	/**
+	 * The sessions that started, from a snapshot or a replay.
+	 */
+	private final Set<String> started = new HashSet<String>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param callback
+	 *            The callback that receives the messages.
+	 */
+	public SnapshotBootstrap(@Nonnull IMessageCallback callback) {
+		this(callback, DEFAULT_MAX_HELD);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param callback
+	 *            The callback that receives the messages.
+	 * @param maxHeld
+	 *            The number of messages held back per session while waiting
+	 *            for a snapshot.
+	 */
+	public SnapshotBootstrap(@Nonnull IMessageCallback callback, int maxHeld) {
+		this.callback = callback;
+		this.maxHeld = maxHeld;
+	}
+
+	/**
+	 * @return The number of messages held back per session while waiting for
+	 *         a snapshot.
+	 */
+	public int getMaxHeld() {
+		return maxHeld;
+	}
+
+	@Override
+	public void onMessage(TransportMessage message) {
+		for (TransportMessage ready : apply(message)) {
+			callback.onMessage(ready);
+		}
+	}
+
+	/**
+	 * Applies a message to the state of its session.
+	 *
+	 * @param message
+	 *            The message.
+	 * @return The messages to give to the callback, possibly none.
+	 */
+	@Nonnull
+	public synchronized List<TransportMessage> apply(@Nonnull TransportMessage message) {
+		String sessionId = message.getSessionId();
+		if (sessionId == null) {
+			return Collections.singletonList(message);
+		}
+
+		RoundSnapshot snapshot = message.getSnapshot();
+		if (started.contains(sessionId)) {
+			if (snapshot != null) {
+				return Collections.emptyList();
+			}
+			return Collections.singletonList(message);
+		}
+
+		if (snapshot != null) {
+			List<TransportMessage> skipped = held.remove(sessionId);
+			if (skipped != null) {
+				LOG.debug("Starting session " + sessionId + " from a snapshot, skipping "
+						+ skipped.size() + " messages.");
+			}
+			started.add(sessionId);
+			return snapshot.toMessages(sessionId);
+		}
+
+		List<TransportMessage> messages = held.get(sessionId);
+		if (messages == null) {
+			messages = new ArrayList<TransportMessage>();
+			held.put(sessionId, messages);
+		}
+		messages.add(message);
+		if (messages.size() < maxHeld) {
+			return Collections.emptyList();
+		}
+
+		LOG.warn("No snapshot for session " + sessionId + " after " + messages.size()
+				+ " messages, replaying it.");
+		held.remove(sessionId);
+		started.add(sessionId);
+		return messages;
+	}
+
+	/**
+	 * Makes every session wait for its next snapshot again, for example after
+	 * messages were lost.
+	 */
+	public synchronized void resync() {
+		held.clear();
+		started.clear();
+	}
+}
@@ -0,0 +1,560 @@
+package jepperscore.dao.transport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.AbstractMessageDestination;
+import jepperscore.dao.IMessageDestination;
+import jepperscore.dao.codec.BinaryMessageCodec;
+import jepperscore.dao.codec.IMessageCodec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class wraps an {@link IMessageDestination} and appends the messages to
+ * a journal on disk instead of sending them directly. A background thread
+ * drains the journal to the wrapped destination in batches, and retries a
+ * batch until the destination accepts it, so a slow or unavailable backend
+ * never blocks the sender. Messages left in the journal are sent after a
+ * restart.
+ *
+ * <p>
+ * The journal is a series of segment files holding length prefixed messages
+ * in the binary codec, and a position file holding how far the journal was
+ * drained.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class SpoolingMessageDestination extends AbstractMessageDestination
+		implements Runnable {
+
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(SpoolingMessageDestination.class);
+
+	/**
+	 * The default maximum size of a segment file, in bytes.
+	 */
+	public static final long DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * The default maximum number of messages sent at once.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	/**
+	 * The file extension of segment files.
+	 */
+	private static final String SEGMENT_EXTENSION = ".spool";
+
+	/**
+	 * The name of the position file.
+	 */
+	private static final String POSITION_FILE = "position";
+
+	/**
+	 * The first delay before retrying a failed batch, in milliseconds.
+	 */
+	private static final long MIN_RETRY_DELAY = 500;
+
+	/**
+	 * The longest delay before retrying a failed batch, in milliseconds.
+	 */
+	private static final long MAX_RETRY_DELAY = 30000;
+
+	/**
+	 * The wrapped destination.
+	 */
+	private final IMessageDestination destination;
+
+	/**
+	 * The journal directory.
+	 */
+	private final File directory;
+
+	/**
+	 * The maximum size of a segment file.
+	 */
+	private final long segmentSize;
+
+	/**
+	 * The maximum number of messages sent at once.
+	 */
+	private final int batchSize;
+
+	/**
+	 * The codec used for the journal.
+	 */
+	private final IMessageCodec codec = new BinaryMessageCodec();
+
+	/**
+	 * The segments not yet fully drained, oldest first. Guarded by this.
+	 */
+	private final Deque<Long> segments = new ArrayDeque<Long>();
+
+	/**
+	 * The segment being written to. Guarded by this.
+	 */
+	private OutputStream writeStream;
+
+	/**
+	 * The number of bytes in the segment being written to. Guarded by this.
+	 */
+	private long writeOffset;
+
+	/**
+	 * The offset of the next message to send in the oldest segment.
+	 */
+	private long readOffset;
+
+	/**
+	 * The position file.
+	 */
+	private final RandomAccessFile positionFile;
+
+	/**
+	 * The number of messages in the journal not yet sent. Guarded by this.
+	 */
+	private long pendingCount;
+
+	/**
+	 * True once the destination is closed.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * The thread draining the journal.
+	 */
+	private final Thread drainThread;
+
+	/**
+	 * Constructor using the default segment and batch size.
+	 *
+	 * @param destination
+	 *            The wrapped destination.
+	 * @param directory
+	 *            The journal directory. It is created if it does not exist.
+	 * @throws IOException
+	 *             If the journal cannot be opened.
+	 */
+	public SpoolingMessageDestination(@Nonnull IMessageDestination destination,
+			@Nonnull File directory) throws IOException {
+		this(destination, directory, DEFAULT_SEGMENT_SIZE, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param destination
+	 *            The wrapped destination.
+	 * @param directory
+	 *            The journal directory. It is created if it does not exist.
+	 * @param segmentSize
+	 *            The size after which a new segment file is started.
+	 * @param batchSize
+	 *            The maximum number of messages sent at once.
+	 * @throws IOException
+	 *             If the journal cannot be opened.
+	 */
+	public SpoolingMessageDestination(@Nonnull IMessageDestination destination,
+			@Nonnull File directory, long segmentSize, int batchSize)
+			throws IOException {
+		this.destination = destination;
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.batchSize = batchSize;
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create spool directory: "
+					+ directory);
+		}
+
+		positionFile = new RandomAccessFile(new File(directory, POSITION_FILE), "rw");
+		recover();
+
+		drainThread = new Thread(this, "SpoolingMessageDestination-"
+				+ directory.getName());
+		drainThread.setDaemon(true);
+		drainThread.start();
+	}
+
+	/**
+	 * Finds the segments and position left by a previous run.
+	 *
+	 * @throws IOException
+	 *             If the journal cannot be read.
+	 */
+	private synchronized void recover() throws IOException {
+		List<Long> ids = new ArrayList<Long>();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.endsWith(SEGMENT_EXTENSION)) {
+					try {
+						ids.add(Long.parseLong(name.substring(0, name.length()
+								- SEGMENT_EXTENSION.length())));
+					} catch (NumberFormatException e) {
+						LOG.warn("Ignoring unknown file in spool: " + name);
+					}
+				}
+			}
+		}
+		Long[] sorted = ids.toArray(new Long[ids.size()]);
+		Arrays.sort(sorted);
+
+		long positionSegment = -1;
+		if (positionFile.length() >= 16) {
+			positionFile.seek(0);
+			positionSegment = positionFile.readLong();
+			readOffset = positionFile.readLong();
+		}
+
+		for (Long id : sorted) {
+			if (id < positionSegment) {
+				deleteSegment(id);
+			} else {
+				segments.add(id);
+			}
+		}
+		if (segments.isEmpty() || (segments.peekFirst() != positionSegment)) {
+			readOffset = 0;
+		}
+
+		boolean first = true;
+		for (Long id : segments) {
+			pendingCount += countMessages(id, first ? readOffset : 0);
+			first = false;
+		}
+		if (pendingCount > 0) {
+			LOG.info("Found " + pendingCount + " unsent messages in spool " + directory);
+		}
+
+		long nextId = segments.isEmpty() ? 0 : segments.peekLast() + 1;
+		openSegment(nextId);
+	}
+
+	/**
+	 * Starts a new segment to write to.
+	 *
+	 * @param id
+	 *            The id of the segment.
+	 * @throws IOException
+	 *             If the segment cannot be created.
+	 */
+	private void openSegment(long id) throws IOException {
+		if (writeStream != null) {
+			writeStream.close();
+		}
+		writeStream = new FileOutputStream(getSegmentFile(id));
+		writeOffset = 0;
+		segments.add(id);
+	}
+
+	/**
+	 * @param id
+	 *            The segment id.
+	 * @return The segment file.
+	 */
+	private File getSegmentFile(long id) {
+		return new File(directory, String.format("%020d", id) + SEGMENT_EXTENSION);
+	}
+
+	/**
+	 * Deletes a drained segment.
+	 *
+	 * @param id
+	 *            The segment id.
+	 */
+	private void deleteSegment(long id) {
+		File file = getSegmentFile(id);
+		if (!file.delete()) {
+			LOG.warn("Unable to delete spool segment: " + file);
+		}
+	}
+
+	/**
+	 * Counts the complete messages in a segment.
+	 *
+	 * @param id
+	 *            The segment id.
+	 * @param offset
+	 *            The offset to start at.
+	 * @return The number of messages.
+	 * @throws IOException
+	 *             If the segment cannot be read.
+	 */
+	private long countMessages(long id, long offset) throws IOException {
+		long count = 0;
+		try (RandomAccessFile file = new RandomAccessFile(getSegmentFile(id), "r")) {
+			long position = offset;
+			while ((position + 4) <= file.length()) {
+				file.seek(position);
+				long next = position + 4 + file.readInt();
+				if (next > file.length()) {
+					break;
+				}
+				position = next;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public void sendMessage(TransportMessage transportMessage) {
+		sendMessages(Arrays.asList(transportMessage));
+	}
+
+	/**
+	 * Appends the messages to the journal.
+	 *
+	 * @throws IllegalStateException
+	 *             If a message cannot be encoded or the journal cannot be
+	 *             written. The messages written before the failure are kept.
+	 */
+	@Override
+	public void sendMessages(Collection<TransportMessage> transportMessages) {
+		if (closed) {
+			LOG.warn("Dropping " + transportMessages.size()
+					+ " messages sent to a closed spool.");
+			return;
+		}
+
+		List<byte[]> records = new ArrayList<byte[]>(transportMessages.size());
+		try {
+			for (TransportMessage transportMessage : transportMessages) {
+				byte[] data = codec.encode(transportMessage);
+				records.add(ByteBuffer.allocate(4 + data.length)
+						.putInt(data.length).put(data).array());
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to encode message: " + e.getMessage(), e);
+		}
+
+		synchronized (this) {
+			try {
+				for (byte[] record : records) {
+					if ((writeOffset > 0)
+							&& ((writeOffset + record.length) > segmentSize)) {
+						openSegment(segments.peekLast() + 1);
+					}
+					writeStream.write(record);
+					writeOffset += record.length;
+					pendingCount++;
+				}
+			} catch (IOException e) {
+				abandonSegment();
+				throw new IllegalStateException("Unable to write to spool " + directory
+						+ ": " + e.getMessage(), e);
+			} finally {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Starts a new segment after a failed write, so a partly written message
+	 * ends the segment instead of corrupting the messages after it. The
+	 * drain thread skips such a message.
+	 */
+	private void abandonSegment() {
+		try {
+			openSegment(segments.peekLast() + 1);
+		} catch (IOException e) {
+			LOG.error("Unable to start a new spool segment: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return The number of messages in the journal not yet sent.
+	 */
+	public synchronized long getPendingCount() {
+		return pendingCount;
+	}
+
+	/**
+	 * Stops accepting messages and waits for the journal to be drained.
+	 *
+	 * @param timeout
+	 *            The longest time to wait, in milliseconds.
+	 * @return True if every message was sent.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting.
+	 */
+	public boolean close(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (this) {
+			while ((pendingCount > 0) && (System.currentTimeMillis() < deadline)) {
+				wait(Math.max(1, deadline - System.currentTimeMillis()));
+			}
+			closed = true;
+			notifyAll();
+		}
+		drainThread.join(Math.max(1, deadline - System.currentTimeMillis()));
+
+		synchronized (this) {
+			try {
+				writeStream.close();
+				positionFile.close();
+			} catch (IOException e) {
+				LOG.error(e.getMessage(), e);
+			}
+			return pendingCount == 0;
+		}
+	}
+
+	@Override
+	public void run() {
+		long retryDelay = MIN_RETRY_DELAY;
+		List<TransportMessage> batch = new ArrayList<TransportMessage>();
+		long batchSegment = -1;
+		long batchEnd = 0;
+
+		while (!closed) {
+			try {
+				if (batch.isEmpty()) {
+					long segment;
+					long limit;
+					boolean current;
+					synchronized (this) {
+						while ((pendingCount == 0) && !closed) {
+							wait();
+						}
+						if (closed) {
+							break;
+						}
+						segment = segments.peekFirst();
+						current = segment == segments.peekLast();
+						limit = current ? writeOffset : Long.MAX_VALUE;
+					}
+
+					batchSegment = segment;
+					batchEnd = readBatch(segment, readOffset, limit, batch);
+
+					if (batch.isEmpty()) {
+						if (batchEnd > readOffset) {
+							// Only unreadable messages were skipped.
+							readOffset = batchEnd;
+							savePosition(segment, readOffset);
+						} else if (!current) {
+							long next;
+							synchronized (this) {
+								segments.pollFirst();
+								next = segments.peekFirst();
+							}
+							deleteSegment(segment);
+							readOffset = 0;
+							savePosition(next, 0);
+						} else {
+							synchronized (this) {
+								wait(MIN_RETRY_DELAY);
+							}
+						}
+						continue;
+					}
+				}
+
+				destination.sendMessages(batch);
+
+				synchronized (this) {
+					pendingCount -= batch.size();
+					notifyAll();
+				}
+				batch.clear();
+				readOffset = batchEnd;
+				savePosition(batchSegment, readOffset);
+				retryDelay = MIN_RETRY_DELAY;
+			} catch (InterruptedException e) {
+				break;
+			} catch (IOException | RuntimeException e) {
+				LOG.error("Unable to send spooled messages, retrying in "
+						+ retryDelay + "ms: " + e.getMessage(), e);
+				try {
+					Thread.sleep(retryDelay);
+				} catch (InterruptedException e1) {
+					break;
+				}
+				retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+			}
+		}
+	}
+
+	/**
+	 * Reads a batch of messages from a segment.
+	 *
+	 * @param segment
+	 *            The segment id.
+	 * @param offset
+	 *            The offset to start at.
+	 * @param limit
+	 *            The number of bytes written to the segment.
+	 * @param batch
+	 *            The list to add the messages to.
+	 * @return The offset after the last message read.
+	 * @throws IOException
+	 *             If the segment cannot be read.
+	 */
+	private long readBatch(long segment, long offset, long limit,
+			List<TransportMessage> batch) throws IOException {
+		long position = offset;
+		try (RandomAccessFile file = new RandomAccessFile(getSegmentFile(segment), "r")) {
+			long end = Math.min(limit, file.length());
+			while ((batch.size() < batchSize) && ((position + 4) <= end)) {
+				file.seek(position);
+				int length = file.readInt();
+				if ((position + 4 + length) > end) {
+					break;
+				}
+
+				byte[] data = new byte[length];
+				file.readFully(data);
+				position += 4 + length;
+
+				try {
+					batch.add(codec.decode(data));
+				} catch (IOException e) {
+					LOG.error("Skipping unreadable spooled message: "
+							+ e.getMessage(), e);
+					synchronized (this) {
+						pendingCount--;
+					}
+				}
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Saves how far the journal was drained.
+	 *
+	 * @param segment
+	 *            The segment id.
+	 * @param offset
+	 *            The offset in the segment.
+	 * @throws IOException
+	 *             If the position file cannot be written.
+	 */
+	private void savePosition(long segment, long offset) throws IOException {
+		positionFile.seek(0);
+		positionFile.writeLong(segment);
+		positionFile.writeLong(offset);
+	}
+}
@@ -1,5 +1,7 @@
 package jepperscore.dao.transport;
 
+import java.util.HashMap;
+
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -12,6 +14,9 @@ import javax.xml.bind.annotation.XmlRootElement;
 
 import jepperscore.dao.model.Alias;
 import jepperscore.dao.model.Event;
+import jepperscore.dao.model.EventCode;
+import jepperscore.dao.model.Game;
+import jepperscore.dao.model.Person;
 import jepperscore.dao.model.Round;
 import jepperscore.dao.model.Score;
 import jepperscore.dao.model.ServerMetadata;
@@ -52,8 +57,17 @@ public class TransportMessage {
 	/**
 	 * This ID correlates the messages to a single session.
 	 */
+	@XmlAttribute(required = false)
 	@JsonProperty
 	private String sessionId;
+
+	/**
+	 * True if the nested aliases and rounds of the message are references
+	 * (id only) to entities announced in earlier messages.
+	 */
+	@XmlAttribute(required = false)
+	@JsonProperty
+	private Boolean references;
 	
 	/**
 	 * ServerMetadata of the message.
@@ -91,6 +105,18 @@ public class TransportMessage {
 	@JsonProperty
 	private Team team;
 
+	/**
+	 * Entity delta of the message.
+	 */
+	@JsonProperty
+	private EntityDelta delta;
+
+	/**
+	 * Round snapshot of the message.
+	 */
+	@JsonProperty
+	private RoundSnapshot snapshot;
+
 	/**
 	 * Default constructor.
 	 */
@@ -126,6 +152,166 @@ public class TransportMessage {
 		setId(id);
 		setSessionId(session);
 	}
+
+	/**
+	 * Copies a message. The content is copied deeply, so the copy can be
+	 * queued while the original (or its content) is changed.
+	 * @param message The message to copy.
+	 */
+	public TransportMessage(@Nonnull TransportMessage message) {
+		id = message.id;
+		revision = message.revision;
+		sessionId = message.sessionId;
+		references = message.references;
+		serverMetadata = copy(message.serverMetadata);
+		round = copy(message.round);
+		event = copy(message.event);
+		alias = copy(message.alias);
+		score = copy(message.score);
+		team = copy(message.team);
+		delta = copy(message.delta);
+		snapshot = copy(message.snapshot);
+	}
+
+	/**
+	 * @param metadata The metadata to copy.
+	 * @return A deep copy of the metadata.
+	 */
+	@CheckForNull
+	private static ServerMetadata copy(@Nullable ServerMetadata metadata) {
+		if (metadata == null) {
+			return null;
+		}
+		ServerMetadata copy = new ServerMetadata();
+		copy.setServerName(metadata.getServerName());
+		copy.setMetadata(new HashMap<String, String>(metadata.getMetadata()));
+		return copy;
+	}
+
+	/**
+	 * @param round The round to copy.
+	 * @return A deep copy of the round.
+	 */
+	@CheckForNull
+	private static Round copy(@Nullable Round round) {
+		if (round == null) {
+			return null;
+		}
+		return round.copy();
+	}
+
+	/**
+	 * @param team The team to copy.
+	 * @return A deep copy of the team.
+	 */
+	@CheckForNull
+	private static Team copy(@Nullable Team team) {
+		if (team == null) {
+			return null;
+		}
+		return team.copy();
+	}
+
+	/**
+	 * @param alias The alias to copy.
+	 * @return A deep copy of the alias, unlike {@link Alias#copy()} which
+	 *         shares the team, person and game.
+	 */
+	@CheckForNull
+	private static Alias copy(@Nullable Alias alias) {
+		if (alias == null) {
+			return null;
+		}
+		Alias copy = alias.copy();
+		copy.setTeam(copy(alias.getTeam()));
+		Person person = alias.getPerson();
+		if (person != null) {
+			Person newPerson = new Person();
+			newPerson.setName(person.getName());
+			copy.setPerson(newPerson);
+		}
+		Game game = alias.getGame();
+		if (game != null) {
+			copy.setGame(game.copy());
+		}
+		return copy;
+	}
+
+	/**
+	 * @param score The score to copy.
+	 * @return A deep copy of the score.
+	 */
+	@CheckForNull
+	private static Score copy(@Nullable Score score) {
+		if (score == null) {
+			return null;
+		}
+		return new Score(copy(score.getAlias()), score.getScore());
+	}
+
+	/**
+	 * @param event The event to copy.
+	 * @return A deep copy of the event, unlike {@link Event#copy()} which
+	 *         shares the aliases, event code and round.
+	 */
+	@CheckForNull
+	private static Event copy(@Nullable Event event) {
+		if (event == null) {
+			return null;
+		}
+		Event copy = event.copy();
+		copy.setAttacker(copy(event.getAttacker()));
+		copy.setVictim(copy(event.getVictim()));
+		Round round = event.getRound();
+		if (round != null) {
+			copy.setRound(round.copy());
+		}
+		EventCode eventCode = event.getEventCode();
+		if (eventCode != null) {
+			EventCode newEventCode = new EventCode();
+			newEventCode.setCode(eventCode.getCode());
+			newEventCode.setObject(eventCode.getObject());
+			newEventCode.setExtra(eventCode.getExtra());
+			copy.setEventCode(newEventCode);
+		}
+		return copy;
+	}
+
+	/**
+	 * @param delta The delta to copy.
+	 * @return A deep copy of the delta.
+	 */
+	@CheckForNull
+	private static EntityDelta copy(@Nullable EntityDelta delta) {
+		if (delta == null) {
+			return null;
+		}
+		EntityDelta copy = new EntityDelta(delta.getEntityType(), delta.getEntityId());
+		copy.setFields(new HashMap<String, String>(delta.getFields()));
+		return copy;
+	}
+
+	/**
+	 * @param snapshot The snapshot to copy.
+	 * @return A deep copy of the snapshot.
+	 */
+	@CheckForNull
+	private static RoundSnapshot copy(@Nullable RoundSnapshot snapshot) {
+		if (snapshot == null) {
+			return null;
+		}
+		RoundSnapshot copy = new RoundSnapshot(snapshot.getTimestamp(), copy(snapshot.getRound()));
+		for (Team t : snapshot.getTeams()) {
+			copy.getTeams().add(copy(t));
+		}
+		for (Alias a : snapshot.getAliases()) {
+			copy.getAliases().add(copy(a));
+		}
+		for (Score s : snapshot.getScores()) {
+			copy.getScores().add(copy(s));
+		}
+		return copy;
+	}
 	
 	/**
 	 * @return the session id.
@@ -142,6 +328,22 @@ public class TransportMessage {
 		this.sessionId = sessionId;
 	}
 
+	/**
+	 * @return True if the nested aliases and rounds are references. See
+	 *         {@link EntityResolver}.
+	 */
+	public boolean isReferences() {
+		return Boolean.TRUE.equals(references);
+	}
+
+	/**
+	 * @param references
+	 *            True if the nested aliases and rounds are references.
+	 */
+	public void setReferences(boolean references) {
+		this.references = references ? Boolean.TRUE : null;
+	}
+
 	/**
 	 * @return the id
 	 */
@@ -183,7 +385,9 @@ public class TransportMessage {
 			@XmlElement(name = "event", type = Event.class),
 			@XmlElement(name = "alias", type = Alias.class),
 			@XmlElement(name = "score", type = Score.class),
-			@XmlElement(name = "team", type = Team.class) })
+			@XmlElement(name = "team", type = Team.class),
+			@XmlElement(name = "delta", type = EntityDelta.class),
+			@XmlElement(name = "snapshot", type = RoundSnapshot.class) })
 	@CheckForNull
 	@JsonIgnore
 	public Object getMessageContent() {
@@ -199,6 +403,10 @@ public class TransportMessage {
 			return score;
 		} else if (getTeam() != null) {
 			return getTeam();
+		} else if (delta != null) {
+			return delta;
+		} else if (snapshot != null) {
+			return snapshot;
 		} else {
 			return null;
 		}
@@ -224,6 +432,10 @@ public class TransportMessage {
 			score = (Score) content;
 		} else if (content instanceof Team) {
 			setTeam((Team) content);
+		} else if (content instanceof EntityDelta) {
+			delta = (EntityDelta) content;
+		} else if (content instanceof RoundSnapshot) {
+			snapshot = (RoundSnapshot) content;
 		}
 	}
 
@@ -321,6 +533,38 @@ public class TransportMessage {
 		this.team = team;
 	}
 
+	/**
+	 * @return The entity delta.
+	 */
+	@CheckForNull
+	public EntityDelta getDelta() {
+		return delta;
+	}
+
+	/**
+	 * @param delta
+	 *            The entity delta to set.
+	 */
+	public void setDelta(@Nullable EntityDelta delta) {
+		this.delta = delta;
+	}
+
+	/**
+	 * @return The round snapshot.
+	 */
+	@CheckForNull
+	public RoundSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @param snapshot
+	 *            The round snapshot to set.
+	 */
+	public void setSnapshot(@Nullable RoundSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
 	@Override
 	public String toString() {
 		Object content = getMessageContent();
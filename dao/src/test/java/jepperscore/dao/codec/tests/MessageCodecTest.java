@@ -0,0 +1,153 @@
+package jepperscore.dao.codec.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import jepperscore.dao.codec.BinaryMessageCodec;
+import jepperscore.dao.codec.IMessageCodec;
+import jepperscore.dao.codec.JsonMessageCodec;
+import jepperscore.dao.codec.MessageCodecs;
+import jepperscore.dao.codec.XmlMessageCodec;
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Event;
+import jepperscore.dao.model.EventCode;
+import jepperscore.dao.model.Game;
+import jepperscore.dao.model.Person;
+import jepperscore.dao.model.Round;
+import jepperscore.dao.model.Score;
+import jepperscore.dao.model.ServerMetadata;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+/**
+ * This class tests the {@link IMessageCodec} implementations.
+ *
+ * @author Chuck
+ *
+ */
+public class MessageCodecTest {
+
+	/**
+	 * The game used for testing.
+	 */
+	private static final Game GAME = new Game("Battlefield 1942", "conquest", "bf1942");
+
+	/**
+	 * The round used for testing.
+	 */
+	private static final Round ROUND = new Round("round-1", new DateTime(2014, 6, 1, 12, 0, 0), null, GAME, "berlin");
+
+	/**
+	 * Creates an alias for testing.
+	 * @param id The alias id.
+	 * @param name The alias name.
+	 * @return The alias.
+	 */
+	private static Alias createAlias(String id, String name) {
+		Person person = new Person();
+		person.setName(name + " Person");
+		return new Alias(id, name, Alias.DECORATION_STYLE_PLAIN, false, new Team("Axis", 10.0f), person, GAME, true);
+	}
+
+	/**
+	 * @return A kill event message.
+	 */
+	private static TransportMessage createEventMessage() {
+		EventCode eventCode = new EventCode();
+		eventCode.setCode(EventCode.EVENT_CODE_KILL);
+		eventCode.setObject("Kar98k");
+
+		Event event = new Event();
+		event.setTimestamp(new DateTime(2014, 6, 1, 12, 5, 0));
+		event.setAttacker(createAlias("round-1:1", "Attacker"));
+		event.setVictim(createAlias("round-1:2", "Victim"));
+		event.setEventText("{attacker} killed {victim}");
+		event.setEventCode(eventCode);
+		event.setRound(ROUND);
+
+		return new TransportMessage(event, "round-1");
+	}
+
+	/**
+	 * Tests that every codec can round trip an event.
+	 * @throws IOException If something goes awry.
+	 */
+	@Test
+	public void testEventRoundTrip() throws IOException {
+		for (IMessageCodec codec : new IMessageCodec[] { new XmlMessageCodec(), new JsonMessageCodec(), new BinaryMessageCodec() }) {
+			TransportMessage msg = codec.decode(codec.encode(createEventMessage()));
+
+			assertEquals("round-1", msg.getSessionId());
+			Event event = msg.getEvent();
+			assertNotNull(codec.getName(), event);
+			assertEquals(codec.getName(), new DateTime(2014, 6, 1, 12, 5, 0).getMillis(), event.getTimestamp().getMillis());
+			assertEquals(codec.getName(), "Attacker killed Victim", event.getParsedEventText());
+			assertEquals(codec.getName(), "Kar98k", event.getEventCode().getObject());
+			assertEquals(codec.getName(), GAME, event.getAttacker().getGame());
+			assertEquals(codec.getName(), "Victim Person", event.getVictim().getPerson().getName());
+			assertEquals(codec.getName(), "berlin", event.getRound().getMap());
+			assertNull(codec.getName(), event.getRound().getEnd());
+		}
+	}
+
+	/**
+	 * Tests the binary codec with the rest of the content types.
+	 * @throws IOException If something goes awry.
+	 */
+	@Test
+	public void testBinaryContent() throws IOException {
+		IMessageCodec codec = new BinaryMessageCodec();
+
+		ServerMetadata serverMetadata = new ServerMetadata();
+		serverMetadata.setServerName("Lan Party");
+		serverMetadata.getMetadata().put("mapname", "berlin");
+		TransportMessage msg = codec.decode(codec.encode(new TransportMessage(serverMetadata)));
+		assertEquals("Lan Party", msg.getServerMetadata().getServerName());
+		assertEquals("berlin", msg.getServerMetadata().getMetadata().get("mapname"));
+
+		msg = codec.decode(codec.encode(new TransportMessage("test-id", new Score(createAlias("round-1:1", "Player"), 5.5f), "round-1")));
+		assertEquals("test-id", msg.getId());
+		assertEquals(5.5f, msg.getScore().getScore(), 0.0f);
+		assertEquals(Boolean.FALSE, msg.getScore().getAlias().isBot());
+		assertTrue(msg.getScore().getAlias().isPresent());
+
+		msg = codec.decode(codec.encode(new TransportMessage(new Team("Allies"))));
+		assertEquals("Allies", msg.getTeam().getTeamName());
+		assertNull(msg.getTeam().getScore());
+
+		msg = codec.decode(codec.encode(new TransportMessage(ROUND)));
+		assertEquals(ROUND.getStart().getMillis(), msg.getRound().getStart().getMillis());
+		assertEquals(GAME, msg.getRound().getGame());
+	}
+
+	/**
+	 * Tests that the binary encoding is more compact than the XML encoding.
+	 * @throws IOException If something goes awry.
+	 */
+	@Test
+	public void testBinaryIsCompact() throws IOException {
+		int xmlSize = new XmlMessageCodec().encode(createEventMessage()).length;
+		int binarySize = new BinaryMessageCodec().encode(createEventMessage()).length;
+
+		assertTrue("Binary (" + binarySize + ") should be less than half of XML (" + xmlSize + ")", (binarySize * 2) < xmlSize);
+	}
+
+	/**
+	 * Tests the codec registry.
+	 */
+	@Test
+	public void testRegistry() {
+		assertSame(MessageCodecs.getCodec("binary"), MessageCodecs.getByContentType(BinaryMessageCodec.CONTENT_TYPE));
+		assertEquals(JsonMessageCodec.NAME, MessageCodecs.getCodec(JsonMessageCodec.CONTENT_TYPE).getName());
+		assertEquals(XmlMessageCodec.NAME, MessageCodecs.getDefaultCodec().getName());
+		assertNull(MessageCodecs.getCodec("unknown"));
+	}
+}
@@ -0,0 +1,117 @@
+package jepperscore.dao.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jepperscore.dao.AbstractMessageSource;
+import jepperscore.dao.IMessageCallback;
+import jepperscore.dao.MessageFilter;
+import jepperscore.dao.MessageType;
+import jepperscore.dao.model.Event;
+import jepperscore.dao.model.Round;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.junit.Test;
+
+/**
+ * This class tests the filtered dispatch of {@link AbstractMessageSource}.
+ *
+ * @author Chuck
+ *
+ */
+public class AbstractMessageSourceTest {
+
+	/**
+	 * A message source that sends messages on demand.
+	 */
+	private static class TestSource extends AbstractMessageSource {
+
+		/**
+		 * The last combined filter.
+		 */
+		private MessageFilter combinedFilter;
+
+		@Override
+		protected void filtersChanged(MessageFilter filter) {
+			this.combinedFilter = filter;
+		}
+
+		/**
+		 * Sends a message to the callbacks.
+		 * @param transportMessage The message.
+		 */
+		public void send(TransportMessage transportMessage) {
+			call(transportMessage);
+		}
+	}
+
+	/**
+	 * A callback recording the messages.
+	 */
+	private static class RecordingCallback implements IMessageCallback {
+
+		/**
+		 * The received messages.
+		 */
+		private final List<TransportMessage> messages = new ArrayList<TransportMessage>();
+
+		@Override
+		public void onMessage(TransportMessage message) {
+			messages.add(message);
+		}
+	}
+
+	/**
+	 * Tests that callbacks only get the messages their filter accepts.
+	 */
+	@Test
+	public void testFilteredDispatch() {
+		TestSource source = new TestSource();
+		RecordingCallback all = new RecordingCallback();
+		RecordingCallback events = new RecordingCallback();
+		RecordingCallback session = new RecordingCallback();
+
+		source.registerCallback(all);
+		source.registerCallback(events, MessageFilter.of(MessageType.EVENT));
+		source.registerCallback(session, MessageFilter.of(MessageType.EVENT, MessageType.TEAM).forSession("round-2"));
+
+		source.send(new TransportMessage(new Event(), "round-1"));
+		source.send(new TransportMessage(new Event(), "round-2"));
+		source.send(new TransportMessage(new Team("Axis"), "round-2"));
+		source.send(new TransportMessage(new Round("round-2", null, null, null, "berlin"), "round-2"));
+		source.send(new TransportMessage());
+
+		assertEquals(5, all.messages.size());
+		assertEquals(2, events.messages.size());
+		assertEquals(2, session.messages.size());
+		assertEquals("round-2", session.messages.get(0).getSessionId());
+
+		source.unregisterCallback(all);
+		source.send(new TransportMessage(new Round(), "round-2"));
+		assertEquals(5, all.messages.size());
+	}
+
+	/**
+	 * Tests the combined filter given to the source.
+	 */
+	@Test
+	public void testCombinedFilter() {
+		TestSource source = new TestSource();
+		RecordingCallback callback = new RecordingCallback();
+
+		source.registerCallback(callback, MessageFilter.of(MessageType.EVENT).forSession("round-1"));
+		assertEquals(MessageFilter.of(MessageType.EVENT).forSession("round-1"), source.combinedFilter);
+
+		source.registerCallback(new RecordingCallback(), MessageFilter.of(MessageType.SCORE).forSession("round-2"));
+		assertEquals(MessageFilter.of(MessageType.EVENT, MessageType.SCORE), source.combinedFilter);
+		assertNull(source.combinedFilter.getSessionId());
+
+		assertTrue(MessageFilter.union(Arrays.asList(MessageFilter.all(), MessageFilter.of(MessageType.TEAM))).isAllTypes());
+	}
+}
@@ -0,0 +1,128 @@
+package jepperscore.dao.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jepperscore.dao.AsyncMessageCallback;
+import jepperscore.dao.IMessageCallback;
+import jepperscore.dao.OverflowPolicy;
+import jepperscore.dao.model.Event;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.junit.Test;
+
+/**
+ * This class tests the {@link AsyncMessageCallback} class.
+ *
+ * @author Chuck
+ *
+ */
+public class AsyncMessageCallbackTest {
+
+	/**
+	 * A callback that blocks on its first message until released.
+	 */
+	private static class BlockingCallback implements IMessageCallback {
+
+		/**
+		 * Counted down when the first message arrives.
+		 */
+		private final CountDownLatch entered = new CountDownLatch(1);
+
+		/**
+		 * Counted down to let the callback continue.
+		 */
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		/**
+		 * The received messages.
+		 */
+		private final List<TransportMessage> messages = new CopyOnWriteArrayList<TransportMessage>();
+
+		@Override
+		public void onMessage(TransportMessage message) {
+			messages.add(message);
+			entered.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the callback to deliver a number of messages.
+	 * @param callback The callback.
+	 * @param count The number of messages.
+	 * @throws InterruptedException If interrupted.
+	 */
+	private static void awaitDelivered(AsyncMessageCallback callback, long count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while ((callback.getDeliveredCount() < count) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, callback.getDeliveredCount());
+	}
+
+	/**
+	 * Tests that a stalled callback does not block the sender when dropping
+	 * the oldest messages.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testDropOldest() throws InterruptedException {
+		BlockingCallback blocking = new BlockingCallback();
+		AsyncMessageCallback callback = new AsyncMessageCallback(blocking, 2, OverflowPolicy.DROP_OLDEST);
+
+		callback.onMessage(new TransportMessage(new Event(), "round-1"));
+		assertTrue(blocking.entered.await(5, TimeUnit.SECONDS));
+
+		for (int i = 0; i < 4; i++) {
+			callback.onMessage(new TransportMessage(new Team("Team " + i), "round-1"));
+		}
+		assertEquals(2, callback.getQueueSize());
+		assertEquals(2, callback.getDroppedCount());
+
+		blocking.release.countDown();
+		awaitDelivered(callback, 3);
+		assertEquals("Team 3", blocking.messages.get(2).getTeam().getTeamName());
+		callback.close();
+	}
+
+	/**
+	 * Tests that state messages about the same entity are coalesced, and
+	 * events are not.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testCoalesce() throws InterruptedException {
+		BlockingCallback blocking = new BlockingCallback();
+		AsyncMessageCallback callback = new AsyncMessageCallback(blocking, 10, OverflowPolicy.COALESCE);
+
+		callback.onMessage(new TransportMessage(new Event(), "round-1"));
+		assertTrue(blocking.entered.await(5, TimeUnit.SECONDS));
+
+		callback.onMessage(new TransportMessage(new Team("Axis", 1.0f), "round-1"));
+		callback.onMessage(new TransportMessage(new Event(), "round-1"));
+		callback.onMessage(new TransportMessage(new Team("Axis", 2.0f), "round-1"));
+		callback.onMessage(new TransportMessage(new Team("Axis", 3.0f), "round-2"));
+		callback.onMessage(new TransportMessage(new Event(), "round-1"));
+
+		assertEquals(4, callback.getQueueSize());
+		assertEquals(1, callback.getCoalescedCount());
+		assertTrue(callback.getLagMillis() >= 0);
+
+		blocking.release.countDown();
+		awaitDelivered(callback, 5);
+		assertEquals(Float.valueOf(2.0f), blocking.messages.get(1).getTeam().getScore());
+		assertEquals(0, callback.getQueueSize());
+		callback.close();
+	}
+}
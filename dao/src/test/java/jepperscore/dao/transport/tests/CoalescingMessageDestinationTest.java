@@ -0,0 +1,215 @@
+package jepperscore.dao.transport.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import jepperscore.dao.AbstractMessageDestination;
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Event;
+import jepperscore.dao.model.Round;
+import jepperscore.dao.model.Score;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.CoalescingMessageDestination;
+import jepperscore.dao.transport.EntityDelta;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.junit.Test;
+
+/**
+ * This class tests the {@link CoalescingMessageDestination} class.
+ *
+ * @author Chuck
+ *
+ */
+public class CoalescingMessageDestinationTest {
+
+	/**
+	 * A destination recording the messages.
+	 */
+	private static class RecordingDestination extends AbstractMessageDestination {
+
+		/**
+		 * The received messages.
+		 */
+		private final List<TransportMessage> messages = new CopyOnWriteArrayList<TransportMessage>();
+
+		@Override
+		public void sendMessage(TransportMessage transportMessage) {
+			messages.add(transportMessage);
+		}
+	}
+
+	/**
+	 * A destination failing to send batches until told otherwise.
+	 */
+	private static class FailingDestination extends RecordingDestination {
+
+		/**
+		 * True while batches fail.
+		 */
+		private volatile boolean failing = true;
+
+		/**
+		 * The number of failed batches.
+		 */
+		private volatile int failures = 0;
+
+		@Override
+		public void sendMessages(Collection<TransportMessage> transportMessages) {
+			if (failing) {
+				failures++;
+				throw new IllegalStateException("Unavailable");
+			}
+			super.sendMessages(transportMessages);
+		}
+	}
+
+	/**
+	 * Creates a score message.
+	 * @param aliasId The alias id.
+	 * @param score The score.
+	 * @return The message.
+	 */
+	private static TransportMessage score(String aliasId, float score) {
+		Alias alias = new Alias();
+		alias.setId(aliasId);
+		return new TransportMessage(new Score(alias, score), "round-1");
+	}
+
+	/**
+	 * Tests that events are sent straight away and only the newest state
+	 * message of each entity is sent.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testLatestWins() throws InterruptedException {
+		RecordingDestination destination = new RecordingDestination();
+		CoalescingMessageDestination coalescing = new CoalescingMessageDestination(destination, 60000);
+
+		coalescing.sendMessage(score("1", 1));
+		coalescing.sendMessage(new TransportMessage(new Team("Axis", 1.0f), "round-1"));
+		coalescing.sendMessage(score("2", 1));
+		coalescing.sendMessage(new TransportMessage(new Event(), "round-1"));
+		coalescing.sendMessage(score("1", 2));
+		coalescing.sendMessage(score("1", 3));
+		coalescing.sendMessage(new TransportMessage(new Team("Axis", 2.0f), "round-1"));
+
+		assertEquals(1, destination.messages.size());
+		assertNotNull(destination.messages.get(0).getEvent());
+		assertEquals(3, coalescing.getPendingCount());
+		assertEquals(3, coalescing.getCoalescedCount());
+
+		coalescing.close();
+
+		assertEquals(4, destination.messages.size());
+		assertEquals(3, destination.messages.get(1).getScore().getScore(), 0.001);
+		assertEquals(Float.valueOf(2.0f), destination.messages.get(2).getTeam().getScore());
+		assertEquals("2", destination.messages.get(3).getScore().getAlias().getId());
+	}
+
+	/**
+	 * Tests that deltas, events and rounds are sent after the held state they
+	 * depend on, and that the other held messages stay held.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testDependenciesSentFirst() throws InterruptedException {
+		RecordingDestination destination = new RecordingDestination();
+		CoalescingMessageDestination coalescing = new CoalescingMessageDestination(destination, 60000);
+
+		Alias attacker = new Alias();
+		attacker.setId("2");
+		coalescing.sendMessage(score("1", 1));
+		coalescing.sendMessage(new TransportMessage(attacker, "round-1"));
+		coalescing.sendMessage(score("3", 1));
+
+		EntityDelta delta = new EntityDelta(EntityDelta.TYPE_SCORE, "1");
+		delta.putField(EntityDelta.FIELD_SCORE, 2f);
+		coalescing.sendMessage(new TransportMessage(delta, "round-1"));
+
+		Event event = new Event();
+		event.setAttacker(attacker);
+		coalescing.sendMessage(new TransportMessage(event, "round-1"));
+
+		Round round = new Round();
+		round.setId("round-2");
+		coalescing.sendMessage(new TransportMessage(round, "round-2"));
+
+		assertEquals(5, destination.messages.size());
+		assertEquals("1", destination.messages.get(0).getScore().getAlias().getId());
+		assertNotNull(destination.messages.get(1).getDelta());
+		assertEquals("2", destination.messages.get(2).getAlias().getId());
+		assertNotNull(destination.messages.get(3).getEvent());
+		assertNotNull(destination.messages.get(4).getRound());
+		assertEquals(1, coalescing.getPendingCount());
+
+		coalescing.close();
+		assertEquals("3", destination.messages.get(5).getScore().getAlias().getId());
+	}
+
+	/**
+	 * Tests that held messages failing to send are kept and retried, and
+	 * that sending fails in the meantime.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testFailedFlush() throws InterruptedException {
+		FailingDestination destination = new FailingDestination();
+		RecordingDestination recording = destination;
+		CoalescingMessageDestination coalescing = new CoalescingMessageDestination(destination, 20);
+
+		coalescing.sendMessage(score("1", 1));
+		boolean rejected = false;
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!rejected && (System.currentTimeMillis() < deadline)) {
+			try {
+				coalescing.sendMessage(score("2", 1));
+				Thread.sleep(10);
+			} catch (IllegalStateException e) {
+				rejected = true;
+			}
+		}
+		assertTrue(rejected);
+		assertTrue(destination.failures > 0);
+
+		destination.failing = false;
+		deadline = System.currentTimeMillis() + 5000;
+		while ((recording.messages.size() < 2) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, recording.messages.size());
+		assertEquals("1", recording.messages.get(0).getScore().getAlias().getId());
+		assertEquals("2", recording.messages.get(1).getScore().getAlias().getId());
+
+		coalescing.sendMessage(score("1", 2));
+		coalescing.close();
+		assertEquals(3, recording.messages.size());
+		assertEquals(2, recording.messages.get(2).getScore().getScore(), 0.001);
+	}
+
+	/**
+	 * Tests that held messages are sent once the window passes.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testWindow() throws InterruptedException {
+		RecordingDestination destination = new RecordingDestination();
+		CoalescingMessageDestination coalescing = new CoalescingMessageDestination(destination, 50);
+
+		coalescing.sendMessage(score("1", 1));
+		coalescing.sendMessage(score("1", 2));
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (destination.messages.isEmpty() && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, destination.messages.size());
+		assertEquals(2, destination.messages.get(0).getScore().getScore(), 0.001);
+		coalescing.close();
+	}
+}
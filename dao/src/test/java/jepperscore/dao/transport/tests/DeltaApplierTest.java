@@ -0,0 +1,172 @@
+package jepperscore.dao.transport.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jepperscore.dao.IMessageCallback;
+import jepperscore.dao.codec.BinaryMessageCodec;
+import jepperscore.dao.codec.IMessageCodec;
+import jepperscore.dao.codec.JsonMessageCodec;
+import jepperscore.dao.codec.XmlMessageCodec;
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Game;
+import jepperscore.dao.model.Person;
+import jepperscore.dao.model.Score;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.DeltaApplier;
+import jepperscore.dao.transport.EntityDelta;
+import jepperscore.dao.transport.EntityResolver;
+import jepperscore.dao.transport.ReferencingMessageDestination;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.junit.Test;
+
+/**
+ * This class tests the {@link EntityDelta} and {@link DeltaApplier} classes.
+ *
+ * @author Chuck
+ *
+ */
+public class DeltaApplierTest {
+
+	/**
+	 * The session used for testing.
+	 */
+	private static final String SESSION = "round-1";
+
+	/**
+	 * @return A full alias for testing.
+	 */
+	private static Alias createAlias() {
+		Person person = new Person();
+		person.setName("Player Person");
+		return new Alias("round-1:1", "Player", Alias.DECORATION_STYLE_PLAIN, false, new Team("Axis"), person,
+				new Game("Battlefield 1942", "conquest", "bf1942"), true);
+	}
+
+	/**
+	 * Tests that a delta survives every codec.
+	 * @throws IOException If something goes awry.
+	 */
+	@Test
+	public void testDeltaRoundTrip() throws IOException {
+		EntityDelta delta = new EntityDelta(EntityDelta.TYPE_SCORE, "round-1:1");
+		delta.putField(EntityDelta.FIELD_SCORE, 12.0f);
+
+		for (IMessageCodec codec : new IMessageCodec[] { new XmlMessageCodec(), new JsonMessageCodec(), new BinaryMessageCodec() }) {
+			TransportMessage msg = codec.decode(codec.encode(new TransportMessage(delta, SESSION)));
+
+			assertNotNull(codec.getName(), msg.getDelta());
+			assertEquals(codec.getName(), EntityDelta.TYPE_SCORE, msg.getDelta().getEntityType());
+			assertEquals(codec.getName(), "round-1:1", msg.getDelta().getEntityId());
+			assertEquals(codec.getName(), "12.0", msg.getDelta().getField(EntityDelta.FIELD_SCORE));
+		}
+	}
+
+	/**
+	 * Tests that the delta is much smaller than the full message it replaces.
+	 * @throws IOException If something goes awry.
+	 */
+	@Test
+	public void testDeltaIsCompact() throws IOException {
+		EntityDelta delta = new EntityDelta(EntityDelta.TYPE_SCORE, "round-1:1");
+		delta.putField(EntityDelta.FIELD_SCORE, 12.0f);
+
+		IMessageCodec codec = new BinaryMessageCodec();
+		int fullSize = codec.encode(new TransportMessage(new Score(createAlias(), 12.0f), SESSION)).length;
+		int deltaSize = codec.encode(new TransportMessage(delta, SESSION)).length;
+
+		assertTrue("Delta (" + deltaSize + ") should be less than half of full (" + fullSize + ")", (deltaSize * 2) < fullSize);
+	}
+
+	/**
+	 * Tests rebuilding aliases, scores and teams from deltas.
+	 */
+	@Test
+	public void testApply() {
+		DeltaApplier applier = new DeltaApplier(null);
+
+		applier.apply(new TransportMessage(new Team("Allies", 1.0f), SESSION));
+		applier.apply(new TransportMessage("round-1:1", createAlias(), SESSION));
+		applier.apply(new TransportMessage(new Score(createAlias(), 1.0f), SESSION));
+
+		EntityDelta aliasDelta = new EntityDelta(EntityDelta.TYPE_ALIAS, "round-1:1");
+		aliasDelta.putField(EntityDelta.FIELD_TEAM, "Allies");
+		aliasDelta.putField(EntityDelta.FIELD_PRESENT, false);
+		TransportMessage msg = applier.apply(new TransportMessage(aliasDelta, SESSION));
+		assertNotNull(msg);
+		assertEquals("round-1:1", msg.getId());
+		assertEquals("Player", msg.getAlias().getName());
+		assertEquals(1.0f, msg.getAlias().getTeam().getScore(), 0.0f);
+		assertEquals(false, msg.getAlias().isPresent());
+
+		EntityDelta scoreDelta = new EntityDelta(EntityDelta.TYPE_SCORE, "round-1:1");
+		scoreDelta.putField(EntityDelta.FIELD_SCORE, 5.0f);
+		msg = applier.apply(new TransportMessage(scoreDelta, SESSION));
+		assertNotNull(msg);
+		assertEquals(5.0f, msg.getScore().getScore(), 0.0f);
+		assertEquals("Allies", msg.getScore().getAlias().getTeam().getTeamName());
+
+		EntityDelta teamDelta = new EntityDelta(EntityDelta.TYPE_TEAM, "Allies");
+		teamDelta.putField(EntityDelta.FIELD_SCORE, 3.0f);
+		msg = applier.apply(new TransportMessage(teamDelta, SESSION));
+		assertNotNull(msg);
+		assertEquals(3.0f, msg.getTeam().getScore(), 0.0f);
+
+		assertNull(applier.apply(new TransportMessage(scoreDelta, "round-2")));
+	}
+
+	/**
+	 * Tests that deltas applied on top of messages sent with references keep
+	 * the full alias, so the resolver behind the applier does not replace it
+	 * with a reference.
+	 */
+	@Test
+	public void testApplyWithReferences() {
+		final List<TransportMessage> received = new ArrayList<TransportMessage>();
+		DeltaApplier applier = new DeltaApplier(new EntityResolver(new IMessageCallback() {
+			@Override
+			public void onMessage(TransportMessage message) {
+				received.add(message);
+			}
+		}));
+		ReferencingMessageDestination referencing = new ReferencingMessageDestination(null);
+
+		TransportMessage aliasMessage = referencing.reference(new TransportMessage("round-1:1", createAlias(), SESSION));
+		TransportMessage scoreMessage = referencing.reference(new TransportMessage(new Score(createAlias(), 1.0f), SESSION));
+		assertTrue(scoreMessage.isReferences());
+		assertEquals("", scoreMessage.getScore().getAlias().getName());
+
+		applier.onMessage(aliasMessage);
+		applier.onMessage(scoreMessage);
+		assertEquals("Player", received.get(1).getScore().getAlias().getName());
+
+		EntityDelta scoreDelta = new EntityDelta(EntityDelta.TYPE_SCORE, "round-1:1");
+		scoreDelta.putField(EntityDelta.FIELD_SCORE, 5.0f);
+		applier.onMessage(new TransportMessage(scoreDelta, SESSION));
+		assertEquals(5.0f, received.get(2).getScore().getScore(), 0.0f);
+		assertEquals("Player", received.get(2).getScore().getAlias().getName());
+
+		EntityDelta aliasDelta = new EntityDelta(EntityDelta.TYPE_ALIAS, "round-1:1");
+		aliasDelta.putField(EntityDelta.FIELD_PRESENT, false);
+		applier.onMessage(new TransportMessage(aliasDelta, SESSION));
+		assertEquals("Player", received.get(3).getAlias().getName());
+		assertEquals("Axis", received.get(3).getAlias().getTeam().getTeamName());
+
+		// A score delta for an alias only seen as a reference is resolved by
+		// the resolver, which saw the full alias.
+		DeltaApplier referencesOnly = new DeltaApplier(null);
+		EntityResolver resolver = new EntityResolver(null);
+		resolver.resolve(aliasMessage);
+		referencesOnly.apply(scoreMessage);
+		TransportMessage rebuilt = referencesOnly.apply(new TransportMessage(scoreDelta, SESSION));
+		assertTrue(rebuilt.isReferences());
+		assertEquals("Player", resolver.resolve(rebuilt).getScore().getAlias().getName());
+	}
+}
@@ -0,0 +1,133 @@
+package jepperscore.dao.transport.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import jepperscore.dao.AbstractMessageDestination;
+import jepperscore.dao.codec.BinaryMessageCodec;
+import jepperscore.dao.codec.IMessageCodec;
+import jepperscore.dao.codec.JsonMessageCodec;
+import jepperscore.dao.codec.XmlMessageCodec;
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Event;
+import jepperscore.dao.model.Game;
+import jepperscore.dao.model.Person;
+import jepperscore.dao.model.Round;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.EntityResolver;
+import jepperscore.dao.transport.ReferencingMessageDestination;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+/**
+ * This class tests the {@link ReferencingMessageDestination} and
+ * {@link EntityResolver} classes.
+ *
+ * @author Chuck
+ *
+ */
+public class EntityResolverTest {
+
+	/**
+	 * The game used for testing.
+	 */
+	private static final Game GAME = new Game("Battlefield 1942", "conquest", "bf1942");
+
+	/**
+	 * The round used for testing.
+	 */
+	private static final Round ROUND = new Round("round-1", new DateTime(2014, 6, 1, 12, 0, 0), null, GAME, "berlin");
+
+	/**
+	 * Creates an alias for testing.
+	 * @param id The alias id.
+	 * @param name The alias name.
+	 * @return The alias.
+	 */
+	private static Alias createAlias(String id, String name) {
+		Person person = new Person();
+		person.setName(name + " Person");
+		return new Alias(id, name, Alias.DECORATION_STYLE_PLAIN, false, new Team("Axis", 10.0f), person, GAME, true);
+	}
+
+	/**
+	 * @return A kill event.
+	 */
+	private static Event createEvent() {
+		Event event = new Event();
+		event.setTimestamp(new DateTime(2014, 6, 1, 12, 5, 0));
+		event.setAttacker(createAlias("round-1:1", "Attacker"));
+		event.setVictim(createAlias("round-1:2", "Victim"));
+		event.setEventText("{attacker} killed {victim}");
+		event.setRound(ROUND);
+		return event;
+	}
+
+	/**
+	 * Tests that announced entities are sent as references and resolved on
+	 * the other side, through every codec.
+	 * @throws IOException If something goes awry.
+	 */
+	@Test
+	public void testReferenceAndResolve() throws IOException {
+		ReferencingMessageDestination referencing = new ReferencingMessageDestination(new AbstractMessageDestination() {
+			@Override
+			public void sendMessage(TransportMessage transportMessage) {
+			}
+		});
+
+		TransportMessage unannounced = referencing.reference(new TransportMessage(createEvent(), "round-1"));
+		assertFalse(unannounced.isReferences());
+
+		TransportMessage[] announcements = new TransportMessage[] {
+				referencing.reference(new TransportMessage("round-1", ROUND, "round-1")),
+				referencing.reference(new TransportMessage("round-1:1", createAlias("round-1:1", "Attacker"), "round-1")),
+				referencing.reference(new TransportMessage("round-1:2", createAlias("round-1:2", "Victim"), "round-1")) };
+
+		Event event = createEvent();
+		TransportMessage referenced = referencing.reference(new TransportMessage(event, "round-1"));
+		assertTrue(referenced.isReferences());
+		assertEquals("", referenced.getEvent().getAttacker().getName());
+		assertEquals("Attacker", event.getAttacker().getName());
+
+		for (IMessageCodec codec : new IMessageCodec[] { new XmlMessageCodec(), new JsonMessageCodec(), new BinaryMessageCodec() }) {
+			EntityResolver resolver = new EntityResolver(null);
+			for (TransportMessage announcement : announcements) {
+				resolver.resolve(codec.decode(codec.encode(announcement)));
+			}
+
+			TransportMessage decoded = codec.decode(codec.encode(referenced));
+			assertTrue(codec.getName(), decoded.isReferences());
+
+			TransportMessage resolved = resolver.resolve(decoded);
+			assertFalse(codec.getName(), resolved.isReferences());
+			assertEquals(codec.getName(), "Attacker killed Victim", resolved.getEvent().getParsedEventText());
+			assertEquals(codec.getName(), "Victim Person", resolved.getEvent().getVictim().getPerson().getName());
+			assertEquals(codec.getName(), "berlin", resolved.getEvent().getRound().getMap());
+		}
+	}
+
+	/**
+	 * Tests that a new session clears the announced entities.
+	 */
+	@Test
+	public void testNewSession() {
+		ReferencingMessageDestination referencing = new ReferencingMessageDestination(new AbstractMessageDestination() {
+			@Override
+			public void sendMessage(TransportMessage transportMessage) {
+			}
+		});
+
+		referencing.reference(new TransportMessage("round-1:1", createAlias("round-1:1", "Attacker"), "round-1"));
+		referencing.reference(new TransportMessage(new Round("round-2", null, null, GAME, "berlin"), "round-2"));
+
+		TransportMessage msg = new TransportMessage(createEvent(), "round-2");
+		assertSame(msg, referencing.reference(msg));
+	}
+}
@@ -0,0 +1,179 @@
+package jepperscore.dao.transport.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jepperscore.dao.AbstractMessageDestination;
+import jepperscore.dao.AsyncMessageCallback;
+import jepperscore.dao.IMessageDestination;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.FanOutMessageDestination;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.junit.Test;
+
+/**
+ * This class tests the {@link FanOutMessageDestination} class.
+ *
+ * @author Chuck
+ *
+ */
+public class FanOutMessageDestinationTest {
+
+	/**
+	 * A destination recording the messages, optionally waiting to be
+	 * released first.
+	 */
+	private static class RecordingDestination extends AbstractMessageDestination {
+
+		/**
+		 * Counted down to let the destination continue.
+		 */
+		private final CountDownLatch release;
+
+		/**
+		 * The received team names.
+		 */
+		private final List<String> teams = new CopyOnWriteArrayList<String>();
+
+		/**
+		 * The number of times {@link #sendMessages(Collection)} was called.
+		 */
+		private final AtomicInteger batches = new AtomicInteger();
+
+		/**
+		 * Constructor.
+		 * @param release Counted down to let the destination continue.
+		 */
+		public RecordingDestination(CountDownLatch release) {
+			this.release = release;
+		}
+
+		@Override
+		public void sendMessage(TransportMessage transportMessage) {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			teams.add(transportMessage.getTeam().getTeamName());
+		}
+
+		@Override
+		public void sendMessages(Collection<TransportMessage> transportMessages) {
+			batches.incrementAndGet();
+			super.sendMessages(transportMessages);
+		}
+	}
+
+	/**
+	 * Waits for a destination to receive a number of messages.
+	 * @param destination The destination.
+	 * @param count The number of messages.
+	 * @throws InterruptedException If interrupted.
+	 */
+	private static void awaitReceived(RecordingDestination destination, int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while ((destination.teams.size() < count) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, destination.teams.size());
+	}
+
+	/**
+	 * Tests that a stalled destination does not delay the others, that every
+	 * destination receives the messages in order, and that the messages
+	 * queued while a destination was stalled are sent as one batch.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testSlowDestination() throws InterruptedException {
+		CountDownLatch slowRelease = new CountDownLatch(1);
+		RecordingDestination slow = new RecordingDestination(slowRelease);
+		RecordingDestination fast = new RecordingDestination(new CountDownLatch(0));
+
+		List<IMessageDestination> destinations = new ArrayList<IMessageDestination>();
+		destinations.add(slow);
+		destinations.add(fast);
+		FanOutMessageDestination fanOut = new FanOutMessageDestination(destinations);
+
+		for (int i = 0; i < 10; i++) {
+			fanOut.sendMessage(new TransportMessage(new Team("Team " + i), "round-1"));
+		}
+
+		awaitReceived(fast, 10);
+		assertTrue(slow.teams.isEmpty());
+		AsyncMessageCallback slowTarget = fanOut.getTargets().get(0);
+		assertEquals(0, slowTarget.getDeliveredCount());
+
+		slowRelease.countDown();
+		awaitReceived(slow, 10);
+		assertTrue((slow.batches.get() >= 1) && (slow.batches.get() <= 2));
+		for (int i = 0; i < 10; i++) {
+			assertEquals("Team " + i, slow.teams.get(i));
+			assertEquals("Team " + i, fast.teams.get(i));
+		}
+		fanOut.close();
+	}
+
+	/**
+	 * Tests that each destination gets its own copy of a message, so neither
+	 * one setting the id nor the sender changing the content afterwards
+	 * changes the message seen by another.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testCopies() throws InterruptedException {
+		final List<TransportMessage> received = new CopyOnWriteArrayList<TransportMessage>();
+		final CountDownLatch done = new CountDownLatch(2);
+		List<IMessageDestination> destinations = new ArrayList<IMessageDestination>();
+		destinations.add(new AbstractMessageDestination() {
+			@Override
+			public void sendMessage(TransportMessage transportMessage) {
+				transportMessage.setId("couch-id");
+				transportMessage.setRevision("1-abc");
+				received.add(transportMessage);
+				done.countDown();
+			}
+		});
+		destinations.add(new AbstractMessageDestination() {
+			@Override
+			public void sendMessage(TransportMessage transportMessage) {
+				received.add(transportMessage);
+				done.countDown();
+			}
+		});
+		FanOutMessageDestination fanOut = new FanOutMessageDestination(destinations);
+
+		TransportMessage message = new TransportMessage(new Team("Team 0"), "round-1");
+		message.setReferences(true);
+		fanOut.sendMessage(message);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		fanOut.close();
+		message.getTeam().setScore(5f);
+
+		assertNotSame(received.get(0), received.get(1));
+		assertNotSame(received.get(0).getTeam(), received.get(1).getTeam());
+		assertNull(message.getId());
+		for (TransportMessage copy : received) {
+			assertNotSame(message, copy);
+			assertEquals("round-1", copy.getSessionId());
+			assertTrue(copy.isReferences());
+			assertEquals("Team 0", copy.getTeam().getTeamName());
+			assertNull(copy.getTeam().getScore());
+			if (copy.getId() == null) {
+				assertNull(copy.getRevision());
+			}
+		}
+	}
+}
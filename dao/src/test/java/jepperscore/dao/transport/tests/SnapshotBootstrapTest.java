@@ -0,0 +1,147 @@
+package jepperscore.dao.transport.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import jepperscore.dao.MessageType;
+import jepperscore.dao.codec.BinaryMessageCodec;
+import jepperscore.dao.codec.IMessageCodec;
+import jepperscore.dao.codec.JsonMessageCodec;
+import jepperscore.dao.codec.XmlMessageCodec;
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Game;
+import jepperscore.dao.model.Person;
+import jepperscore.dao.model.Round;
+import jepperscore.dao.model.Score;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.EntityDelta;
+import jepperscore.dao.transport.RoundSnapshot;
+import jepperscore.dao.transport.SnapshotBootstrap;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+/**
+ * This class tests the {@link RoundSnapshot} and {@link SnapshotBootstrap}
+ * classes.
+ *
+ * @author Chuck
+ *
+ */
+public class SnapshotBootstrapTest {
+
+	/**
+	 * The session used for testing.
+	 */
+	private static final String SESSION = "round-1";
+
+	/**
+	 * @param id The alias id.
+	 * @param name The alias name.
+	 * @return A full alias for testing.
+	 */
+	private static Alias createAlias(String id, String name) {
+		Person person = new Person();
+		person.setName(name + " Person");
+		return new Alias(id, name, Alias.DECORATION_STYLE_PLAIN, false, new Team("Axis"), person,
+				new Game("Battlefield 1942", "conquest", "bf1942"), true);
+	}
+
+	/**
+	 * @return A snapshot with two players.
+	 */
+	private static RoundSnapshot createSnapshot() {
+		RoundSnapshot snapshot = new RoundSnapshot(new DateTime(2014, 6, 1, 12, 10, 0),
+				new Round(SESSION, new DateTime(2014, 6, 1, 12, 0, 0), null, null, "berlin"));
+		snapshot.getTeams().add(new Team("Axis", 3.0f));
+		snapshot.getTeams().add(new Team("Allies", 1.0f));
+		snapshot.getAliases().add(createAlias("round-1:1", "One"));
+		snapshot.getAliases().add(createAlias("round-1:2", "Two"));
+		snapshot.getScores().add(new Score(createAlias("round-1:1", "One"), 5.0f));
+		snapshot.getScores().add(new Score(createAlias("round-1:2", "Two"), 2.0f));
+		return snapshot;
+	}
+
+	/**
+	 * Tests that a snapshot survives every codec.
+	 * @throws IOException If something goes awry.
+	 */
+	@Test
+	public void testSnapshotRoundTrip() throws IOException {
+		for (IMessageCodec codec : new IMessageCodec[] { new XmlMessageCodec(), new JsonMessageCodec(), new BinaryMessageCodec() }) {
+			TransportMessage msg = codec.decode(codec.encode(new TransportMessage(createSnapshot(), SESSION)));
+
+			assertEquals(codec.getName(), MessageType.SNAPSHOT, MessageType.of(msg));
+			RoundSnapshot snapshot = msg.getSnapshot();
+			assertNotNull(codec.getName(), snapshot);
+			assertEquals(codec.getName(), new DateTime(2014, 6, 1, 12, 10, 0).getMillis(),
+					snapshot.getTimestamp().getMillis());
+			assertEquals(codec.getName(), "berlin", snapshot.getRound().getMap());
+			assertEquals(codec.getName(), 2, snapshot.getTeams().size());
+			assertEquals(codec.getName(), 3.0f, snapshot.getTeams().get(0).getScore(), 0.0f);
+			assertEquals(codec.getName(), 2, snapshot.getAliases().size());
+			assertEquals(codec.getName(), "Two", snapshot.getAliases().get(1).getName());
+			assertEquals(codec.getName(), 2, snapshot.getScores().size());
+			assertEquals(codec.getName(), 5.0f, snapshot.getScores().get(0).getScore(), 0.0f);
+			assertEquals(codec.getName(), "round-1:1", snapshot.getScores().get(0).getAlias().getId());
+		}
+	}
+
+	/**
+	 * Tests that messages before the snapshot are skipped, and only the
+	 * snapshot and newer messages are given to the callback.
+	 */
+	@Test
+	public void testBootstrap() {
+		SnapshotBootstrap bootstrap = new SnapshotBootstrap(null);
+
+		assertTrue(bootstrap.apply(new TransportMessage(new Team("Axis", 1.0f), SESSION)).isEmpty());
+		assertTrue(bootstrap.apply(new TransportMessage(new Score(createAlias("round-1:1", "One"), 1.0f), SESSION)).isEmpty());
+
+		List<TransportMessage> messages = bootstrap.apply(new TransportMessage(createSnapshot(), SESSION));
+		assertEquals(7, messages.size());
+		assertEquals(MessageType.ROUND, MessageType.of(messages.get(0)));
+		assertEquals(MessageType.TEAM, MessageType.of(messages.get(1)));
+		assertEquals(MessageType.ALIAS, MessageType.of(messages.get(3)));
+		assertEquals("round-1:1", messages.get(3).getId());
+		assertEquals(MessageType.SCORE, MessageType.of(messages.get(5)));
+		for (TransportMessage msg : messages) {
+			assertEquals(SESSION, msg.getSessionId());
+		}
+
+		EntityDelta delta = new EntityDelta(EntityDelta.TYPE_SCORE, "round-1:1");
+		delta.putField(EntityDelta.FIELD_SCORE, 6.0f);
+		messages = bootstrap.apply(new TransportMessage(delta, SESSION));
+		assertEquals(1, messages.size());
+		assertEquals(delta, messages.get(0).getDelta());
+
+		assertTrue(bootstrap.apply(new TransportMessage(createSnapshot(), SESSION)).isEmpty());
+
+		bootstrap.resync();
+		assertTrue(bootstrap.apply(new TransportMessage(delta, SESSION)).isEmpty());
+		assertEquals(7, bootstrap.apply(new TransportMessage(createSnapshot(), SESSION)).size());
+	}
+
+	/**
+	 * Tests that a session without snapshots is replayed once too many
+	 * messages were held back.
+	 */
+	@Test
+	public void testReplayWithoutSnapshot() {
+		SnapshotBootstrap bootstrap = new SnapshotBootstrap(null, 3);
+
+		assertTrue(bootstrap.apply(new TransportMessage(new Team("Axis", 1.0f), SESSION)).isEmpty());
+		assertTrue(bootstrap.apply(new TransportMessage(new Team("Axis", 2.0f), SESSION)).isEmpty());
+		List<TransportMessage> messages = bootstrap.apply(new TransportMessage(new Team("Axis", 3.0f), SESSION));
+		assertEquals(3, messages.size());
+		assertEquals(1.0f, messages.get(0).getTeam().getScore(), 0.0f);
+
+		assertEquals(1, bootstrap.apply(new TransportMessage(new Team("Axis", 4.0f), SESSION)).size());
+		assertEquals(1, bootstrap.apply(new TransportMessage(new Team("Axis", 1.0f), null)).size());
+	}
+}
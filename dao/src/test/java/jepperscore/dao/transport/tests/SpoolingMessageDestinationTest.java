@@ -0,0 +1,152 @@
+package jepperscore.dao.transport.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jepperscore.dao.AbstractMessageDestination;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.SpoolingMessageDestination;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * This class tests the {@link SpoolingMessageDestination} class.
+ *
+ * @author Chuck
+ *
+ */
+public class SpoolingMessageDestinationTest {
+
+	/**
+	 * The spool directory.
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * A destination recording the messages, failing the first few batches.
+	 */
+	private static class FlakyDestination extends AbstractMessageDestination {
+
+		/**
+		 * The number of batches left to fail.
+		 */
+		private final AtomicInteger failures;
+
+		/**
+		 * The received team names.
+		 */
+		private final List<String> teams = new CopyOnWriteArrayList<String>();
+
+		/**
+		 * Constructor.
+		 * @param failures The number of batches to fail.
+		 */
+		public FlakyDestination(int failures) {
+			this.failures = new AtomicInteger(failures);
+		}
+
+		@Override
+		public void sendMessage(TransportMessage transportMessage) {
+			if (failures.getAndDecrement() > 0) {
+				throw new IllegalStateException("Backend unavailable.");
+			}
+			teams.add(transportMessage.getTeam().getTeamName());
+		}
+
+		@Override
+		public void sendMessages(Collection<TransportMessage> transportMessages) {
+			if (failures.getAndDecrement() > 0) {
+				throw new IllegalStateException("Backend unavailable.");
+			}
+			for (TransportMessage transportMessage : transportMessages) {
+				teams.add(transportMessage.getTeam().getTeamName());
+			}
+		}
+	}
+
+	/**
+	 * Sends numbered team messages.
+	 * @param spool The spool.
+	 * @param from The first number.
+	 * @param to The last number, exclusive.
+	 */
+	private static void sendTeams(SpoolingMessageDestination spool, int from, int to) {
+		for (int i = from; i < to; i++) {
+			spool.sendMessage(new TransportMessage(new Team("Team " + i), "round-1"));
+		}
+	}
+
+	/**
+	 * Tests that messages are drained in order across segments, and that
+	 * drained segments are removed.
+	 * @throws IOException If something goes awry.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testDrainInOrder() throws IOException, InterruptedException {
+		File directory = folder.newFolder("spool");
+		FlakyDestination destination = new FlakyDestination(0);
+		SpoolingMessageDestination spool = new SpoolingMessageDestination(destination, directory, 64, 3);
+
+		sendTeams(spool, 0, 20);
+		assertTrue(spool.close(5000));
+
+		assertEquals(20, destination.teams.size());
+		for (int i = 0; i < 20; i++) {
+			assertEquals("Team " + i, destination.teams.get(i));
+		}
+		assertEquals(0, spool.getPendingCount());
+		assertTrue(directory.list().length <= 2);
+	}
+
+	/**
+	 * Tests that a failed batch is retried.
+	 * @throws IOException If something goes awry.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testRetry() throws IOException, InterruptedException {
+		FlakyDestination destination = new FlakyDestination(1);
+		SpoolingMessageDestination spool = new SpoolingMessageDestination(destination, folder.newFolder("spool"));
+
+		sendTeams(spool, 0, 5);
+		assertTrue(spool.close(5000));
+		assertEquals(5, destination.teams.size());
+	}
+
+	/**
+	 * Tests that unsent messages are sent after a restart.
+	 * @throws IOException If something goes awry.
+	 * @throws InterruptedException If interrupted.
+	 */
+	@Test
+	public void testRestart() throws IOException, InterruptedException {
+		File directory = folder.newFolder("spool");
+
+		SpoolingMessageDestination spool = new SpoolingMessageDestination(new FlakyDestination(Integer.MAX_VALUE), directory);
+		sendTeams(spool, 0, 3);
+		assertFalse(spool.close(100));
+		assertEquals(3, spool.getPendingCount());
+
+		FlakyDestination destination = new FlakyDestination(0);
+		spool = new SpoolingMessageDestination(destination, directory);
+		sendTeams(spool, 3, 5);
+		assertTrue(spool.close(5000));
+
+		assertEquals(5, destination.teams.size());
+		assertEquals("Team 0", destination.teams.get(0));
+		assertEquals("Team 4", destination.teams.get(4));
+	}
+}
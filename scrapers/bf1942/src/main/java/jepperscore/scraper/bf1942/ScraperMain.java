@@ -1,9 +1,8 @@
 package jepperscore.scraper.bf1942;
 
-import java.lang.reflect.InvocationTargetException;
-
 import jepperscore.dao.IMessageDestination;
 import jepperscore.scraper.bf1942.scraper.BF1942Scraper;
+import jepperscore.scraper.common.DestinationOptions;
 import jepperscore.scraper.common.ScraperStatus;
 
 import org.apache.commons.cli.BasicParser;
@@ -79,8 +78,8 @@ public class ScraperMain {
 	public static void main(String[] args) throws ParseException {
 		Options options = new Options();
 
-		options.addOption(DESTINATION_CLASS_ARG, true, "Specifies the destination class.");
-		options.addOption(DESTINATION_SETUP_ARG, true, "Specifies the destination class setup.");
+		options.addOption(DESTINATION_CLASS_ARG, true, "Specifies the destination class, may be repeated.");
+		options.addOption(DESTINATION_SETUP_ARG, true, "Specifies the destination class setup, one per destination class.");
 		options.addOption(MOD_DIRECTORY_ARG, true, "Specifies BF1942 mod directory.");
 		options.addOption(HOSTNAME_ARG, true, "Specifies the hostname of the server.");
 		options.addOption(QUERY_PORT_ARG, true, "Specifies the query port of the server.");
@@ -88,6 +87,8 @@ public class ScraperMain {
 		options.addOption(RCON_USERNAME_ARG, true, "Specifies the RCON Username of the server.");
 		options.addOption(RCON_PASSWORD_ARG, true, "Specifies the RCON Password of the server.");
 
+		DestinationOptions.addOptions(options);
+
 		CommandLineParser parser = new BasicParser();
 		CommandLine cmd = parser.parse( options, args);
 
@@ -95,8 +96,6 @@ public class ScraperMain {
 			throw new RuntimeException(
 					"Incorrect arguments! Need -c [Message Destination Class] -s [Message Destination Setup] -d [BF 1942 Mod Directory] -h [Hostname] -u [RCON Username] -P [RCON Password] {-p [Query Port]} {-r [RCON Port]}");
 		}
-		String messageDestinationClass = cmd.getOptionValue(DESTINATION_CLASS_ARG);
-		String messageDestinationSetup = cmd.getOptionValue(DESTINATION_SETUP_ARG);
 		String modDirectory = cmd.getOptionValue(MOD_DIRECTORY_ARG);
 		String host = cmd.getOptionValue(HOSTNAME_ARG);
 		String rconUser = cmd.getOptionValue(RCON_USERNAME_ARG);
@@ -105,15 +104,9 @@ public class ScraperMain {
 		int queryPort = 0;
 		int rconPort = 0;
 
-		IMessageDestination messageDestination;
-		try {
-			messageDestination = (IMessageDestination) ScraperMain.class.getClassLoader().loadClass(messageDestinationClass).getConstructor(String.class).newInstance(messageDestinationSetup);
-		} catch (InstantiationException | IllegalAccessException
-				| IllegalArgumentException | InvocationTargetException
-				| NoSuchMethodException | SecurityException
-				| ClassNotFoundException e) {
-			throw new RuntimeException(e);
-		}
+		IMessageDestination messageDestination = DestinationOptions.createDestination(
+				cmd, DESTINATION_CLASS_ARG, DESTINATION_SETUP_ARG);
+		messageDestination = DestinationOptions.wrapDestination(cmd, messageDestination);
 
 		String queryPortString = cmd.getOptionValue(QUERY_PORT_ARG, DEFAULT_QUERY_PORT);
 		try {
@@ -140,6 +133,9 @@ public class ScraperMain {
 		BF1942Scraper scraper = new BF1942Scraper(messageDestination,
 				modDirectory, host, queryPort, rconPort, rconUser, rconPassword);
 
+		scraper.setDeltaMessages(cmd.hasOption(DestinationOptions.DELTA_ARG));
+		scraper.setSnapshotMessages(cmd.hasOption(DestinationOptions.SNAPSHOT_ARG));
+
 		scraper.start();
 		do {
 			try {
@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -16,7 +18,6 @@ import jepperscore.dao.IMessageDestination;
 import jepperscore.dao.model.Alias;
 import jepperscore.dao.model.Event;
 import jepperscore.dao.model.EventCode;
-import jepperscore.dao.model.Round;
 import jepperscore.dao.model.Score;
 import jepperscore.dao.model.Team;
 import jepperscore.dao.transport.TransportMessage;
@@ -544,10 +545,7 @@ public class BF1942LogStreamer implements Runnable {
 		if (newEvent != null) {
 			TransportMessage transportMessage = new TransportMessage();
 			transportMessage.setEvent(newEvent);
-			Round round = roundManager.getCurrentRound();
-			if (round != null) {
-				transportMessage.setSessionId(round.getId());
-			}
+			transportMessage.setSessionId(roundManager.getCurrentSessionId());
 			messageDestination.sendMessage(transportMessage);
 		}
 	}
@@ -560,6 +558,8 @@ public class BF1942LogStreamer implements Runnable {
 	 */
 	private void handleRoundStats(@Nonnull Element roundStatsElement) {
 		NodeList childern = roundStatsElement.getChildNodes();
+		List<Alias> players = new ArrayList<Alias>();
+		List<Score> scores = new ArrayList<Score>();
 		for (int i = 0; i < childern.getLength(); i++) {
 			Node child = childern.item(i);
 			if ((child.getNodeType() == Node.ELEMENT_NODE)
@@ -574,7 +574,7 @@ public class BF1942LogStreamer implements Runnable {
 						Alias player = new Alias();
 						player.setId(playerId);
 						player.setName(name);
-						playerManager.providePlayerRecord(player);
+						players.add(player);
 
 						String scoreString = getRoundStatsParameter(element,
 								"score");
@@ -586,12 +586,15 @@ public class BF1942LogStreamer implements Runnable {
 							score.setAlias(player);
 							score.setScore(scoreValue);
 
-							scoreManager.provideScoreRecord(score);
+							scores.add(score);
 						}
 					}
 				}
 			}
 		}
+
+		playerManager.providePlayerRecords(players);
+		scoreManager.provideScoreRecords(scores);
 	}
 
 }
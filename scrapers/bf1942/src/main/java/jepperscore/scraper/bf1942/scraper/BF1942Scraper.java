@@ -123,13 +123,8 @@ public class BF1942Scraper implements Scraper, Runnable {
 				dataManager.provideRoundRecord(r);
 			}
 
-			for (Alias player : info.getPlayers()) {
-				dataManager.providePlayerRecord(player);
-			}
-
-			for (Score score : info.getScores()) {
-				dataManager.provideScoreRecord(score);
-			}
+			dataManager.providePlayerRecords(info.getPlayers());
+			dataManager.provideScoreRecords(info.getScores());
 		}
 
 		@Override
@@ -333,6 +328,28 @@ public class BF1942Scraper implements Scraper, Runnable {
 		dataManager = new SimpleDataManager(messageDestination);
 	}
 
+	/**
+	 * Enables or disables delta messages, see
+	 * {@link SimpleDataManager#setDeltaMessages(boolean)}.
+	 *
+	 * @param deltaMessages
+	 *            True to send delta messages.
+	 */
+	public void setDeltaMessages(boolean deltaMessages) {
+		dataManager.setDeltaMessages(deltaMessages);
+	}
+
+	/**
+	 * Enables or disables round snapshot messages, see
+	 * {@link SimpleDataManager#setSnapshotMessages(boolean)}.
+	 *
+	 * @param snapshotMessages
+	 *            True to send snapshot messages.
+	 */
+	public void setSnapshotMessages(boolean snapshotMessages) {
+		dataManager.setSnapshotMessages(snapshotMessages);
+	}
+
 	@Override
 	public ScraperStatus getStatus() {
 		return status;
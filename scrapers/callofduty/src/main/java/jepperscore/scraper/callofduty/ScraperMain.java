@@ -1,9 +1,8 @@
 package jepperscore.scraper.callofduty;
 
-import java.lang.reflect.InvocationTargetException;
-
 import jepperscore.dao.IMessageDestination;
 import jepperscore.scraper.callofduty.scraper.CoDScraper;
+import jepperscore.scraper.common.DestinationOptions;
 import jepperscore.scraper.common.ScraperStatus;
 
 import org.apache.commons.cli.BasicParser;
@@ -72,9 +71,9 @@ public class ScraperMain {
 		Options options = new Options();
 
 		options.addOption(DESTINATION_CLASS_ARG, true,
-				"Specifies the destination class.");
+				"Specifies the destination class, may be repeated.");
 		options.addOption(DESTINATION_SETUP_ARG, true,
-				"Specifies the destination class setup.");
+				"Specifies the destination class setup, one per destination class.");
 		options.addOption(CONSOLE_LOG_ARG, true,
 				"Specifies CoD's log location.");
 		options.addOption(COD_VERSION_ARG, true,
@@ -83,6 +82,8 @@ public class ScraperMain {
 		options.addOption(SERVER_HOST, true, "Specifies the server hostname.");
 		options.addOption(QUERY_PORT, true, "Specifies the query port.");
 
+		DestinationOptions.addOptions(options);
+
 		CommandLineParser parser = new BasicParser();
 		CommandLine cmd = parser.parse(options, args);
 
@@ -94,31 +95,21 @@ public class ScraperMain {
 					"Incorrect arguments! Need -c [Message Destination Class] -s [Message Destination Setup] -l [CoD Server Log] -v [Cod Version] {-h [Server Hostname]} {-q [Query Port]}");
 		}
 
-		String messageDestinationClass = cmd
-				.getOptionValue(DESTINATION_CLASS_ARG);
-		String messageDestinationSetup = cmd
-				.getOptionValue(DESTINATION_SETUP_ARG);
 		String logFile = cmd.getOptionValue(CONSOLE_LOG_ARG);
 		CodVersion version = CodVersion.valueOf(cmd.getOptionValue(COD_VERSION_ARG, "").toUpperCase());
 		String server = cmd.getOptionValue(SERVER_HOST, DEFAULT_SERVER_HOST);
 		int queryPort = Integer.parseInt(cmd.getOptionValue(QUERY_PORT, DEFAULT_QUERY_PORT));
 
-		IMessageDestination messageDestination;
-		try {
-			messageDestination = (IMessageDestination) ScraperMain.class
-					.getClassLoader().loadClass(messageDestinationClass)
-					.getConstructor(String.class)
-					.newInstance(messageDestinationSetup);
-		} catch (InstantiationException | IllegalAccessException
-				| IllegalArgumentException | InvocationTargetException
-				| NoSuchMethodException | SecurityException
-				| ClassNotFoundException e) {
-			throw new RuntimeException(e);
-		}
+		IMessageDestination messageDestination = DestinationOptions.createDestination(
+				cmd, DESTINATION_CLASS_ARG, DESTINATION_SETUP_ARG);
+		messageDestination = DestinationOptions.wrapDestination(cmd, messageDestination);
 
 		CoDScraper scraper = new CoDScraper(messageDestination, logFile,
 				version, server, queryPort);
 
+		scraper.setDeltaMessages(cmd.hasOption(DestinationOptions.DELTA_ARG));
+		scraper.setSnapshotMessages(cmd.hasOption(DestinationOptions.SNAPSHOT_ARG));
+
 		scraper.start();
 		do {
 			try {
@@ -5,8 +5,6 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import jepperscore.dao.IMessageDestination;
-import jepperscore.dao.model.Alias;
-import jepperscore.dao.model.Score;
 import jepperscore.scraper.callofduty.CodVersion;
 import jepperscore.scraper.common.Scraper;
 import jepperscore.scraper.common.ScraperStatus;
@@ -56,6 +54,16 @@ public class CoDScraper implements Scraper, Runnable, QueryClientListener {
 	 */
 	private SimpleDataManager dataManager;
 
+	/**
+	 * True to send delta messages.
+	 */
+	private boolean deltaMessages = false;
+
+	/**
+	 * True to send snapshot messages.
+	 */
+	private boolean snapshotMessages = false;
+
 	/**
 	 * Keeps track of the current running thread.
 	 */
@@ -99,6 +107,30 @@ public class CoDScraper implements Scraper, Runnable, QueryClientListener {
 		this.queryPort = queryPort;
 	}
 
+	/**
+	 * Enables or disables delta messages, see
+	 * {@link SimpleDataManager#setDeltaMessages(boolean)}.
+	 * Takes effect when the scraper is started.
+	 *
+	 * @param deltaMessages
+	 *            True to send delta messages.
+	 */
+	public void setDeltaMessages(boolean deltaMessages) {
+		this.deltaMessages = deltaMessages;
+	}
+
+	/**
+	 * Enables or disables round snapshot messages, see
+	 * {@link SimpleDataManager#setSnapshotMessages(boolean)}.
+	 * Takes effect when the scraper is started.
+	 *
+	 * @param snapshotMessages
+	 *            True to send snapshot messages.
+	 */
+	public void setSnapshotMessages(boolean snapshotMessages) {
+		this.snapshotMessages = snapshotMessages;
+	}
+
 	@Override
 	public ScraperStatus getStatus() {
 		return status;
@@ -110,6 +142,8 @@ public class CoDScraper implements Scraper, Runnable, QueryClientListener {
 			status = ScraperStatus.Initializing;
 
 			dataManager = new SimpleDataManager(messageDestination);
+			dataManager.setDeltaMessages(deltaMessages);
+			dataManager.setSnapshotMessages(snapshotMessages);
 
 			try {
 				queryClient = new Quake3QueryClient(server, queryPort);
@@ -159,13 +193,8 @@ public class CoDScraper implements Scraper, Runnable, QueryClientListener {
 
 	@Override
 	public void queryClient(QueryCallbackInfo info) {
-		for (Alias player : info.getPlayers()) {
-			dataManager.providePlayerRecord(player);
-		}
-
-		for (Score score : info.getScores()) {
-			dataManager.provideScoreRecord(score);
-		}
+		dataManager.providePlayerRecords(info.getPlayers());
+		dataManager.provideScoreRecords(info.getScores());
 	}
 
 }
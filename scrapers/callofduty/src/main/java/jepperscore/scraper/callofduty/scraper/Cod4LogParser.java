@@ -295,10 +295,7 @@ public class Cod4LogParser extends AbstractLineLogParser {
 
 				TransportMessage transportMessage = new TransportMessage();
 				transportMessage.setEvent(e);
-				Round round = roundManager.getCurrentRound();
-				if (round != null) {
-					transportMessage.setSessionId(round.getId());
-				}
+				transportMessage.setSessionId(roundManager.getCurrentSessionId());
 				messageDestination.sendMessage(transportMessage);
 			}
 			break;
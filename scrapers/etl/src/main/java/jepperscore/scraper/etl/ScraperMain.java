@@ -1,9 +1,7 @@
 package jepperscore.scraper.etl;
 
-
-import java.lang.reflect.InvocationTargetException;
-
 import jepperscore.dao.IMessageDestination;
+import jepperscore.scraper.common.DestinationOptions;
 import jepperscore.scraper.common.ScraperStatus;
 import jepperscore.scraper.etl.scraper.ETLScraper;
 
@@ -68,15 +66,17 @@ public class ScraperMain {
 		Options options = new Options();
 
 		options.addOption(DESTINATION_CLASS_ARG, true,
-				"Specifies the destination class.");
+				"Specifies the destination class, may be repeated.");
 		options.addOption(DESTINATION_SETUP_ARG, true,
-				"Specifies the destination class setup.");
+				"Specifies the destination class setup, one per destination class.");
 		options.addOption(CONSOLE_LOG_ARG, true,
 				"Specifies ETL's log location.");
 
 		options.addOption(SERVER_HOST, true, "Specifies the server hostname.");
 		options.addOption(QUERY_PORT, true, "Specifies the query port.");
 
+		DestinationOptions.addOptions(options);
+
 		CommandLineParser parser = new BasicParser();
 		CommandLine cmd = parser.parse(options, args);
 
@@ -87,30 +87,20 @@ public class ScraperMain {
 					"Incorrect arguments! Need -c [Message Destination Class] -s [Message Destination Setup] -l [ETL's Server Log] {-h [Server Hostname]} {-q [Query Port]}");
 		}
 
-		String messageDestinationClass = cmd
-				.getOptionValue(DESTINATION_CLASS_ARG);
-		String messageDestinationSetup = cmd
-				.getOptionValue(DESTINATION_SETUP_ARG);
 		String logFile = cmd.getOptionValue(CONSOLE_LOG_ARG);
 		String server = cmd.getOptionValue(SERVER_HOST, DEFAULT_SERVER_HOST);
 		int queryPort = Integer.parseInt(cmd.getOptionValue(QUERY_PORT, DEFAULT_QUERY_PORT));
 
-		IMessageDestination messageDestination;
-		try {
-			messageDestination = (IMessageDestination) ScraperMain.class
-					.getClassLoader().loadClass(messageDestinationClass)
-					.getConstructor(String.class)
-					.newInstance(messageDestinationSetup);
-		} catch (InstantiationException | IllegalAccessException
-				| IllegalArgumentException | InvocationTargetException
-				| NoSuchMethodException | SecurityException
-				| ClassNotFoundException e) {
-			throw new RuntimeException(e);
-		}
+		IMessageDestination messageDestination = DestinationOptions.createDestination(
+				cmd, DESTINATION_CLASS_ARG, DESTINATION_SETUP_ARG);
+		messageDestination = DestinationOptions.wrapDestination(cmd, messageDestination);
 
 		ETLScraper scraper = new ETLScraper(messageDestination, logFile,
 				server, queryPort);
 
+		scraper.setDeltaMessages(cmd.hasOption(DestinationOptions.DELTA_ARG));
+		scraper.setSnapshotMessages(cmd.hasOption(DestinationOptions.SNAPSHOT_ARG));
+
 		scraper.start();
 		do {
 			try {
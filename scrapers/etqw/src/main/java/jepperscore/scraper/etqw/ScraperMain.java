@@ -1,8 +1,7 @@
 package jepperscore.scraper.etqw;
 
-import java.lang.reflect.InvocationTargetException;
-
 import jepperscore.dao.IMessageDestination;
+import jepperscore.scraper.common.DestinationOptions;
 import jepperscore.scraper.common.ScraperStatus;
 import jepperscore.scraper.etqw.scraper.ETQWScraper;
 
@@ -59,12 +58,14 @@ public class ScraperMain {
 	public static void main(String[] args) throws ParseException {
 		Options options = new Options();
 
-		options.addOption(DESTINATION_CLASS_ARG, true, "Specifies the destination class.");
-		options.addOption(DESTINATION_SETUP_ARG, true, "Specifies the destination class setup.");
+		options.addOption(DESTINATION_CLASS_ARG, true, "Specifies the destination class, may be repeated.");
+		options.addOption(DESTINATION_SETUP_ARG, true, "Specifies the destination class setup, one per destination class.");
 		options.addOption(LOG_DIRECTORY_ARG, true, "Specifies ETQW's log directory.");
 		options.addOption(HOSTNAME_ARG, true, "Specifies the hostname of the server.");
 		options.addOption(QUERY_PORT_ARG, true, "Specifies the query port of the server.");
 
+		DestinationOptions.addOptions(options);
+
 		CommandLineParser parser = new BasicParser();
 		CommandLine cmd = parser.parse( options, args);
 
@@ -73,21 +74,13 @@ public class ScraperMain {
 					"Incorrect arguments! Need -c [Message Destination Class] -s [Message Destination Setup] -l [ETQW Log Directory] -h [Hostname] {-p [Query Port]}");
 		}
 
-		String messageDestinationClass = cmd.getOptionValue(DESTINATION_CLASS_ARG);
-		String messageDestinationSetup = cmd.getOptionValue(DESTINATION_SETUP_ARG);
 		String logDirectory = cmd.getOptionValue(LOG_DIRECTORY_ARG);
 		String host = cmd.getOptionValue(HOSTNAME_ARG);
 		int queryPort = 0;
 
-		IMessageDestination messageDestination;
-		try {
-			messageDestination = (IMessageDestination) ScraperMain.class.getClassLoader().loadClass(messageDestinationClass).getConstructor(String.class).newInstance(messageDestinationSetup);
-		} catch (InstantiationException | IllegalAccessException
-				| IllegalArgumentException | InvocationTargetException
-				| NoSuchMethodException | SecurityException
-				| ClassNotFoundException e) {
-			throw new RuntimeException(e);
-		}
+		IMessageDestination messageDestination = DestinationOptions.createDestination(
+				cmd, DESTINATION_CLASS_ARG, DESTINATION_SETUP_ARG);
+		messageDestination = DestinationOptions.wrapDestination(cmd, messageDestination);
 
 
 		String queryPortString = cmd.getOptionValue(QUERY_PORT_ARG, DEFAULT_QUERY_PORT);
@@ -104,6 +97,9 @@ public class ScraperMain {
 		ETQWScraper scraper = new ETQWScraper(messageDestination, logDirectory,
 				host, queryPort);
 
+		scraper.setDeltaMessages(cmd.hasOption(DestinationOptions.DELTA_ARG));
+		scraper.setSnapshotMessages(cmd.hasOption(DestinationOptions.SNAPSHOT_ARG));
+
 		scraper.start();
 		do {
 			try {
@@ -95,6 +95,16 @@ public class ETQWScraper implements Scraper, Runnable {
 	 */
 	private volatile SimpleDataManager dataManager;
 
+	/**
+	 * True to send delta messages.
+	 */
+	private boolean deltaMessages = false;
+
+	/**
+	 * True to send snapshot messages.
+	 */
+	private boolean snapshotMessages = false;
+
 	/**
 	 * This constructor sets the ETQW scraper.
 	 *
@@ -116,6 +126,30 @@ public class ETQWScraper implements Scraper, Runnable {
 		this.messageDestination = messageDestination;
 	}
 
+	/**
+	 * Enables or disables delta messages, see
+	 * {@link SimpleDataManager#setDeltaMessages(boolean)}.
+	 * Takes effect when the scraper is started.
+	 *
+	 * @param deltaMessages
+	 *            True to send delta messages.
+	 */
+	public void setDeltaMessages(boolean deltaMessages) {
+		this.deltaMessages = deltaMessages;
+	}
+
+	/**
+	 * Enables or disables round snapshot messages, see
+	 * {@link SimpleDataManager#setSnapshotMessages(boolean)}.
+	 * Takes effect when the scraper is started.
+	 *
+	 * @param snapshotMessages
+	 *            True to send snapshot messages.
+	 */
+	public void setSnapshotMessages(boolean snapshotMessages) {
+		this.snapshotMessages = snapshotMessages;
+	}
+
 	@Override
 	public ScraperStatus getStatus() {
 		return status;
@@ -133,6 +167,8 @@ public class ETQWScraper implements Scraper, Runnable {
 			}
 
 			dataManager = new SimpleDataManager(messageDestination);
+			dataManager.setDeltaMessages(deltaMessages);
+			dataManager.setSnapshotMessages(snapshotMessages);
 
 			try {
 				LOG.info("Starting query client on {}:{}", new Object[] { host,
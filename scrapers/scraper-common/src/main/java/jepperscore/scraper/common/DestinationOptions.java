@@ -0,0 +1,172 @@
+package jepperscore.scraper.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.IMessageDestination;
+import jepperscore.dao.transport.CoalescingMessageDestination;
+import jepperscore.dao.transport.FanOutMessageDestination;
+import jepperscore.dao.transport.ReferencingMessageDestination;
+import jepperscore.dao.transport.SpoolingMessageDestination;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+
+/**
+ * This class holds the command line options shared by the scrapers for
+ * shaping what is sent to the message destination.
+ *
+ * @author Chuck
+ *
+ */
+public final class DestinationOptions {
+
+	/**
+	 * Sends nested aliases and rounds as references.
+	 */
+	public static final String REFERENCES_ARG = "n";
+
+	/**
+	 * Spools the messages in the given directory before sending them.
+	 */
+	public static final String SPOOL_ARG = "j";
+
+	/**
+	 * Holds state messages for the given number of milliseconds, sending only
+	 * the newest one for each entity.
+	 */
+	public static final String COALESCE_ARG = "w";
+
+	/**
+	 * Sends changes to aliases, scores and teams as deltas.
+	 */
+	public static final String DELTA_ARG = "e";
+
+	/**
+	 * Sends snapshots of the round, so receivers can join mid-round.
+	 */
+	public static final String SNAPSHOT_ARG = "t";
+
+	/**
+	 * Utility class.
+	 */
+	private DestinationOptions() {
+
+	}
+
+	/**
+	 * Adds the shared options.
+	 *
+	 * @param options
+	 *            The options to add to.
+	 */
+	public static void addOptions(@Nonnull Options options) {
+		options.addOption(REFERENCES_ARG, false,
+				"Sends nested aliases and rounds as references to ones already sent.");
+		options.addOption(SPOOL_ARG, true,
+				"Spools the messages in the given directory, one numbered subdirectory per destination if there are several, so a slow or unavailable destination does not hold up the scraper.");
+		options.addOption(COALESCE_ARG, true,
+				"Holds score, team, alias, round and server updates for the given number of milliseconds, sending only the newest one for each.");
+		options.addOption(DELTA_ARG, false,
+				"Sends changes to aliases, scores and teams already sent as deltas holding only the changed fields.");
+		options.addOption(SNAPSHOT_ARG, false,
+				"Sends snapshots of the round, teams, players and scores at round boundaries and periodically, so receivers can join mid-round.");
+	}
+
+	/**
+	 * Creates the message destinations named on the command line. The class
+	 * and setup options may each be given several times, in matching order,
+	 * in which case the messages are sent to every destination through a
+	 * {@link FanOutMessageDestination}. When spooling, each destination gets
+	 * a journal of its own, in a numbered subdirectory if there are several,
+	 * so one failing destination is retried without resending to the others.
+	 *
+	 * @param cmd
+	 *            The parsed command line.
+	 * @param classArg
+	 *            The option holding the destination class.
+	 * @param setupArg
+	 *            The option holding the destination setup.
+	 * @return The message destination.
+	 */
+	@Nonnull
+	public static IMessageDestination createDestination(@Nonnull CommandLine cmd,
+			@Nonnull String classArg, @Nonnull String setupArg) {
+		String[] classes = cmd.getOptionValues(classArg);
+		String[] setups = cmd.getOptionValues(setupArg);
+		if ((classes == null) || (setups == null) || (classes.length != setups.length)) {
+			throw new RuntimeException("Incorrect arguments! Each -" + classArg
+					+ " [Message Destination Class] needs a matching -" + setupArg
+					+ " [Message Destination Setup]");
+		}
+
+		List<IMessageDestination> destinations = new ArrayList<IMessageDestination>(classes.length);
+		for (int i = 0; i < classes.length; i++) {
+			IMessageDestination destination;
+			try {
+				destination = (IMessageDestination) DestinationOptions.class
+						.getClassLoader().loadClass(classes[i])
+						.getConstructor(String.class).newInstance(setups[i]);
+			} catch (InstantiationException | IllegalAccessException
+					| IllegalArgumentException | InvocationTargetException
+					| NoSuchMethodException | SecurityException
+					| ClassNotFoundException e) {
+				throw new RuntimeException(e);
+			}
+
+			if (cmd.hasOption(SPOOL_ARG)) {
+				File directory = new File(cmd.getOptionValue(SPOOL_ARG));
+				if (classes.length > 1) {
+					directory = new File(directory, Integer.toString(i));
+				}
+				try {
+					destination = new SpoolingMessageDestination(destination, directory);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			destinations.add(destination);
+		}
+
+		if (destinations.size() == 1) {
+			return destinations.get(0);
+		}
+		return new FanOutMessageDestination(destinations);
+	}
+
+	/**
+	 * Wraps the message destination as requested on the command line.
+	 *
+	 * @param cmd
+	 *            The parsed command line.
+	 * @param messageDestination
+	 *            The message destination.
+	 * @return The message destination to give to the scraper.
+	 */
+	@Nonnull
+	public static IMessageDestination wrapDestination(@Nonnull CommandLine cmd,
+			@Nonnull IMessageDestination messageDestination) {
+		IMessageDestination destination = messageDestination;
+
+		if (cmd.hasOption(REFERENCES_ARG)) {
+			destination = new ReferencingMessageDestination(destination);
+		}
+
+		if (cmd.hasOption(COALESCE_ARG)) {
+			String window = cmd.getOptionValue(COALESCE_ARG);
+			try {
+				destination = new CoalescingMessageDestination(destination,
+						Long.parseLong(window));
+			} catch (IllegalArgumentException e) {
+				throw new RuntimeException("Could not parse coalescing window: " + window);
+			}
+		}
+
+		return destination;
+	}
+}
@@ -1,5 +1,8 @@
 package jepperscore.scraper.common;
 
+import java.util.Collection;
+import java.util.List;
+
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
@@ -25,6 +28,17 @@ public interface PlayerManager extends BaseDataManager {
 	@Nonnull
 	Alias providePlayerRecord(@Nonnull Alias player);
 
+	/**
+	 * This function merges several aliases at once, sending all resulting
+	 * messages as one batch.
+	 *
+	 * @param players
+	 *            The players to merge.
+	 * @return The merged player records, in order.
+	 */
+	@Nonnull
+	List<Alias> providePlayerRecords(@Nonnull Collection<Alias> players);
+
 	/**
 	 * Looks up or creates a player based on their ID.
 	 *
@@ -1,5 +1,6 @@
 package jepperscore.scraper.common;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import jepperscore.dao.model.Round;
@@ -25,4 +26,13 @@ public interface RoundManager extends BaseDataManager {
 	 * @return The round record.
 	 */
 	Round getCurrentRound();
+
+	/**
+	 * Provides the id of the latest round record, null if none has been
+	 * provided. Unlike {@link #getCurrentRound()} this does not copy the
+	 * round, so it suits tagging every event with its session.
+	 * @return The session id.
+	 */
+	@CheckForNull
+	String getCurrentSessionId();
 }
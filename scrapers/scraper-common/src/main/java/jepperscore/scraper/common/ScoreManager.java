@@ -1,5 +1,8 @@
 package jepperscore.scraper.common;
 
+import java.util.Collection;
+import java.util.List;
+
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
@@ -22,6 +25,15 @@ public interface ScoreManager extends BaseDataManager {
 	 */
 	Score provideScoreRecord(@Nonnull Score score);
 
+	/**
+	 * This function merges several scores at once, sending all resulting
+	 * messages as one batch.
+	 * @param scores The score records to merge.
+	 * @return The updated scores, in order.
+	 */
+	@Nonnull
+	List<Score> provideScoreRecords(@Nonnull Collection<Score> scores);
+
 	/**
 	 * Returns the score for a given player.
 	 * @param player The player.
@@ -2,8 +2,12 @@ package jepperscore.scraper.common;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.annotation.CheckForNull;
@@ -16,6 +20,8 @@ import jepperscore.dao.model.Person;
 import jepperscore.dao.model.Round;
 import jepperscore.dao.model.Score;
 import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.EntityDelta;
+import jepperscore.dao.transport.RoundSnapshot;
 import jepperscore.dao.transport.TransportMessage;
 
 import org.joda.time.DateTime;
@@ -32,6 +38,11 @@ import org.slf4j.LoggerFactory;
 public class SimpleDataManager implements PlayerManager, GameManager,
 		RoundManager, TeamManager, ScoreManager {
 
+	/**
+	 * The default time between two snapshots of the round, in milliseconds.
+	 */
+	public static final long DEFAULT_SNAPSHOT_INTERVAL = 30000;
+
 	/**
 	 * The logger.
 	 */
@@ -73,11 +84,48 @@ public class SimpleDataManager implements PlayerManager, GameManager,
 	 */
 	private boolean wipePlayers = true;
 
+	/**
+	 * Send {@link EntityDelta} messages for entities that were already sent?
+	 */
+	private boolean deltaMessages = false;
+
+	/**
+	 * The entities sent in full during the current round, as type and id.
+	 * Only these may be followed by delta messages.
+	 */
+	private Set<String> sentEntities = new HashSet<String>();
+
+	/**
+	 * Send {@link RoundSnapshot} messages?
+	 */
+	private boolean snapshotMessages = false;
+
+	/**
+	 * The time between two snapshots of the round, in milliseconds.
+	 */
+	private long snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+
+	/**
+	 * When the last snapshot was sent.
+	 */
+	private long lastSnapshotTime = 0;
+
+	/**
+	 * True while a snapshot is being sent.
+	 */
+	private boolean sendingSnapshot = false;
+
 	/**
 	 * The message destination.
 	 */
 	private IMessageDestination messageDestination;
 
+	/**
+	 * The messages held back while a batch is being provided, or null when
+	 * messages are sent immediately.
+	 */
+	private List<TransportMessage> pendingMessages;
+
 	/**
 	 * Constructor for the player manager.
 	 *
@@ -100,6 +148,63 @@ public class SimpleDataManager implements PlayerManager, GameManager,
 		return this.wipePlayers;
 	}
 
+	/**
+	 * Enables or disables delta messages. When enabled, changes to an alias,
+	 * score or team that was already sent are sent as an {@link EntityDelta}
+	 * holding only the changed fields. Receivers should wrap their callback in
+	 * a {@link jepperscore.dao.transport.DeltaApplier}.
+	 *
+	 * @param deltaMessages
+	 *            True to send delta messages.
+	 */
+	public void setDeltaMessages(boolean deltaMessages) {
+		this.deltaMessages = deltaMessages;
+	}
+
+	/**
+	 * @return True if delta messages are sent.
+	 */
+	public boolean isDeltaMessages() {
+		return deltaMessages;
+	}
+
+	/**
+	 * Enables or disables snapshot messages. When enabled, a
+	 * {@link RoundSnapshot} of the round, teams, players and scores is sent
+	 * when a round starts or ends, and with the first message after every
+	 * snapshot interval. Receivers joining mid-round should wrap their
+	 * callback in a {@link jepperscore.dao.transport.SnapshotBootstrap}.
+	 *
+	 * @param snapshotMessages
+	 *            True to send snapshot messages.
+	 */
+	public void setSnapshotMessages(boolean snapshotMessages) {
+		this.snapshotMessages = snapshotMessages;
+	}
+
+	/**
+	 * @return True if snapshot messages are sent.
+	 */
+	public boolean isSnapshotMessages() {
+		return snapshotMessages;
+	}
+
+	/**
+	 * @param snapshotInterval
+	 *            The time between two snapshots of the round, in
+	 *            milliseconds.
+	 */
+	public void setSnapshotInterval(long snapshotInterval) {
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	/**
+	 * @return The time between two snapshots of the round, in milliseconds.
+	 */
+	public long getSnapshotInterval() {
+		return snapshotInterval;
+	}
+
 	/**
 	 * This function takes an alias and merges it with the existing alias
 	 * definition.
@@ -146,49 +251,66 @@ public class SimpleDataManager implements PlayerManager, GameManager,
 			changeDetected = true;
 		}
 
+		EntityDelta delta = new EntityDelta(EntityDelta.TYPE_ALIAS,
+				oldPlayer.getId());
+
 		String newName = player.getName();
 		if ((!newName.equals(oldPlayer.getName()))) {
 			oldPlayer.setName(newName);
+			delta.putField(EntityDelta.FIELD_NAME, newName);
 			changeDetected = true;
 		}
 
 		String newDecorationStyle = player.getDecorationStyle();
 		if ((!newDecorationStyle.equals(oldPlayer.getDecorationStyle()))) {
 			oldPlayer.setDecorationStyle(newDecorationStyle);
+			delta.putField(EntityDelta.FIELD_DECORATION_STYLE,
+					newDecorationStyle);
 			changeDetected = true;
 		}
 
 		Team newTeam = player.getTeam();
 		if ((newTeam != null) && (!newTeam.equals(oldPlayer.getTeam()))) {
 			oldPlayer.setTeam(newTeam);
+			delta.putField(EntityDelta.FIELD_TEAM, newTeam.getTeamName());
 			changeDetected = true;
 		}
 
 		Boolean newBot = player.isBot();
 		if ((newBot != null) && (!newBot.equals(oldPlayer.isBot()))) {
 			oldPlayer.setBot(newBot);
+			delta.putField(EntityDelta.FIELD_BOT, newBot);
 			changeDetected = true;
 		}
 
 		Person newPerson = player.getPerson();
 		if ((newPerson != null) && (!newPerson.equals(oldPlayer.getPerson()))) {
 			oldPlayer.setPerson(newPerson);
+			delta.putField(EntityDelta.FIELD_PERSON, newPerson.getName());
 			changeDetected = true;
 		}
 
 		Game newGame = player.getGame();
 		if ((newGame != null) && (!newGame.equals(oldPlayer.getGame()))) {
 			oldPlayer.setGame(newGame);
+			delta.putField(EntityDelta.FIELD_GAME_NAME, newGame.getName());
+			delta.putField(EntityDelta.FIELD_GAME_GAMETYPE,
+					newGame.getGametype());
+			delta.putField(EntityDelta.FIELD_GAME_MOD, newGame.getMod());
 			changeDetected = true;
 		}
 
 		boolean present = player.isPresent();
 		if (present != oldPlayer.isPresent()) {
 			oldPlayer.setPresent(present);
+			delta.putField(EntityDelta.FIELD_PRESENT, present);
 			changeDetected = true;
 		}
 
-		if (changeDetected) {
+		if (changeDetected && deltaMessages
+				&& markSent(EntityDelta.TYPE_ALIAS, oldPlayer.getId())) {
+			sendDelta(delta);
+		} else if (changeDetected) {
 			TransportMessage msg = new TransportMessage();
 			msg.setId(oldPlayer.getId());
 			msg.setAlias(oldPlayer);
@@ -196,12 +318,30 @@ public class SimpleDataManager implements PlayerManager, GameManager,
 			if (round != null) {
 				msg.setSessionId(round.getId());
 			}
-			messageDestination.sendMessage(msg);
+			send(msg);
 		}
 
 		return oldPlayer.copy();
 	}
 
+	@Override
+	@Nonnull
+	public synchronized List<Alias> providePlayerRecords(
+			@Nonnull Collection<Alias> players) {
+		List<Alias> mergedPlayers = new ArrayList<Alias>(players.size());
+		boolean batchStarted = startBatch();
+		try {
+			for (Alias player : players) {
+				mergedPlayers.add(providePlayerRecord(player));
+			}
+		} finally {
+			if (batchStarted) {
+				sendBatch();
+			}
+		}
+		return mergedPlayers;
+	}
+
 	/**
 	 * This function resets all knowledge about players.
 	 */
@@ -225,6 +365,7 @@ public class SimpleDataManager implements PlayerManager, GameManager,
 			}
 			teams.clear();
 			scores.clear();
+			sentEntities.clear();
 
 			Round newRound;
 			if (r == null) {
@@ -310,15 +451,18 @@ public class SimpleDataManager implements PlayerManager, GameManager,
 	@Override
 	public synchronized Round provideRoundRecord(Round round) {
 		boolean changeDetected = false;
+		boolean boundary = false;
 
 		if (currentRound == null) {
 			currentRound = round.copy();
 			currentRound.setGame(currentGame);
 			changeDetected = true;
+			boundary = true;
 		} else {
 			String id = round.getId();
 			if ((id != null) && (!id.equals(currentRound.getId()))) {
 				currentRound.setId(round.getId());
+				sentEntities.clear();
 
 				String oldRoundPrefix = roundPrefix;
 				roundPrefix = currentRound.getId() + ":";
@@ -336,6 +480,7 @@ public class SimpleDataManager implements PlayerManager, GameManager,
 				}
 
 				changeDetected = true;
+				boundary = true;
 			}
 
 			Game game = round.getGame();
@@ -360,6 +505,7 @@ public class SimpleDataManager implements PlayerManager, GameManager,
 			if ((end != null) && (!end.equals(currentRound.getEnd()))) {
 				currentRound.setEnd(end);
 				changeDetected = true;
+				boundary = true;
 			}
 		}
 
@@ -371,7 +517,11 @@ public class SimpleDataManager implements PlayerManager, GameManager,
 				msg.setId(cRound.getId());
 				msg.setSessionId(cRound.getId());
 			}
-			messageDestination.sendMessage(msg);
+			if (boundary) {
+				// Sends a snapshot along with the message.
+				lastSnapshotTime = 0;
+			}
+			send(msg);
 		}
 
 		return currentRound.copy();
@@ -386,6 +536,13 @@ public class SimpleDataManager implements PlayerManager, GameManager,
 		}
 	}
 
+	@Override
+	@CheckForNull
+	public synchronized String getCurrentSessionId() {
+		Round round = currentRound;
+		return (round == null) ? null : round.getId();
+	}
+
 	@Override
 	public synchronized Game provideGameRecord(Game game) {
 		boolean changeDetected = false;
@@ -423,7 +580,7 @@ public class SimpleDataManager implements PlayerManager, GameManager,
 				msg.setRound(round);
 
 				msg.setSessionId(round.getId());
-				messageDestination.sendMessage(msg);
+				send(msg);
 			}
 		}
 
@@ -463,18 +620,38 @@ public class SimpleDataManager implements PlayerManager, GameManager,
 
 		oldScore.setAlias(alias);
 
-		if (changeDetected) {
+		if (changeDetected && deltaMessages && isScoreSent(oldScore)) {
+			sendScoreDelta(oldScore);
+		} else if (changeDetected) {
 			TransportMessage msg = new TransportMessage();
 			msg.setScore(oldScore);
 			Round round = currentRound;
 			if (round != null) {
 				msg.setSessionId(round.getId());
 			}
-			messageDestination.sendMessage(msg);
+			send(msg);
 		}
 		return score;
 	}
 
+	@Override
+	@Nonnull
+	public synchronized List<Score> provideScoreRecords(
+			@Nonnull Collection<Score> scores) {
+		List<Score> mergedScores = new ArrayList<Score>(scores.size());
+		boolean batchStarted = startBatch();
+		try {
+			for (Score score : scores) {
+				mergedScores.add(provideScoreRecord(score));
+			}
+		} finally {
+			if (batchStarted) {
+				sendBatch();
+			}
+		}
+		return mergedScores;
+	}
+
 	/**
 	 * Gets the score for the alias and optionally copy it.
 	 *
@@ -533,13 +710,17 @@ public class SimpleDataManager implements PlayerManager, GameManager,
 			oldScore.setScore(oldScore.getScore() + amount);
 		}
 
-		TransportMessage transportMessage = new TransportMessage();
-		transportMessage.setScore(oldScore);
-		Round round = currentRound;
-		if (round != null) {
-			transportMessage.setSessionId(round.getId());
+		if (deltaMessages && isScoreSent(oldScore)) {
+			sendScoreDelta(oldScore);
+		} else {
+			TransportMessage transportMessage = new TransportMessage();
+			transportMessage.setScore(oldScore);
+			Round round = currentRound;
+			if (round != null) {
+				transportMessage.setSessionId(round.getId());
+			}
+			send(transportMessage);
 		}
-		messageDestination.sendMessage(transportMessage);
 
 		return oldScore.copy();
 	}
@@ -571,19 +752,162 @@ public class SimpleDataManager implements PlayerManager, GameManager,
 			}
 		}
 
-		if (changeDetected) {
+		if (changeDetected && deltaMessages
+				&& markSent(EntityDelta.TYPE_TEAM, oldTeam.getTeamName())) {
+			EntityDelta delta = new EntityDelta(EntityDelta.TYPE_TEAM,
+					oldTeam.getTeamName());
+			delta.putField(EntityDelta.FIELD_SCORE, oldTeam.getScore());
+			sendDelta(delta);
+		} else if (changeDetected) {
 			TransportMessage msg = new TransportMessage();
 			msg.setTeam(oldTeam);
 			Round round = currentRound;
 			if (round != null) {
 				msg.setSessionId(round.getId());
 			}
-			messageDestination.sendMessage(msg);
+			send(msg);
 		}
 
 		return oldTeam.copy();
 	}
 
+	/**
+	 * Sends a copy of a message, or holds it back if a batch is being
+	 * provided. The message is copied because it holds the managed records,
+	 * which are changed in place after the message is handed to a
+	 * destination that may only send it later.
+	 *
+	 * @param msg
+	 *            The message to send.
+	 */
+	private void send(TransportMessage msg) {
+		TransportMessage copy = new TransportMessage(msg);
+		if (pendingMessages != null) {
+			pendingMessages.add(copy);
+		} else {
+			messageDestination.sendMessage(copy);
+		}
+
+		if (snapshotMessages && !sendingSnapshot
+				&& ((System.currentTimeMillis() - lastSnapshotTime) >= snapshotInterval)) {
+			sendSnapshot();
+		}
+	}
+
+	/**
+	 * Sends a snapshot of the current round, its teams, players and scores.
+	 */
+	public synchronized void sendSnapshot() {
+		Round round = currentRound;
+		if ((round == null) || sendingSnapshot) {
+			return;
+		}
+
+		RoundSnapshot snapshot = new RoundSnapshot(new DateTime(), round);
+		snapshot.getTeams().addAll(teams.values());
+		snapshot.getAliases().addAll(players.values());
+		snapshot.getScores().addAll(scores);
+
+		TransportMessage msg = new TransportMessage();
+		msg.setSnapshot(snapshot);
+		msg.setSessionId(round.getId());
+
+		sendingSnapshot = true;
+		try {
+			send(msg);
+		} finally {
+			sendingSnapshot = false;
+		}
+		lastSnapshotTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Starts holding back messages for a batch.
+	 *
+	 * @return True if a new batch was started, false if one was already
+	 *         running.
+	 */
+	private boolean startBatch() {
+		if (pendingMessages != null) {
+			return false;
+		}
+		pendingMessages = new ArrayList<TransportMessage>();
+		return true;
+	}
+
+	/**
+	 * Sends the held back messages as one batch.
+	 */
+	private void sendBatch() {
+		List<TransportMessage> batch = pendingMessages;
+		pendingMessages = null;
+		if ((batch != null) && !batch.isEmpty()) {
+			messageDestination.sendMessages(batch);
+		}
+	}
+
+	/**
+	 * Marks an entity as sent in the current round.
+	 *
+	 * @param entityType
+	 *            The type of the entity.
+	 * @param entityId
+	 *            The id of the entity.
+	 * @return True if the entity was already sent, and a delta may be used.
+	 */
+	private boolean markSent(String entityType, String entityId) {
+		return !sentEntities.add(entityType + "/" + entityId);
+	}
+
+	/**
+	 * Marks a score as sent in the current round.
+	 *
+	 * @param score
+	 *            The score.
+	 * @return True if the score was already sent, and a delta may be used.
+	 */
+	private boolean isScoreSent(Score score) {
+		Alias alias = score.getAlias();
+		if (alias == null) {
+			return false;
+		}
+		return markSent(EntityDelta.TYPE_SCORE, getInternalId(alias.getId()));
+	}
+
+	/**
+	 * Sends the score of an alias as a delta.
+	 *
+	 * @param score
+	 *            The score.
+	 */
+	private void sendScoreDelta(Score score) {
+		Alias alias = score.getAlias();
+		if (alias == null) {
+			return;
+		}
+
+		EntityDelta delta = new EntityDelta(EntityDelta.TYPE_SCORE,
+				getInternalId(alias.getId()));
+		delta.putField(EntityDelta.FIELD_SCORE, score.getScore());
+		sendDelta(delta);
+	}
+
+	/**
+	 * Sends a delta message for the current round.
+	 *
+	 * @param delta
+	 *            The delta to send.
+	 */
+	private void sendDelta(EntityDelta delta) {
+		TransportMessage msg = new TransportMessage();
+		msg.setDelta(delta);
+		Round round = currentRound;
+		if (round != null) {
+			msg.setSessionId(round.getId());
+		}
+		send(msg);
+	}
+
 	@Override
 	public synchronized Team getTeamById(String id) {
 		return teams.get(id);
@@ -1,8 +1,7 @@
 package jepperscore.scraper.sourceengine;
 
-import java.lang.reflect.InvocationTargetException;
-
 import jepperscore.dao.IMessageDestination;
+import jepperscore.scraper.common.DestinationOptions;
 import jepperscore.scraper.common.ScraperStatus;
 import jepperscore.scraper.sourceengine.scraper.SourceEngineScraper;
 
@@ -62,9 +61,9 @@ public class ScraperMain {
 		Options options = new Options();
 
 		options.addOption(DESTINATION_CLASS_ARG, true,
-				"Specifies the destination class.");
+				"Specifies the destination class, may be repeated.");
 		options.addOption(DESTINATION_SETUP_ARG, true,
-				"Specifies the destination class setup.");
+				"Specifies the destination class setup, one per destination class.");
 		options.addOption(HOSTNAME_ARG, true,
 				"Specifies the hostname of the server.");
 		options.addOption(QUERY_PORT_ARG, true,
@@ -72,6 +71,8 @@ public class ScraperMain {
 		options.addOption(LOG_PORT_ARG, true,
 				"Specifies the log port of the server.");
 
+		DestinationOptions.addOptions(options);
+
 		CommandLineParser parser = new BasicParser();
 		CommandLine cmd = parser.parse(options, args);
 
@@ -82,26 +83,13 @@ public class ScraperMain {
 					"Incorrect arguments! Need -c [Message Destination Class] -s [Message Destination Setup] -h [Hostname] -l [Log Port] {-p [Query Port]}");
 		}
 
-		String messageDestinationClass = cmd
-				.getOptionValue(DESTINATION_CLASS_ARG);
-		String messageDestinationSetup = cmd
-				.getOptionValue(DESTINATION_SETUP_ARG);
 		String host = cmd.getOptionValue(HOSTNAME_ARG);
 		int logPort = 0;
 		int queryPort = 0;
 
-		IMessageDestination messageDestination;
-		try {
-			messageDestination = (IMessageDestination) ScraperMain.class
-					.getClassLoader().loadClass(messageDestinationClass)
-					.getConstructor(String.class)
-					.newInstance(messageDestinationSetup);
-		} catch (InstantiationException | IllegalAccessException
-				| IllegalArgumentException | InvocationTargetException
-				| NoSuchMethodException | SecurityException
-				| ClassNotFoundException e) {
-			throw new RuntimeException(e);
-		}
+		IMessageDestination messageDestination = DestinationOptions.createDestination(
+				cmd, DESTINATION_CLASS_ARG, DESTINATION_SETUP_ARG);
+		messageDestination = DestinationOptions.wrapDestination(cmd, messageDestination);
 
 		String logPortString = cmd.getOptionValue(LOG_PORT_ARG, "");
 		try {
@@ -132,6 +120,9 @@ public class ScraperMain {
 		SourceEngineScraper scraper = new SourceEngineScraper(
 				messageDestination, host, queryPort, logPort);
 
+		scraper.setDeltaMessages(cmd.hasOption(DestinationOptions.DELTA_ARG));
+		scraper.setSnapshotMessages(cmd.hasOption(DestinationOptions.SNAPSHOT_ARG));
+
 		scraper.start();
 		do {
 			try {
@@ -303,10 +303,7 @@ public class SourceEngineLogParser implements Runnable {
 
 			TransportMessage transportMessage = new TransportMessage();
 			transportMessage.setEvent(newEvent);
-			Round round = roundManager.getCurrentRound();
-			if (round != null) {
-				transportMessage.setSessionId(round.getId());
-			}
+			transportMessage.setSessionId(roundManager.getCurrentSessionId());
 			messageDestination.sendMessage(transportMessage);
 
 			return;
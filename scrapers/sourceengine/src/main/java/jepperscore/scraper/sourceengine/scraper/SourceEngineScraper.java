@@ -4,10 +4,8 @@ import java.io.IOException;
 import java.util.Map;
 
 import jepperscore.dao.IMessageDestination;
-import jepperscore.dao.model.Alias;
 import jepperscore.dao.model.Game;
 import jepperscore.dao.model.Round;
-import jepperscore.dao.model.Score;
 import jepperscore.dao.model.ServerMetadata;
 import jepperscore.scraper.common.Scraper;
 import jepperscore.scraper.common.ScraperStatus;
@@ -94,6 +92,28 @@ public class SourceEngineScraper implements Scraper, QueryClientListener {
 		dataManager = new SimpleDataManager(messageDestination);
 	}
 
+	/**
+	 * Enables or disables delta messages, see
+	 * {@link SimpleDataManager#setDeltaMessages(boolean)}.
+	 *
+	 * @param deltaMessages
+	 *            True to send delta messages.
+	 */
+	public void setDeltaMessages(boolean deltaMessages) {
+		dataManager.setDeltaMessages(deltaMessages);
+	}
+
+	/**
+	 * Enables or disables round snapshot messages, see
+	 * {@link SimpleDataManager#setSnapshotMessages(boolean)}.
+	 *
+	 * @param snapshotMessages
+	 *            True to send snapshot messages.
+	 */
+	public void setSnapshotMessages(boolean snapshotMessages) {
+		dataManager.setSnapshotMessages(snapshotMessages);
+	}
+
 	@Override
 	public ScraperStatus getStatus() {
 		return status;
@@ -200,12 +220,7 @@ public class SourceEngineScraper implements Scraper, QueryClientListener {
 			dataManager.provideRoundRecord(round);
 		}
 
-		for (Alias player : info.getPlayers()) {
-			dataManager.providePlayerRecord(player);
-		}
-
-		for (Score score : info.getScores()) {
-			dataManager.provideScoreRecord(score);
-		}
+		dataManager.providePlayerRecords(info.getPlayers());
+		dataManager.provideScoreRecords(info.getScores());
 	}
 }
@@ -1,8 +1,7 @@
 package jepperscore.scraper.ut2004;
 
-import java.lang.reflect.InvocationTargetException;
-
 import jepperscore.dao.IMessageDestination;
+import jepperscore.scraper.common.DestinationOptions;
 import jepperscore.scraper.common.ScraperStatus;
 import jepperscore.scraper.ut2004.scraper.UT2004Scraper;
 
@@ -59,12 +58,14 @@ public class ScraperMain {
 	public static void main(String[] args) throws ParseException {
 		Options options = new Options();
 
-		options.addOption(DESTINATION_CLASS_ARG, true, "Specifies the destination class.");
-		options.addOption(DESTINATION_SETUP_ARG, true, "Specifies the destination class setup.");
+		options.addOption(DESTINATION_CLASS_ARG, true, "Specifies the destination class, may be repeated.");
+		options.addOption(DESTINATION_SETUP_ARG, true, "Specifies the destination class setup, one per destination class.");
 		options.addOption(CONSOLE_LOG_ARG, true, "Specifies UCC's console log location.");
 		options.addOption(HOSTNAME_ARG, true, "Specifies the hostname of the server.");
 		options.addOption(QUERY_PORT_ARG, true, "Specifies the query port of the server.");
 
+		DestinationOptions.addOptions(options);
+
 		CommandLineParser parser = new BasicParser();
 		CommandLine cmd = parser.parse( options, args);
 
@@ -73,21 +74,13 @@ public class ScraperMain {
 					"Incorrect arguments! Need -c [Message Destination Class] -s [Message Destination Setup] -l [UCC Console Log] -h [Hostname] {-p [Query Port]}");
 		}
 
-		String messageDestinationClass = cmd.getOptionValue(DESTINATION_CLASS_ARG);
-		String messageDestinationSetup = cmd.getOptionValue(DESTINATION_SETUP_ARG);
 		String logFile = cmd.getOptionValue(CONSOLE_LOG_ARG);
 		String host = cmd.getOptionValue(HOSTNAME_ARG);
 		int queryPort = 0;
 
-		IMessageDestination messageDestination;
-		try {
-			messageDestination = (IMessageDestination) ScraperMain.class.getClassLoader().loadClass(messageDestinationClass).getConstructor(String.class).newInstance(messageDestinationSetup);
-		} catch (InstantiationException | IllegalAccessException
-				| IllegalArgumentException | InvocationTargetException
-				| NoSuchMethodException | SecurityException
-				| ClassNotFoundException e) {
-			throw new RuntimeException(e);
-		}
+		IMessageDestination messageDestination = DestinationOptions.createDestination(
+				cmd, DESTINATION_CLASS_ARG, DESTINATION_SETUP_ARG);
+		messageDestination = DestinationOptions.wrapDestination(cmd, messageDestination);
 
 		String queryPortString = cmd.getOptionValue(QUERY_PORT_ARG, DEFAULT_QUERY_PORT);
 		try {
@@ -103,6 +96,9 @@ public class ScraperMain {
 		UT2004Scraper scraper = new UT2004Scraper(messageDestination, logFile,
 				host, queryPort);
 
+		scraper.setDeltaMessages(cmd.hasOption(DestinationOptions.DELTA_ARG));
+		scraper.setSnapshotMessages(cmd.hasOption(DestinationOptions.SNAPSHOT_ARG));
+
 		scraper.start();
 		do {
 			try {
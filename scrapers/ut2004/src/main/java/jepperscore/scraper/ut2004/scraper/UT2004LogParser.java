@@ -9,7 +9,6 @@ import jepperscore.dao.IMessageDestination;
 import jepperscore.dao.model.Alias;
 import jepperscore.dao.model.Event;
 import jepperscore.dao.model.EventCode;
-import jepperscore.dao.model.Round;
 import jepperscore.dao.transport.TransportMessage;
 import jepperscore.scraper.common.PlayerManager;
 import jepperscore.scraper.common.RoundManager;
@@ -152,10 +151,7 @@ public class UT2004LogParser extends AbstractLineLogParser {
 
 					TransportMessage transportMessage = new TransportMessage();
 					transportMessage.setEvent(newEvent);
-					Round round = roundManager.getCurrentRound();
-					if (round != null) {
-						transportMessage.setSessionId(round.getId());
-					}
+					transportMessage.setSessionId(roundManager.getCurrentSessionId());
 
 					messageDestination.sendMessage(transportMessage);
 				}
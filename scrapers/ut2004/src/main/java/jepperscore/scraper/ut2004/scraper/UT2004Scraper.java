@@ -89,13 +89,8 @@ public class UT2004Scraper implements Scraper, Runnable {
 				dataManager.provideRoundRecord(r);
 			}
 
-			for (Alias player : info.getPlayers()) {
-				dataManager.providePlayerRecord(player);
-			}
-
-			for (Score score : info.getScores()) {
-				dataManager.provideScoreRecord(score);
-			}
+			dataManager.providePlayerRecords(info.getPlayers());
+			dataManager.provideScoreRecords(info.getScores());
 		}
 
 		@Override
@@ -291,6 +286,16 @@ public class UT2004Scraper implements Scraper, Runnable {
 	 */
 	private SimpleDataManager dataManager;
 
+	/**
+	 * True to send delta messages.
+	 */
+	private boolean deltaMessages = false;
+
+	/**
+	 * True to send snapshot messages.
+	 */
+	private boolean snapshotMessages = false;
+
 	/**
 	 * The message destination to use.
 	 */
@@ -317,6 +322,30 @@ public class UT2004Scraper implements Scraper, Runnable {
 		this.messageDestination = messageDestination;
 	}
 
+	/**
+	 * Enables or disables delta messages, see
+	 * {@link SimpleDataManager#setDeltaMessages(boolean)}.
+	 * Takes effect when the scraper is started.
+	 *
+	 * @param deltaMessages
+	 *            True to send delta messages.
+	 */
+	public void setDeltaMessages(boolean deltaMessages) {
+		this.deltaMessages = deltaMessages;
+	}
+
+	/**
+	 * Enables or disables round snapshot messages, see
+	 * {@link SimpleDataManager#setSnapshotMessages(boolean)}.
+	 * Takes effect when the scraper is started.
+	 *
+	 * @param snapshotMessages
+	 *            True to send snapshot messages.
+	 */
+	public void setSnapshotMessages(boolean snapshotMessages) {
+		this.snapshotMessages = snapshotMessages;
+	}
+
 	@Override
 	public ScraperStatus getStatus() {
 		return status;
@@ -334,6 +363,8 @@ public class UT2004Scraper implements Scraper, Runnable {
 			}
 
 			dataManager = new SimpleDataManager(messageDestination);
+			dataManager.setDeltaMessages(deltaMessages);
+			dataManager.setSnapshotMessages(snapshotMessages);
 			dataManager.setWipePlayersOnNewRound(false);
 
 			try {
@@ -7,6 +7,7 @@ import javax.annotation.Nullable;
 
 import jepperscore.dao.IMessageCallback;
 import jepperscore.dao.IMessageSource;
+import jepperscore.dao.MessageFilter;
 import jepperscore.dao.model.Alias;
 import jepperscore.dao.model.Event;
 import jepperscore.dao.model.EventCode;
@@ -15,6 +16,9 @@ import jepperscore.dao.model.Round;
 import jepperscore.dao.model.Score;
 import jepperscore.dao.model.ServerMetadata;
 import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.DeltaApplier;
+import jepperscore.dao.transport.EntityResolver;
+import jepperscore.dao.transport.RoundSnapshot;
 import jepperscore.dao.transport.TransportMessage;
 
 import org.apache.commons.cli.BasicParser;
@@ -53,6 +57,11 @@ public class Main implements IMessageCallback {
 	 */
 	private static final String ENABLE_VALIDATOR_ARG = "v";
 
+	/**
+	 * Only shows the messages of one session.
+	 */
+	private static final String SESSION_ARG = "i";
+
 	/**
 	 * True to enable warnings and validator of incoming messages.
 	 */
@@ -73,6 +82,8 @@ public class Main implements IMessageCallback {
 		options.addOption(SOURCE_SETUP_ARG, true,
 				"Specifies the source class setup.");
 		options.addOption(ENABLE_VALIDATOR_ARG, false, "Enables the validator.");
+		options.addOption(SESSION_ARG, true,
+				"Only shows the messages of the given session.");
 
 		CommandLineParser parser = new BasicParser();
 		CommandLine cmd = parser.parse(options, args);
@@ -98,7 +109,12 @@ public class Main implements IMessageCallback {
 			throw new RuntimeException(e);
 		}
 
-		messageSource.registerCallback(new Main());
+		MessageFilter filter = MessageFilter.all();
+		if (cmd.hasOption(SESSION_ARG)) {
+			filter = filter.forSession(cmd.getOptionValue(SESSION_ARG));
+		}
+
+		messageSource.registerCallback(new DeltaApplier(new EntityResolver(new Main())), filter);
 
 		while (true) {
 			try {
@@ -117,6 +133,7 @@ public class Main implements IMessageCallback {
 		Score score = message.getScore();
 		ServerMetadata metadata = message.getServerMetadata();
 		Team team = message.getTeam();
+		RoundSnapshot snapshot = message.getSnapshot();
 
 		if (alias != null) {
 			handleAlias(alias);
@@ -130,6 +147,8 @@ public class Main implements IMessageCallback {
 			handleMetadata(metadata);
 		} else if (team != null) {
 			handleTeam(team);
+		} else if (snapshot != null) {
+			handleSnapshot(snapshot);
 		} else if (validator) {
 			Object content = message.getMessageContent();
 			if (content == null) {
@@ -379,4 +398,15 @@ public class Main implements IMessageCallback {
 				+ team.getScore());
 	}
 
+	/**
+	 * This function handles round snapshot messages.
+	 *
+	 * @param snapshot
+	 *            The round snapshot.
+	 */
+	private void handleSnapshot(@Nonnull RoundSnapshot snapshot) {
+		LOG.info("Got snapshot with " + snapshot.getTeams().size()
+				+ " teams and " + snapshot.getAliases().size() + " players");
+	}
+
 }
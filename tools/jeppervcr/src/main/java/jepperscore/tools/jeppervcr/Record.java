@@ -5,6 +5,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -15,6 +18,7 @@ import javax.xml.stream.XMLStreamWriter;
 
 import jepperscore.dao.IMessageCallback;
 import jepperscore.dao.IMessageSource;
+import jepperscore.dao.MessageFilter;
 import jepperscore.dao.transport.TransportMessage;
 import jepperscore.tools.jeppervcr.model.RecordingEntry;
 
@@ -61,6 +65,27 @@ public class Record implements IMessageCallback, Runnable {
 	 */
 	private XMLStreamWriter xsw;
 
+	/**
+	 * The entries waiting to be written, stamped with their arrival time.
+	 */
+	private final BlockingQueue<RecordingEntry> queue = new ArrayBlockingQueue<RecordingEntry>(QUEUE_CAPACITY);
+
+	/**
+	 * The thread writing the entries to the recording file.
+	 */
+	private final Thread writerThread;
+
+	/**
+	 * True once the recording is being finished.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * The number of messages that may wait for the recording file to be
+	 * written.
+	 */
+	private static final int QUEUE_CAPACITY = 1024;
+
 	/**
 	 * Specifies the source class.
 	 */
@@ -119,7 +144,7 @@ public class Record implements IMessageCallback, Runnable {
 			Record recorder = new Record(outfile);
 			Runtime.getRuntime().addShutdownHook(new Thread(recorder));
 
-			messageSource.registerCallback(recorder);
+			messageSource.registerCallback(recorder, MessageFilter.all());
 		} catch (FileNotFoundException | JAXBException
 				| XMLStreamException e) {
 			throw new RuntimeException(e);
@@ -161,32 +186,90 @@ public class Record implements IMessageCallback, Runnable {
 		xsw.writeStartElement("recording");
 		xsw.writeAttribute("startTime", startDate.toString());
 		xsw.writeCharacters("\n");
+
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeEntries();
+			}
+		}, "Record-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
 	}
 
 	/**
-	 * The shutdown method.
+	 * The shutdown method. Writes the queued entries, then finishes the
+	 * recording file.
 	 */
 	@Override
-	public synchronized void run() {
+	public void run() {
+		LOG.info("Finishing recording file...");
+		closed = true;
 		try {
-			LOG.info("Finishing recording file...");
+			writerThread.join();
+		} catch (InterruptedException e) {
+			LOG.warn("Interrupted while writing the queued messages.");
+		}
 
-			xsw.writeEndDocument();
-			os.flush();
-			os.close();
-		} catch (IOException | XMLStreamException e) {
-			LOG.error(e.getMessage(), e);
+		synchronized (this) {
+			try {
+				xsw.writeEndDocument();
+				os.flush();
+				os.close();
+			} catch (IOException | XMLStreamException e) {
+				LOG.error(e.getMessage(), e);
+			}
 		}
 	}
 
+	/**
+	 * Stamps the message with its arrival time and queues it for the
+	 * recording file, waiting while the queue is full.
+	 */
 	@Override
 	public void onMessage(TransportMessage message) {
+		if (closed) {
+			return;
+		}
+
 		Duration duration = new Duration(startDate, DateTime.now());
 		RecordingEntry entry = new RecordingEntry();
 
 		entry.setTimeOffset(duration.getMillis() / 1000.0f);
 		entry.setMessage(message);
 
+		try {
+			queue.put(entry);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes the queued entries until the recording is finished and the
+	 * queue is empty.
+	 */
+	private void writeEntries() {
+		while (!closed || !queue.isEmpty()) {
+			RecordingEntry entry;
+			try {
+				entry = queue.poll(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (entry != null) {
+				write(entry);
+			}
+		}
+	}
+
+	/**
+	 * Writes an entry to the recording file.
+	 *
+	 * @param entry
+	 *            The entry.
+	 */
+	private synchronized void write(RecordingEntry entry) {
 		try {
 			Marshaller marshaller = jaxbContext.createMarshaller();
 			marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
@@ -194,7 +277,6 @@ public class Record implements IMessageCallback, Runnable {
 			xsw.flush();
 		} catch (JAXBException | XMLStreamException e) {
 			LOG.error(e.getMessage(), e);
-			return;
 		}
 	}
 
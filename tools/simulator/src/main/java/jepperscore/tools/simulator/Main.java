@@ -1,5 +1,7 @@
 package jepperscore.tools.simulator;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 
 import jepperscore.dao.IMessageDestination;
@@ -28,6 +30,11 @@ public class Main {
 	 * Specifies the destination class setup.
 	 */
 	private static final String DESTINATION_SETUP_ARG = "s";
+
+	/**
+	 * Spools the messages in the given directory.
+	 */
+	private static final String SPOOL_ARG = "j";
 	
 	/**
 	 * The main function.
@@ -41,6 +48,7 @@ public class Main {
 		
 		options.addOption(DESTINATION_CLASS_ARG, true, "Specifies the destination class.");
 		options.addOption(DESTINATION_SETUP_ARG, true, "Specifies the destination class setup.");
+		options.addOption(SPOOL_ARG, true, "Spools the messages in the given directory.");
 		
 		CommandLineParser parser = new BasicParser();
 		CommandLine cmd = parser.parse( options, args);
@@ -68,7 +76,15 @@ public class Main {
 
 		SimulatorSource simulator = new SimulatorSource();
 		
-		new MessageRelay(simulator, messageDestination);
+		if (cmd.hasOption(SPOOL_ARG)) {
+			try {
+				new MessageRelay(simulator, messageDestination, new File(cmd.getOptionValue(SPOOL_ARG)));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			new MessageRelay(simulator, messageDestination);
+		}
 		
 		while (true) {
 			try {
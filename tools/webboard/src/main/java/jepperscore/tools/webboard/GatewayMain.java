@@ -0,0 +1,103 @@
+package jepperscore.tools.webboard;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+
+import jepperscore.dao.IMessageSource;
+import jepperscore.dao.transport.DeltaApplier;
+import jepperscore.dao.transport.EntityResolver;
+import jepperscore.dao.transport.SnapshotBootstrap;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * This class serves the webboard from a message source with the
+ * {@link ScoreboardGateway}. The gateway starts each session from its latest
+ * {@link jepperscore.dao.transport.RoundSnapshot}, so it can be started
+ * mid-round.
+ *
+ * @author Chuck
+ *
+ */
+public class GatewayMain {
+
+	/**
+	 * Specifies the source class.
+	 */
+	private static final String SOURCE_CLASS_ARG = "c";
+
+	/**
+	 * Specifies the source class setup.
+	 */
+	private static final String SOURCE_SETUP_ARG = "s";
+
+	/**
+	 * Specifies the HTTP port.
+	 */
+	private static final String PORT_ARG = "p";
+
+	/**
+	 * The main function.
+	 *
+	 * @param args
+	 *            The command line arguments.
+	 * @throws ParseException
+	 *             Exception throw from parsing problems.
+	 */
+	public static void main(String[] args) throws ParseException {
+		Options options = new Options();
+
+		options.addOption(SOURCE_CLASS_ARG, true, "Specifies the source class.");
+		options.addOption(SOURCE_SETUP_ARG, true,
+				"Specifies the source class setup.");
+		options.addOption(PORT_ARG, true, "Specifies the HTTP port (default "
+				+ ScoreboardGateway.DEFAULT_PORT + ").");
+
+		CommandLineParser parser = new BasicParser();
+		CommandLine cmd = parser.parse(options, args);
+
+		if (!cmd.hasOption(SOURCE_CLASS_ARG)
+				|| !cmd.hasOption(SOURCE_SETUP_ARG)) {
+			throw new RuntimeException(
+					"Incorrect arguments! Need -c [Message Source Class] -s [Message Source Setup]");
+		}
+
+		String messageSourceClass = cmd.getOptionValue(SOURCE_CLASS_ARG);
+		String messageSourceSetup = cmd.getOptionValue(SOURCE_SETUP_ARG);
+		int port = cmd.hasOption(PORT_ARG) ? Integer.parseInt(cmd
+				.getOptionValue(PORT_ARG)) : ScoreboardGateway.DEFAULT_PORT;
+
+		IMessageSource messageSource;
+		try {
+			messageSource = (IMessageSource) GatewayMain.class.getClassLoader()
+					.loadClass(messageSourceClass).getConstructor(String.class)
+					.newInstance(messageSourceSetup);
+		} catch (InstantiationException | IllegalAccessException
+				| IllegalArgumentException | InvocationTargetException
+				| NoSuchMethodException | SecurityException
+				| ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+
+		ScoreboardGateway gateway = new ScoreboardGateway();
+		try {
+			gateway.start(port);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		messageSource.registerCallback(new SnapshotBootstrap(new DeltaApplier(
+				new EntityResolver(gateway))));
+
+		while (true) {
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				// Do nothing.
+			}
+		}
+	}
+}
@@ -5,27 +5,29 @@ import java.util.Arrays;
 import org.apache.commons.cli.ParseException;
 
 /**
- * This main class delegates to the Play or Record class depending on the first argument.
+ * This main class delegates to the Install or Gateway class depending on the first argument.
  * @author Chuck
  *
  */
 public class Main {
 
 	/**
-	 * This main function delegates to either the Installer main.
+	 * This main function delegates to either the Installer or Gateway main.
 	 * @param args The command line arguments.
 	 * @throws ParseException Thrown from sub-main.
 	 */
 	public static void main(String[] args) throws ParseException {
 		if (args.length == 0) {
-			throw new RuntimeException("Please specify Install as the first argument.");
+			throw new RuntimeException("Please specify Install or Gateway as the first argument.");
 		}
 
 		String[] remainingArgs = args.length == 1 ? new String[0] : Arrays.copyOfRange(args, 1, args.length);
 		if ("Install".equalsIgnoreCase(args[0])) {
 			InstallerMain.main(remainingArgs);
+		} else if ("Gateway".equalsIgnoreCase(args[0])) {
+			GatewayMain.main(remainingArgs);
 		} else {
-			throw new RuntimeException("Please specify Install as the first argument.");
+			throw new RuntimeException("Please specify Install or Gateway as the first argument.");
 		}
 	}
 }
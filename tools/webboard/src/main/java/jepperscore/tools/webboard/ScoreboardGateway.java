@@ -0,0 +1,526 @@
+package jepperscore.tools.webboard;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.IMessageCallback;
+import jepperscore.dao.model.Round;
+import jepperscore.dao.transport.TransportMessage;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class serves the webboard over HTTP from the messages of any message
+ * source. It keeps the {@link ScoreboardState} of the recent sessions in
+ * memory, so a new screen renders the scoreboard from one snapshot request
+ * and then follows the messages pushed as Server-Sent Events.
+ *
+ * <p>
+ * The messages given to the gateway should have their deltas applied and
+ * their entities resolved. The gateway serves:
+ * </p>
+ * <ul>
+ * <li><code>/sessions</code>: the recent sessions and their rounds.</li>
+ * <li><code>/snapshot?session=id</code>: the messages rebuilding the
+ * scoreboard of a session, and the sequence of the last message in it.</li>
+ * <li><code>/events</code>: every message from now on as an event stream,
+ * each event id being the sequence of the message, so a screen can drop
+ * the events already in its snapshot. <code>?session=id</code> limits the
+ * stream to a session.</li>
+ * <li>The webboard pages, with <code>/</code> using this gateway.</li>
+ * </ul>
+ *
+ * @author Chuck
+ *
+ */
+public class ScoreboardGateway implements IMessageCallback {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ScoreboardGateway.class);
+
+	/**
+	 * The default HTTP port.
+	 */
+	public static final int DEFAULT_PORT = 8080;
+
+	/**
+	 * The number of sessions kept.
+	 */
+	public static final int MAX_SESSIONS = 16;
+
+	/**
+	 * The number of messages queued for a screen before it is disconnected
+	 * as too slow.
+	 */
+	public static final int STREAM_QUEUE_SIZE = 1000;
+
+	/**
+	 * The time between keep alive comments on an idle event stream, in
+	 * milliseconds.
+	 */
+	public static final long KEEP_ALIVE_INTERVAL = 15000;
+
+	/**
+	 * The page served as <code>/</code>.
+	 */
+	private static final String INDEX_FILE = "gateway.html";
+
+	/**
+	 * The webboard files served, from the class path.
+	 */
+	private static final String[] STATIC_FILES = new String[] { INDEX_FILE,
+			"jepperscore.js", "jepperscore-gateway.js", "scoreboard.css" };
+
+	/**
+	 * The jQuery file served as <code>/jquery.js</code>, from the class path.
+	 */
+	private static final String JQUERY_RESOURCE = "META-INF/resources/webjars/jquery/1.9.1/jquery.min.js";
+
+	/**
+	 * An event stream to a screen.
+	 */
+	private static final class EventStream {
+
+		/**
+		 * The session of the stream, or null for every session.
+		 */
+		private final String sessionId;
+
+		/**
+		 * The events not written yet.
+		 */
+		private final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(STREAM_QUEUE_SIZE);
+
+		/**
+		 * True once the screen fell too far behind.
+		 */
+		private volatile boolean overflowed = false;
+
+		/**
+		 * Constructor.
+		 * @param sessionId The session of the stream, or null.
+		 */
+		private EventStream(String sessionId) {
+			this.sessionId = sessionId;
+		}
+
+		/**
+		 * Queues an event.
+		 * @param messageSessionId The session of the message.
+		 * @param event The event.
+		 */
+		private void offer(String messageSessionId, String event) {
+			if ((sessionId != null) && !sessionId.equals(messageSessionId)) {
+				return;
+			}
+			if (!queue.offer(event)) {
+				overflowed = true;
+			}
+		}
+	}
+
+	/**
+	 * Writes the messages.
+	 */
+	private final ObjectWriter messageWriter;
+
+	/**
+	 * Writes the responses.
+	 */
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	/**
+	 * The state of the recent sessions, least recently updated first.
+	 * Guarded by this.
+	 */
+	private final Map<String, ScoreboardState> sessions = new LinkedHashMap<String, ScoreboardState>(
+			MAX_SESSIONS, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ScoreboardState> eldest) {
+			return size() > MAX_SESSIONS;
+		}
+	};
+
+	/**
+	 * The sequence of the last message. Guarded by this.
+	 */
+	private long sequence = 0;
+
+	/**
+	 * The open event streams.
+	 */
+	private final List<EventStream> streams = new CopyOnWriteArrayList<EventStream>();
+
+	/**
+	 * The HTTP server, or null if not started.
+	 */
+	private HttpServer server;
+
+	/**
+	 * The threads of the HTTP server.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Constructor.
+	 */
+	public ScoreboardGateway() {
+		messageWriter = mapper.writerWithType(TransportMessage.class);
+	}
+
+	@Override
+	public synchronized void onMessage(TransportMessage message) {
+		String sessionId = message.getSessionId();
+		if (sessionId == null) {
+			return;
+		}
+
+		ScoreboardState state = sessions.get(sessionId);
+		if (state == null) {
+			state = new ScoreboardState();
+			sessions.put(sessionId, state);
+		}
+		state.apply(message);
+		sequence++;
+
+		if (streams.isEmpty()) {
+			return;
+		}
+		try {
+			String event = "id: " + sequence + "\ndata: "
+					+ messageWriter.writeValueAsString(message) + "\n\n";
+			for (EventStream stream : streams) {
+				stream.offer(sessionId, event);
+			}
+		} catch (IOException e) {
+			LOG.error(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session.
+	 * @return The state of the session, or null if it is not known.
+	 */
+	@CheckForNull
+	public synchronized ScoreboardState getState(@Nonnull String sessionId) {
+		return sessions.get(sessionId);
+	}
+
+	/**
+	 * Starts serving.
+	 *
+	 * @param port
+	 *            The HTTP port.
+	 * @throws IOException
+	 *             If the port cannot be opened.
+	 */
+	public synchronized void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+
+		server.createContext("/sessions", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				sendJson(exchange, getSessions());
+			}
+		});
+		server.createContext("/snapshot", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String sessionId = getQueryParameter(exchange, "session");
+				Map<String, Object> snapshot = (sessionId == null) ? null : getSnapshot(sessionId);
+				if (snapshot == null) {
+					sendError(exchange, 404, "Unknown session: " + sessionId);
+				} else {
+					sendJson(exchange, snapshot);
+				}
+			}
+		});
+		server.createContext("/events", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				streamEvents(exchange, getQueryParameter(exchange, "session"));
+			}
+		});
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				sendFile(exchange);
+			}
+		});
+
+		server.start();
+		LOG.info("Serving the webboard on port " + server.getAddress().getPort());
+	}
+
+	/**
+	 * @return The port served on, or -1 if not started.
+	 */
+	public synchronized int getPort() {
+		return (server == null) ? -1 : server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops serving and closes the event streams.
+	 */
+	public synchronized void stop() {
+		if (server == null) {
+			return;
+		}
+		for (EventStream stream : streams) {
+			stream.overflowed = true;
+		}
+		server.stop(0);
+		executor.shutdownNow();
+		server = null;
+	}
+
+	/**
+	 * @return The recent sessions with their rounds, most recent last.
+	 */
+	private synchronized List<Map<String, Object>> getSessions() {
+		List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+		for (Map.Entry<String, ScoreboardState> entry : sessions.entrySet()) {
+			Map<String, Object> session = new LinkedHashMap<String, Object>();
+			session.put("sessionId", entry.getKey());
+			Round round = entry.getValue().getRound();
+			if (round != null) {
+				session.put("round", round);
+			}
+			result.add(session);
+		}
+		return result;
+	}
+
+	/**
+	 * @param sessionId
+	 *            The session.
+	 * @return The snapshot of the session, or null if it is not known.
+	 */
+	private synchronized Map<String, Object> getSnapshot(String sessionId) {
+		ScoreboardState state = sessions.get(sessionId);
+		if (state == null) {
+			return null;
+		}
+		Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+		snapshot.put("sessionId", sessionId);
+		snapshot.put("sequence", sequence);
+		snapshot.put("messages", state.getSnapshot());
+		return snapshot;
+	}
+
+	/**
+	 * Streams the messages to a screen until it disconnects or falls too far
+	 * behind.
+	 *
+	 * @param exchange
+	 *            The request.
+	 * @param sessionId
+	 *            The session to stream, or null for every session.
+	 * @throws IOException
+	 *             If the stream cannot be written.
+	 */
+	private void streamEvents(HttpExchange exchange, String sessionId) throws IOException {
+		EventStream stream = new EventStream(sessionId);
+		exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=UTF-8");
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		streams.add(stream);
+		try {
+			exchange.sendResponseHeaders(200, 0);
+		} catch (IOException e) {
+			streams.remove(stream);
+			throw e;
+		}
+
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write("retry: 1000\n\n".getBytes(StandardCharsets.UTF_8));
+			out.flush();
+
+			while (!stream.overflowed) {
+				String event = stream.queue.poll(KEEP_ALIVE_INTERVAL, TimeUnit.MILLISECONDS);
+				out.write(((event == null) ? ":\n\n" : event).getBytes(StandardCharsets.UTF_8));
+				out.flush();
+			}
+		} catch (InterruptedException e) {
+			// Stopping.
+		} catch (IOException e) {
+			// The screen went away.
+		} finally {
+			streams.remove(stream);
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Serves a webboard file.
+	 *
+	 * @param exchange
+	 *            The request.
+	 * @throws IOException
+	 *             If the response cannot be written.
+	 */
+	private void sendFile(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		String resource = null;
+		if ("/".equals(path)) {
+			resource = INDEX_FILE;
+		} else if ("/jquery.js".equals(path)) {
+			resource = JQUERY_RESOURCE;
+		} else {
+			for (String file : STATIC_FILES) {
+				if (path.equals("/" + file)) {
+					resource = file;
+				}
+			}
+		}
+
+		InputStream in = (resource == null) ? null
+				: ScoreboardGateway.class.getClassLoader().getResourceAsStream(resource);
+		if (in == null) {
+			sendError(exchange, 404, "Not found: " + path);
+			return;
+		}
+
+		byte[] data;
+		try {
+			data = IOUtils.toByteArray(in);
+		} finally {
+			in.close();
+		}
+		send(exchange, getContentType(resource), data);
+	}
+
+	/**
+	 * @param resource
+	 *            A file name.
+	 * @return The content type of the file.
+	 */
+	private static String getContentType(String resource) {
+		if (resource.endsWith(".html")) {
+			return "text/html; charset=UTF-8";
+		} else if (resource.endsWith(".js")) {
+			return "application/javascript; charset=UTF-8";
+		} else if (resource.endsWith(".css")) {
+			return "text/css; charset=UTF-8";
+		}
+		return "application/octet-stream";
+	}
+
+	/**
+	 * Sends a JSON response.
+	 *
+	 * @param exchange
+	 *            The request.
+	 * @param value
+	 *            The value to send.
+	 * @throws IOException
+	 *             If the response cannot be written.
+	 */
+	private void sendJson(HttpExchange exchange, Object value) throws IOException {
+		send(exchange, "application/json; charset=UTF-8", mapper.writeValueAsBytes(value));
+	}
+
+	/**
+	 * Sends an error response.
+	 *
+	 * @param exchange
+	 *            The request.
+	 * @param status
+	 *            The HTTP status.
+	 * @param message
+	 *            The error message.
+	 * @throws IOException
+	 *             If the response cannot be written.
+	 */
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] data = message.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, data.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(data);
+		}
+	}
+
+	/**
+	 * Sends a response.
+	 *
+	 * @param exchange
+	 *            The request.
+	 * @param contentType
+	 *            The content type.
+	 * @param data
+	 *            The body.
+	 * @throws IOException
+	 *             If the response cannot be written.
+	 */
+	private static void send(HttpExchange exchange, String contentType, byte[] data) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		exchange.sendResponseHeaders(200, data.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(data);
+		}
+	}
+
+	/**
+	 * @param exchange
+	 *            The request.
+	 * @param name
+	 *            The name of a query parameter.
+	 * @return The value of the parameter, or null.
+	 */
+	private static String getQueryParameter(HttpExchange exchange, String name) {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null) {
+			return null;
+		}
+
+		Map<String, String> parameters = new HashMap<String, String>();
+		for (String pair : query.split("&")) {
+			int pos = pair.indexOf('=');
+			if (pos > 0) {
+				try {
+					parameters.put(URLDecoder.decode(pair.substring(0, pos), "UTF-8"),
+							URLDecoder.decode(pair.substring(pos + 1), "UTF-8"));
+				} catch (UnsupportedEncodingException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+		return parameters.get(name);
+	}
+}
@@ -0,0 +1,132 @@
+package jepperscore.tools.webboard;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Round;
+import jepperscore.dao.model.Score;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.TransportMessage;
+
+/**
+ * This class holds the current scoreboard of a session: the latest round,
+ * server metadata, alias, score and team message, and the most recent
+ * events. Its snapshot is the list of messages a screen needs to render the
+ * scoreboard, so its size depends on the number of players rather than the
+ * length of the round.
+ *
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ *
+ * @author Chuck
+ *
+ */
+public class ScoreboardState {
+
+	/**
+	 * The number of events kept for the snapshot.
+	 */
+	public static final int MAX_EVENTS = 100;
+
+	/**
+	 * The latest round message.
+	 */
+	private TransportMessage round;
+
+	/**
+	 * The latest server metadata message.
+	 */
+	private TransportMessage serverMetadata;
+
+	/**
+	 * The latest team messages, by team name.
+	 */
+	private final Map<String, TransportMessage> teams = new LinkedHashMap<String, TransportMessage>();
+
+	/**
+	 * The latest alias messages of the present aliases, by alias id.
+	 */
+	private final Map<String, TransportMessage> aliases = new LinkedHashMap<String, TransportMessage>();
+
+	/**
+	 * The latest score messages, by alias id.
+	 */
+	private final Map<String, TransportMessage> scores = new LinkedHashMap<String, TransportMessage>();
+
+	/**
+	 * The most recent event messages, oldest first.
+	 */
+	private final Deque<TransportMessage> events = new ArrayDeque<TransportMessage>();
+
+	/**
+	 * Updates the state with a message.
+	 *
+	 * @param message
+	 *            The message, with its deltas applied.
+	 */
+	public void apply(@Nonnull TransportMessage message) {
+		if (message.getRound() != null) {
+			round = message;
+		} else if (message.getServerMetadata() != null) {
+			serverMetadata = message;
+		} else if (message.getTeam() != null) {
+			Team team = message.getTeam();
+			teams.put(String.valueOf(team.getTeamName()), message);
+		} else if (message.getAlias() != null) {
+			Alias alias = message.getAlias();
+			if (alias.isPresent()) {
+				aliases.put(alias.getId(), message);
+			} else {
+				aliases.remove(alias.getId());
+				scores.remove(alias.getId());
+			}
+		} else if (message.getScore() != null) {
+			Score score = message.getScore();
+			if ((score.getAlias() != null) && (score.getAlias().getId() != null)) {
+				scores.put(score.getAlias().getId(), message);
+			}
+		} else if (message.getEvent() != null) {
+			events.addLast(message);
+			if (events.size() > MAX_EVENTS) {
+				events.removeFirst();
+			}
+		}
+	}
+
+	/**
+	 * @return The round of the session, or null if not known yet.
+	 */
+	@CheckForNull
+	public Round getRound() {
+		return (round == null) ? null : round.getRound();
+	}
+
+	/**
+	 * @return The messages rebuilding the scoreboard, in the order a screen
+	 *         should apply them.
+	 */
+	@Nonnull
+	public List<TransportMessage> getSnapshot() {
+		List<TransportMessage> snapshot = new ArrayList<TransportMessage>();
+		if (serverMetadata != null) {
+			snapshot.add(serverMetadata);
+		}
+		if (round != null) {
+			snapshot.add(round);
+		}
+		snapshot.addAll(teams.values());
+		snapshot.addAll(aliases.values());
+		snapshot.addAll(scores.values());
+		snapshot.addAll(events);
+		return snapshot;
+	}
+}
@@ -0,0 +1,120 @@
+
+//Scoreboard gateway back end, see ScoreboardGateway.java
+
+var gw_backlog = new Array();
+var gw_holdBacklog = true;
+var gw_events = null;
+
+$(document).ready(function() {
+	gw_openEvents();
+});
+
+function gw_openEvents() {
+	gw_events = new EventSource("events");
+	gw_events.onopen = function() {
+		// Only take the snapshot once the stream is open, so no message falls
+		// between them.
+		gw_connectToGame();
+	};
+	gw_events.onmessage = function(event) {
+		var msg = JSON.parse(event.data);
+		msg.sequence = parseInt(event.lastEventId, 10);
+		if (gw_holdBacklog) {
+			gw_backlog.push(msg);
+		} else {
+			gw_processMessage(msg);
+		}
+	};
+	gw_events.onerror = function() {
+		// Messages may have been missed, start again from a snapshot.
+		gw_events.close();
+		gw_holdBacklog = true;
+		gw_backlog = new Array();
+		setTimeout(gw_openEvents, 1000);
+	};
+}
+
+function gw_connectToGame() {
+	gw_holdBacklog = true;
+	$.ajax({
+		url : "sessions",
+		dataType : "json",
+		cache : false,
+		success : function(data) {
+			var tempRounds = new Array();
+
+			var latestStart = "";
+			var latestRound = "";
+
+			for ( var index in data) {
+				var session = data[index];
+				if ((!session.round) || (session.round.end)) {
+					continue;
+				}
+
+				if ((latestStart == "") || (latestStart < session.round.start)) {
+					latestRound = session.sessionId;
+					latestStart = session.round.start;
+				}
+
+				tempRounds[session.sessionId] = session.round.start;
+			}
+
+			roundsInProgress = tempRounds;
+
+			if (latestRound != "") {
+				newGame();
+				gw_setRoundFocus(latestRound);
+			} else {
+				setTimeout(gw_connectToGame, 500);
+			}
+		},
+		error : function() {
+			setTimeout(gw_connectToGame, 1000);
+		}
+	});
+}
+
+function gw_setRoundFocus(roundId) {
+	roundFocus = roundId;
+
+	$.ajax({
+		url : "snapshot",
+		data : {
+			session : roundId
+		},
+		dataType : "json",
+		cache : false,
+		success : function(data) {
+			for ( var index in data.messages) {
+				gw_processMessage(data.messages[index]);
+			}
+
+			gw_processBacklog(data.sequence);
+		},
+		error : function() {
+			setTimeout(gw_connectToGame, 1000);
+		}
+	});
+}
+
+function gw_processBacklog(sequence) {
+	var backlog = gw_backlog;
+	gw_backlog = new Array();
+	for ( var index in backlog) {
+		var msg = backlog[index];
+		if (msg.sequence > sequence) {
+			gw_processMessage(msg);
+		}
+	}
+	gw_holdBacklog = false;
+}
+
+function gw_processMessage(msg) {
+	processMessage(msg);
+	if ((msg.sessionId == roundFocus) && (msg.round)) {
+		if ((msg.round.end) && (msg.round.end != null)) {
+			setTimeout(gw_connectToGame, 500);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package jepperscore.tools.webboard.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.TransportMessage;
+import jepperscore.tools.webboard.ScoreboardGateway;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * This class tests the {@link ScoreboardGateway} class over HTTP.
+ *
+ * @author Chuck
+ *
+ */
+public class ScoreboardGatewayTest {
+
+	/**
+	 * The time to wait for a response, in milliseconds.
+	 */
+	private static final int TIMEOUT = 5000;
+
+	/**
+	 * The gateway under test.
+	 */
+	private ScoreboardGateway gateway;
+
+	/**
+	 * Reads the responses.
+	 */
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	/**
+	 * Starts the gateway on a free port.
+	 * @throws IOException If the gateway cannot be started.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		gateway = new ScoreboardGateway();
+		gateway.start(0);
+	}
+
+	/**
+	 * Stops the gateway.
+	 */
+	@After
+	public void tearDown() {
+		gateway.stop();
+	}
+
+	/**
+	 * @param path The path and query.
+	 * @return A connection to the gateway.
+	 * @throws IOException If the connection cannot be opened.
+	 */
+	private HttpURLConnection open(String path) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:"
+				+ gateway.getPort() + path).openConnection();
+		connection.setConnectTimeout(TIMEOUT);
+		connection.setReadTimeout(TIMEOUT);
+		return connection;
+	}
+
+	/**
+	 * Reads the next event of a stream, skipping comments.
+	 * @param reader The stream.
+	 * @return The id and data lines of the event.
+	 * @throws IOException If the stream cannot be read.
+	 */
+	private static String[] readEvent(BufferedReader reader) throws IOException {
+		String id = null;
+		String data = null;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith("id: ")) {
+				id = line.substring(4);
+			} else if (line.startsWith("data: ")) {
+				data = line.substring(6);
+			} else if (line.isEmpty() && (data != null)) {
+				break;
+			}
+		}
+		return new String[] { id, data };
+	}
+
+	/**
+	 * Tests that the sequence of a snapshot tells the events already in it
+	 * from the later ones, and that the stream of a session leaves out the
+	 * others.
+	 * @throws IOException If the gateway cannot be read.
+	 */
+	@Test
+	public void testSnapshotSequence() throws IOException {
+		gateway.onMessage(new TransportMessage(new Team("Axis", 1f), "round-1"));
+		gateway.onMessage(new TransportMessage(new Team("Allies", 2f), "round-1"));
+
+		HttpURLConnection events = open("/events?session=round-1");
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				events.getInputStream(), StandardCharsets.UTF_8));
+		assertEquals("retry: 1000", reader.readLine());
+
+		gateway.onMessage(new TransportMessage(new Team("Axis", 3f), "round-1"));
+		gateway.onMessage(new TransportMessage(new Team("Axis", 9f), "round-2"));
+
+		JsonNode snapshot;
+		try (InputStream in = open("/snapshot?session=round-1").getInputStream()) {
+			snapshot = mapper.readTree(in);
+		}
+		long sequence = snapshot.get("sequence").asLong();
+		assertEquals(4, sequence);
+		JsonNode messages = snapshot.get("messages");
+		assertEquals(2, messages.size());
+		assertEquals(3f, messages.get(0).path("team").path("score").floatValue(), 0f);
+
+		gateway.onMessage(new TransportMessage(new Team("Allies", 4f), "round-1"));
+
+		String[] first = readEvent(reader);
+		assertEquals("3", first[0]);
+		assertTrue(Long.parseLong(first[0]) <= sequence);
+
+		String[] second = readEvent(reader);
+		assertEquals("5", second[0]);
+		assertTrue(Long.parseLong(second[0]) > sequence);
+		JsonNode message = mapper.readTree(second[1]);
+		assertEquals("Allies", message.path("team").path("teamName").asText());
+		assertEquals(4f, message.path("team").path("score").floatValue(), 0f);
+
+		events.disconnect();
+	}
+
+	/**
+	 * Tests that an unknown session has no snapshot.
+	 * @throws IOException If the gateway cannot be read.
+	 */
+	@Test
+	public void testUnknownSession() throws IOException {
+		assertEquals(404, open("/snapshot?session=unknown").getResponseCode());
+	}
+}
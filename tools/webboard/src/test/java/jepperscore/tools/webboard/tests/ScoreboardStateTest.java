@@ -0,0 +1,159 @@
+package jepperscore.tools.webboard.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import jepperscore.dao.model.Alias;
+import jepperscore.dao.model.Event;
+import jepperscore.dao.model.Game;
+import jepperscore.dao.model.Round;
+import jepperscore.dao.model.Score;
+import jepperscore.dao.model.ServerMetadata;
+import jepperscore.dao.model.Team;
+import jepperscore.dao.transport.TransportMessage;
+import jepperscore.tools.webboard.ScoreboardState;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+/**
+ * This class tests the {@link ScoreboardState} class.
+ *
+ * @author Chuck
+ *
+ */
+public class ScoreboardStateTest {
+
+	/**
+	 * The session of the messages.
+	 */
+	private static final String SESSION = "round-1";
+
+	/**
+	 * The game of the aliases.
+	 */
+	private static final Game GAME = new Game("bf1942", "conquest", null);
+
+	/**
+	 * @param id The alias id.
+	 * @param present True if the alias is present.
+	 * @return The alias message.
+	 */
+	private static TransportMessage alias(String id, boolean present) {
+		return new TransportMessage(new Alias(id, "Player " + id, null, false,
+				new Team("Axis"), null, GAME, present), SESSION);
+	}
+
+	/**
+	 * @param id The alias id.
+	 * @param value The score.
+	 * @return The score message.
+	 */
+	private static TransportMessage score(String id, float value) {
+		Alias alias = new Alias();
+		alias.setId(id);
+		return new TransportMessage(new Score(alias, value), SESSION);
+	}
+
+	/**
+	 * @param text The event text.
+	 * @return The event message.
+	 */
+	private static TransportMessage event(String text) {
+		Event event = new Event();
+		event.setTimestamp(new DateTime(2014, 6, 1, 20, 0));
+		event.setEventText(text);
+		return new TransportMessage(event, SESSION);
+	}
+
+	/**
+	 * Tests that the snapshot holds the latest message of each entity, in the
+	 * order a screen applies them.
+	 */
+	@Test
+	public void testSnapshotOrder() {
+		ScoreboardState state = new ScoreboardState();
+		TransportMessage event = event("first blood");
+		TransportMessage score = score("1", 5);
+		TransportMessage alias = alias("1", true);
+		TransportMessage axis = new TransportMessage(new Team("Axis", 10f), SESSION);
+		TransportMessage round = new TransportMessage(new Round(SESSION,
+				new DateTime(2014, 6, 1, 20, 0), null, GAME, "wake"), SESSION);
+		ServerMetadata metadata = new ServerMetadata();
+		metadata.setServerName("server");
+		TransportMessage server = new TransportMessage(metadata, SESSION);
+
+		state.apply(event);
+		state.apply(score);
+		state.apply(alias);
+		state.apply(new TransportMessage(new Team("Axis", 5f), SESSION));
+		state.apply(axis);
+		state.apply(round);
+		state.apply(server);
+
+		List<TransportMessage> snapshot = state.getSnapshot();
+		assertEquals(6, snapshot.size());
+		assertSame(server, snapshot.get(0));
+		assertSame(round, snapshot.get(1));
+		assertSame(axis, snapshot.get(2));
+		assertSame(alias, snapshot.get(3));
+		assertSame(score, snapshot.get(4));
+		assertSame(event, snapshot.get(5));
+		assertEquals("wake", state.getRound().getMap());
+	}
+
+	/**
+	 * Tests that an alias leaving removes it and its score, and that a later
+	 * score replaces the earlier one.
+	 */
+	@Test
+	public void testAliasLeave() {
+		ScoreboardState state = new ScoreboardState();
+		state.apply(alias("1", true));
+		state.apply(alias("2", true));
+		state.apply(score("1", 5));
+		state.apply(score("2", 3));
+		TransportMessage latest = score("2", 4);
+		state.apply(latest);
+
+		state.apply(alias("1", false));
+
+		List<TransportMessage> snapshot = state.getSnapshot();
+		assertEquals(2, snapshot.size());
+		assertEquals("2", snapshot.get(0).getAlias().getId());
+		assertSame(latest, snapshot.get(1));
+	}
+
+	/**
+	 * Tests that scores without an alias are ignored.
+	 */
+	@Test
+	public void testScoreWithoutAlias() {
+		ScoreboardState state = new ScoreboardState();
+		state.apply(new TransportMessage(new Score(null, 5), SESSION));
+
+		assertEquals(0, state.getSnapshot().size());
+		assertNull(state.getRound());
+	}
+
+	/**
+	 * Tests that only the most recent events are kept.
+	 */
+	@Test
+	public void testEventCap() {
+		ScoreboardState state = new ScoreboardState();
+		int count = ScoreboardState.MAX_EVENTS + 50;
+		for (int i = 0; i < count; i++) {
+			state.apply(event("event " + i));
+		}
+
+		List<TransportMessage> snapshot = state.getSnapshot();
+		assertEquals(ScoreboardState.MAX_EVENTS, snapshot.size());
+		assertEquals("event 50", snapshot.get(0).getEvent().getEventText());
+		assertEquals("event " + (count - 1),
+				snapshot.get(snapshot.size() - 1).getEvent().getEventText());
+	}
+}